@@ -14,6 +14,8 @@ public enum ErrorType {
   NOT_FOUND(404),
   /** Any kind of auth or permission problem. */
   FORBIDDEN(403),
+  /** Service temporarily unavailable, such as when all instances fail. */
+  UNAVAILABLE(503),
   /** Error type for anything else. */
   ANY(500);
 
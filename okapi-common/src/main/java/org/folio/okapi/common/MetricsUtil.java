@@ -2,6 +2,8 @@ package org.folio.okapi.common;
 
 import io.micrometer.core.instrument.Clock;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.Timer;
@@ -13,6 +15,8 @@ import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
 import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
 import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.noop.NoopCounter;
+import io.micrometer.core.instrument.noop.NoopTimer;
 import io.micrometer.core.instrument.simple.SimpleConfig;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.micrometer.influx.InfluxMeterRegistry;
@@ -28,6 +32,9 @@ import io.vertx.micrometer.backends.PrometheusBackendRegistry;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
 import org.apache.logging.log4j.Logger;
 
 /**
@@ -60,19 +67,55 @@ public class MetricsUtil {
 
   static void setEnabled(boolean enabled) {
     MetricsUtil.enabled = enabled;
+    generation.incrementAndGet();
   }
 
-  private static CompositeMeterRegistry registry = new CompositeMeterRegistry();
+  private static final AtomicInteger generation = new AtomicInteger();
+
+  private static CompositeMeterRegistry registry = new Registry();
 
   static CompositeMeterRegistry getRegistry() {
     return registry;
   }
 
+  /**
+   * Composite registry that changes the generation when a backend is added or removed.
+   * Meters kept by callers do not reach a new backend, and with more than one backend
+   * other meters are returned.
+   */
+  private static final class Registry extends CompositeMeterRegistry {
+    @Override
+    public CompositeMeterRegistry add(MeterRegistry backend) {
+      super.add(backend);
+      generation.incrementAndGet();
+      return this;
+    }
+
+    @Override
+    public CompositeMeterRegistry remove(MeterRegistry backend) {
+      super.remove(backend);
+      generation.incrementAndGet();
+      return this;
+    }
+  }
+
   private static JvmGcMetrics jvmGcMetrics;
 
   private MetricsUtil() {
   }
 
+  /**
+   * Return number that changes whenever metrics is initialized or stopped, or the set
+   * of backends changes. Meters
+   * returned by {@link #getCounter} and {@link #getTimer} should not be kept once
+   * it changes.
+   *
+   * @return generation
+   */
+  public static int getGeneration() {
+    return generation.get();
+  }
+
   /**
    * Initialize metrics utility.
    *
@@ -162,6 +205,7 @@ public class MetricsUtil {
         .setEnabled(true)
         .setMicrometerRegistry(registry));
     enabled = true;
+    generation.incrementAndGet();
     logger.info("Metrics enabled for " + HOST_ID);
   }
 
@@ -174,6 +218,7 @@ public class MetricsUtil {
     }
     logger.debug("Stopping metrics for " + HOST_ID);
     enabled = false;
+    generation.incrementAndGet();
     if (jvmGcMetrics != null) {
       jvmGcMetrics.close();
       jvmGcMetrics = null;
@@ -208,12 +253,36 @@ public class MetricsUtil {
     if (!enabled) {
       return null;
     }
-    logger.trace("Record counter for {} with tags {}", meterName, tags.toString());
+    logger.trace("Record counter for {} with tags {}", meterName, tags);
     Counter counter = Counter.builder(meterName).tags(tags).register(registry);
     counter.increment();
     return counter;
   }
 
+  /**
+   * Find or register a {@link Counter} meter without recording. The result may be
+   * kept and incremented directly until {@link #getGeneration()} changes. With a
+   * single backend, the meter of that backend is returned, which is cheaper to
+   * update than the composite meter.
+   *
+   * @param meterName - name of the {@link Counter} meter
+   * @param tags      - tags associated with the meter
+   *
+   * @return {@link Counter} or null if metrics is not enabled
+   */
+  public static Counter getCounter(String meterName, Iterable<Tag> tags) {
+    if (!enabled) {
+      return null;
+    }
+    logger.trace("Get counter for {} with tags {}", meterName, tags);
+    Counter counter = Counter.builder(meterName).tags(tags).register(registry);
+    MeterRegistry backend = getSingleBackend();
+    if (backend == null || counter instanceof NoopCounter) {
+      return counter;
+    }
+    return Counter.builder(meterName).tags(tags).register(backend);
+  }
+
   /**
    * Record a {@link Timer} meter.
    * 
@@ -227,10 +296,78 @@ public class MetricsUtil {
     if (!enabled) {
       return null;
     }
-    logger.trace("Record Timer for {} with tags {}", meterName, tags.toString());
+    logger.trace("Record Timer for {} with tags {}", meterName, tags);
     Timer timer = Timer.builder(meterName).tags(tags).register(registry);
     sample.stop(timer);
     return timer;
   }
 
+  /**
+   * Find or register a {@link Timer} meter without recording. The result may be
+   * kept and used with {@link Sample#stop(Timer)} directly until
+   * {@link #getGeneration()} changes. With a single backend, the meter of that
+   * backend is returned.
+   *
+   * @param meterName - name of the {@link Timer} meter
+   * @param tags      - tags associated with the meter
+   *
+   * @return {@link Timer} or null if metrics is not enabled
+   */
+  public static Timer getTimer(String meterName, Iterable<Tag> tags) {
+    if (!enabled) {
+      return null;
+    }
+    logger.trace("Get Timer for {} with tags {}", meterName, tags);
+    Timer timer = Timer.builder(meterName).tags(tags).register(registry);
+    MeterRegistry backend = getSingleBackend();
+    if (backend == null || timer instanceof NoopTimer) {
+      return timer;
+    }
+    return Timer.builder(meterName).tags(tags).register(backend);
+  }
+
+  // meters are registered with the composite first, so that its filters apply
+  private static MeterRegistry getSingleBackend() {
+    Set<MeterRegistry> registries = registry.getRegistries();
+    return registries.size() == 1 ? registries.iterator().next() : null;
+  }
+
+  /**
+   * Register a {@link Gauge} meter.
+   *
+   * @param meterName - name of the {@link Gauge} meter
+   * @param tags      - tags associated with the meter
+   * @param obj       - object the gauge is computed from; held with a strong reference
+   * @param f         - function that computes the gauge value
+   *
+   * @return {@link Gauge} or null if metrics is not enabled
+   */
+  public static <T> Gauge registerGauge(String meterName, Iterable<Tag> tags, T obj,
+      ToDoubleFunction<T> f) {
+    if (!enabled) {
+      return null;
+    }
+    logger.trace("Register Gauge for {} with tags {}", meterName, tags);
+    return Gauge.builder(meterName, obj, f).tags(tags).strongReference(true).register(registry);
+  }
+
+  /**
+   * Register a {@link FunctionCounter} meter.
+   *
+   * @param meterName - name of the {@link FunctionCounter} meter
+   * @param tags      - tags associated with the meter
+   * @param obj       - object the count is computed from; held with a weak reference
+   * @param f         - function that computes the count; must not decrease
+   *
+   * @return {@link FunctionCounter} or null if metrics is not enabled
+   */
+  public static <T> FunctionCounter registerFunctionCounter(String meterName,
+      Iterable<Tag> tags, T obj, ToDoubleFunction<T> f) {
+    if (!enabled) {
+      return null;
+    }
+    logger.trace("Register FunctionCounter for {} with tags {}", meterName, tags);
+    return FunctionCounter.builder(meterName, obj, f).tags(tags).register(registry);
+  }
+
 }
@@ -105,6 +105,14 @@ public class XOkapiHeaders {
    */
   public static final String STOP = "X-Okapi-Stop";
 
+  /**
+   * X-Okapi-Request-Timeout. Time in milliseconds left for the request to be
+   * done. Okapi passes it to modules, with the time left for the call to the
+   * module, so they can give up early. A module that calls Okapi should pass
+   * it on, and Okapi then limits the calls it makes to that time.
+   */
+  public static final String REQUEST_TIMEOUT = "X-Okapi-Request-Timeout";
+
   /*
    The rest are only used internally, in Okapi, or between Okapi and the
    auth complex or the post filter.
@@ -16,6 +16,7 @@ public class ErrorTest {
     Assert.assertEquals(400, ErrorType.httpCode(ErrorType.USER));
     Assert.assertEquals(404, ErrorType.httpCode(ErrorType.NOT_FOUND));
     Assert.assertEquals(403, ErrorType.httpCode(ErrorType.FORBIDDEN));
+    Assert.assertEquals(503, ErrorType.httpCode(ErrorType.UNAVAILABLE));
     Assert.assertEquals(500, ErrorType.httpCode(ErrorType.INTERNAL));
 
     String nullStr = null;
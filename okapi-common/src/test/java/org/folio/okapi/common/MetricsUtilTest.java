@@ -2,15 +2,19 @@ package org.folio.okapi.common;
 
 import static org.junit.Assert.*;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.Timer.Sample;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.vertx.core.VertxOptions;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.After;
 import org.junit.Test;
@@ -43,6 +47,11 @@ public class MetricsUtilTest {
     assertNull(MetricsUtil.getTimerSample());
     assertNull(MetricsUtil.recordCounter("a", Collections.emptyList()));
     assertNull(MetricsUtil.recordTimer(null, "a", Collections.emptyList()));
+    assertNull(MetricsUtil.getCounter("a", Collections.emptyList()));
+    assertNull(MetricsUtil.getTimer("a", Collections.emptyList()));
+    assertNull(MetricsUtil.registerGauge("a", Collections.emptyList(), "a", String::length));
+    assertNull(MetricsUtil.registerFunctionCounter("a", Collections.emptyList(), "a",
+        String::length));
   }
 
   @Test
@@ -104,4 +113,75 @@ public class MetricsUtilTest {
     assertEquals(1, counter.count(), 0.1);
   }
 
+  @Test
+  public void testGetTimerAndCounter() {
+    MetricsUtil.setEnabled(true);
+    MetricsUtil.getRegistry().add(new SimpleMeterRegistry());
+    List<Tag> tags = Arrays.asList(Tag.of("k", "v"));
+    Timer timer = MetricsUtil.getTimer(MetricsUtil.METRICS_PREFIX + ".d", tags);
+    assertEquals(0, timer.count());
+    MetricsUtil.getTimerSample().stop(timer);
+    // same meter as recordTimer, though possibly not the composite one
+    assertEquals(2, MetricsUtil.recordTimer(MetricsUtil.getTimerSample(),
+        MetricsUtil.METRICS_PREFIX + ".d", tags).count());
+    assertEquals(2, timer.count());
+    Counter counter = MetricsUtil.getCounter(MetricsUtil.METRICS_PREFIX + ".e", tags);
+    assertEquals(0, counter.count(), 0.1);
+    MetricsUtil.recordCounter(MetricsUtil.METRICS_PREFIX + ".e", tags);
+    assertEquals(1, counter.count(), 0.1);
+    // with more than one backend, the composite meter is returned; the new
+    // backend has not seen earlier counts, so only the increment is checked
+    int generation = MetricsUtil.getGeneration();
+    MetricsUtil.getRegistry().add(new SimpleMeterRegistry());
+    assertNotEquals(generation, MetricsUtil.getGeneration());
+    counter = MetricsUtil.getCounter(MetricsUtil.METRICS_PREFIX + ".e", tags);
+    assertSame(MetricsUtil.getRegistry().get(MetricsUtil.METRICS_PREFIX + ".e").tags(tags)
+        .counter(), counter);
+    double count = counter.count();
+    MetricsUtil.recordCounter(MetricsUtil.METRICS_PREFIX + ".e", tags);
+    assertEquals(count + 1, counter.count(), 0.1);
+  }
+
+  @Test
+  public void testRegisterFunctionCounter() {
+    MetricsUtil.setEnabled(true);
+    MetricsUtil.getRegistry().add(new SimpleMeterRegistry());
+    AtomicLong count = new AtomicLong(2);
+    List<Tag> tags = Arrays.asList(Tag.of("k", "v"));
+    FunctionCounter counter = MetricsUtil.registerFunctionCounter(
+        MetricsUtil.METRICS_PREFIX + ".f", tags, count, AtomicLong::get);
+    assertEquals(2, counter.count(), 0.1);
+    count.incrementAndGet();
+    assertEquals(3, counter.count(), 0.1);
+    // registered once; object of first registration is used
+    assertEquals(3, MetricsUtil.registerFunctionCounter(MetricsUtil.METRICS_PREFIX + ".f", tags,
+        new AtomicLong(), AtomicLong::get).count(), 0.1);
+  }
+
+  @Test
+  public void testGeneration() {
+    int generation = MetricsUtil.getGeneration();
+    MetricsUtil.setEnabled(true);
+    assertNotEquals(generation, MetricsUtil.getGeneration());
+    generation = MetricsUtil.getGeneration();
+    MetricsUtil.getRegistry().add(new SimpleMeterRegistry());
+    assertNotEquals(generation, MetricsUtil.getGeneration());
+    generation = MetricsUtil.getGeneration();
+    MetricsUtil.stop();
+    assertNotEquals(generation, MetricsUtil.getGeneration());
+  }
+
+  @Test
+  public void testRegisterGauge() {
+    MetricsUtil.setEnabled(true);
+    MetricsUtil.getRegistry().add(new SimpleMeterRegistry());
+    List<String> list = new ArrayList<>();
+    Gauge gauge = MetricsUtil.registerGauge(MetricsUtil.METRICS_PREFIX + ".c",
+        Arrays.asList(Tag.of("k", "v")), list, List::size);
+    assertNotNull(gauge);
+    assertEquals(0, gauge.value(), 0.1);
+    list.add("x");
+    assertEquals(1, gauge.value(), 0.1);
+  }
+
 }
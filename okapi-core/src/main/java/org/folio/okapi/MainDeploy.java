@@ -2,8 +2,12 @@ package org.folio.okapi;
 
 import com.hazelcast.config.ClasspathXmlConfig;
 import com.hazelcast.config.Config;
+import com.hazelcast.config.EvictionConfig;
+import com.hazelcast.config.EvictionPolicy;
 import com.hazelcast.config.FileSystemXmlConfig;
 import com.hazelcast.config.InterfacesConfig;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MaxSizePolicy;
 import com.hazelcast.config.NetworkConfig;
 import com.hazelcast.config.UrlXmlConfig;
 import io.vertx.core.AsyncResult;
@@ -26,6 +30,7 @@ import org.apache.logging.log4j.Logger;
 import org.folio.okapi.common.Messages;
 import org.folio.okapi.common.MetricsUtil;
 import org.folio.okapi.common.OkapiLogger;
+import org.folio.okapi.util.TokenCache;
 
 @java.lang.SuppressWarnings({"squid:S3776"})
 public class MainDeploy {
@@ -184,6 +189,26 @@ public class MainDeploy {
     }
   }
 
+  /**
+   * Bound the map of the shared token cache, unless the Hazelcast config has a config
+   * for it. Each node keeps at most token_cache_max_size entries of it, and evicts the
+   * least recently used when full.
+   * @param hazelcastConfig Hazelcast config
+   * @param conf Okapi config
+   */
+  static void configureTokenCacheMap(Config hazelcastConfig, JsonObject conf) {
+    if (hazelcastConfig.getMapConfigOrNull(TokenCache.SHARED_MAP) != null) {
+      return;
+    }
+    int maxSize = Integer.parseInt(org.folio.okapi.common.Config.getSysConf(
+        "token_cache_max_size", Integer.toString(TokenCache.DEFAULT_MAX_SIZE), conf));
+    hazelcastConfig.addMapConfig(new MapConfig(TokenCache.SHARED_MAP)
+        .setEvictionConfig(new EvictionConfig()
+            .setEvictionPolicy(EvictionPolicy.LRU)
+            .setMaxSizePolicy(MaxSizePolicy.PER_NODE)
+            .setSize(maxSize)));
+  }
+
   private void deployClustered(Handler<AsyncResult<Vertx>> fut) {
     if (hazelcastConfig == null) {
       hazelcastConfig = ConfigUtil.loadConfig();
@@ -194,6 +219,7 @@ public class MainDeploy {
       }
     }
     hazelcastConfig.setProperty("hazelcast.logging.type", "log4j");
+    configureTokenCacheMap(hazelcastConfig, conf);
 
     HazelcastClusterManager mgr = new HazelcastClusterManager(hazelcastConfig);
     vopt.setClusterManager(mgr);
@@ -2,14 +2,13 @@ package org.folio.okapi;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
-import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.spi.cluster.ClusterManager;
-import io.vertx.ext.web.Router;
 import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 import java.util.Set;
@@ -41,7 +40,6 @@ import org.folio.okapi.service.TenantStore;
 import org.folio.okapi.service.impl.Storage;
 import org.folio.okapi.service.impl.Storage.InitMode;
 import org.folio.okapi.service.impl.TenantStoreNull;
-import org.folio.okapi.util.CorsHelper;
 import org.folio.okapi.util.EventBusChecker;
 import org.folio.okapi.util.LogHelper;
 import org.folio.okapi.util.OkapiError;
@@ -62,6 +60,7 @@ public class MainVerticle extends AbstractVerticle {
   private Storage storage;
   private Storage.InitMode initMode = InitMode.NORMAL;
   private int port;
+  private int proxyInstances;
   private String okapiVersion = null;
   private final Messages messages = Messages.getInstance();
   boolean enableProxy = false;
@@ -84,6 +83,8 @@ public class MainVerticle extends AbstractVerticle {
 
     JsonObject config = context.config();
     port = Integer.parseInt(Config.getSysConf("port", "9130", config));
+    proxyInstances = Integer.parseInt(Config.getSysConf("proxy_instances",
+        Integer.toString(Runtime.getRuntime().availableProcessors()), config));
     String okapiVersion2 = Config.getSysConf("okapiVersion", null, config);
     if (okapiVersion2 != null) {
       okapiVersion = okapiVersion2;
@@ -173,6 +174,7 @@ public class MainVerticle extends AbstractVerticle {
           moduleManager, tenantManager, discoveryManager,
           internalModule, okapiUrl, config);
       tenantManager.setProxyService(proxyService);
+      internalModule.setShadower(proxyService.getShadower());
     } else { // not really proxying, except to /_/deployment
       moduleManager = new ModuleManager(null);
       moduleManager.forceLocalMap(); // make sure it is not shared
@@ -351,41 +353,15 @@ public class MainVerticle extends AbstractVerticle {
   }
 
   private Future<Void> startListening() {
-    Router router = Router.router(vertx);
-    logger.debug("Setting up routes");
-
-    //handle CORS
-    CorsHelper.addCorsHandler(router);
-
-    if (proxyService != null) {
-      router.routeWithRegex("^/_/invoke/tenant/[^/ ]+/.*")
-          .handler(proxyService::redirectProxy);
-      // Note: This can not go into the InternalModule, it reads the req body,
-      // and then we can not ctx.reroute(). Unless we do something trickier,
-      // like a new HTTP request.
-    }
-
-    // everything else gets proxified to modules
-    // Even internal functions, they are in the InternalModule
-    if (proxyService != null) {
-      router.route("/*").handler(proxyService::proxy);
+    Future<Void> future = ProxyVerticle.listen(vertx, proxyService, port);
+    if (proxyInstances > 1) {
+      logger.debug("Deploying {} additional proxy instances", proxyInstances - 1);
+      future = future.compose(x -> vertx.deployVerticle(
+          () -> new ProxyVerticle(proxyService, port),
+          new DeploymentOptions().setInstances(proxyInstances - 1)).mapEmpty());
     }
-
-    logger.debug("About to start HTTP server");
-    HttpServerOptions so = new HttpServerOptions()
-        .setHandle100ContinueAutomatically(true);
-    return vertx.createHttpServer(so)
-        .requestHandler(router)
-        .listen(port)
-        .onComplete(result -> {
-          if (result.succeeded()) {
-            logger.info("API Gateway started PID {}. Listening on port {}",
-                ManagementFactory.getRuntimeMXBean().getName(), port);
-          } else {
-            logger.fatal("createHttpServer failed for port {}", port, result.cause());
-          }
-        })
-        .mapEmpty();
+    return future.onSuccess(res -> logger.info("API Gateway started PID {}. Listening on port {}",
+        ManagementFactory.getRuntimeMXBean().getName(), port));
   }
 
   private Future<Void> startRedeploy() {
@@ -0,0 +1,95 @@
+package org.folio.okapi;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.ext.web.Router;
+import org.apache.logging.log4j.Logger;
+import org.folio.okapi.common.OkapiLogger;
+import org.folio.okapi.managers.ProxyService;
+import org.folio.okapi.util.CorsHelper;
+
+/**
+ * HTTP server for the proxy. {@link MainVerticle} listens itself and deploys
+ * additional instances of this verticle; they share the listening port and
+ * the proxy service, but each serves requests on its own event loop.
+ *
+ * <p>So the proxy service, the managers it uses and the internal module are
+ * used by several event loops at a time. Their mutable state is kept safe as
+ * follows:
+ * <ul>
+ * <li>ProxyService: all fields are final; the token cache, response cache,
+ * coalescer, load balancer, limiters, hedger, shadower and connection pools are
+ * concurrent or lock their own state.</li>
+ * <li>TenantManager: tenants and install jobs are in shared maps; the tenant
+ * cache, module caches and permission expansion cache are concurrent maps;
+ * timers are a concurrent set, added to with a single atomic add.</li>
+ * <li>ModuleManager and EnvManager: modules and environment are in shared maps;
+ * the enabled modules cache is a concurrent map.</li>
+ * <li>DiscoveryManager: deployments and nodes are in shared maps; the snapshot
+ * of live instances is replaced as a whole and refreshes are serialized.</li>
+ * <li>DeploymentManager: deployed instances are in a synchronized map and
+ * ports are allocated under a lock.</li>
+ * <li>ModuleCache: routing tries are immutable once built; pipelines are in a
+ * concurrent map.</li>
+ * </ul>
+ * Other fields of these classes are only set during startup, before the proxy
+ * listens.
+ */
+public class ProxyVerticle extends AbstractVerticle {
+
+  private static final Logger logger = OkapiLogger.get();
+  private final ProxyService proxyService;
+  private final int port;
+
+  /**
+   * Create proxy verticle.
+   * @param proxyService proxy service shared by all instances
+   * @param port HTTP listening port
+   */
+  public ProxyVerticle(ProxyService proxyService, int port) {
+    this.proxyService = proxyService;
+    this.port = port;
+  }
+
+  @Override
+  public void start(Promise<Void> promise) {
+    listen(vertx, proxyService, port).onComplete(promise);
+  }
+
+  /**
+   * Create HTTP server for proxy in current context.
+   * @param vertx Vert.x handle
+   * @param proxyService proxy service
+   * @param port HTTP listening port
+   * @return async result
+   */
+  static Future<Void> listen(Vertx vertx, ProxyService proxyService, int port) {
+    Router router = Router.router(vertx);
+    logger.debug("Setting up routes");
+
+    //handle CORS
+    CorsHelper.addCorsHandler(router);
+
+    router.routeWithRegex("^/_/invoke/tenant/[^/ ]+/.*")
+        .handler(proxyService::redirectProxy);
+    // Note: This can not go into the InternalModule, it reads the req body,
+    // and then we can not ctx.reroute(). Unless we do something trickier,
+    // like a new HTTP request.
+
+    // everything else gets proxified to modules
+    // Even internal functions, they are in the InternalModule
+    router.route("/*").handler(proxyService::proxy);
+
+    logger.debug("About to start HTTP server");
+    HttpServerOptions so = new HttpServerOptions()
+        .setHandle100ContinueAutomatically(true);
+    return vertx.createHttpServer(so)
+        .requestHandler(router)
+        .listen(port)
+        .onFailure(cause -> logger.fatal("createHttpServer failed for port {}", port, cause))
+        .mapEmpty();
+  }
+}
@@ -1,14 +1,19 @@
 package org.folio.okapi.bean;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 /**
  * Health status for one deployed instance of a module.
  */
+@JsonInclude(Include.NON_NULL)
 public class HealthDescriptor {
 
   private String instId;
   private String srvcId;
   private String healthMessage;
   private boolean healthStatus;
+  private String circuitState;
 
   public String getInstId() {
     return instId;
@@ -41,4 +46,12 @@ public class HealthDescriptor {
   public void setHealthStatus(boolean healthStatus) {
     this.healthStatus = healthStatus;
   }
+
+  public String getCircuitState() {
+    return circuitState;
+  }
+
+  public void setCircuitState(String circuitState) {
+    this.circuitState = circuitState;
+  }
 }
@@ -10,6 +10,7 @@ public class ModuleInstance {
 
   private final ModuleDescriptor md;
   private String url; // Absolute URL to the module instance
+  private String instId; // Deployed instance serving the request; null if none
   private final RoutingEntry re;
   private String authToken;
   private String userId;
@@ -56,6 +57,14 @@ public class ModuleInstance {
     this.url = url;
   }
 
+  public String getInstId() {
+    return instId;
+  }
+
+  public void setInstId(String instId) {
+    this.instId = instId;
+  }
+
   public RoutingEntry getRoutingEntry() {
     return re;
   }
@@ -7,7 +7,8 @@ import org.folio.okapi.common.OkapiLogger;
 /**
  * Manages a list of available ports.
  * When a module is deployed, a new port may be allocated for it from this list.
- *
+ * Ports are allocated and freed under the lock of this object, as deployments
+ * may be made from more than one event loop.
  */
 public class Ports {
 
@@ -33,7 +34,7 @@ public class Ports {
    * Allocate a port.
    * @return the newly allocated port number, of -1 if none available
    */
-  public int get() {
+  public synchronized int get() {
     for (int i = 0; i < portsEnabled.length; i++) {
       if (Boolean.FALSE.equals(portsEnabled[i])) {
         portsEnabled[i] = true;
@@ -49,7 +50,7 @@ public class Ports {
    * Release a previously allocated port.
    * @param p The port to release.
    */
-  public void free(int p) {
+  public synchronized void free(int p) {
     if (p > 0) {
       logger.debug("free port {}", p);
       if (p >= portStart && p < portEnd) {
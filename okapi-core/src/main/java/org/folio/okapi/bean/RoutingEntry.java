@@ -36,6 +36,13 @@ public class RoutingEntry {
   private String[] permissionsRequiredTenant;
   @JsonInclude(JsonInclude.Include.NON_DEFAULT)
   private boolean delegateCors;
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private long timeout; // milliseconds; 0 for default
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  private long cacheMaxAge; // seconds; 0 for not cached unless response says so
+  private String coalesce; // scope of coalesced requests; null for not coalesced
+  public static final List<String> COALESCE_SCOPES = Arrays.asList(
+      "tenant", "permissions", "user");
   private static final String INVALID_PATH_CHARS = "\\%+{}()[].;:=?@#^$\"' ";
   @JsonIgnore
   private String phaseLevel = "50"; // default for regular handler
@@ -308,7 +315,12 @@ public class RoutingEntry {
     this.permissionsRequiredTenant = permissionsRequiredTenant;
   }
 
-  static int cutUri(String uri) {
+  /**
+   * Return length of path portion of URI (excluding query and fragment).
+   * @param uri request URI
+   * @return length of path
+   */
+  public static int cutUri(String uri) {
     int len = uri.indexOf('?');
     if (len == -1) {
       len = uri.length();
@@ -324,7 +336,17 @@ public class RoutingEntry {
     return fastMatch(pathPattern, 0, uri, 0, cutUri(uri));
   }
 
-  static boolean fastMatch(String pathPattern, int patternI, String uri, int uriI, int uriLength) {
+  /**
+   * Match part of path pattern against part of uri.
+   * @param pathPattern pattern with {id} and * placeholders
+   * @param patternI offset in pattern to start matching from
+   * @param uri request URI
+   * @param uriI offset in uri to start matching from
+   * @param uriLength length of path portion of uri; see {@link #cutUri(String)}
+   * @return true on match; false otherwise
+   */
+  public static boolean fastMatch(String pathPattern, int patternI, String uri, int uriI,
+                                  int uriLength) {
     while (patternI < pathPattern.length()) {
       char patternC = pathPattern.charAt(patternI);
       patternI++;
@@ -457,6 +479,45 @@ public class RoutingEntry {
     this.delegateCors = delegateCors;
   }
 
+  /**
+   * Get timeout of requests to module.
+   * @return milliseconds; 0 for Okapi default
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Get time responses of handler may be cached by Okapi, if the response has
+   * no Cache-Control max-age.
+   * @return seconds; 0 for not cached
+   */
+  public long getCacheMaxAge() {
+    return cacheMaxAge;
+  }
+
+  public void setCacheMaxAge(long cacheMaxAge) {
+    this.cacheMaxAge = cacheMaxAge;
+  }
+
+  /**
+   * Get what identical concurrent GET requests to handler must share to be
+   * collapsed into one request to the module: "tenant", "permissions"
+   * (X-Okapi-Permissions too) or "user" (X-Okapi-User-Id too).
+   * @return scope; null if requests are not collapsed
+   */
+  public String getCoalesce() {
+    return coalesce;
+  }
+
+  public void setCoalesce(String coalesce) {
+    this.coalesce = coalesce;
+  }
+
   /**
    * Validate handler of routing entry.
    * May log warnings via ProxyContext.warn.
@@ -504,6 +565,15 @@ public class RoutingEntry {
         && (pathPattern == null || pathPattern.isEmpty())) {
       return "Bad routing entry, needs a pathPattern or at least a path";
     }
+    if (timeout < 0) {
+      return "Bad routing entry, timeout must not be negative";
+    }
+    if (cacheMaxAge < 0) {
+      return "Bad routing entry, cacheMaxAge must not be negative";
+    }
+    if (coalesce != null && !COALESCE_SCOPES.contains(coalesce)) {
+      return "Bad routing entry, coalesce must be one of " + String.join(", ", COALESCE_SCOPES);
+    }
 
     if ("redirect".equals(type)) {
       if (redirectPath == null || redirectPath.isEmpty()) {
@@ -6,7 +6,8 @@ import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -35,7 +36,9 @@ import org.folio.okapi.util.OkapiError;
 public class DeploymentManager {
 
   private final Logger logger = OkapiLogger.get();
-  private final LinkedHashMap<String, DeploymentDescriptor> list = new LinkedHashMap<>();
+  // deployed instances; used by the proxy instances of all event loops
+  private final Map<String, DeploymentDescriptor> list
+      = Collections.synchronizedMap(new LinkedHashMap<>());
   private final Vertx vertx;
   private final Ports ports;
   private final String host;
@@ -108,8 +111,7 @@ public class DeploymentManager {
   public Future<Void> shutdown() {
     logger.info("shutdown");
     List<Future> futures = new LinkedList<>();
-    Collection<DeploymentDescriptor> col = list.values();
-    for (DeploymentDescriptor dd : col) {
+    for (DeploymentDescriptor dd : snapshot()) {
       ModuleHandle mh = dd.getModuleHandle();
       logger.info("shutting down {}", dd.getSrvcId());
       futures.add(mh.stop());
@@ -190,11 +192,11 @@ public class DeploymentManager {
 
   Future<Void> undeploy(String id) {
     logger.info("undeploy instId {}", id);
-    if (!list.containsKey(id)) {
+    DeploymentDescriptor md = list.get(id);
+    if (md == null) {
       return Future.failedFuture(new OkapiError(ErrorType.NOT_FOUND,
           messages.getMessage("10705", id)));
     }
-    DeploymentDescriptor md = list.get(id);
     return dm.remove(md.getSrvcId(), md.getInstId()).compose(res -> {
       ModuleHandle mh = md.getModuleHandle();
       return mh.stop().compose(x -> {
@@ -205,18 +207,21 @@ public class DeploymentManager {
   }
 
   Future<List<DeploymentDescriptor>> list() {
-    List<DeploymentDescriptor> ml = new LinkedList<>();
-    for (Map.Entry<String, DeploymentDescriptor> entry : list.entrySet()) {
-      ml.add(entry.getValue());
+    return Future.succeededFuture(new LinkedList<>(snapshot()));
+  }
+
+  private List<DeploymentDescriptor> snapshot() {
+    synchronized (list) {
+      return new ArrayList<>(list.values());
     }
-    return Future.succeededFuture(ml);
   }
 
   Future<DeploymentDescriptor> get(String id) {
-    if (!list.containsKey(id)) {
+    DeploymentDescriptor md = list.get(id);
+    if (md == null) {
       return Future.failedFuture(new OkapiError(ErrorType.NOT_FOUND,
           messages.getMessage("10705", id)));
     }
-    return Future.succeededFuture(list.get(id));
+    return Future.succeededFuture(md);
   }
 }
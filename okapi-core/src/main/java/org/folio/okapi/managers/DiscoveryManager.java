@@ -2,9 +2,11 @@ package org.folio.okapi.managers;
 
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.http.HttpMethod;
@@ -12,11 +14,16 @@ import io.vertx.core.http.RequestOptions;
 import io.vertx.core.json.Json;
 import io.vertx.core.spi.cluster.ClusterManager;
 import io.vertx.core.spi.cluster.NodeListener;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.DeploymentDescriptor;
 import org.folio.okapi.bean.HealthDescriptor;
@@ -28,6 +35,7 @@ import org.folio.okapi.common.Messages;
 import org.folio.okapi.common.OkapiLogger;
 import org.folio.okapi.common.XOkapiHeaders;
 import org.folio.okapi.service.DeploymentStore;
+import org.folio.okapi.util.LoadBalancer;
 import org.folio.okapi.util.LockedTypedMap1;
 import org.folio.okapi.util.LockedTypedMap2;
 import org.folio.okapi.util.OkapiError;
@@ -46,9 +54,20 @@ public class DiscoveryManager implements NodeListener {
   private final LockedTypedMap2<DeploymentDescriptor> deployments
       = new LockedTypedMap2<>(DeploymentDescriptor.class);
   private final LockedTypedMap1<NodeDescriptor> nodes = new LockedTypedMap1<>(NodeDescriptor.class);
+  private static final String EVENT_NAME = "discoveryUpdate";
+  private static final String EVENT_ALL = ""; // event body for all services
+  // node-local snapshot of live instances per srvcId; replaced as a whole, never mutated
+  private volatile Map<String, List<DeploymentDescriptor>> liveDeployments
+      = Collections.emptyMap();
+  private Future<Void> refreshFuture = Future.succeededFuture();
+  private volatile boolean snapshotReady = false;
+  private volatile boolean snapshotLoaded = false; // instances of first snapshot are not new
+  private Handler<DeploymentDescriptor> newInstanceHandler;
+  private volatile NodeDescriptor localNode; // null when not deploying (proxy only)
   private Vertx vertx;
   private ClusterManager clusterManager;
   private ModuleManager moduleManager;
+  private LoadBalancer loadBalancer;
   private HttpClient httpClient;
   private final DeploymentStore deploymentStore;
   private final Messages messages = Messages.getInstance();
@@ -63,8 +82,107 @@ public class DiscoveryManager implements NodeListener {
     this.vertx = vertx;
     this.httpClient = vertx.createHttpClient();
     deliveryOptions = new DeliveryOptions().setSendTimeout(300000); // 5 minutes
-    return deployments.init(vertx, "discoveryList").compose(x ->
-        nodes.init(vertx, "discoveryNodes"));
+    return deployments.init(vertx, "discoveryList")
+        .compose(x -> nodes.init(vertx, "discoveryNodes"))
+        .compose(x -> {
+          consumeDiscoveryUpdated();
+          snapshotReady = true;
+          return refreshDeployments(EVENT_ALL);
+        });
+  }
+
+  private void consumeDiscoveryUpdated() {
+    EventBus eb = vertx.eventBus();
+    eb.consumer(EVENT_NAME, res -> refreshDeployments((String) res.body()));
+  }
+
+  /**
+   * Refresh local snapshot and tell the other nodes to do the same.
+   * @param srvcId service that changed; EVENT_ALL for all services
+   * @return async result, which completes when local snapshot is updated
+   */
+  private Future<Void> publishDeployments(String srvcId) {
+    return refreshDeployments(srvcId).onComplete(x ->
+        vertx.eventBus().publish(EVENT_NAME, srvcId));
+  }
+
+  /**
+   * Rebuild snapshot of live instances. Refreshes are serialized, so
+   * that a slow refresh can not overwrite the result of a later one.
+   * @param srvcId service to refresh; EVENT_ALL for all services
+   * @return async result
+   */
+  private synchronized Future<Void> refreshDeployments(String srvcId) {
+    if (!snapshotReady) {
+      return Future.succeededFuture(); // maps not initialized yet
+    }
+    refreshFuture = refreshFuture
+        .compose(x -> EVENT_ALL.equals(srvcId) ? refreshAll() : refreshOne(srvcId))
+        .recover(cause -> {
+          logger.warn("refresh of discovery snapshot failed: {}", cause.getMessage(), cause);
+          return Future.succeededFuture();
+        });
+    return refreshFuture;
+  }
+
+  private Future<Void> refreshOne(String srvcId) {
+    return get(srvcId).compose(res -> {
+      Map<String, List<DeploymentDescriptor>> m = new HashMap<>(liveDeployments);
+      notifyNewInstances(m.get(srvcId), res);
+      if (res.isEmpty()) {
+        m.remove(srvcId);
+      } else {
+        m.put(srvcId, Collections.unmodifiableList(new ArrayList<>(res)));
+      }
+      liveDeployments = Collections.unmodifiableMap(m);
+      return Future.succeededFuture();
+    });
+  }
+
+  private Future<Void> refreshAll() {
+    return get().compose(res -> {
+      Map<String, List<DeploymentDescriptor>> m = new HashMap<>();
+      for (DeploymentDescriptor dd : res) {
+        m.computeIfAbsent(dd.getSrvcId(), k -> new ArrayList<>()).add(dd);
+      }
+      m.replaceAll((k, v) -> Collections.unmodifiableList(v));
+      for (Map.Entry<String, List<DeploymentDescriptor>> e : m.entrySet()) {
+        notifyNewInstances(liveDeployments.get(e.getKey()), e.getValue());
+      }
+      liveDeployments = Collections.unmodifiableMap(m);
+      snapshotLoaded = true;
+      return Future.succeededFuture();
+    });
+  }
+
+  private void notifyNewInstances(List<DeploymentDescriptor> old,
+                                  List<DeploymentDescriptor> current) {
+    if (newInstanceHandler == null || !snapshotLoaded) {
+      return;
+    }
+    Set<String> known = new HashSet<>();
+    if (old != null) {
+      for (DeploymentDescriptor dd : old) {
+        known.add(dd.getInstId());
+      }
+    }
+    for (DeploymentDescriptor dd : current) {
+      if (dd.getInstId() != null && !known.contains(dd.getInstId())) {
+        newInstanceHandler.handle(dd);
+      }
+    }
+  }
+
+  /**
+   * Get live instances for a service from the node-local snapshot.
+   *
+   * <p>The snapshot is maintained from discovery change events and node
+   * join/leave, so no shared map access is required.
+   * @param srvcId service ID (module ID)
+   * @return immutable list of instances; null if service is unknown on this node
+   */
+  public List<DeploymentDescriptor> getLive(String srvcId) {
+    return liveDeployments.get(srvcId);
   }
 
   /**
@@ -76,7 +194,7 @@ public class DiscoveryManager implements NodeListener {
     if (clusterManager != null) {
       return Future.succeededFuture();
     }
-    return deployments.clear();
+    return deployments.clear().compose(x -> publishDeployments(EVENT_ALL));
   }
 
   /**
@@ -114,6 +232,25 @@ public class DiscoveryManager implements NodeListener {
     this.moduleManager = mgr;
   }
 
+  /**
+   * Set load balancer of the proxy on this node. Health reports its circuit
+   * breaker state of each instance.
+   * @param loadBalancer load balancer
+   */
+  public void setLoadBalancer(LoadBalancer loadBalancer) {
+    this.loadBalancer = loadBalancer;
+  }
+
+  /**
+   * Set handler called when an instance appears in the snapshot of live
+   * instances of this node, after the first snapshot. The proxy uses it to
+   * warm up new instances.
+   * @param handler handler
+   */
+  public void setNewInstanceHandler(Handler<DeploymentDescriptor> handler) {
+    this.newInstanceHandler = handler;
+  }
+
   Future<Void> add(DeploymentDescriptor md) {
     return deployments.getKeys().compose(res -> {
       Future<Void> future = Future.succeededFuture();
@@ -126,7 +263,8 @@ public class DiscoveryManager implements NodeListener {
           return Future.succeededFuture();
         }));
       }
-      return future.compose(res2 -> deployments.add(md.getSrvcId(), md.getInstId(), md)).mapEmpty();
+      return future.compose(res2 -> deployments.add(md.getSrvcId(), md.getInstId(), md))
+          .compose(res2 -> publishDeployments(md.getSrvcId()));
     });
   }
 
@@ -251,7 +389,22 @@ public class DiscoveryManager implements NodeListener {
   }
 
   Future<Boolean> remove(String srvcId, String instId) {
-    return deployments.remove(srvcId, instId);
+    return deployments.remove(srvcId, instId).compose(res ->
+        publishDeployments(srvcId).map(res));
+  }
+
+  /**
+   * Whether an instance runs on this node.
+   * @param md deployment descriptor of instance
+   * @return true if deployed on this node; false if elsewhere or not known
+   */
+  public boolean isLocal(DeploymentDescriptor md) {
+    NodeDescriptor nd = localNode;
+    String id = md.getNodeId();
+    if (nd == null || id == null) {
+      return false;
+    }
+    return id.equals(nd.getNodeId()) || id.equals(nd.getNodeName()) || id.equals(nd.getUrl());
   }
 
   private boolean isAlive(DeploymentDescriptor md, Collection<NodeDescriptor> nodes) {
@@ -421,9 +574,15 @@ public class DiscoveryManager implements NodeListener {
   Future<HealthDescriptor> health(DeploymentDescriptor md) {
 
     HealthDescriptor hd = new HealthDescriptor();
-    String url = md.getUrl();
+    final String url = md.getUrl();
     hd.setInstId(md.getInstId());
     hd.setSrvcId(md.getSrvcId());
+    if (loadBalancer != null && md.getInstId() != null) {
+      LoadBalancer.CircuitState state = loadBalancer.getCircuitState(md.getInstId());
+      if (state != null) {
+        hd.setCircuitState(state.toString());
+      }
+    }
     if (url == null || url.length() == 0) {
       hd.setHealthMessage("Unknown");
       hd.setHealthStatus(false);
@@ -466,7 +625,8 @@ public class DiscoveryManager implements NodeListener {
     if (clusterManager != null) {
       nd.setNodeId(clusterManager.getNodeId());
     }
-    return nodes.put(nd.getNodeId(), nd);
+    localNode = nd;
+    return nodes.put(nd.getNodeId(), nd).compose(x -> publishDeployments(EVENT_ALL));
   }
 
   /**
@@ -522,7 +682,9 @@ public class DiscoveryManager implements NodeListener {
         return Future.failedFuture(new OkapiError(ErrorType.USER,
             messages.getMessage("10808", nodeId)));
       }
-      return nodes.put(nodeId, nd).map(nd);
+      return nodes.put(nodeId, nd)
+          .compose(x -> publishDeployments(EVENT_ALL))
+          .map(nd);
     });
   }
 
@@ -547,12 +709,15 @@ public class DiscoveryManager implements NodeListener {
   @Override
   public void nodeAdded(String nodeID) {
     logger.info("node.add {}", nodeID);
+    refreshDeployments(EVENT_ALL);
   }
 
   @Override
   public void nodeLeft(String nodeID) {
-    nodes.remove(nodeID).onComplete(res ->
-        logger.info("node.remove {} result={}", nodeID, res.result()));
+    nodes.remove(nodeID).onComplete(res -> {
+      logger.info("node.remove {} result={}", nodeID, res.result());
+      refreshDeployments(EVENT_ALL);
+    });
   }
 
   /**
@@ -568,4 +733,16 @@ public class DiscoveryManager implements NodeListener {
     List<String> nodeIds = clusterManager.getNodes();
     return clusterManager.getNodeId().equals(Collections.max(nodeIds));
   }
+
+  /**
+   * Number of nodes of the cluster manager.
+   *
+   * <p>Return 1 if running without cluster manager.
+   */
+  int getNodeCount() {
+    if (clusterManager == null) {
+      return 1;
+    }
+    return Math.max(1, clusterManager.getNodes().size());
+  }
 }
@@ -33,11 +33,12 @@ import org.folio.okapi.util.GraphDot;
 import org.folio.okapi.util.ModuleUtil;
 import org.folio.okapi.util.OkapiError;
 import org.folio.okapi.util.ProxyContext;
+import org.folio.okapi.util.Shadower;
 import org.folio.okapi.util.TenantInstallOptions;
 
 /**
  * Okapi's built-in module. Managing /_/ endpoints.
- * /_/proxy/modules /_/proxy/tenants /_/proxy/health /_/proxy/pull
+ * /_/proxy/modules /_/proxy/tenants /_/proxy/health /_/proxy/pull /_/proxy/shadow
  * /_/deployment /_/discovery /_/env /_/version etc
  * Note that the endpoint /_/invoke/ can not be handled here, as the proxy must
  * read the request body before invoking this built-in module, and /_/invoke
@@ -55,7 +56,8 @@ public class InternalModule {
   private final EnvManager envManager;
   private final PullManager pullManager;
   private final String okapiVersion;
-  private static final String INTERFACE_VERSION = "1.9";
+  private Shadower shadower;
+  private static final String INTERFACE_VERSION = "1.10";
   private final Messages messages = Messages.getInstance();
 
   /**
@@ -81,6 +83,14 @@ public class InternalModule {
     logger.info("InternalModule starting okapiversion={}", okapiVersion);
   }
 
+  /**
+   * Set shadowing of the proxy, reported by /_/proxy/shadow.
+   * @param shadower shadower
+   */
+  public void setShadower(Shadower shadower) {
+    this.shadower = shadower;
+  }
+
   /**
    * Return module descriptor for okapi itself.
    * @param okapiVersion Okapi version; null and "0.0.0" will be assumed
@@ -325,6 +335,12 @@ public class InternalModule {
         + "    \"permissionsRequired\" : [ \"okapi.proxy.pull.modules.post\" ], "
         + "    \"type\" : \"internal\" "
         + "   },"
+        + "   {" // proxy, shadow
+        + "    \"methods\" :  [ \"GET\" ],"
+        + "    \"pathPattern\" : \"/_/proxy/shadow\","
+        + "    \"permissionsRequired\" : [ \"okapi.proxy.shadow.get\" ], "
+        + "    \"type\" : \"internal\" "
+        + "   },"
         // Env service
         + "   {"
         + "    \"methods\" :  [ \"POST\" ],"
@@ -424,6 +440,11 @@ public class InternalModule {
         + "   \"displayName\" : \"Okapi - get ModuleDescriptors\", "
         + "   \"description\" : \"Get MDs from another Okapi, maybe a repo\" "
         + " },"
+        + " {"
+        + "   \"permissionName\" : \"okapi.proxy.shadow.get\", "
+        + "   \"displayName\" : \"Okapi - get shadow statistics\", "
+        + "   \"description\" : \"Compare responses of shadowed modules and candidates\" "
+        + " },"
         + " { "
         + "   \"permissionName\" : \"okapi.proxy.tenants.list\", "
         + "   \"displayName\" : \"Okapi - list tenants\", "
@@ -533,7 +554,8 @@ public class InternalModule {
         + "   \"subPermissions\" : [ "
         + "     \"okapi.proxy.modules.list\", \"okapi.proxy.modules.get\", "
         + "     \"okapi.proxy.modules.post\", \"okapi.proxy.modules.put\", "
-        + "     \"okapi.proxy.modules.delete\", \"okapi.proxy.pull.modules.post\""
+        + "     \"okapi.proxy.modules.delete\", \"okapi.proxy.pull.modules.post\", "
+        + "     \"okapi.proxy.shadow.get\""
         + "   ]"
         + " }, "
         + " { "
@@ -592,6 +614,7 @@ public class InternalModule {
         + "     \"okapi.proxy.tenants.modules.list\", "
         + "     \"okapi.proxy.tenants.modules.enabled.get\", "
         + "     \"okapi.interfaces\", "
+        + "     \"okapi.proxy.shadow.get\", "
         + "     \"okapi.version.get\" "
         + "   ]"
         + " }, "
@@ -1056,6 +1079,10 @@ public class InternalModule {
     }
   }
 
+  private Future<String> getShadow() {
+    return Future.succeededFuture(shadower.toJson().encodePrettily());
+  }
+
   /**
    * Pretty simplistic health check.
    */
@@ -1197,6 +1224,11 @@ public class InternalModule {
       if (n == 4 && segments[3].equals("health") && m.equals(HttpMethod.GET)) {
         return getHealth();
       }
+      // /_/proxy/shadow
+      if (n == 4 && segments[3].equals("shadow") && m.equals(HttpMethod.GET)
+          && shadower != null) {
+        return getShadow();
+      }
 
     } // _/proxy
 
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.ModuleDescriptor;
 import org.folio.okapi.common.ErrorType;
@@ -35,7 +36,7 @@ public class ModuleManager {
   private static final String EVENT_NAME = "moduleUpdate";
   private final LockedTypedMap1<ModuleDescriptor> modules
       = new LockedTypedMap1<>(ModuleDescriptor.class);
-  private final Map<String,ModuleDescriptor> enabledModulesCache = new HashMap<>();
+  private final Map<String,ModuleDescriptor> enabledModulesCache = new ConcurrentHashMap<>();
   private final ModuleStore moduleStore;
   private Vertx vertx;
   private final Messages messages = Messages.getInstance();
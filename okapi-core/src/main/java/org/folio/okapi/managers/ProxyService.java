@@ -8,7 +8,6 @@ import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClient;
-import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.http.HttpMethod;
@@ -21,16 +20,14 @@ import io.vertx.core.streams.ReadStream;
 import io.vertx.core.streams.WriteStream;
 import io.vertx.ext.web.RoutingContext;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.DeploymentDescriptor;
 import org.folio.okapi.bean.ModuleDescriptor;
@@ -40,17 +37,34 @@ import org.folio.okapi.bean.RoutingEntry.ProxyType;
 import org.folio.okapi.bean.Tenant;
 import org.folio.okapi.common.Config;
 import org.folio.okapi.common.ErrorType;
+import org.folio.okapi.common.GenericCompositeFuture;
 import org.folio.okapi.common.Messages;
 import org.folio.okapi.common.OkapiClient;
 import org.folio.okapi.common.OkapiLogger;
 import org.folio.okapi.common.OkapiToken;
 import org.folio.okapi.common.XOkapiHeaders;
 import org.folio.okapi.common.logging.FolioLoggingContext;
+import org.folio.okapi.util.AuthPermissions;
+import org.folio.okapi.util.AuthRejectionCache;
+import org.folio.okapi.util.BodyBuffer;
+import org.folio.okapi.util.CardinalityPolicy;
+import org.folio.okapi.util.Coalescer;
+import org.folio.okapi.util.ConcurrencyLimiter;
 import org.folio.okapi.util.CorsHelper;
+import org.folio.okapi.util.Hedger;
+import org.folio.okapi.util.LoadBalancer;
 import org.folio.okapi.util.MetricsHelper;
+import org.folio.okapi.util.MirrorStream;
 import org.folio.okapi.util.ModuleCache;
 import org.folio.okapi.util.OkapiError;
+import org.folio.okapi.util.OutlierPolicy;
+import org.folio.okapi.util.PendingWriteStream;
+import org.folio.okapi.util.PipelineTemplate;
+import org.folio.okapi.util.ProxyClients;
 import org.folio.okapi.util.ProxyContext;
+import org.folio.okapi.util.ResponseCache;
+import org.folio.okapi.util.Shadower;
+import org.folio.okapi.util.TenantLimiter;
 import org.folio.okapi.util.TokenCache;
 import org.folio.okapi.util.TokenCache.CacheEntry;
 
@@ -61,8 +75,7 @@ import org.folio.okapi.util.TokenCache.CacheEntry;
  */
 // S1168: Empty arrays and collections should be returned instead of null
 // S1192: String literals should not be duplicated
-// S2245: Using pseudorandom number generators (PRNGs) is security-sensitive
-@java.lang.SuppressWarnings({"squid:S1168", "squid:S1192", "squid:S2245"})
+@java.lang.SuppressWarnings({"squid:S1168", "squid:S1192"})
 public class ProxyService {
 
   private static final Logger logger = OkapiLogger.get();
@@ -73,17 +86,69 @@ public class ProxyService {
   private final InternalModule internalModule;
   private final String okapiUrl;
   private final Vertx vertx;
-  private final HttpClient httpClient;
-  // for load balancing, so security is not an issue
-  private static final Random random = new Random();
+  private final ProxyClients clients;
+  private final LoadBalancer balancer;
+  private final ConcurrencyLimiter limiter; // null if requests are not limited
+  private final TenantLimiter tenantLimiter;
+  private final long timeoutMs;
+  private final Hedger hedger;
+  private final ResponseCache responseCache;
+  private final Shadower shadower;
+  private final Coalescer<ResponseCache.Key, ResponseCache.Entry> coalescer = new Coalescer<>();
   private final int waitMs;
+  private static final String RETRY_AFTER = "1"; // seconds
   private static final String REDIRECTQUERY = "redirect-query"; // See redirectProxy below
   private static final String TOKEN_CACHE_MAX_SIZE = "token_cache_max_size";
   private static final String TOKEN_CACHE_TTL_MS = "token_cache_ttl_ms";
+  private static final String TOKEN_CACHE_SHARED = "token_cache_shared";
+  private static final String TOKEN_CACHE_NEGATIVE_TTL_MS = "token_cache_negative_ttl_ms";
+  private static final String TOKEN_CACHE_NEGATIVE_MAX_SIZE = "token_cache_negative_max_size";
+  private static final String BODY_MEMORY_LIMIT = "proxy_body_memory_limit";
+  private static final String BODY_FILE_LIMIT = "proxy_body_file_limit";
+  private static final String METRICS_TAG_KEYS = "metrics_tag_keys";
+  private static final String METRICS_TOP_K = "metrics_top_k";
+  private static final String METRICS_TOP_K_TAGS = "metrics_top_k_tags";
+  private static final String METRICS_MAX_SERIES = "metrics_max_series";
+  private static final String PROXY_BALANCER = "proxy_balancer";
+  private static final String CONCURRENCY_LIMIT = "proxy_concurrency_limit";
+  private static final String TIMEOUT_MS = "proxy_timeout_ms";
+  private static final String HEDGE_MODULES = "proxy_hedge_modules";
+  private static final String HEDGE_PERCENTILE = "proxy_hedge_percentile";
+  private static final String HEDGE_BUDGET = "proxy_hedge_budget";
+  private static final String CACHE_SIZE = "proxy_cache_size";
+  private static final String CACHE_MAX_ENTRY = "proxy_cache_max_entry";
+  private static final String LOG_BUFFER = "proxy_log_buffer";
+  private static final String LOG_SPILL = "proxy_log_spill";
+  private static final String SHADOW = "proxy_shadow";
+  private static final String TENANT_RATE = "proxy_tenant_rate";
+  private static final String TENANT_BURST = "proxy_tenant_burst";
+  private static final String TENANT_LIMITS = "proxy_tenant_limits";
+  private static final String FAIR_QUEUE_IN_FLIGHT = "proxy_fair_queue_in_flight";
+  private static final String FAIR_QUEUE_TIMEOUT_MS = "proxy_fair_queue_timeout_ms";
+  private static final String POOL_SIZE = "proxy_pool_size";
+  private static final String POOL_KEEP_ALIVE_TIMEOUT = "proxy_pool_keep_alive_timeout";
+  private static final String POOL_IDLE_TIMEOUT = "proxy_pool_idle_timeout";
+  private static final String POOL_MODULES = "proxy_pool_modules";
+  private static final String OUTLIER_FAILURES = "proxy_outlier_failures";
+  private static final String OUTLIER_ERROR_RATE = "proxy_outlier_error_rate";
+  private static final String OUTLIER_EJECTION_MS = "proxy_outlier_ejection_ms";
+  private static final String WARMUP_MS = "proxy_warmup_ms";
+  private static final String WARMUP_CONNECTIONS = "proxy_warmup_connections";
+  private static final String WARMUP_TIMEOUT_MS = "proxy_warmup_timeout_ms";
+  private static final String PREFER_LOCAL = "proxy_prefer_local";
+  private static final String TENANT_AFFINITY = "proxy_tenant_affinity";
+  static final int DEFAULT_WARMUP_CONNECTIONS = 4;
+  static final long DEFAULT_WARMUP_TIMEOUT_MS = 60000L;
+  static final long WARMUP_POLL_MS = 500L; // interval of health checks of new instance
   private static final Messages messages = Messages.getInstance();
-  private static final Comparator<ModuleInstance> compareInstanceLevel =
-      Comparator.comparing((ModuleInstance a) -> a.getRoutingEntry().getPhaseLevel());
   private final TokenCache tokenCache;
+  private final AuthRejectionCache authRejections;
+  private final long bodyMemoryLimit;
+  private final long bodyFileLimit;
+  private final long logBuffer;
+  private final long logSpill;
+  private final int warmUpConnections;
+  private final long warmUpTimeoutMs;
 
   /**
    * Construct Proxy service.
@@ -104,16 +169,106 @@ public class ProxyService {
     this.discoveryManager = dm;
     this.okapiUrl = okapiUrl;
     this.waitMs = config.getInteger("logWaitMs", 0);
-    HttpClientOptions opt = new HttpClientOptions();
-    opt.setMaxPoolSize(1000);
-    httpClient = vertx.createHttpClient(opt);
+    clients = ProxyClients.builder()
+        .withPoolSize(Integer.parseInt(Config.getSysConf(POOL_SIZE,
+            Integer.toString(ProxyClients.DEFAULT_POOL_SIZE), config)))
+        .withKeepAliveTimeout(Integer.parseInt(Config.getSysConf(POOL_KEEP_ALIVE_TIMEOUT,
+            Integer.toString(ProxyClients.DEFAULT_KEEP_ALIVE_TIMEOUT), config)))
+        .withIdleTimeout(Integer.parseInt(Config.getSysConf(POOL_IDLE_TIMEOUT,
+            Integer.toString(ProxyClients.DEFAULT_IDLE_TIMEOUT), config)))
+        .withModules(config.getJsonObject(POOL_MODULES))
+        .build(vertx);
+    balancer = LoadBalancer.create(Config.getSysConf(PROXY_BALANCER,
+        LoadBalancer.DEFAULT_STRATEGY, config));
+    balancer.setOutlierPolicy(OutlierPolicy.builder()
+        .withConsecutiveFailures(Integer.parseInt(Config.getSysConf(OUTLIER_FAILURES,
+            Integer.toString(OutlierPolicy.DEFAULT_CONSECUTIVE_FAILURES), config)))
+        .withErrorRate(Integer.parseInt(Config.getSysConf(OUTLIER_ERROR_RATE,
+            Integer.toString(OutlierPolicy.DEFAULT_ERROR_RATE), config)))
+        .withEjectionMs(Long.parseLong(Config.getSysConf(OUTLIER_EJECTION_MS,
+            Long.toString(OutlierPolicy.DEFAULT_EJECTION_MS), config)))
+        .build());
+    dm.setLoadBalancer(balancer);
+    if (Boolean.parseBoolean(Config.getSysConf(PREFER_LOCAL, "false", config))) {
+      balancer.setLocal(dm::isLocal);
+    }
+    balancer.setTenantAffinity(Boolean.parseBoolean(
+        Config.getSysConf(TENANT_AFFINITY, "false", config)));
+    long warmUpMs = Long.parseLong(Config.getSysConf(WARMUP_MS, "0", config));
+    warmUpConnections = Integer.parseInt(Config.getSysConf(WARMUP_CONNECTIONS,
+        Integer.toString(DEFAULT_WARMUP_CONNECTIONS), config));
+    warmUpTimeoutMs = Long.parseLong(Config.getSysConf(WARMUP_TIMEOUT_MS,
+        Long.toString(DEFAULT_WARMUP_TIMEOUT_MS), config));
+    balancer.setWarmUpMs(warmUpMs);
+    if (warmUpMs > 0) {
+      dm.setNewInstanceHandler(this::warmUp);
+    }
+    int concurrencyLimit = Integer.parseInt(Config.getSysConf(CONCURRENCY_LIMIT, "0", config));
+    limiter = concurrencyLimit > 0
+        ? ConcurrencyLimiter.builder().withMaxLimit(concurrencyLimit).build() : null;
+    tenantLimiter = TenantLimiter.builder()
+        .withRate(Double.parseDouble(Config.getSysConf(TENANT_RATE,
+            Double.toString(TenantLimiter.DEFAULT_RATE), config)))
+        .withBurst(Double.parseDouble(Config.getSysConf(TENANT_BURST, "0", config)))
+        .withTenants(config.getJsonObject(TENANT_LIMITS))
+        .withMaxInFlight(Integer.parseInt(Config.getSysConf(FAIR_QUEUE_IN_FLIGHT,
+            Integer.toString(TenantLimiter.DEFAULT_MAX_IN_FLIGHT), config)))
+        .withQueueTimeoutMs(Long.parseLong(Config.getSysConf(FAIR_QUEUE_TIMEOUT_MS,
+            Long.toString(TenantLimiter.DEFAULT_QUEUE_TIMEOUT_MS), config)))
+        .withNodes(dm::getNodeCount)
+        .build(vertx);
+    timeoutMs = Long.parseLong(Config.getSysConf(TIMEOUT_MS, "0", config));
+    hedger = Hedger.builder()
+        .withModules(Config.getSysConf(HEDGE_MODULES, null, config))
+        .withPercentile(Integer.parseInt(Config.getSysConf(HEDGE_PERCENTILE,
+            Integer.toString(Hedger.DEFAULT_PERCENTILE), config)))
+        .withBudget(Double.parseDouble(Config.getSysConf(HEDGE_BUDGET,
+            Double.toString(Hedger.DEFAULT_BUDGET), config)))
+        .build();
+    responseCache = ResponseCache.builder()
+        .withMaxBytes(Long.parseLong(Config.getSysConf(CACHE_SIZE,
+            Long.toString(ResponseCache.DEFAULT_MAX_BYTES), config)))
+        .withMaxEntryBytes(Long.parseLong(Config.getSysConf(CACHE_MAX_ENTRY,
+            Long.toString(ResponseCache.DEFAULT_MAX_ENTRY_BYTES), config)))
+        .build();
+    shadower = Shadower.builder()
+        .withShadows(config.getJsonObject(SHADOW))
+        .build();
 
     String tcTtlMs = Config.getSysConf(TOKEN_CACHE_TTL_MS, null, config);
     String tcMaxSize = Config.getSysConf(TOKEN_CACHE_MAX_SIZE, null, config);
     tokenCache = TokenCache.builder()
         .withTtl(tcTtlMs != null ? Long.parseLong(tcTtlMs) : TokenCache.DEFAULT_TTL)
         .withMaxSize(tcMaxSize != null ? Integer.parseInt(tcMaxSize) : TokenCache.DEFAULT_MAX_SIZE)
+        .withShared(Boolean.parseBoolean(Config.getSysConf(TOKEN_CACHE_SHARED, "false", config))
+            ? vertx : null)
+        .build();
+    authRejections = AuthRejectionCache.builder()
+        .withTtl(Long.parseLong(Config.getSysConf(TOKEN_CACHE_NEGATIVE_TTL_MS,
+            Long.toString(AuthRejectionCache.DEFAULT_TTL), config)))
+        .withMaxSize(Integer.parseInt(Config.getSysConf(TOKEN_CACHE_NEGATIVE_MAX_SIZE,
+            Integer.toString(AuthRejectionCache.DEFAULT_MAX_SIZE), config)))
         .build();
+    bodyMemoryLimit = Long.parseLong(Config.getSysConf(BODY_MEMORY_LIMIT,
+        Long.toString(BodyBuffer.DEFAULT_MEMORY_LIMIT), config));
+    bodyFileLimit = Long.parseLong(Config.getSysConf(BODY_FILE_LIMIT,
+        Long.toString(BodyBuffer.DEFAULT_FILE_LIMIT), config));
+    logBuffer = Long.parseLong(Config.getSysConf(LOG_BUFFER,
+        Long.toString(MirrorStream.DEFAULT_MEMORY_LIMIT), config));
+    logSpill = Long.parseLong(Config.getSysConf(LOG_SPILL,
+        Long.toString(MirrorStream.DEFAULT_SPILL_LIMIT), config));
+    MetricsHelper.registerBodyBufferGauges();
+    MetricsHelper.registerLoadBalancerGauges(balancer);
+    MetricsHelper.registerTenantLimitGauges(tenantLimiter);
+    MetricsHelper.setCardinalityPolicy(CardinalityPolicy.builder()
+        .withTagKeys(Config.getSysConf(METRICS_TAG_KEYS, null, config))
+        .withTopKTags(Config.getSysConf(METRICS_TOP_K_TAGS,
+            CardinalityPolicy.DEFAULT_TOP_K_TAGS, config))
+        .withTopK(Integer.parseInt(Config.getSysConf(METRICS_TOP_K,
+            Integer.toString(CardinalityPolicy.DEFAULT_TOP_K), config)))
+        .withMaxSeries(Integer.parseInt(Config.getSysConf(METRICS_MAX_SERIES,
+            Integer.toString(CardinalityPolicy.DEFAULT_MAX_SERIES), config)))
+        .build());
   }
 
   /**
@@ -175,12 +330,158 @@ public class ProxyService {
     }
   }
 
+  /**
+   * Checks for a token in the shared token cache when it is not cached on this node, and
+   * if found, updates the handler and skips the auth filter.
+   *
+   * @param pc proxy context
+   * @param mods modules for request, as returned by getModulesForRequest
+   * @return future that never fails; cache errors count as misses
+   */
+  private Future<Void> checkSharedTokenCache(ProxyContext pc, List<ModuleInstance> mods) {
+    HttpServerRequest req = pc.getCtx().request();
+    String token = req.headers().get(XOkapiHeaders.TOKEN);
+    if (!tokenCache.isShared() || token == null) {
+      return Future.succeededFuture();
+    }
+    ModuleInstance mi = getAuthorizedHandler(mods);
+    if (mi == null) {
+      return Future.succeededFuture(); // no auth or cached on this node
+    }
+    return tokenCache.getShared(req.method().name(), getTokenCachePath(req, mi), token)
+        .map(cached -> {
+          if (cached != null) {
+            mi.setAuthToken(cached.token);
+            mi.setUserId(cached.userId);
+            mi.setPermissions(cached.permissions);
+            mods.removeIf(inst -> !inst.isHandler()
+                && XOkapiHeaders.FILTER_AUTH.equals(inst.getRoutingEntry().getPhase()));
+            logger.debug("Skipping auth, have token from shared cache.");
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Find the handler of a request that goes through an auth filter.
+   * @param mods modules for request
+   * @return handler; null if there is no handler or no auth filter
+   */
+  private static ModuleInstance getAuthorizedHandler(List<ModuleInstance> mods) {
+    ModuleInstance handler = null;
+    boolean auth = false;
+    for (ModuleInstance mi : mods) {
+      if (mi.isHandler()) {
+        handler = mi;
+      } else if (XOkapiHeaders.FILTER_AUTH.equals(mi.getRoutingEntry().getPhase())) {
+        auth = true;
+      }
+    }
+    return auth ? handler : null;
+  }
+
+  /**
+   * Path of token cache keys: path pattern of handler, or path of request.
+   */
+  private static String getTokenCachePath(HttpServerRequest req, ModuleInstance handler) {
+    String pathPattern = handler.getRoutingEntry().getPathPattern();
+    return pathPattern == null ? req.path() : pathPattern;
+  }
+
+  /**
+   * Answer request with a cached rejection of the auth filter, if there is
+   * one for the token.
+   *
+   * @param pc proxy context
+   * @param stream request body; resumed if answered
+   * @param mods modules for request
+   * @return true if request is answered
+   */
+  private boolean checkAuthRejection(ProxyContext pc, ReadStream<Buffer> stream,
+                                     List<ModuleInstance> mods) {
+    HttpServerRequest req = pc.getCtx().request();
+    String token = req.getHeader(XOkapiHeaders.TOKEN);
+    if (!authRejections.isEnabled() || token == null) {
+      return false;
+    }
+    ModuleInstance mi = getAuthorizedHandler(mods);
+    if (mi == null) {
+      return false;
+    }
+    String method = req.method().name();
+    String path = getTokenCachePath(req, mi);
+    AuthRejectionCache.Entry entry = authRejections.get(pc.getTenant(), method, path, token);
+    if (entry == null) {
+      return false;
+    }
+    MetricsHelper.recordTokenCacheNegativeHit(pc.getTenant(), method, path, pc.getUserId());
+    long hits = entry.getHits();
+    if (hits >= 100 && isPowerOfTen(hits)) {
+      logger.warn("Auth rejection {} served {} times for tenant {} user {}: {} {}",
+          entry.getStatus(), hits, pc.getTenant(), pc.getUserId(), method, path);
+    }
+    HttpServerResponse response = pc.getCtx().response();
+    response.setStatusCode(entry.getStatus());
+    response.headers().addAll(entry.getHeaders());
+    response.setChunked(true);
+    pc.setAuthRes(entry.getStatus());
+    pc.setAuthResBody(entry.getBody());
+    proxyResponseImmediate(pc, stream, null, new LinkedList<>());
+    return true;
+  }
+
+  private static boolean isPowerOfTen(long n) {
+    while (n % 10 == 0) {
+      n /= 10;
+    }
+    return n == 1;
+  }
+
+  /**
+   * Whether the response of a module is a rejection by the auth filter that
+   * is kept in the negative token cache.
+   */
+  private boolean isCachedRejection(ModuleInstance mi, int status, String token) {
+    return authRejections.isEnabled() && token != null
+        && AuthRejectionCache.isRejection(status)
+        && XOkapiHeaders.FILTER_AUTH.equals(mi.getRoutingEntry().getPhase());
+  }
+
+  /**
+   * Keep rejection by the auth filter, stored in the proxy context, in the
+   * negative token cache. The headers kept are those that the client gets for
+   * the rejection, including trace headers so far.
+   * @param pc proxy context with complete auth response
+   * @param mi auth filter
+   * @param token X-Okapi-Token of request to the auth filter
+   */
+  private void cacheAuthRejection(ProxyContext pc, ModuleInstance mi, String token) {
+    if (!isCachedRejection(mi, pc.getAuthRes(), token)) {
+      return;
+    }
+    ModuleInstance handler = getAuthorizedHandler(pc.getModList());
+    if (handler == null) {
+      return;
+    }
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap().addAll(pc.getAuthHeaders());
+    sanitizeAuthHeaders(headers);
+    headers.remove("Content-Length");
+    headers.remove("Transfer-Encoding");
+    headers.set(XOkapiHeaders.TRACE,
+        pc.getCtx().response().headers().getAll(XOkapiHeaders.TRACE));
+    HttpServerRequest req = pc.getCtx().request();
+    authRejections.put(pc.getTenant(), req.method().name(), getTokenCachePath(req, handler),
+        token, pc.getAuthRes(), headers, pc.getAuthResBody());
+  }
+
   private List<ModuleInstance> getModulesForRequest(ProxyContext pc, ModuleCache moduleCache) {
     HttpServerRequest req = pc.getCtx().request();
     final String id = req.getHeader(XOkapiHeaders.MODULE_ID);
     List<ModuleInstance> mods = null;
     try {
-      mods = moduleCache.lookup(req.uri(), req.method(), id);
+      PipelineTemplate pipeline = moduleCache.getPipeline(req.uri(), req.method(), id);
+      pc.setPipeline(pipeline);
+      mods = pipeline.getModuleInstances(req.uri(), req.method());
     } catch (IllegalArgumentException e) {
       pc.responseError(500, e.getMessage());
       return null;
@@ -197,7 +498,6 @@ public class ProxyService {
         mi.setAuthToken(req.headers().get(XOkapiHeaders.TOKEN));
       }
     }
-    mods.sort(compareInstanceLevel);
     Iterator<ModuleInstance> iter = mods.iterator();
     boolean found = false;
     while (iter.hasNext()) {
@@ -299,94 +599,59 @@ public class ProxyService {
   /**
    * Set up special auth headers. Get the auth bits from the module list into
    * X-Okapi-Permissions-Required and X-Okapi-Permissions-Desired headers. Also
-   * X-Okapi-Module-Permissions for each module that has such.
+   * X-Okapi-Module-Permissions for each module that has such. The headers are
+   * computed once per pipeline template where possible.
    */
   private void authHeaders(List<ModuleInstance> modlist,
                            MultiMap requestHeaders, ProxyContext pc) {
     // Sanitize important headers from the incoming request
     sanitizeAuthHeaders(requestHeaders);
-    Set<String> req = new HashSet<>();
-    Set<String> want = new HashSet<>();
-    Set<String> extraperms = new HashSet<>();
-
-    Map<String, String[]> modperms = new HashMap<>(modlist.size()); //!!
-    for (ModuleInstance mod : modlist) {
-      RoutingEntry re = mod.getRoutingEntry();
-
-      if (re.getPermissionsRequiredTenant() != null
-          && mod.getAuthToken() != null
-          && re.matchUriTenant(mod.getPath(), pc.getTenant())) {
-        req.addAll(Arrays.asList(re.getPermissionsRequiredTenant()));
-      } else {
-        String[] reqp = re.getPermissionsRequired();
-        if (reqp != null) {
-          req.addAll(Arrays.asList(reqp));
-        }
-      }
-      String[] wap = re.getPermissionsDesired();
-      if (wap != null) {
-        want.addAll(Arrays.asList(wap));
-      }
-      String[] modp = re.getModulePermissions();
-      if (modp != null) {
-        // replace module permissions with auto generated permission set id
-        if (Boolean.TRUE.equals(tenantManager.getExpandModulePermissions(pc.getTenant()))) {
-          modp = new String[]{re.generateSystemId(mod.getModuleDescriptor().getId())};
-        }
-        if (re.getProxyType() == ProxyType.REDIRECT) {
-          extraperms.addAll(Arrays.asList(modp));
-        } else {
-          modperms.put(mod.getModuleDescriptor().getId(), modp);
-        }
-      }
-    } // mod loop
-    if (!req.isEmpty()) {
-      logger.debug("authHeaders: {} {}",
-          () -> XOkapiHeaders.PERMISSIONS_REQUIRED,
-          () -> String.join(",", req));
-      requestHeaders.add(XOkapiHeaders.PERMISSIONS_REQUIRED, String.join(",", req));
-    }
-    if (!want.isEmpty()) {
-      logger.debug("authHeaders: {} {}",
-          () -> XOkapiHeaders.PERMISSIONS_DESIRED,
-          () -> String.join(",", want));
-      requestHeaders.add(XOkapiHeaders.PERMISSIONS_DESIRED, String.join(",", want));
-    }
-    // Add the X-Okapi-Module-Permissions even if empty. That causes auth to return
-    // an empty X-Okapi-Module-Token, which will tell us that we have done the mod
-    // perms, and no other module should be allowed to do the same.
-    String mpj = Json.encode(modperms);
-    logger.debug("authHeaders: {} {}", XOkapiHeaders.MODULE_PERMISSIONS, mpj);
-    requestHeaders.add(XOkapiHeaders.MODULE_PERMISSIONS, mpj);
-    if (!extraperms.isEmpty()) {
-      String epj = Json.encode(extraperms);
-      logger.debug("authHeaders: {} {}", XOkapiHeaders.EXTRA_PERMISSIONS, epj);
-      requestHeaders.add(XOkapiHeaders.EXTRA_PERMISSIONS, epj);
-    }
-  }
-
-  private Future<Void> resolveUrls(List<ModuleInstance> instances) {
+    boolean expand = Boolean.TRUE.equals(
+        tenantManager.getExpandModulePermissions(pc.getTenant()));
+    PipelineTemplate pipeline = pc.getPipeline();
+    AuthPermissions permissions = pipeline != null
+        ? pipeline.getAuthPermissions(modlist, pc.getTenant(), expand)
+        : AuthPermissions.of(modlist, pc.getTenant(), expand);
+    permissions.addTo(requestHeaders);
+  }
+
+  private Future<Void> resolveUrls(List<ModuleInstance> instances, String tenantId) {
     Future<Void> future = Future.succeededFuture();
     for (ModuleInstance instance : instances) {
       if (instance.getRoutingEntry().getProxyType() == ProxyType.INTERNAL) {
         instance.setUrl("");
+        continue;
+      }
+      // the node-local snapshot is the fast path; only unknown services hit the shared map
+      List<DeploymentDescriptor> live = discoveryManager.getLive(
+          instance.getModuleDescriptor().getId());
+      if (live != null) {
+        future = future.compose(x -> resolveUrl(instance, live, tenantId));
       } else {
         future = future.compose(x -> discoveryManager.get(instance.getModuleDescriptor().getId())
-            .compose(res -> {
-              DeploymentDescriptor dd = pickInstance(res);
-              if (dd == null) {
-                return Future.failedFuture(new OkapiError(ErrorType.NOT_FOUND,
-                    "No running module instance found for "
-                        + instance.getModuleDescriptor().getId()));
-              }
-              instance.setUrl(dd.getUrl());
-              return Future.succeededFuture();
-            }));
+            .compose(res -> resolveUrl(instance, res, tenantId)));
       }
     }
     return future;
   }
 
+  private Future<Void> resolveUrl(ModuleInstance instance, List<DeploymentDescriptor> instances,
+                                  String tenantId) {
+    DeploymentDescriptor dd = balancer.pick(instances, tenantId);
+    if (dd == null && !instances.isEmpty()) {
+      return Future.failedFuture(new OkapiError(ErrorType.UNAVAILABLE,
+          messages.getMessage("10112", instance.getModuleDescriptor().getId())));
+    }
+    if (dd == null) {
+      return Future.failedFuture(new OkapiError(ErrorType.NOT_FOUND,
+          "No running module instance found for "
+              + instance.getModuleDescriptor().getId()));
+    }
+    instance.setUrl(dd.getUrl());
+    instance.setInstId(dd.getInstId());
+    return Future.succeededFuture();
+  }
+
   private void relayToResponse(HttpServerResponse hres,
                                HttpClientResponse res, ProxyContext pc) {
     if (pc.getHandlerRes() != 0) {
@@ -559,57 +824,115 @@ public class ProxyService {
           stream.resume();
           return; // ctx already set up
         }
-        // check delegate CORS and reroute if necessary
-        if (CorsHelper.checkCorsDelegate(ctx, l)) {
-          // HTTP code 100 is chosen purely as metrics tag placeholder
-          MetricsHelper.recordHttpServerProcessingTime(pc.getSample(), pc.getTenant(), 100,
-              pc.getCtx().request().method().name(), pc.getHandlerModuleInstance());
-          stream.resume();
-          ctx.reroute(ctx.request().path());
-          return;
-        }
+        checkSharedTokenCache(pc, l).onComplete(x -> proxyModules(pc, stream, l));
+      });
+    });
+  }
+
+  /**
+   * Proxy request through the modules of the pipeline.
+   * @param pc proxy context
+   * @param stream request body
+   * @param l modules for request
+   */
+  private void proxyModules(ProxyContext pc, ReadStream<Buffer> stream,
+                            List<ModuleInstance> l) {
+    RoutingContext ctx = pc.getCtx();
+    String tenantId = pc.getTenant();
+    final MultiMap headers = ctx.request().headers();
+    // check delegate CORS and reroute if necessary
+    if (CorsHelper.checkCorsDelegate(ctx, l)) {
+      // HTTP code 100 is chosen purely as metrics tag placeholder
+      MetricsHelper.recordHttpServerProcessingTime(pc.getSample(), pc.getTenant(), 100,
+          pc.getCtx().request().method().name(), pc.getHandlerModuleInstance());
+      stream.resume();
+      ctx.reroute(ctx.request().path());
+      return;
+    }
 
-        pc.setModList(l);
+    pc.setModList(l);
 
-        pc.logRequest(ctx, tenantId);
+    pc.logRequest(ctx, tenantId);
 
-        headers.set(XOkapiHeaders.URL, okapiUrl);
-        headers.remove(XOkapiHeaders.MODULE_ID);
-        headers.set(XOkapiHeaders.REQUEST_IP, ctx.request().remoteAddress().host());
-        headers.set(XOkapiHeaders.REQUEST_TIMESTAMP, "" + System.currentTimeMillis());
-        headers.set(XOkapiHeaders.REQUEST_METHOD, ctx.request().method().name());
+    headers.set(XOkapiHeaders.URL, okapiUrl);
+    headers.remove(XOkapiHeaders.MODULE_ID);
+    headers.set(XOkapiHeaders.REQUEST_IP, ctx.request().remoteAddress().host());
+    headers.set(XOkapiHeaders.REQUEST_TIMESTAMP, "" + System.currentTimeMillis());
+    headers.set(XOkapiHeaders.REQUEST_METHOD, ctx.request().method().name());
 
-        resolveUrls(l).onFailure(cause -> {
-          stream.resume();
-          pc.responseError(OkapiError.getType(cause), cause);
-        }).onSuccess(res -> {
-          List<HttpClientRequest> clientRequest = new LinkedList<>();
-          proxyR(l.iterator(), pc, stream, null, clientRequest);
-        });
-      });
-    });
+    if (checkAuthRejection(pc, stream, l)) {
+      return;
+    }
+    resolveUrls(l, tenantId).onFailure(cause -> {
+      stream.resume();
+      pc.responseError(OkapiError.getType(cause), cause);
+    }).onSuccess(res -> enterTenantLimits(pc, tenantId).onFailure(cause ->
+        stream.resume()
+    ).onSuccess(x -> {
+      List<HttpClientRequest> clientRequest = new LinkedList<>();
+      proxyR(l.iterator(), pc, stream, null, clientRequest);
+    }));
   }
 
-  private static void clientsEnd(Buffer bcontent, List<HttpClientRequest> clientRequestList) {
+  /**
+   * End main write stream and client requests with collected body.
+   * @param pc proxy context
+   * @param bcontent body
+   * @param mainWriteStream main stream; null for none
+   * @param clientRequestList other client requests
+   */
+  private static void clientsEnd(ProxyContext pc, BodyBuffer bcontent,
+                                 WriteStream<Buffer> mainWriteStream,
+                                 List<HttpClientRequest> clientRequestList) {
+    List<WriteStream<Buffer>> writeStreams = new LinkedList<>();
+    if (mainWriteStream != null) {
+      writeStreams.add(mainWriteStream);
+    }
     for (HttpClientRequest r : clientRequestList) {
-      r.end(bcontent);
+      writeStreams.add(pc.getMirror(r));
     }
+    writeStreams.addAll(pc.takeShadows());
+    if (!bcontent.isSpilled()) {
+      for (WriteStream<Buffer> w : writeStreams) {
+        w.end(bcontent.getBuffer());
+      }
+      return;
+    }
+    // spilled body: stream from temporary file with backpressure
+    String length = Long.toString(bcontent.length());
+    for (WriteStream<Buffer> w : writeStreams) {
+      if (w instanceof HttpClientRequest && !((HttpClientRequest) w).isChunked()) {
+        ((HttpClientRequest) w).putHeader("Content-Length", length);
+      } else if (w instanceof HttpServerResponse && !((HttpServerResponse) w).isChunked()) {
+        ((HttpServerResponse) w).putHeader("Content-Length", length);
+      }
+    }
+    bcontent.open().onFailure(cause -> {
+      logger.warn("clientsEnd: could not read body: {}", cause.getMessage(), cause);
+      for (WriteStream<Buffer> w : writeStreams) {
+        w.end();
+      }
+    }).onSuccess(readStream -> {
+      pumpOneToMany(readStream, writeStreams);
+      readStream.exceptionHandler(e -> logger.warn("clientsEnd: content exception ", e));
+      readStream.resume();
+    });
   }
 
   private void proxyResponseImmediate(ProxyContext pc, ReadStream<Buffer> readStream,
-                                      Buffer bcontent, List<HttpClientRequest> clientRequestList) {
+                                      BodyBuffer bcontent,
+                                      List<HttpClientRequest> clientRequestList) {
 
     RoutingContext ctx = pc.getCtx();
     if (pc.getAuthRes() != 0 && (pc.getAuthRes() < 200 || pc.getAuthRes() >= 300)) {
       if (bcontent == null) {
         readStream.resume();
       }
-      bcontent = pc.getAuthResBody();
+      bcontent = BodyBuffer.of(pc.getAuthResBody());
     }
     if (bcontent != null) {
       pc.closeTimer();
-      clientsEnd(bcontent, clientRequestList);
-      ctx.response().end(bcontent);
+      clientsEnd(pc, bcontent, ctx.response(), clientRequestList);
     } else {
       streamHandle(pc, readStream, ctx.response(), clientRequestList);
     }
@@ -618,7 +941,145 @@ public class ProxyService {
         pc.getHandlerModuleInstance());
   }
 
-  private void proxyClientFailure(ProxyContext pc, ModuleInstance mi, Throwable res) {
+  /**
+   * Apply rate limit and fair queue of tenant before request is dispatched.
+   * The supertenant is not limited. If the request is rejected, the response
+   * is sent: 429 if the rate limit is exceeded, 503 if the request waited too
+   * long in queue.
+   * @return future that succeeds when request can be dispatched
+   */
+  private Future<Void> enterTenantLimits(ProxyContext pc, String tenantId) {
+    if (XOkapiHeaders.SUPERTENANT_ID.equals(tenantId)) {
+      return Future.succeededFuture();
+    }
+    HttpServerResponse response = pc.getCtx().response();
+    long retryMs = tenantLimiter.tryAcquire(tenantId);
+    if (retryMs > 0) {
+      MetricsHelper.recordTenantLimitRejection(tenantId, "rate");
+      response.putHeader("Retry-After", Long.toString((retryMs + 999) / 1000));
+      pc.responseError(429, messages.getMessage("10114", tenantId));
+      return Future.failedFuture(messages.getMessage("10114", tenantId));
+    }
+    if (!tenantLimiter.isQueuing()) {
+      return Future.succeededFuture();
+    }
+    return tenantLimiter.enter(tenantId).onFailure(cause -> {
+      MetricsHelper.recordTenantLimitRejection(tenantId, "queue");
+      response.putHeader("Retry-After", RETRY_AFTER);
+      pc.responseError(OkapiError.getType(cause), cause);
+    }).compose(nanos -> {
+      MetricsHelper.recordTenantLimitQueueTime(tenantId, nanos);
+      if (response.closed()) {
+        // client went away while request was queued
+        tenantLimiter.leave();
+        return Future.failedFuture(messages.getMessage("10115", tenantId));
+      }
+      pc.getCtx().addEndHandler(x -> tenantLimiter.leave());
+      return Future.succeededFuture();
+    });
+  }
+
+  /**
+   * Check concurrency limit of module before request is made. If the limit is
+   * reached, the request is rejected with 503 at once, rather than waiting
+   * for a connection to a module that is already busy.
+   * @return true if request can be made; false if rejected
+   */
+  private boolean acquire(ProxyContext pc, ModuleInstance mi) {
+    if (limiter == null
+        || limiter.getLimit(mi.getModuleDescriptor().getId()).tryAcquire()) {
+      return true;
+    }
+    pc.getCtx().response().putHeader("Retry-After", RETRY_AFTER);
+    pc.responseError(ErrorType.httpCode(ErrorType.UNAVAILABLE),
+        messages.getMessage("10113", mi.getModuleDescriptor().getId()));
+    return false;
+  }
+
+  /**
+   * Report end of request to module instance to load balancer.
+   * @param moduleId module ID
+   * @param instId instance ID; null if not a deployed instance
+   * @param start start time as returned by {@link LoadBalancer#start(String)}
+   * @param status HTTP status; 0 if no response was received
+   */
+  private void endRequest(String moduleId, String instId, long start, int status) {
+    if (balancer.end(instId, start, status)) {
+      logger.warn("Ejecting instance {} of module {} after failures", instId, moduleId);
+      MetricsHelper.recordLoadBalancerEjection(moduleId);
+    }
+  }
+
+  private void endRequest(ModuleInstance mi, long start, int status) {
+    releaseLimit(mi, start, status);
+    endRequest(mi.getModuleDescriptor().getId(), mi.getInstId(), start, status);
+  }
+
+  private void releaseLimit(ModuleInstance mi, long start, int status) {
+    if (limiter != null) {
+      limiter.getLimit(mi.getModuleDescriptor().getId())
+          .release(System.nanoTime() - start, status);
+    }
+  }
+
+  /**
+   * Get timeout of request to module: the timeout of the routing entry or the
+   * default, limited by the time left for the whole request.
+   * @return milliseconds; 0 for no timeout; negative if no time is left
+   */
+  private long getTimeout(ProxyContext pc, ModuleInstance mi) {
+    long timeout = mi.getRoutingEntry().getTimeout();
+    if (timeout <= 0) {
+      timeout = timeoutMs;
+    }
+    long remaining = pc.getRemainingMs();
+    if (remaining == Long.MAX_VALUE) {
+      return timeout;
+    }
+    if (remaining == 0) {
+      return -1;
+    }
+    return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+  }
+
+  /**
+   * Check that there is time left to call module. If not, the request is
+   * rejected with 504.
+   * @return true if request can be made; false if rejected
+   */
+  private boolean checkTimeout(ProxyContext pc, ModuleInstance mi, long timeout) {
+    if (timeout >= 0) {
+      return true;
+    }
+    MetricsHelper.recordHttpClientTimeout(mi.getModuleDescriptor().getId(),
+        mi.getRoutingEntry().getStaticPath());
+    pc.responseError(504, messages.getMessage("10117", mi.getModuleDescriptor().getId()));
+    return false;
+  }
+
+  private RequestOptions requestOptions(ProxyContext pc, ModuleInstance mi, long timeout) {
+    return new RequestOptions()
+        .setMethod(pc.getCtx().request().method())
+        .setAbsoluteURI(makeUrl(mi, pc.getCtx()))
+        .setTimeout(timeout);
+  }
+
+  private void proxyClientFailure(ProxyContext pc, ModuleInstance mi, Throwable res,
+                                  long start, long timeout) {
+    endRequest(mi, start, 0);
+    proxyClientError(pc, mi, res, timeout);
+  }
+
+  private void proxyClientError(ProxyContext pc, ModuleInstance mi, Throwable res,
+                                long timeout) {
+    if (res instanceof TimeoutException) {
+      logger.warn("proxyClientFailure: {}: timeout after {} ms", mi.getUrl(), timeout);
+      MetricsHelper.recordHttpClientTimeout(mi.getModuleDescriptor().getId(),
+          mi.getRoutingEntry().getStaticPath());
+      pc.responseError(504, messages.getMessage("10116",
+          mi.getModuleDescriptor().getId(), mi.getUrl(), Long.toString(timeout)));
+      return;
+    }
     String e = res.getMessage();
     logger.warn("proxyClientFailure: {}: {}", mi.getUrl(), e);
     MetricsHelper.recordHttpClientError(pc.getTenant(), mi.getMethod().name(),
@@ -629,24 +1090,33 @@ public class ProxyService {
 
   private void proxyRequestHttpClient(
       Iterator<ModuleInstance> it,
-      ProxyContext pc, Buffer bcontent, List<HttpClientRequest> clientRequestList,
+      ProxyContext pc, BodyBuffer bcontent, List<HttpClientRequest> clientRequestList,
       ModuleInstance mi) {
 
+    final long timeout = getTimeout(pc, mi);
+    if (!checkTimeout(pc, mi, timeout) || !acquire(pc, mi)) {
+      return;
+    }
     RoutingContext ctx = pc.getCtx();
-    String url = makeUrl(mi, ctx);
     HttpMethod meth = ctx.request().method();
-    Future<HttpClientRequest> fut = httpClient.request(
-        new RequestOptions().setMethod(meth).setAbsoluteURI(url));
-    fut.onFailure(res -> proxyClientFailure(pc, mi, res));
+    final long start = balancer.start(mi.getInstId());
+    Future<HttpClientRequest> fut = clients.get(mi.getModuleDescriptor().getId()).request(
+        requestOptions(pc, mi, timeout));
+    fut.onFailure(res -> proxyClientFailure(pc, mi, res, start, timeout));
     fut.onSuccess(clientRequest -> {
       final Timer.Sample sample = MetricsHelper.getTimerSample();
-      copyHeaders(clientRequest, ctx, mi);
-      logger.trace("ProxyRequestHttpClient request buf '{}'", bcontent);
-      clientsEnd(bcontent, clientRequestList);
-      clientRequest.end(bcontent);
+      copyHeaders(clientRequest, ctx, mi, timeout);
+      logger.trace("ProxyRequestHttpClient request buf '{}'", bcontent.getBuffer());
+      Shadower.Shadow shadow = startShadow(pc, mi, timeout);
+      clientsEnd(pc, bcontent, clientRequest, clientRequestList);
       log(pc, clientRequest);
-      clientRequest.onFailure(res -> proxyClientFailure(pc, mi, res));
+      clientRequest.onFailure(res -> {
+        recordPrimary(shadow, mi, start, 0);
+        proxyClientFailure(pc, mi, res, start, timeout);
+      });
       clientRequest.onSuccess(res -> {
+        recordPrimary(shadow, mi, start, res.statusCode());
+        endRequest(mi, start, res.statusCode());
         MetricsHelper.recordHttpClientResponse(sample, pc.getTenant(), res.statusCode(),
             meth.name(), mi);
         Iterator<ModuleInstance> newIt = getNewIterator(it, mi, res.statusCode());
@@ -666,66 +1136,124 @@ public class ProxyService {
   }
 
   private void proxyRequestLog(Iterator<ModuleInstance> it,
-                               ProxyContext pc, ReadStream<Buffer> stream, Buffer bcontent,
+                               ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
                                List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
 
     RoutingContext ctx = pc.getCtx();
-    Future<HttpClientRequest> fut = httpClient.request(
-        new RequestOptions().setMethod(ctx.request().method()).setAbsoluteURI(makeUrl(mi, ctx)));
+    // request-log requests are copies, so they are not subject to the concurrency limit
+    final String moduleId = mi.getModuleDescriptor().getId();
+    final long start = balancer.start(mi.getInstId());
+    // nor rejected when the deadline has passed; they time out at once instead
+    final long t = getTimeout(pc, mi);
+    final long timeout = t < 0 ? 1 : t;
+    Future<HttpClientRequest> fut = clients.get(moduleId).request(
+        requestOptions(pc, mi, timeout));
+    fut.onFailure(e -> endRequest(moduleId, mi.getInstId(), start, 0));
     fut.onSuccess(clientRequest -> {
       clientRequestList.add(clientRequest);
       clientRequest.setChunked(true);
+      pc.addMirror(clientRequest, MirrorStream.builder()
+          .withName(moduleId)
+          .withMemoryLimit(logBuffer)
+          .withSpillLimit(logSpill)
+          .withFileSystem(vertx.fileSystem())
+          .build(clientRequest)
+          .abortHandler(x -> clientRequest.reset()));
       String method = ctx.request().method().name();
       String path = mi.getRoutingEntry().getStaticPath();
       final Timer.Sample sample = MetricsHelper.getTimerSample();
-      clientRequest.onFailure(e -> MetricsHelper.recordHttpClientError(pc.getTenant(),
-          method, path));
-      clientRequest.onSuccess(res -> MetricsHelper.recordHttpClientResponse(sample,
-          pc.getTenant(), res.statusCode(), method, mi));
+      clientRequest.onFailure(e -> {
+        endRequest(moduleId, mi.getInstId(), start, 0);
+        MetricsHelper.recordHttpClientError(pc.getTenant(), method, path);
+      });
+      clientRequest.onSuccess(res -> {
+        endRequest(moduleId, mi.getInstId(), start, res.statusCode());
+        MetricsHelper.recordHttpClientResponse(sample, pc.getTenant(), res.statusCode(),
+            method, mi);
+      });
       if (!it.hasNext()) {
         relayToResponse(ctx.response(), null, pc);
-        copyHeaders(clientRequest, ctx, mi);
+        copyHeaders(clientRequest, ctx, mi, timeout);
         proxyResponseImmediate(pc, stream, bcontent, clientRequestList);
       } else {
-        copyHeaders(clientRequest, ctx, mi);
+        copyHeaders(clientRequest, ctx, mi, timeout);
         proxyR(it, pc, stream, bcontent, clientRequestList);
       }
       log(pc, clientRequest);
     });
   }
 
-  private void proxyStreamToBuffer(ReadStream<Buffer> stream, Buffer bcontent,
-                                   Handler<Buffer> handle) {
+  private void proxyStreamToBuffer(ProxyContext pc, ReadStream<Buffer> stream,
+                                   BodyBuffer bcontent, Handler<BodyBuffer> handle) {
     if (bcontent != null) {
       handle.handle(bcontent);
+      return;
+    }
+    BodyBuffer.collect(vertx, stream, bodyMemoryLimit, bodyFileLimit).onFailure(cause -> {
+      if (cause instanceof BodyBuffer.TooLargeException) {
+        pc.responseError(413, messages.getMessage("10111",
+            Long.toString(((BodyBuffer.TooLargeException) cause).getLimit())));
+      } else {
+        pc.responseError(ErrorType.INTERNAL, cause);
+      }
+    }).onSuccess(body -> {
+      RoutingContext ctx = pc.getCtx();
+      if (ctx.response().closed()) {
+        body.release();
+        return;
+      }
+      ctx.addEndHandler(x -> body.release());
+      handle.handle(body);
+    });
+  }
+
+  /**
+   * Return Content-Length of stream if known.
+   * @param stream incoming request or module response
+   * @return length header value; null if unknown or chunked
+   */
+  private static String getContentLength(ReadStream<Buffer> stream) {
+    MultiMap headers;
+    if (stream instanceof HttpServerRequest) {
+      headers = ((HttpServerRequest) stream).headers();
+    } else if (stream instanceof HttpClientResponse) {
+      headers = ((HttpClientResponse) stream).headers();
     } else {
-      final Buffer incoming = Buffer.buffer();
-      stream.handler(incoming::appendBuffer);
-      stream.endHandler(v -> handle.handle(incoming));
-      stream.resume();
+      return null;
+    }
+    if (headers.contains("Transfer-Encoding")) {
+      return null;
     }
+    return headers.get("Content-Length");
   }
 
   private void proxyRequestOnly(Iterator<ModuleInstance> it,
-                                ProxyContext pc, ReadStream<Buffer> stream, Buffer bcontent,
+                                ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
                                 List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
 
-    proxyStreamToBuffer(stream, bcontent, res
+    proxyStreamToBuffer(pc, stream, bcontent, res
         -> proxyRequestHttpClient(it, pc, res, clientRequestList, mi)
     );
   }
 
   private void proxyRequestResponse10(
       Iterator<ModuleInstance> it,
-      ProxyContext pc, ReadStream<Buffer> stream, Buffer bcontent,
+      ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
       List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
 
-    proxyStreamToBuffer(stream, bcontent, res
-        -> proxyRequestResponse(it, pc, null, res, clientRequestList, mi)
+    // a module that can not handle chunked transfer; stream if length is known
+    String contentLength = bcontent == null ? getContentLength(stream) : null;
+    if (contentLength != null) {
+      proxyRequestResponse(it, pc, stream, null, clientRequestList, mi, contentLength);
+      return;
+    }
+    proxyStreamToBuffer(pc, stream, bcontent, res
+        -> proxyRequestResponse(it, pc, null, res, clientRequestList, mi, null)
     );
   }
 
-  private void copyHeaders(HttpClientRequest clientRequest, RoutingContext ctx, ModuleInstance mi) {
+  private void copyHeaders(HttpClientRequest clientRequest, RoutingContext ctx, ModuleInstance mi,
+                           long timeout) {
     int sz = 0;
     int limit = 2000; // all headers dumped
     for (String name : ctx.request().headers().names()) {
@@ -743,6 +1271,9 @@ public class ProxyService {
     }
     clientRequest.headers().setAll(ctx.request().headers());
     clientRequest.headers().remove("Content-Length");
+    if (timeout > 0) {
+      clientRequest.headers().set(XOkapiHeaders.REQUEST_TIMEOUT, Long.toString(timeout));
+    }
     final String phase = mi.getRoutingEntry().getPhase();
     if (!XOkapiHeaders.FILTER_AUTH.equals(phase)) {
       clientRequest.headers().remove(XOkapiHeaders.ADDITIONAL_TOKEN);
@@ -776,9 +1307,10 @@ public class ProxyService {
                                    List<HttpClientRequest> logWriteStreams) {
     List<WriteStream<Buffer>> writeStreams = new LinkedList<>();
     writeStreams.add(mainWriteStream);
-    for (WriteStream<Buffer> w : logWriteStreams) {
-      writeStreams.add(w);
+    for (HttpClientRequest r : logWriteStreams) {
+      writeStreams.add(pc.getMirror(r)); // does not slow down main stream
     }
+    writeStreams.addAll(pc.takeShadows());
     pumpOneToMany(readStream, writeStreams);
     readStream.exceptionHandler(e -> logger.warn("streamHandle: content exception ", e));
     readStream.resume();
@@ -819,82 +1351,824 @@ public class ProxyService {
   }
 
   private void proxyRequestResponse(Iterator<ModuleInstance> it,
-                                    ProxyContext pc, ReadStream<Buffer> stream, Buffer bcontent,
-                                    List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
+                                    ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
+                                    List<HttpClientRequest> clientRequestList, ModuleInstance mi,
+                                    String contentLength) {
+
+    ResponseCache.Key cacheKey = getCacheKey(it, pc, stream, bcontent, clientRequestList, mi);
+    ResponseCache.Entry cached = cacheKey == null ? null : responseCache.get(cacheKey);
+    if (cached != null && !cached.isExpired(System.currentTimeMillis())
+        && !hasCacheControl(pc.getCtx().request().headers(), "no-cache")) {
+      responseCache.recordHit();
+      MetricsHelper.recordResponseCache(pc.getTenant(), "hit");
+      stream.resume(); // no body to pass on
+      cachedResponse(pc, mi, cached, true);
+      return;
+    }
+    ResponseCache.Key coalesceKey = getCoalesceKey(it, pc, stream, bcontent, clientRequestList,
+        mi);
+    if (coalesceKey != null) {
+      proxyRequestCoalesced(it, pc, stream, mi, coalesceKey, cacheKey, cached);
+      return;
+    }
+    proxyRequestModule(it, pc, stream, bcontent, clientRequestList, mi, contentLength,
+        cacheKey, cached);
+  }
 
+  private void proxyRequestModule(Iterator<ModuleInstance> it,
+                                  ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
+                                  List<HttpClientRequest> clientRequestList, ModuleInstance mi,
+                                  String contentLength, ResponseCache.Key cacheKey,
+                                  ResponseCache.Entry cached) {
+    final long timeout = getTimeout(pc, mi);
+    if (!checkTimeout(pc, mi, timeout) || !acquire(pc, mi)) {
+      return;
+    }
+    if (cacheKey != null) {
+      proxyRequestCached(it, pc, stream, mi, cacheKey,
+          cached != null && cached.getEtag() != null ? cached : null, timeout);
+      return;
+    }
+    Hedger.Module hedge = getHedge(pc, stream, bcontent, clientRequestList, mi);
+    if (hedge != null) {
+      proxyRequestHedged(it, pc, stream, mi, hedge, timeout);
+      return;
+    }
     RoutingContext ctx = pc.getCtx();
-    Future<HttpClientRequest> fut = httpClient.request(
-        new RequestOptions().setMethod(ctx.request().method()).setAbsoluteURI(makeUrl(mi, ctx)));
-    fut.onFailure(res -> proxyClientFailure(pc, mi, res));
+    final long start = balancer.start(mi.getInstId());
+    Future<HttpClientRequest> fut = clients.get(mi.getModuleDescriptor().getId()).request(
+        requestOptions(pc, mi, timeout));
+    fut.onFailure(res -> proxyClientFailure(pc, mi, res, start, timeout));
     fut.onSuccess(clientRequest -> {
       final Timer.Sample sample = MetricsHelper.getTimerSample();
-      copyHeaders(clientRequest, ctx, mi);
+      copyHeaders(clientRequest, ctx, mi, timeout);
+      Shadower.Shadow shadow = startShadow(pc, mi, timeout);
       if (bcontent != null) {
-        logger.trace("proxyRequestResponse request buf '{}'", bcontent);
-        clientsEnd(bcontent, clientRequestList);
-        clientRequest.end(bcontent);
+        logger.trace("proxyRequestResponse request buf '{}'", bcontent.getBuffer());
+        clientsEnd(pc, bcontent, clientRequest, clientRequestList);
       } else {
-        clientRequest.setChunked(true);
+        if (contentLength != null) {
+          clientRequest.putHeader("Content-Length", contentLength);
+        } else {
+          clientRequest.setChunked(true);
+        }
         for (HttpClientRequest r : clientRequestList) {
           r.setChunked(true);
         }
         streamHandle(pc, stream, clientRequest, clientRequestList);
       }
       log(pc, clientRequest);
-      clientRequest.onFailure(res -> proxyClientFailure(pc, mi, res));
+      clientRequest.onFailure(res -> {
+        recordPrimary(shadow, mi, start, 0);
+        proxyClientFailure(pc, mi, res, start, timeout);
+      });
       clientRequest.onSuccess(res -> {
+        recordPrimary(shadow, mi, start, res.statusCode());
+        endRequest(mi, start, res.statusCode());
         MetricsHelper.recordHttpClientResponse(sample, pc.getTenant(), res.statusCode(),
             ctx.request().method().name(), mi);
-        fixupXOkapiToken(mi.getModuleDescriptor(), ctx.request().headers(), res.headers());
-        Iterator<ModuleInstance> newIt = getNewIterator(it, mi, res.statusCode());
-        if (res.getHeader(XOkapiHeaders.STOP) == null && newIt.hasNext()) {
-          makeTraceHeader(mi, res.statusCode(), pc);
-          relayToRequest(res, pc, mi);
-          final String ct = res.getHeader("Content-Type");
-          if (ct != null) {
-            ctx.request().headers().set("Content-Type", ct);
+        proxyResponse(it, pc, mi, res);
+      });
+    });
+  }
+
+  /**
+   * Send request to shadow module if the handler is shadowed and the request
+   * is sampled. The request body is written to the shadow like to request-log
+   * modules, so a slow shadow does not slow down the request, and the
+   * response is discarded.
+   * @return shadowing of handler; null if request is not shadowed
+   */
+  private Shadower.Shadow startShadow(ProxyContext pc, ModuleInstance mi, long timeout) {
+    if (!mi.isHandler() || !shadower.isEnabled()) {
+      return null;
+    }
+    RoutingContext ctx = pc.getCtx();
+    String path = mi.getRoutingEntry().getStaticPath();
+    Shadower.Shadow shadow = shadower.getShadow(mi.getModuleDescriptor().getId(), path,
+        ctx.request().method().name());
+    if (shadow == null || !shadow.sample()) {
+      return null;
+    }
+    String target = shadow.getTarget();
+    List<DeploymentDescriptor> live = discoveryManager.getLive(target);
+    DeploymentDescriptor dd = live == null ? null : balancer.pick(live, pc.getTenant());
+    if (dd == null) {
+      shadow.unavailable();
+      return null;
+    }
+    shadow.sent();
+    final long start = balancer.start(dd.getInstId());
+    Future<HttpClientRequest> fut = clients.get(target).request(new RequestOptions()
+        .setMethod(ctx.request().method())
+        .setAbsoluteURI(dd.getUrl() + getPath(mi, ctx))
+        .setTimeout(timeout));
+    fut.onFailure(cause -> {
+      endRequest(target, dd.getInstId(), start, 0);
+      shadow.recordShadow(path, 0, System.nanoTime() - start);
+    });
+    fut.onSuccess(clientRequest -> {
+      copyHeaders(clientRequest, ctx, mi, timeout);
+      clientRequest.setChunked(true);
+      clientRequest.onFailure(cause -> {
+        endRequest(target, dd.getInstId(), start, 0);
+        shadow.recordShadow(path, 0, System.nanoTime() - start);
+      });
+      clientRequest.onSuccess(res -> {
+        endRequest(target, dd.getInstId(), start, res.statusCode());
+        shadow.recordShadow(path, res.statusCode(), System.nanoTime() - start);
+        res.exceptionHandler(e -> logger.debug("Shadow response from {}: {}", target,
+            e.getMessage()));
+      });
+    });
+    pc.addShadow(MirrorStream.builder()
+        .withName(target)
+        .withMemoryLimit(logBuffer)
+        .withSpillLimit(logSpill)
+        .withFileSystem(vertx.fileSystem())
+        .build(new PendingWriteStream<>(fut))
+        .abortHandler(x -> fut.onSuccess(HttpClientRequest::reset)));
+    return shadow;
+  }
+
+  private static void recordPrimary(Shadower.Shadow shadow, ModuleInstance mi, long start,
+                                    int status) {
+    if (shadow != null) {
+      shadow.recordPrimary(mi.getRoutingEntry().getStaticPath(), status,
+          System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Warm up a new instance. The instance gets no traffic until it passes the
+   * health check, or the warm-up timeout is reached, and connections to it
+   * are opened. Then its share of traffic grows over the warm-up time.
+   * @param dd new instance
+   */
+  private void warmUp(DeploymentDescriptor dd) {
+    String instId = dd.getInstId();
+    if (dd.getUrl() == null) {
+      return;
+    }
+    logger.info("Warming up {} instance {}", dd.getSrvcId(), instId);
+    balancer.warmUp(instId);
+    long deadline = System.currentTimeMillis() + warmUpTimeoutMs;
+    Promise<Void> promise = Promise.promise();
+    // requests to the instance may hang; it gets traffic at the deadline regardless
+    long timer = vertx.setTimer(Math.max(1L, warmUpTimeoutMs),
+        id -> promise.tryFail("timeout after " + warmUpTimeoutMs + " ms"));
+    waitHealthy(dd, deadline)
+        .compose(x -> openConnections(dd, deadline))
+        .onComplete(res -> {
+          if (res.succeeded()) {
+            promise.tryComplete();
+          } else {
+            promise.tryFail(res.cause());
           }
-          storeResponseInfo(pc, mi, res);
-          res.pause();
-          proxyR(newIt, pc, res, null, new LinkedList<>());
-        } else {
-          relayToResponse(ctx.response(), res, pc);
-          makeTraceHeader(mi, res.statusCode(), pc);
-          proxyResponseImmediate(pc, res, null, new LinkedList<>());
-        }
+        });
+    promise.future().onComplete(res -> {
+      vertx.cancelTimer(timer);
+      if (res.failed()) {
+        logger.warn("Warm-up of {} instance {} incomplete: {}", dd.getSrvcId(), instId,
+            res.cause().getMessage());
+      }
+      balancer.ready(instId);
+    });
+  }
+
+  private Future<Void> waitHealthy(DeploymentDescriptor dd, long deadline) {
+    return discoveryManager.health(dd).compose(hd -> {
+      if (hd.isHealthStatus()) {
+        return Future.succeededFuture();
+      }
+      if (System.currentTimeMillis() >= deadline) {
+        return Future.failedFuture(hd.getHealthMessage());
+      }
+      Promise<Void> promise = Promise.promise();
+      vertx.setTimer(WARMUP_POLL_MS, id -> waitHealthy(dd, deadline).onComplete(promise));
+      return promise.future();
+    });
+  }
+
+  /**
+   * Open pooled connections to an instance by concurrent requests to it.
+   * The connections are kept alive for requests that follow.
+   * @param deadline time in milliseconds at which requests time out
+   */
+  private Future<Void> openConnections(DeploymentDescriptor dd, long deadline) {
+    HttpClient client = clients.get(dd.getSrvcId());
+    long timeout = Math.max(1L, deadline - System.currentTimeMillis());
+    List<Future<Buffer>> futures = new LinkedList<>();
+    for (int i = 0; i < warmUpConnections; i++) {
+      futures.add(client.request(new RequestOptions()
+          .setMethod(HttpMethod.GET)
+          .setAbsoluteURI(dd.getUrl())
+          .setTimeout(timeout))
+          .compose(HttpClientRequest::send)
+          .compose(HttpClientResponse::body));
+    }
+    return GenericCompositeFuture.all(futures).mapEmpty();
+  }
+
+  /**
+   * Get shadowing of modules.
+   * @return shadower; for the admin endpoint
+   */
+  public Shadower getShadower() {
+    return shadower;
+  }
+
+  /**
+   * Pass response of a request-response module on to the next module in the
+   * pipeline, or to the client if it is the last.
+   */
+  private void proxyResponse(Iterator<ModuleInstance> it, ProxyContext pc, ModuleInstance mi,
+                             HttpClientResponse res) {
+    RoutingContext ctx = pc.getCtx();
+    fixupXOkapiToken(mi.getModuleDescriptor(), ctx.request().headers(), res.headers());
+    Iterator<ModuleInstance> newIt = getNewIterator(it, mi, res.statusCode());
+    if (res.getHeader(XOkapiHeaders.STOP) == null && newIt.hasNext()) {
+      makeTraceHeader(mi, res.statusCode(), pc);
+      relayToRequest(res, pc, mi);
+      final String ct = res.getHeader("Content-Type");
+      if (ct != null) {
+        ctx.request().headers().set("Content-Type", ct);
+      }
+      storeResponseInfo(pc, mi, res);
+      res.pause();
+      proxyR(newIt, pc, res, null, new LinkedList<>());
+    } else {
+      relayToResponse(ctx.response(), res, pc);
+      makeTraceHeader(mi, res.statusCode(), pc);
+      proxyResponseImmediate(pc, res, null, new LinkedList<>());
+    }
+  }
+
+  /**
+   * Get hedging state of module if request can be hedged: a GET or HEAD
+   * without body to a handler of a hedged module with more than one instance.
+   * @return hedging state; null if request is not hedged
+   */
+  private Hedger.Module getHedge(ProxyContext pc, ReadStream<Buffer> stream,
+                                 BodyBuffer bcontent, List<HttpClientRequest> clientRequestList,
+                                 ModuleInstance mi) {
+    HttpMethod method = pc.getCtx().request().method();
+    if (!mi.isHandler() || !hasNoBody(stream, bcontent, clientRequestList)
+        || (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method))) {
+      return null;
+    }
+    String moduleId = mi.getModuleDescriptor().getId();
+    Hedger.Module hedge = hedger.getModule(moduleId);
+    if (hedge == null) {
+      return null;
+    }
+    List<DeploymentDescriptor> live = discoveryManager.getLive(moduleId);
+    return live != null && live.size() > 1 ? hedge : null;
+  }
+
+  /**
+   * Whether request is passed on from the client without body.
+   */
+  private static boolean hasNoBody(ReadStream<Buffer> stream, BodyBuffer bcontent,
+                                   List<HttpClientRequest> clientRequestList) {
+    if (bcontent != null || !clientRequestList.isEmpty()
+        || !(stream instanceof HttpServerRequest)) {
+      return false;
+    }
+    MultiMap headers = ((HttpServerRequest) stream).headers();
+    String contentLength = headers.get("Content-Length");
+    return !headers.contains("Transfer-Encoding")
+        && (contentLength == null || "0".equals(contentLength));
+  }
+
+  private static boolean hasCacheControl(MultiMap headers, String directive) {
+    String cacheControl = headers.get("Cache-Control");
+    return cacheControl != null
+        && cacheControl.toLowerCase(Locale.ROOT).contains(directive);
+  }
+
+  /**
+   * Get key of response cache if response of module may be cached: a GET
+   * without body to a handler which is the last module of the pipeline.
+   * The request has passed auth filters at this point, so permissions of the
+   * caller are known.
+   * @return key; null if response is not cached
+   */
+  private ResponseCache.Key getCacheKey(Iterator<ModuleInstance> it, ProxyContext pc,
+                                        ReadStream<Buffer> stream, BodyBuffer bcontent,
+                                        List<HttpClientRequest> clientRequestList,
+                                        ModuleInstance mi) {
+    HttpServerRequest req = pc.getCtx().request();
+    if (!responseCache.isEnabled() || !mi.isHandler() || it.hasNext()
+        || !HttpMethod.GET.equals(req.method())
+        || !hasNoBody(stream, bcontent, clientRequestList)
+        || hasCacheControl(req.headers(), "no-store")) {
+      return null;
+    }
+    return new ResponseCache.Key(pc.getTenant(), req.uri(), req.getHeader("Accept"),
+        req.getHeader(XOkapiHeaders.PERMISSIONS));
+  }
+
+  /**
+   * Get time response of module may be cached.
+   * @return milliseconds; -1 if response must not be cached
+   */
+  private long getCacheMaxAge(ModuleInstance mi, HttpClientResponse res) {
+    String vary = res.getHeader("Vary");
+    if (res.headers().contains("Set-Cookie")
+        || (vary != null && !"accept".equalsIgnoreCase(vary.trim()))) {
+      return -1;
+    }
+    return ResponseCache.getMaxAge(res.getHeader("Cache-Control"),
+        mi.getRoutingEntry().getCacheMaxAge() * 1000L);
+  }
+
+  /**
+   * Send cached response to client. Responds with 304 if the client has
+   * the same version already.
+   * @param hit true if response is served from cache rather than from module
+   */
+  private void cachedResponse(ProxyContext pc, ModuleInstance mi, ResponseCache.Entry entry,
+                              boolean hit) {
+    HttpServerResponse response = pc.getCtx().response();
+    response.headers().addAll(entry.getHeaders());
+    if (hit) {
+      response.putHeader("Age", Long.toString(entry.getAge(System.currentTimeMillis())));
+    }
+    String etag = entry.getEtag();
+    if (etag != null && etag.equals(pc.getCtx().request().getHeader("If-None-Match"))) {
+      response.setStatusCode(304);
+      makeTraceHeader(mi, 304, pc);
+      proxyResponseImmediate(pc, null, BodyBuffer.of(Buffer.buffer()), new LinkedList<>());
+      return;
+    }
+    response.setStatusCode(entry.getStatus());
+    makeTraceHeader(mi, entry.getStatus(), pc);
+    proxyResponseImmediate(pc, null, BodyBuffer.of(entry.getBody()), new LinkedList<>());
+  }
+
+  /**
+   * Send request to module and cache the response if it may be cached. If
+   * an expired response is given, the request is conditional, and the cached
+   * response is used if the module says it is not modified.
+   * @param stale expired response with ETag; null for none
+   */
+  private void proxyRequestCached(Iterator<ModuleInstance> it, ProxyContext pc,
+                                  ReadStream<Buffer> stream, ModuleInstance mi,
+                                  ResponseCache.Key key, ResponseCache.Entry stale,
+                                  long timeout) {
+    RoutingContext ctx = pc.getCtx();
+    final long start = balancer.start(mi.getInstId());
+    final Timer.Sample sample = MetricsHelper.getTimerSample();
+    stream.resume(); // no body to pass on
+    clients.get(mi.getModuleDescriptor().getId()).request(requestOptions(pc, mi, timeout))
+        .compose(clientRequest -> {
+          copyHeaders(clientRequest, ctx, mi, timeout);
+          if (stale != null) {
+            clientRequest.headers().set("If-None-Match", stale.getEtag());
+          }
+          log(pc, clientRequest);
+          Shadower.Shadow shadow = startShadow(pc, mi, timeout);
+          pc.takeShadows().forEach(WriteStream::end);
+          return clientRequest.send().onComplete(res -> recordPrimary(shadow, mi, start,
+              res.succeeded() ? res.result().statusCode() : 0));
+        })
+        .onFailure(cause -> proxyClientFailure(pc, mi, cause, start, timeout))
+        .onSuccess(res -> {
+          endRequest(mi, start, res.statusCode());
+          MetricsHelper.recordHttpClientResponse(sample, pc.getTenant(), res.statusCode(),
+              ctx.request().method().name(), mi);
+          long maxAge = getCacheMaxAge(mi, res);
+          if (stale != null && res.statusCode() == 304) {
+            responseCache.recordRevalidation();
+            MetricsHelper.recordResponseCache(pc.getTenant(), "revalidated");
+            if (maxAge < 0) {
+              responseCache.remove(key);
+            } else {
+              responseCache.put(key, stale.revalidated(System.currentTimeMillis(), maxAge));
+            }
+            res.resume();
+            cachedResponse(pc, mi, stale, true);
+            return;
+          }
+          responseCache.recordMiss();
+          MetricsHelper.recordResponseCache(pc.getTenant(), "miss");
+          if (!isCacheable(res, maxAge, responseCache.fits(getLength(res)))) {
+            proxyResponse(it, pc, mi, res);
+            return;
+          }
+          fixupXOkapiToken(mi.getModuleDescriptor(), ctx.request().headers(), res.headers());
+          // without Content-Length, whether it fits is known once collected
+          collectResponse(pc, mi, res, responseCache.getMaxEntryBytes(), timeout)
+              .onSuccess(body -> {
+                if (body.isSpilled()) {
+                  bodyResponse(pc, mi, res, body);
+                  return;
+                }
+                ResponseCache.Entry entry = newEntry(res, body.getBuffer(), maxAge);
+                responseCache.put(key, entry);
+                cachedResponse(pc, mi, entry, false);
+              });
+        });
+  }
+
+  /**
+   * Get Content-Length of response.
+   * @return length; -1 if unknown, such as for a chunked response
+   */
+  private static long getLength(HttpClientResponse res) {
+    String contentLength = res.getHeader("Content-Length");
+    try {
+      return contentLength == null ? -1L : Long.parseLong(contentLength);
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * Collect body of module response. The body is kept in memory up to memoryLimit, and
+   * spilled to temporary file beyond that. It is released when the response to the
+   * client ends. If it can not be collected, the error is sent to the client.
+   * @return future with body
+   */
+  private Future<BodyBuffer> collectResponse(ProxyContext pc, ModuleInstance mi,
+                                             HttpClientResponse res, long memoryLimit,
+                                             long timeout) {
+    res.pause();
+    return BodyBuffer.collect(vertx, res, memoryLimit, bodyFileLimit)
+        .onFailure(cause -> proxyClientError(pc, mi, cause, timeout))
+        .onSuccess(body -> {
+          RoutingContext ctx = pc.getCtx();
+          if (ctx.response().closed()) {
+            body.release();
+          } else {
+            ctx.addEndHandler(x -> body.release());
+          }
+        });
+  }
+
+  /**
+   * Send module response with collected body to client; for a body too large to be
+   * cached or shared.
+   */
+  private void bodyResponse(ProxyContext pc, ModuleInstance mi, HttpClientResponse res,
+                            BodyBuffer body) {
+    HttpServerResponse response = pc.getCtx().response();
+    response.headers().addAll(copyResponseHeaders(res));
+    response.setStatusCode(res.statusCode());
+    makeTraceHeader(mi, res.statusCode(), pc);
+    proxyResponseImmediate(pc, null, body, new LinkedList<>());
+  }
+
+  private static boolean isCacheable(HttpClientResponse res, long maxAge, boolean fits) {
+    return res.statusCode() == 200 && fits && res.getHeader("Set-Cookie") == null
+        && (maxAge > 0 || (maxAge == 0 && res.getHeader("ETag") != null));
+  }
+
+  /**
+   * Check if response of a coalesced request may be given to the other
+   * callers: a successful response without headers meant for the caller that
+   * made the request.
+   */
+  private static boolean isShareable(HttpClientResponse res) {
+    return res.statusCode() >= 200 && res.statusCode() < 300
+        && res.getHeader("Set-Cookie") == null && res.getHeader(XOkapiHeaders.TOKEN) == null;
+  }
+
+  /**
+   * Copy headers of module response, without those between Okapi and module.
+   */
+  private MultiMap copyResponseHeaders(HttpClientResponse res) {
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap().addAll(res.headers());
+    sanitizeAuthHeaders(headers);
+    headers.remove("Content-Length");
+    headers.remove("Transfer-Encoding");
+    headers.remove("Connection");
+    return headers;
+  }
+
+  /**
+   * Create response that can be served to other callers.
+   */
+  private ResponseCache.Entry newEntry(HttpClientResponse res, Buffer body, long maxAge) {
+    MultiMap headers = copyResponseHeaders(res);
+    headers.remove(XOkapiHeaders.TOKEN);
+    return new ResponseCache.Entry(res.statusCode(), headers, body,
+        System.currentTimeMillis(), Math.max(0L, maxAge));
+  }
+
+  /**
+   * Get key of coalesced requests if the handler collapses identical
+   * concurrent requests: a GET without body to a handler which is the last
+   * module of the pipeline, and which has {@link RoutingEntry#getCoalesce()}.
+   * @return key; null if request is not coalesced
+   */
+  private static ResponseCache.Key getCoalesceKey(Iterator<ModuleInstance> it, ProxyContext pc,
+                                                  ReadStream<Buffer> stream, BodyBuffer bcontent,
+                                                  List<HttpClientRequest> clientRequestList,
+                                                  ModuleInstance mi) {
+    String scope = mi.getRoutingEntry().getCoalesce();
+    HttpServerRequest req = pc.getCtx().request();
+    if (scope == null || !mi.isHandler() || it.hasNext()
+        || !HttpMethod.GET.equals(req.method())
+        || !hasNoBody(stream, bcontent, clientRequestList)) {
+      return null;
+    }
+    String caller = null;
+    if ("permissions".equals(scope)) {
+      caller = req.getHeader(XOkapiHeaders.PERMISSIONS);
+    } else if ("user".equals(scope)) {
+      caller = req.getHeader(XOkapiHeaders.USER_ID) + " "
+          + req.getHeader(XOkapiHeaders.PERMISSIONS);
+    }
+    return new ResponseCache.Key(pc.getTenant(), req.uri(), req.getHeader("Accept"), caller);
+  }
+
+  /**
+   * Join identical request in progress, or make the request and share its
+   * response. A caller that can not get the response of another request,
+   * because it was larger than the body memory limit, makes its own request.
+   */
+  private void proxyRequestCoalesced(Iterator<ModuleInstance> it, ProxyContext pc,
+                                     ReadStream<Buffer> stream, ModuleInstance mi,
+                                     ResponseCache.Key key, ResponseCache.Key cacheKey,
+                                     ResponseCache.Entry cached) {
+    AtomicBoolean leader = new AtomicBoolean();
+    coalescer.execute(key, () -> {
+      leader.set(true);
+      return proxyRequestShared(it, pc, stream, mi, cacheKey);
+    }).onComplete(ar -> {
+      if (leader.get()) {
+        return; // has responded already
+      }
+      if (ar.failed()) {
+        stream.resume();
+        proxyClientError(pc, mi, ar.cause(), getTimeout(pc, mi));
+      } else if (ar.result() == null) {
+        proxyRequestModule(it, pc, stream, null, new LinkedList<>(), mi, null, cacheKey, cached);
+      } else {
+        stream.resume();
+        cachedResponse(pc, mi, ar.result(), false);
+      }
+    });
+  }
+
+  /**
+   * Send request to module and give the response to the caller. Also
+   * stores the response in the response cache if it may be cached.
+   * @return future with response for other callers; null if response could
+   *     not be shared, because it was too large, not successful or for this
+   *     caller only
+   */
+  private Future<ResponseCache.Entry> proxyRequestShared(Iterator<ModuleInstance> it,
+                                                         ProxyContext pc,
+                                                         ReadStream<Buffer> stream,
+                                                         ModuleInstance mi,
+                                                         ResponseCache.Key cacheKey) {
+    final long timeout = getTimeout(pc, mi);
+    if (!checkTimeout(pc, mi, timeout) || !acquire(pc, mi)) {
+      return Future.succeededFuture();
+    }
+    RoutingContext ctx = pc.getCtx();
+    final long start = balancer.start(mi.getInstId());
+    final Timer.Sample sample = MetricsHelper.getTimerSample();
+    stream.resume(); // no body to pass on
+    Promise<ResponseCache.Entry> promise = Promise.promise();
+    clients.get(mi.getModuleDescriptor().getId()).request(requestOptions(pc, mi, timeout))
+        .compose(clientRequest -> {
+          copyHeaders(clientRequest, ctx, mi, timeout);
+          log(pc, clientRequest);
+          return clientRequest.send();
+        })
+        .onFailure(cause -> {
+          proxyClientFailure(pc, mi, cause, start, timeout);
+          promise.fail(cause);
+        })
+        .onSuccess(res -> {
+          endRequest(mi, start, res.statusCode());
+          MetricsHelper.recordHttpClientResponse(sample, pc.getTenant(), res.statusCode(),
+              ctx.request().method().name(), mi);
+          if (getLength(res) > bodyMemoryLimit) {
+            proxyResponse(it, pc, mi, res);
+            promise.complete();
+            return;
+          }
+          if (cacheKey != null) {
+            responseCache.recordMiss();
+            MetricsHelper.recordResponseCache(pc.getTenant(), "miss");
+          }
+          fixupXOkapiToken(mi.getModuleDescriptor(), ctx.request().headers(), res.headers());
+          // without Content-Length, whether it is shared is known once collected
+          collectResponse(pc, mi, res, bodyMemoryLimit, timeout).onFailure(promise::fail)
+              .onSuccess(bodyBuffer -> {
+                if (bodyBuffer.isSpilled()) {
+                  bodyResponse(pc, mi, res, bodyBuffer);
+                  promise.complete();
+                  return;
+                }
+                Buffer body = bodyBuffer.getBuffer();
+                long maxAge = cacheKey == null ? -1 : getCacheMaxAge(mi, res);
+                ResponseCache.Entry entry = newEntry(res, body, maxAge);
+                if (cacheKey != null
+                    && isCacheable(res, maxAge, responseCache.fits(body.length()))) {
+                  responseCache.put(cacheKey, entry);
+                }
+                // this caller gets all headers of its response
+                cachedResponse(pc, mi, new ResponseCache.Entry(res.statusCode(),
+                    copyResponseHeaders(res), body, System.currentTimeMillis(), 0L), false);
+                promise.complete(isShareable(res) ? entry : null);
+              });
+        });
+    return promise.future();
+  }
+
+  /**
+   * One of the attempts of a hedged request.
+   */
+  private static final class Attempt {
+    private final String url;
+    private final String instId;
+    private final boolean hedge;
+    private HttpClientRequest request;
+
+    Attempt(String url, String instId, boolean hedge) {
+      this.url = url;
+      this.instId = instId;
+      this.hedge = hedge;
+    }
+  }
+
+  /**
+   * Attempts of a hedged request. Only used on the context of the request.
+   */
+  private static final class Attempts {
+    private final Promise<HttpClientResponse> promise = Promise.promise();
+    private final List<Attempt> sent = new ArrayList<>(2);
+    private Attempt winner;
+    private int pending;
+    private long timerId = -1;
+  }
+
+  /**
+   * Send request to module and, if no response arrives within the hedge
+   * delay of the module, a second attempt to another instance. The response
+   * that arrives first is used, and the other attempt is cancelled.
+   */
+  private void proxyRequestHedged(Iterator<ModuleInstance> it, ProxyContext pc,
+                                  ReadStream<Buffer> stream, ModuleInstance mi,
+                                  Hedger.Module hedge, long timeout) {
+    final long start = System.nanoTime();
+    final Timer.Sample sample = MetricsHelper.getTimerSample();
+    Attempts attempts = new Attempts();
+    hedge.start();
+    stream.resume(); // no body to pass on
+    sendAttempt(pc, mi, hedge, attempts, new Attempt(mi.getUrl(), mi.getInstId(), false),
+        timeout);
+    long delay = hedge.getDelayMs();
+    if (delay >= 0) {
+      attempts.timerId = vertx.setTimer(delay, id -> {
+        attempts.timerId = -1;
+        sendHedge(pc, mi, hedge, attempts);
       });
+    }
+    attempts.promise.future().onComplete(ar -> {
+      if (attempts.timerId != -1) {
+        vertx.cancelTimer(attempts.timerId);
+      }
+      for (Attempt a : attempts.sent) {
+        if (a != attempts.winner && a.request != null) {
+          a.request.reset();
+        }
+      }
+    }).onFailure(cause -> {
+      releaseLimit(mi, start, 0);
+      proxyClientError(pc, mi, cause, timeout);
+    }).onSuccess(res -> {
+      if (attempts.winner.hedge) {
+        hedge.win();
+      }
+      mi.setUrl(attempts.winner.url);
+      mi.setInstId(attempts.winner.instId);
+      releaseLimit(mi, start, res.statusCode());
+      MetricsHelper.recordHttpClientResponse(sample, pc.getTenant(), res.statusCode(),
+          pc.getCtx().request().method().name(), mi);
+      proxyResponse(it, pc, mi, res);
+    });
+  }
+
+  private void sendHedge(ProxyContext pc, ModuleInstance mi, Hedger.Module hedge,
+                         Attempts attempts) {
+    long timeout = getTimeout(pc, mi);
+    if (attempts.promise.future().isComplete() || timeout < 0) {
+      return;
+    }
+    List<DeploymentDescriptor> live = discoveryManager.getLive(mi.getModuleDescriptor().getId());
+    if (live == null) {
+      return;
+    }
+    List<DeploymentDescriptor> others = new ArrayList<>(live.size());
+    for (DeploymentDescriptor dd : live) {
+      if (dd.getInstId() == null || !dd.getInstId().equals(mi.getInstId())) {
+        others.add(dd);
+      }
+    }
+    DeploymentDescriptor dd = balancer.pick(others, pc.getTenant());
+    if (dd == null || !hedge.tryHedge()) {
+      return;
+    }
+    logger.debug("Hedging request to {} with {}", mi.getUrl(), dd.getUrl());
+    sendAttempt(pc, mi, hedge, attempts, new Attempt(dd.getUrl(), dd.getInstId(), true),
+        timeout);
+  }
+
+  private void sendAttempt(ProxyContext pc, ModuleInstance mi, Hedger.Module hedge,
+                           Attempts attempts, Attempt attempt, long timeout) {
+    RoutingContext ctx = pc.getCtx();
+    String moduleId = mi.getModuleDescriptor().getId();
+    attempts.sent.add(attempt);
+    attempts.pending++;
+    final long start = balancer.start(attempt.instId);
+    clients.get(moduleId).request(new RequestOptions()
+        .setMethod(ctx.request().method())
+        .setAbsoluteURI(attempt.url + getPath(mi, ctx))
+        .setTimeout(timeout)
+    ).compose(clientRequest -> {
+      attempt.request = clientRequest;
+      copyHeaders(clientRequest, ctx, mi, timeout);
+      log(pc, clientRequest);
+      return clientRequest.send();
+    }).onComplete(ar -> {
+      attempts.pending--;
+      boolean decided = attempts.promise.future().isComplete();
+      if (ar.succeeded()) {
+        endRequest(moduleId, attempt.instId, start, ar.result().statusCode());
+        hedge.record(System.nanoTime() - start);
+      } else if (decided) {
+        balancer.cancel(attempt.instId); // cancelled as the other attempt won
+      } else {
+        endRequest(moduleId, attempt.instId, start, 0);
+      }
+      if (decided) {
+        if (ar.succeeded()) {
+          ar.result().request().reset();
+        }
+        return;
+      }
+      // a failed attempt only decides if no other attempt is pending
+      if (ar.succeeded()) {
+        attempts.winner = attempt;
+        attempts.promise.complete(ar.result());
+      } else if (attempts.pending == 0) {
+        attempts.promise.fail(ar.cause());
+      }
     });
   }
 
   private void proxyHeaders(Iterator<ModuleInstance> it, ProxyContext pc,
-                            ReadStream<Buffer> stream, Buffer bcontent,
+                            ReadStream<Buffer> stream, BodyBuffer bcontent,
                             List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
 
+    final long timeout = getTimeout(pc, mi);
+    if (!checkTimeout(pc, mi, timeout) || !acquire(pc, mi)) {
+      return;
+    }
     RoutingContext ctx = pc.getCtx();
-    Future<HttpClientRequest> fut = httpClient.request(
-        new RequestOptions().setMethod(ctx.request().method()).setAbsoluteURI(makeUrl(mi, ctx)));
-    fut.onFailure(res -> proxyClientFailure(pc, mi, res));
+    final long start = balancer.start(mi.getInstId());
+    Future<HttpClientRequest> fut = clients.get(mi.getModuleDescriptor().getId()).request(
+        requestOptions(pc, mi, timeout));
+    fut.onFailure(res -> proxyClientFailure(pc, mi, res, start, timeout));
     fut.onSuccess(clientRequest -> {
       final Timer.Sample sample = MetricsHelper.getTimerSample();
-      copyHeaders(clientRequest, ctx, mi);
+      copyHeaders(clientRequest, ctx, mi, timeout);
       clientRequest.end();
       log(pc, clientRequest);
-      clientRequest.onFailure(res -> proxyClientFailure(pc, mi, res));
+      clientRequest.onFailure(res -> proxyClientFailure(pc, mi, res, start, timeout));
       clientRequest.onSuccess(res -> {
+        endRequest(mi, start, res.statusCode());
         MetricsHelper.recordHttpClientResponse(sample, pc.getTenant(), res.statusCode(),
             ctx.request().method().name(), mi);
+        final String token = ctx.request().getHeader(XOkapiHeaders.TOKEN);
         Iterator<ModuleInstance> newIt = getNewIterator(it, mi, res.statusCode());
         if (newIt.hasNext()) {
           relayToRequest(res, pc, mi);
           storeResponseInfo(pc, mi, res);
           makeTraceHeader(mi, res.statusCode(), pc);
-          res.endHandler(x
-              -> proxyR(newIt, pc, stream, bcontent, clientRequestList));
+          res.endHandler(x -> {
+            cacheAuthRejection(pc, mi, token);
+            proxyR(newIt, pc, stream, bcontent, clientRequestList);
+          });
         } else {
           relayToResponse(ctx.response(), res, pc);
           makeTraceHeader(mi, res.statusCode(), pc);
           if (res.statusCode() >= 200 && res.statusCode() <= 299) {
             proxyResponseImmediate(pc, stream, bcontent, clientRequestList);
+          } else if (isCachedRejection(mi, res.statusCode(), token)) {
+            // the body is collected for the cache before it is sent
+            storeResponseInfo(pc, mi, res);
+            res.endHandler(x -> {
+              cacheAuthRejection(pc, mi, token);
+              proxyResponseImmediate(pc, stream, bcontent, clientRequestList);
+            });
           } else {
             proxyResponseImmediate(pc, res, null, clientRequestList);
             if (bcontent == null) {
@@ -907,7 +2181,7 @@ public class ProxyService {
   }
 
   private void proxyRedirect(Iterator<ModuleInstance> it,
-                             ProxyContext pc, ReadStream<Buffer> stream, Buffer bcontent,
+                             ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
                              List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
 
     logger.trace("ProxyRedirect {}", mi.getModuleDescriptor().getId());
@@ -917,23 +2191,24 @@ public class ProxyService {
   }
 
   private void proxyInternal(Iterator<ModuleInstance> it,
-                             ProxyContext pc, ReadStream<Buffer> stream, Buffer bcontent,
+                             ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
                              List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
 
-    proxyStreamToBuffer(stream, bcontent, res
-        -> proxyInternalBuffer(it, pc, res, clientRequestList, mi)
+    proxyStreamToBuffer(pc, stream, bcontent, body -> body.getContent()
+        .onFailure(cause -> pc.responseError(ErrorType.INTERNAL, cause))
+        .onSuccess(res -> proxyInternalBuffer(it, pc, body, res, clientRequestList, mi))
     );
   }
 
   private void proxyInternalBuffer(
       Iterator<ModuleInstance> it,
-      ProxyContext pc, Buffer bcontent, List<HttpClientRequest> clientRequestList,
-      ModuleInstance mi) {
-    String req = bcontent.toString();
+      ProxyContext pc, BodyBuffer bcontent, Buffer content,
+      List<HttpClientRequest> clientRequestList, ModuleInstance mi) {
+    String req = content.toString();
     logger.debug("proxyInternalBuffer {}", req);
     RoutingContext ctx = pc.getCtx();
 
-    clientsEnd(bcontent, clientRequestList);
+    clientsEnd(pc, bcontent, null, clientRequestList);
     internalModule.internalService(req, pc).onFailure(cause ->
         pc.responseError(OkapiError.getType(cause), cause)
     ).onSuccess(resp -> {
@@ -947,7 +2222,7 @@ public class ProxyService {
       pc.setHandlerRes(statusCode);
       makeTraceHeader(mi, statusCode, pc);
       if (it.hasNext()) { // carry on with the pipeline
-        proxyR(it, pc, null, respBuf, new LinkedList<>());
+        proxyR(it, pc, null, BodyBuffer.of(respBuf), new LinkedList<>());
       } else { // produce a result
         pc.closeTimer();
         ctx.response().end(respBuf);
@@ -956,7 +2231,7 @@ public class ProxyService {
   }
 
   private void proxyR(Iterator<ModuleInstance> it,
-                      ProxyContext pc, ReadStream<Buffer> stream, Buffer bcontent,
+                      ProxyContext pc, ReadStream<Buffer> stream, BodyBuffer bcontent,
                       List<HttpClientRequest> clientRequestList) {
 
     RoutingContext ctx = pc.getCtx();
@@ -1011,7 +2286,7 @@ public class ProxyService {
           proxyRequestOnly(it, pc, stream, bcontent, clientRequestList, mi);
           break;
         case REQUEST_RESPONSE:
-          proxyRequestResponse(it, pc, stream, bcontent, clientRequestList, mi);
+          proxyRequestResponse(it, pc, stream, bcontent, clientRequestList, mi, null);
           break;
         case HEADERS:
           proxyHeaders(it, pc, stream, bcontent, clientRequestList, mi);
@@ -1085,11 +2360,6 @@ public class ProxyService {
     }
   }
 
-  private static DeploymentDescriptor pickInstance(List<DeploymentDescriptor> instances) {
-    int sz = instances.size();
-    return sz > 0 ? instances.get(random.nextInt(sz)) : null;
-  }
-
   /**
    * Make a request to a system interface, like _tenant. Part 1: Check that we
    * are working as the right tenant, and if not so, change identity to the
@@ -1192,20 +2462,30 @@ public class ProxyService {
       MultiMap headersIn, String tenantId, String authToken,
       ModuleInstance inst, String modPerms, String request) {
 
-    return discoveryManager.get(inst.getModuleDescriptor().getId()).compose(gres -> {
+    List<DeploymentDescriptor> live = discoveryManager.getLive(inst.getModuleDescriptor().getId());
+    Future<List<DeploymentDescriptor>> liveFuture = live != null
+        ? Future.succeededFuture(live)
+        : discoveryManager.get(inst.getModuleDescriptor().getId());
+    return liveFuture.compose(gres -> {
       DeploymentDescriptor instance = null;
       if (gres != null) {
-        instance = pickInstance(gres);
+        instance = balancer.pick(gres, tenantId);
+      }
+      if (instance == null && gres != null && !gres.isEmpty()) {
+        return Future.failedFuture(new OkapiError(ErrorType.UNAVAILABLE,
+            messages.getMessage("11102", inst.getModuleDescriptor().getId(), inst.getPath())));
       }
       if (instance == null) {
         return Future.failedFuture(new OkapiError(ErrorType.USER, messages.getMessage("11100",
             inst.getModuleDescriptor().getId(), inst.getPath())));
       }
-      String baseurl = instance.getUrl();
+      final String baseurl = instance.getUrl();
+      final String instId = instance.getInstId();
       Map<String, String> headers = sysReqHeaders(headersIn, tenantId, authToken, inst, modPerms);
       headers.put(XOkapiHeaders.URL_TO, baseurl);
       logger.debug("syscall begin {} {}{}", inst.getMethod(), baseurl, inst.getPath());
-      OkapiClient cli = new OkapiClient(this.httpClient, baseurl, vertx, headers);
+      OkapiClient cli = new OkapiClient(clients.get(inst.getModuleDescriptor().getId()),
+          baseurl, vertx, headers);
       String reqId = inst.getPath().replaceFirst("^[/_]*([^/]+).*", "$1");
       cli.newReqId(reqId); // "tenant" or "tenantpermissions"
       cli.enableInfoLog();
@@ -1214,8 +2494,10 @@ public class ProxyService {
       }
       final Timer.Sample sample = MetricsHelper.getTimerSample();
       Promise<OkapiClient> promise = Promise.promise();
+      final long start = balancer.start(instId);
       cli.request(inst.getMethod(), inst.getPath(), request, cres -> {
         logger.debug("syscall return {} {}{}", inst.getMethod(), baseurl, inst.getPath());
+        endRequest(inst.getModuleDescriptor().getId(), instId, start, cli.getStatusCode());
         if (cres.failed()) {
           String msg = messages.getMessage("11101", inst.getMethod(),
               inst.getModuleDescriptor().getId(), inst.getPath(), cres.cause().getMessage());
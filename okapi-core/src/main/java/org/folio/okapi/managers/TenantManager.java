@@ -17,6 +17,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.InstallJob;
 import org.folio.okapi.bean.InterfaceDescriptor;
@@ -57,12 +59,16 @@ public class TenantManager implements Liveness {
   private String mapName = "tenants";
   private LockedTypedMap2<InstallJob> jobs = new LockedTypedMap2<>(InstallJob.class);
   private static final String EVENT_NAME = "timer";
-  private Set<String> timers = new HashSet<>();
+  private static final String EVENT_TENANT_UPDATE = "tenantUpdate";
+  private final Set<String> timers = ConcurrentHashMap.newKeySet();
   private Messages messages = Messages.getInstance();
   private Vertx vertx;
-  private Map<String, ModuleCache> enabledModulesCache = new HashMap<>();
+  private final Map<String, ModuleCache> enabledModulesCache = new ConcurrentHashMap<>();
   // tenants with new permission module (_tenantPermissions version 1.1 or later)
-  private Map<String, Boolean> expandedModulesCache = new HashMap<>();
+  private final Map<String, Boolean> expandedModulesCache = new ConcurrentHashMap<>();
+  // node-local copy of tenants, populated by get; invalidated by EVENT_TENANT_UPDATE
+  private final Map<String, Tenant> tenantCache = new ConcurrentHashMap<>();
+  private final AtomicLong tenantCacheGeneration = new AtomicLong();
 
   /**
    * Create tenant manager.
@@ -97,6 +103,7 @@ public class TenantManager implements Liveness {
    */
   public Future<Void> init(Vertx vertx) {
     this.vertx = vertx;
+    consumeTenantUpdates();
 
     return tenants.init(vertx, mapName)
         .compose(x -> jobs.init(vertx, "installJobs"))
@@ -131,6 +138,7 @@ public class TenantManager implements Liveness {
         })
         .compose(res1 -> tenantStore.insert(t))
         .compose(res2 -> tenants.add(id, t))
+        .compose(x -> invalidateTenant(id))
         .compose(x -> Future.succeededFuture(id));
   }
 
@@ -143,7 +151,8 @@ public class TenantManager implements Liveness {
       } else {
         t = new Tenant(td);
       }
-      return tenantStore.updateDescriptor(td).compose(res -> tenants.add(id, t));
+      return tenantStore.updateDescriptor(td).compose(res -> tenants.add(id, t))
+          .compose(res -> invalidateTenant(id));
     });
   }
 
@@ -164,11 +173,46 @@ public class TenantManager implements Liveness {
   /**
    * Get a tenant.
    *
+   * <p>Served from a node-local cache when possible. The returned tenant is
+   * shared and must not be modified.
+   *
    * @param tenantId tenant ID
    * @return fut future
    */
   public Future<Tenant> get(String tenantId) {
-    return tenants.getNotFound(tenantId);
+    Tenant tenant = tenantCache.get(tenantId);
+    if (tenant != null) {
+      return Future.succeededFuture(tenant);
+    }
+    long generation = tenantCacheGeneration.get();
+    return tenants.getNotFound(tenantId).onSuccess(t -> {
+      tenantCache.put(tenantId, t);
+      // an invalidation may have happened while we were fetching
+      if (tenantCacheGeneration.get() != generation) {
+        tenantCache.remove(tenantId, t);
+      }
+    });
+  }
+
+  private void consumeTenantUpdates() {
+    EventBus eb = vertx.eventBus();
+    eb.consumer(EVENT_TENANT_UPDATE, res -> invalidateTenantCache((String) res.body()));
+  }
+
+  private void invalidateTenantCache(String tenantId) {
+    tenantCacheGeneration.incrementAndGet();
+    tenantCache.remove(tenantId);
+  }
+
+  /**
+   * Invalidate cached tenant on this node and publish about it to all nodes.
+   * @param tenantId tenant ID
+   * @return future (always succeeds)
+   */
+  private Future<Void> invalidateTenant(String tenantId) {
+    invalidateTenantCache(tenantId);
+    vertx.eventBus().publish(EVENT_TENANT_UPDATE, tenantId);
+    return Future.succeededFuture();
   }
 
   /**
@@ -183,7 +227,8 @@ public class TenantManager implements Liveness {
         return Future.failedFuture(new OkapiError(ErrorType.NOT_FOUND, tenantId));
       }
       return tenants.removeNotFound(tenantId).mapEmpty();
-    }).compose(x -> reloadEnabledModules(tenantId));
+    }).compose(x -> invalidateTenant(tenantId))
+        .compose(x -> reloadEnabledModules(tenantId));
   }
 
   /**
@@ -219,7 +264,8 @@ public class TenantManager implements Liveness {
         return Future.failedFuture(new OkapiError(ErrorType.NOT_FOUND, id));
       }
       return tenants.put(id, t);
-    }).compose(x -> reloadEnabledModules(t));
+    }).compose(x -> invalidateTenant(id))
+        .compose(x -> reloadEnabledModules(t));
   }
 
   Future<Void> disableModules(String tenantId, TenantInstallOptions options, ProxyContext pc) {
@@ -537,8 +583,7 @@ public class TenantManager implements Liveness {
       final String path = re.getStaticPath();
       if (delay > 0 && path != null) {
         if (seq1 == 0) {
-          if (!timers.contains(key)) {
-            timers.add(key);
+          if (timers.add(key)) {
             waitTimer(tenantId, md, delay, seq);
           }
         } else if (seq == seq1) {
@@ -1082,10 +1127,11 @@ public class TenantManager implements Liveness {
    * @return Module Cache
    */
   public Future<ModuleCache> getModuleCache(Tenant tenant) {
-    if (!enabledModulesCache.containsKey(tenant.getId())) {
+    ModuleCache cache = enabledModulesCache.get(tenant.getId());
+    if (cache == null) {
       return Future.succeededFuture(new ModuleCache(new LinkedList<>()));
     }
-    return Future.succeededFuture(enabledModulesCache.get(tenant.getId()));
+    return Future.succeededFuture(cache);
   }
 
   /**
@@ -1111,19 +1157,21 @@ public class TenantManager implements Liveness {
     if (moduleManager == null) {
       return Future.succeededFuture(); // only happens in tests really
     }
-    List<ModuleDescriptor> mdl = new LinkedList<>();
     List<Future> futures = new LinkedList<>();
     for (String tenantId : tenant.getEnabled().keySet()) {
-      futures.add(moduleManager.get(tenantId).compose(md -> {
+      futures.add(moduleManager.get(tenantId).onSuccess(md -> {
         InterfaceDescriptor id = md.getSystemInterface("_tenantPermissions");
         if (id != null) {
           expandedModulesCache.put(tenant.getId(), !id.getVersion().equals("1.0"));
         }
-        mdl.add(md);
-        return Future.succeededFuture();
       }));
     }
+    // modules are collected when all are done; the futures may complete on other threads
     return CompositeFuture.all(futures).compose(res -> {
+      List<ModuleDescriptor> mdl = new LinkedList<>();
+      for (int i = 0; i < res.size(); i++) {
+        mdl.add(res.resultAt(i));
+      }
       enabledModulesCache.put(tenant.getId(), new ModuleCache(mdl));
       return Future.succeededFuture();
     });
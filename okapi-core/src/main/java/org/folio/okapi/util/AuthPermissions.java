@@ -0,0 +1,126 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.json.Json;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.logging.log4j.Logger;
+import org.folio.okapi.bean.ModuleInstance;
+import org.folio.okapi.bean.RoutingEntry;
+import org.folio.okapi.bean.RoutingEntry.ProxyType;
+import org.folio.okapi.common.OkapiLogger;
+import org.folio.okapi.common.XOkapiHeaders;
+
+/**
+ * Permission headers passed to the auth filter, joined and encoded as they
+ * are sent. For most pipelines they depend only on the routing entries, so
+ * {@link PipelineTemplate} keeps them for reuse by all requests.
+ */
+public final class AuthPermissions {
+
+  private static final Logger logger = OkapiLogger.get(AuthPermissions.class);
+
+  private final String required; // null if none
+  private final String desired; // null if none
+  private final String modulePermissions;
+  private final String extraPermissions; // null if none
+
+  private AuthPermissions(String required, String desired, String modulePermissions,
+                          String extraPermissions) {
+    this.required = required;
+    this.desired = desired;
+    this.modulePermissions = modulePermissions;
+    this.extraPermissions = extraPermissions;
+  }
+
+  /**
+   * Compute permission headers for modules of a request.
+   * @param modlist module instances of the request
+   * @param tenant tenant of the request
+   * @param expandModulePermissions whether module permissions are replaced by
+   *     the generated permission set id
+   * @return permission headers
+   */
+  public static AuthPermissions of(List<ModuleInstance> modlist, String tenant,
+                                   boolean expandModulePermissions) {
+    Set<String> req = new HashSet<>();
+    Set<String> want = new HashSet<>();
+    Set<String> extraperms = new HashSet<>();
+
+    Map<String, String[]> modperms = new HashMap<>(modlist.size());
+    for (ModuleInstance mod : modlist) {
+      RoutingEntry re = mod.getRoutingEntry();
+
+      if (re.getPermissionsRequiredTenant() != null
+          && mod.getAuthToken() != null
+          && re.matchUriTenant(mod.getPath(), tenant)) {
+        req.addAll(Arrays.asList(re.getPermissionsRequiredTenant()));
+      } else {
+        String[] reqp = re.getPermissionsRequired();
+        if (reqp != null) {
+          req.addAll(Arrays.asList(reqp));
+        }
+      }
+      String[] wap = re.getPermissionsDesired();
+      if (wap != null) {
+        want.addAll(Arrays.asList(wap));
+      }
+      String[] modp = re.getModulePermissions();
+      if (modp != null) {
+        // replace module permissions with auto generated permission set id
+        if (expandModulePermissions) {
+          modp = new String[]{re.generateSystemId(mod.getModuleDescriptor().getId())};
+        }
+        if (re.getProxyType() == ProxyType.REDIRECT) {
+          extraperms.addAll(Arrays.asList(modp));
+        } else {
+          modperms.put(mod.getModuleDescriptor().getId(), modp);
+        }
+      }
+    } // mod loop
+    return new AuthPermissions(
+        req.isEmpty() ? null : String.join(",", req),
+        want.isEmpty() ? null : String.join(",", want),
+        Json.encode(modperms),
+        extraperms.isEmpty() ? null : Json.encode(extraperms));
+  }
+
+  /**
+   * Whether permission headers depend on the request, rather than the routing
+   * entries alone.
+   * @param re routing entry
+   * @return true if request specific
+   */
+  static boolean isRequestSpecific(RoutingEntry re) {
+    // permissionsRequiredTenant depends on path, tenant and token
+    return re.getPermissionsRequiredTenant() != null;
+  }
+
+  /**
+   * Add permission headers.
+   * @param headers request headers for the auth filter
+   */
+  public void addTo(MultiMap headers) {
+    if (required != null) {
+      logger.debug("authHeaders: {} {}", XOkapiHeaders.PERMISSIONS_REQUIRED, required);
+      headers.add(XOkapiHeaders.PERMISSIONS_REQUIRED, required);
+    }
+    if (desired != null) {
+      logger.debug("authHeaders: {} {}", XOkapiHeaders.PERMISSIONS_DESIRED, desired);
+      headers.add(XOkapiHeaders.PERMISSIONS_DESIRED, desired);
+    }
+    // Add the X-Okapi-Module-Permissions even if empty. That causes auth to return
+    // an empty X-Okapi-Module-Token, which will tell us that we have done the mod
+    // perms, and no other module should be allowed to do the same.
+    logger.debug("authHeaders: {} {}", XOkapiHeaders.MODULE_PERMISSIONS, modulePermissions);
+    headers.add(XOkapiHeaders.MODULE_PERMISSIONS, modulePermissions);
+    if (extraPermissions != null) {
+      logger.debug("authHeaders: {} {}", XOkapiHeaders.EXTRA_PERMISSIONS, extraPermissions);
+      headers.add(XOkapiHeaders.EXTRA_PERMISSIONS, extraPermissions);
+    }
+  }
+}
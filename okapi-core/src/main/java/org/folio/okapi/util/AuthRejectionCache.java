@@ -0,0 +1,237 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Negative cache of auth filter rejections.
+ *
+ * <p>When the auth filter rejects a request with status 401 or 403, the status and
+ * body are kept for a short time, keyed by tenant and, like {@link TokenCache} entries, by
+ * method, path pattern and token. Further requests with the same key get the rejection from
+ * the cache without a call to the auth module, so that a client that keeps retrying with an
+ * expired or insufficient token does not load the auth module at the rate of its requests.
+ *
+ * <p>Hits are counted for each entry. When the cache is full, expired entries are removed,
+ * and if it is still full, new rejections are not cached; so many distinct tokens can not
+ * grow the cache beyond its size.
+ */
+public final class AuthRejectionCache {
+
+  public static final long DEFAULT_TTL = 0L;
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private final long ttl;
+  private final int maxSize;
+  private final Map<Key, Entry> map = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+
+  /**
+   * Cached rejection. Immutable, except for its hit count.
+   */
+  public static final class Entry {
+    private final int status;
+    private final MultiMap headers;
+    private final Buffer body;
+    private final long expires;
+    private final LongAdder hits = new LongAdder();
+
+    Entry(int status, MultiMap headers, Buffer body, long expires) {
+      this.status = status;
+      this.headers = MultiMap.caseInsensitiveMultiMap().addAll(headers);
+      this.body = body;
+      this.expires = expires;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * Get Content-Type of rejection.
+     * @return header value; null if absent
+     */
+    public String getContentType() {
+      return headers.get("Content-Type");
+    }
+
+    /**
+     * Get headers of rejection as sent to the client. Must not be modified.
+     * @return headers
+     */
+    public MultiMap getHeaders() {
+      return headers;
+    }
+
+    public Buffer getBody() {
+      return body;
+    }
+
+    /**
+     * Get number of requests that got this rejection from the cache.
+     * @return count
+     */
+    public long getHits() {
+      return hits.sum();
+    }
+  }
+
+  /**
+   * Key of rejection. A token is only rejected again for the tenant it was rejected for.
+   */
+  private static final class Key {
+    private final String tenant;
+    private final TokenCache.CacheKey tokenKey;
+
+    Key(String tenant, String method, String path, String token) {
+      this.tenant = tenant;
+      this.tokenKey = new TokenCache.CacheKey(method, path, token);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return tokenKey.equals(other.tokenKey) && Objects.equals(tenant, other.tenant);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * tokenKey.hashCode() + Objects.hashCode(tenant);
+    }
+  }
+
+  private AuthRejectionCache(Builder builder) {
+    ttl = builder.ttl;
+    maxSize = builder.maxSize;
+    if (isEnabled()) {
+      MetricsHelper.registerAuthRejectionCacheGauges(this);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public boolean isEnabled() {
+    return ttl > 0 && maxSize > 0;
+  }
+
+  /**
+   * Whether a status of the auth filter is cached.
+   * @param status HTTP status
+   * @return true for 401 and 403
+   */
+  public static boolean isRejection(int status) {
+    return status == 401 || status == 403;
+  }
+
+  /**
+   * Cache a rejection. Does nothing if the cache is disabled or the status is
+   * not a rejection.
+   * @param tenant tenant of the rejected request
+   * @param method HTTP method
+   * @param path path pattern
+   * @param token X-Okapi-Token of the rejected request
+   * @param status HTTP status of auth filter
+   * @param headers headers of auth filter response as sent to the client; copied
+   * @param body body of auth filter response
+   */
+  public void put(String tenant, String method, String path, String token, int status,
+                  MultiMap headers, Buffer body) {
+    put(tenant, method, path, token, status, headers, body, System.currentTimeMillis());
+  }
+
+  void put(String tenant, String method, String path, String token, int status,
+           MultiMap headers, Buffer body, long now) {
+    if (!isEnabled() || !isRejection(status)) {
+      return;
+    }
+    if (map.size() >= maxSize) {
+      map.values().removeIf(e -> e.expires < now);
+      if (map.size() >= maxSize) {
+        return;
+      }
+    }
+    map.put(new Key(tenant, method, path, token),
+        new Entry(status, headers, body.copy(), now + ttl));
+  }
+
+  /**
+   * Get a cached rejection and count the hit.
+   * @param tenant tenant of request
+   * @param method HTTP method
+   * @param path path pattern
+   * @param token X-Okapi-Token header
+   * @return rejection; null if none or expired
+   */
+  public Entry get(String tenant, String method, String path, String token) {
+    return get(tenant, method, path, token, System.currentTimeMillis());
+  }
+
+  Entry get(String tenant, String method, String path, String token, long now) {
+    if (map.isEmpty()) {
+      return null;
+    }
+    Key key = new Key(tenant, method, path, token);
+    Entry entry = map.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expires < now) {
+      map.remove(key, entry);
+      return null;
+    }
+    entry.hits.increment();
+    hits.increment();
+    return entry;
+  }
+
+  /**
+   * Return number of entries, including expired entries not yet removed.
+   * @return number of entries
+   */
+  public int size() {
+    return map.size();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public static final class Builder {
+
+    private long ttl = DEFAULT_TTL;
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    public AuthRejectionCache build() {
+      return new AuthRejectionCache(this);
+    }
+
+    /**
+     * Set time rejections are cached.
+     * @param ttl milliseconds; 0 to disable cache
+     * @return builder
+     */
+    public Builder withTtl(long ttl) {
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * Set maximum number of cached rejections.
+     * @param maxSize number of entries
+     * @return builder
+     */
+    public Builder withMaxSize(int maxSize) {
+      this.maxSize = maxSize;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,407 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.streams.ReadStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.Logger;
+import org.folio.okapi.common.OkapiLogger;
+
+/**
+ * Request body collected for modules that need all of it, or for replay to
+ * more than one module in a pipeline.
+ *
+ * <p>Up to a per-request memory limit the body is kept on heap. Beyond that,
+ * the body is written to a temporary file with backpressure on the incoming
+ * stream. The file is bounded too; larger bodies are rejected. The temporary
+ * file is removed by {@link #release()}.
+ */
+public final class BodyBuffer {
+
+  public static final long DEFAULT_MEMORY_LIMIT = 1024 * 1024L;
+  public static final long DEFAULT_FILE_LIMIT = 2L * 1024 * 1024 * 1024;
+
+  private static final Logger logger = OkapiLogger.get(BodyBuffer.class);
+  private static final AtomicLong memoryBytes = new AtomicLong();
+  private static final AtomicLong fileBytes = new AtomicLong();
+  private static final LongAdder spillCount = new LongAdder();
+  private static final AtomicLong openFiles = new AtomicLong();
+
+  private final FileSystem fileSystem;
+  private Buffer buffer; // null if spilled to file
+  private String path; // temporary file; null if in memory
+  private long length;
+  private long accounted; // bytes counted in memoryBytes or fileBytes
+  private boolean released;
+
+  private BodyBuffer(FileSystem fileSystem, Buffer buffer) {
+    this.fileSystem = fileSystem;
+    this.buffer = buffer;
+    this.length = buffer.length();
+  }
+
+  /**
+   * Thrown (as failure) when a body exceeds the file limit.
+   */
+  public static final class TooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long limit;
+
+    TooLargeException(long limit) {
+      super("Request body exceeds limit of " + limit + " bytes");
+      this.limit = limit;
+    }
+
+    public long getLimit() {
+      return limit;
+    }
+  }
+
+  /**
+   * Wrap a buffer that is already in memory. It is not counted against limits.
+   * @param buffer content
+   * @return body buffer
+   */
+  public static BodyBuffer of(Buffer buffer) {
+    return new BodyBuffer(null, buffer);
+  }
+
+  /**
+   * Collect stream into body buffer. The stream is resumed by this call.
+   * @param vertx Vert.x handle
+   * @param stream incoming stream; paused
+   * @param memoryLimit maximum number of bytes kept in memory
+   * @param fileLimit maximum number of bytes in total
+   * @return future with body; fails with {@link TooLargeException} if too large
+   */
+  public static Future<BodyBuffer> collect(Vertx vertx, ReadStream<Buffer> stream,
+                                           long memoryLimit, long fileLimit) {
+    Promise<BodyBuffer> promise = Promise.promise();
+    new Collector(new BodyBuffer(vertx.fileSystem(), Buffer.buffer()), stream,
+        memoryLimit, fileLimit, promise).start();
+    return promise.future();
+  }
+
+  /**
+   * Number of bytes currently held in memory by all body buffers.
+   * @return bytes
+   */
+  public static long getMemoryBytes() {
+    return memoryBytes.get();
+  }
+
+  /**
+   * Number of bytes currently held in temporary files by all body buffers.
+   * @return bytes
+   */
+  public static long getFileBytes() {
+    return fileBytes.get();
+  }
+
+  /**
+   * Number of bodies that have been spilled to temporary file.
+   * @return count
+   */
+  public static long getSpillCount() {
+    return spillCount.sum();
+  }
+
+  /**
+   * Number of temporary files currently open for reading by {@link #open()}.
+   * @return count
+   */
+  public static long getOpenFiles() {
+    return openFiles.get();
+  }
+
+  public long length() {
+    return length;
+  }
+
+  public boolean isSpilled() {
+    return path != null;
+  }
+
+  /**
+   * Return content in memory.
+   * @return buffer; null if body is spilled to file
+   */
+  public Buffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Return all of the content in memory, reading the temporary file if spilled.
+   * For consumers that need the body as a whole, such as the internal module.
+   * @return future with content
+   */
+  public Future<Buffer> getContent() {
+    if (path == null) {
+      return Future.succeededFuture(buffer);
+    }
+    return fileSystem.readFile(path);
+  }
+
+  /**
+   * Open a new read stream for spilled content. May be called several times.
+   * The file is closed when the stream ends or fails.
+   * @return stream, paused
+   */
+  public Future<ReadStream<Buffer>> open() {
+    if (path == null) {
+      return Future.failedFuture("body is not spilled");
+    }
+    return fileSystem.open(path, new OpenOptions().setRead(true).setWrite(false)
+        .setCreate(false)).map(FileStream::new);
+  }
+
+  /**
+   * Release memory and remove temporary file, if any.
+   */
+  public void release() {
+    if (released) {
+      return;
+    }
+    released = true;
+    if (path != null) {
+      fileBytes.addAndGet(-accounted);
+      String p = path;
+      fileSystem.delete(p).onFailure(cause ->
+          logger.warn("Could not delete {}: {}", p, cause.getMessage()));
+    } else {
+      memoryBytes.addAndGet(-accounted);
+    }
+    accounted = 0;
+  }
+
+  /**
+   * Read stream of a temporary file that closes the file when done.
+   */
+  private static final class FileStream implements ReadStream<Buffer> {
+    private final AsyncFile file;
+    private boolean closed;
+
+    FileStream(AsyncFile file) {
+      this.file = file;
+      openFiles.incrementAndGet();
+      file.pause();
+      file.endHandler(v -> close());
+      file.exceptionHandler(e -> close());
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      file.close().onComplete(res -> {
+        openFiles.decrementAndGet();
+        if (res.failed()) {
+          logger.warn("Could not close body file: {}", res.cause().getMessage());
+        }
+      });
+    }
+
+    @Override
+    public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+      file.exceptionHandler(e -> {
+        close();
+        if (handler != null) {
+          handler.handle(e);
+        }
+      });
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+      file.handler(handler);
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> pause() {
+      file.pause();
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> resume() {
+      file.resume();
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> fetch(long amount) {
+      file.fetch(amount);
+      return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> endHandler(Handler<Void> handler) {
+      file.endHandler(v -> {
+        close();
+        if (handler != null) {
+          handler.handle(v);
+        }
+      });
+      return this;
+    }
+  }
+
+  private static final class Collector {
+    private final BodyBuffer body;
+    private final ReadStream<Buffer> stream;
+    private final long memoryLimit;
+    private final long fileLimit;
+    private final Promise<BodyBuffer> promise;
+    private final List<Buffer> pending = new LinkedList<>();
+    private AsyncFile file;
+    private boolean opening;
+    private boolean ended;
+    private boolean failed;
+
+    Collector(BodyBuffer body, ReadStream<Buffer> stream, long memoryLimit, long fileLimit,
+              Promise<BodyBuffer> promise) {
+      this.body = body;
+      this.stream = stream;
+      this.memoryLimit = memoryLimit;
+      this.fileLimit = fileLimit;
+      this.promise = promise;
+    }
+
+    void start() {
+      stream.exceptionHandler(this::fail);
+      stream.endHandler(v -> {
+        ended = true;
+        if (!opening) {
+          finish();
+        }
+      });
+      stream.handler(this::handle);
+      stream.resume();
+    }
+
+    private void handle(Buffer data) {
+      if (failed) {
+        return; // discard remaining content
+      }
+      body.length += data.length();
+      if (body.length > Math.max(memoryLimit, fileLimit)) {
+        fail(new TooLargeException(Math.max(memoryLimit, fileLimit)));
+        return;
+      }
+      if (opening) {
+        pending.add(data);
+      } else if (file != null) {
+        write(data);
+      } else if (body.length <= memoryLimit) {
+        body.buffer.appendBuffer(data);
+        body.accounted += data.length();
+        memoryBytes.addAndGet(data.length());
+      } else {
+        spill(data);
+      }
+    }
+
+    private void spill(Buffer data) {
+      opening = true;
+      pending.add(data);
+      stream.pause();
+      FileSystem fs = body.fileSystem;
+      fs.createTempFile("okapi-body-", ".tmp").compose(p -> {
+        body.path = p;
+        return fs.open(p, new OpenOptions());
+      }).onFailure(cause -> {
+        opening = false;
+        if (failed) {
+          body.release();
+        } else {
+          fail(cause);
+        }
+      }).onSuccess(f -> {
+        file = f;
+        opening = false;
+        spillCount.increment();
+        logger.debug("Spilling request body to {}", body.path);
+        memoryBytes.addAndGet(-body.accounted);
+        body.accounted = 0;
+        Buffer inMemory = body.buffer;
+        body.buffer = null;
+        if (failed) {
+          finish();
+          return;
+        }
+        write(inMemory);
+        for (Buffer b : pending) {
+          write(b);
+        }
+        pending.clear();
+        if (ended) {
+          finish();
+        } else if (!file.writeQueueFull()) {
+          stream.resume();
+        }
+      });
+    }
+
+    private void write(Buffer data) {
+      file.write(data);
+      body.accounted += data.length();
+      fileBytes.addAndGet(data.length());
+      if (file.writeQueueFull()) {
+        stream.pause();
+        file.drainHandler(v -> {
+          if (!ended && !failed) {
+            stream.resume();
+          }
+        });
+      }
+    }
+
+    private void finish() {
+      if (file == null) {
+        if (failed) {
+          body.release();
+        } else {
+          promise.complete(body);
+        }
+        return;
+      }
+      file.close().onComplete(res -> {
+        if (failed) {
+          body.release();
+        } else if (res.failed()) {
+          fail(res.cause());
+        } else {
+          promise.complete(body);
+        }
+      });
+    }
+
+    private void fail(Throwable cause) {
+      if (failed || promise.future().isComplete()) {
+        return;
+      }
+      failed = true;
+      pending.clear();
+      if (file != null) {
+        file.close().onComplete(x -> body.release());
+      } else if (!opening) {
+        body.release();
+      } // else released when open completes
+      promise.fail(cause);
+      stream.resume(); // drain rest of content
+    }
+  }
+}
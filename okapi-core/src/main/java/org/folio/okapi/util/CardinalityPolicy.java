@@ -0,0 +1,127 @@
+package org.folio.okapi.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits on the number of series of Okapi meters.
+ *
+ * <p>Only allow-listed tag keys are reported. For tag keys with unbounded values,
+ * such as user ids and request paths, only the most frequent values are reported
+ * as such; the rest share the value {@link #OTHER}. Finally, each meter has a hard
+ * limit on the number of series. Events that would create more series are not
+ * recorded, but counted by a separate counter.
+ */
+public final class CardinalityPolicy {
+
+  public static final String OTHER = "other";
+  public static final int DEFAULT_TOP_K = 100;
+  public static final int DEFAULT_MAX_SERIES = 10000;
+  public static final String DEFAULT_TOP_K_TAGS = "userId,url";
+
+  private final Set<String> tagKeys;
+  private final Set<String> topKTags;
+  private final int topK;
+  private final int maxSeries;
+
+  private CardinalityPolicy(Builder builder) {
+    this.tagKeys = builder.tagKeys;
+    this.topKTags = builder.topKTags;
+    this.topK = builder.topK;
+    this.maxSeries = builder.maxSeries;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Whether tag is reported.
+   * @param key tag key
+   * @return true if allowed
+   */
+  public boolean isAllowed(String key) {
+    return tagKeys == null || tagKeys.contains(key);
+  }
+
+  /**
+   * Whether only the most frequent values of tag are reported.
+   * @param key tag key
+   * @return true if values are limited to top-K
+   */
+  public boolean isTopK(String key) {
+    return topK > 0 && topKTags.contains(key);
+  }
+
+  public int getTopK() {
+    return topK;
+  }
+
+  public int getMaxSeries() {
+    return maxSeries;
+  }
+
+  private static Set<String> parseKeys(String keys) {
+    Set<String> set = new HashSet<>();
+    for (String key : keys.split(",")) {
+      if (!key.trim().isEmpty()) {
+        set.add(key.trim());
+      }
+    }
+    return Collections.unmodifiableSet(set);
+  }
+
+  public static final class Builder {
+
+    private Set<String> tagKeys;
+    private Set<String> topKTags = parseKeys(DEFAULT_TOP_K_TAGS);
+    private int topK = DEFAULT_TOP_K;
+    private int maxSeries = DEFAULT_MAX_SERIES;
+
+    public CardinalityPolicy build() {
+      return new CardinalityPolicy(this);
+    }
+
+    /**
+     * Set allow-listed tag keys.
+     * @param tagKeys comma separated tag keys; null for all
+     * @return builder
+     */
+    public Builder withTagKeys(String tagKeys) {
+      this.tagKeys = tagKeys == null ? null : parseKeys(tagKeys);
+      return this;
+    }
+
+    /**
+     * Set tag keys for which only top-K values are reported.
+     * @param topKTags comma separated tag keys
+     * @return builder
+     */
+    public Builder withTopKTags(String topKTags) {
+      this.topKTags = parseKeys(topKTags);
+      return this;
+    }
+
+    /**
+     * Set number of values reported for top-K tag keys.
+     * @param topK number of values; 0 for no limit
+     * @return builder
+     */
+    public Builder withTopK(int topK) {
+      this.topK = topK;
+      return this;
+    }
+
+    public Builder withMaxSeries(int maxSeries) {
+      this.maxSeries = maxSeries;
+      return this;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "tagKeys=" + (tagKeys == null ? "*" : tagKeys)
+        + " topKTags=" + topKTags + " topK=" + topK + " maxSeries=" + maxSeries;
+  }
+}
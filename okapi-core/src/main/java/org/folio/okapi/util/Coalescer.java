@@ -0,0 +1,99 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls with the same key into one (single-flight).
+ *
+ * <p>The first caller for a key makes the call. Callers that arrive with the
+ * same key while it is in progress get its result rather than making their
+ * own call. Once the call completes, the next caller makes a new one; results
+ * are not kept.
+ *
+ * @param <K> key
+ * @param <V> result; shared by all callers, so it should be immutable
+ */
+public final class Coalescer<K, V> {
+
+  private final Map<K, Future<V>> calls = new ConcurrentHashMap<>();
+  private final Tally requests = MetricsHelper.tally(MetricsHelper.METRICS_COALESCE_REQUESTS,
+      null);
+  private final Tally upstream = MetricsHelper.tally(MetricsHelper.METRICS_COALESCE_UPSTREAM,
+      null);
+
+  /**
+   * Create coalescer. Its calls are counted, and a gauge is registered for it.
+   */
+  public Coalescer() {
+    MetricsHelper.registerCoalescerGauges(this);
+  }
+
+  /**
+   * Make call, or join a call in progress with the same key.
+   * @param key key of call
+   * @param call makes the call; only invoked if no call with key is in progress
+   * @return result of call; completed on the context of the caller
+   */
+  public Future<V> execute(K key, Supplier<Future<V>> call) {
+    requests.increment();
+    Promise<V> promise = Promise.promise();
+    Future<V> existing = calls.putIfAbsent(key, promise.future());
+    if (existing != null) {
+      Context context = Vertx.currentContext();
+      Promise<V> waiter = Promise.promise();
+      existing.onComplete(ar -> complete(context, waiter, ar));
+      return waiter.future();
+    }
+    upstream.increment();
+    Future<V> future;
+    try {
+      future = call.get();
+    } catch (RuntimeException e) {
+      future = Future.failedFuture(e);
+    }
+    future.onComplete(ar -> {
+      calls.remove(key, promise.future());
+      promise.handle(ar);
+    });
+    return promise.future();
+  }
+
+  private static <V> void complete(Context context, Promise<V> promise, AsyncResult<V> ar) {
+    if (context == null) {
+      promise.handle(ar);
+    } else {
+      context.runOnContext(x -> promise.handle(ar));
+    }
+  }
+
+  /**
+   * Get number of calls.
+   * @return calls made or joined
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * Get number of calls that were made.
+   * @return calls not joined to a call in progress
+   */
+  public long getUpstream() {
+    return upstream.sum();
+  }
+
+  /**
+   * Get number of calls in progress.
+   * @return number of keys with a call in progress
+   */
+  public int getInFlight() {
+    return calls.size();
+  }
+}
@@ -0,0 +1,194 @@
+package org.folio.okapi.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.folio.okapi.common.ModuleId;
+
+/**
+ * Limits the number of concurrent requests to each module.
+ *
+ * <p>The limit of a module adapts to its response times. A long-term average
+ * of response time serves as baseline. While responses are as fast as the
+ * baseline, the limit grows by about the square root of the limit; as they get
+ * slower, which means requests queue up in the module, the limit shrinks in
+ * proportion. Failures, as defined by {@link OutlierPolicy#isFailure(int)},
+ * shrink the limit by 10%. The limit only grows while it is actually used.
+ *
+ * <p>A request that would exceed the limit is not sent; the caller should
+ * reject it at once, rather than let it wait for a connection.
+ */
+public final class ConcurrencyLimiter {
+
+  public static final int DEFAULT_INITIAL_LIMIT = 20;
+  static final int MIN_LIMIT = 1;
+  // weight of a sample in the long-term average; about 1/500 samples
+  static final double LONG_RTT_ALPHA = 2.0 / 501;
+  // weight of a new limit estimate
+  static final double SMOOTHING = 0.2;
+  // response time within this factor of the baseline is not considered queuing
+  static final double TOLERANCE = 1.5;
+  static final double BACKOFF = 0.9;
+
+  private final int initialLimit;
+  private final int maxLimit;
+  private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+  // product by module ID, so that IDs are not parsed for each request
+  private final Map<String, String> products = new ConcurrentHashMap<>();
+
+  /**
+   * Limit of one module.
+   */
+  public static final class Limit {
+    private final String name;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Tally rejected;
+    private volatile double limit;
+    private double longRtt; // nanoseconds; guarded by this
+
+    Limit(String name, int initialLimit, int maxLimit) {
+      this.name = name;
+      this.maxLimit = maxLimit;
+      this.limit = initialLimit;
+      this.rejected = MetricsHelper.tally(MetricsHelper.METRICS_CONCURRENCY_REJECTED, name);
+    }
+
+    /**
+     * Get name of limit.
+     * @return product name of module
+     */
+    public String getName() {
+      return name;
+    }
+
+    public int getInFlight() {
+      return inFlight.get();
+    }
+
+    /**
+     * Get current limit.
+     * @return maximum number of requests in flight
+     */
+    public int getLimit() {
+      return (int) limit;
+    }
+
+    /**
+     * Get number of requests rejected because of the limit.
+     * @return number of requests since start
+     */
+    public long getRejected() {
+      return rejected.sum();
+    }
+
+    /**
+     * Start request if within limit.
+     * @return true if started; false if limit is reached and request is rejected
+     */
+    public boolean tryAcquire() {
+      int n = inFlight.get();
+      while (n < getLimit()) {
+        if (inFlight.compareAndSet(n, n + 1)) {
+          return true;
+        }
+        n = inFlight.get();
+      }
+      rejected.increment();
+      return false;
+    }
+
+    /**
+     * End request started by {@link #tryAcquire()} and adapt limit.
+     * @param rtt response time in nanoseconds
+     * @param status HTTP status of response; 0 if no response was received
+     */
+    public void release(long rtt, int status) {
+      int n = inFlight.getAndUpdate(i -> i > 0 ? i - 1 : 0);
+      update(rtt, status, n);
+    }
+
+    synchronized void update(long rtt, int status, int inFlightBefore) {
+      if (OutlierPolicy.isFailure(status)) {
+        limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+        return;
+      }
+      if (rtt <= 0) {
+        return;
+      }
+      if (longRtt == 0.0) {
+        longRtt = rtt;
+      } else {
+        longRtt = longRtt * (1.0 - LONG_RTT_ALPHA) + rtt * LONG_RTT_ALPHA;
+      }
+      double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rtt));
+      double newLimit = limit * gradient;
+      // only grow when the limit is used; otherwise there is no evidence it helps
+      if (gradient >= 1.0 && inFlightBefore * 2 >= limit) {
+        newLimit += Math.sqrt(limit);
+      }
+      newLimit = limit * (1.0 - SMOOTHING) + newLimit * SMOOTHING;
+      limit = Math.max(MIN_LIMIT, Math.min(maxLimit, newLimit));
+    }
+  }
+
+  private ConcurrencyLimiter(Builder builder) {
+    maxLimit = builder.maxLimit;
+    initialLimit = Math.min(builder.initialLimit, builder.maxLimit);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Get limit of a module. The limit is created on first use.
+   * @param moduleId module ID
+   * @return limit shared by all versions of module
+   */
+  public Limit getLimit(String moduleId) {
+    String product = products.get(moduleId);
+    if (product == null) {
+      product = products.computeIfAbsent(moduleId, id -> new ModuleId(id).getProduct());
+    }
+    Limit limit = limits.get(product);
+    if (limit != null) {
+      return limit;
+    }
+    return limits.computeIfAbsent(product, k -> {
+      Limit l = new Limit(k, initialLimit, maxLimit);
+      MetricsHelper.registerConcurrencyLimitGauges(l);
+      return l;
+    });
+  }
+
+  public static final class Builder {
+
+    private int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private int maxLimit = Integer.MAX_VALUE;
+
+    public ConcurrencyLimiter build() {
+      return new ConcurrencyLimiter(this);
+    }
+
+    /**
+     * Set limit of a module before any responses are seen.
+     * @param initialLimit number of requests
+     * @return builder
+     */
+    public Builder withInitialLimit(int initialLimit) {
+      this.initialLimit = initialLimit;
+      return this;
+    }
+
+    /**
+     * Set upper bound of limit.
+     * @param maxLimit number of requests
+     * @return builder
+     */
+    public Builder withMaxLimit(int maxLimit) {
+      this.maxLimit = maxLimit;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package org.folio.okapi.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.folio.okapi.common.ModuleId;
+
+/**
+ * Decides when to hedge requests to modules, that is, to send a second
+ * attempt to another instance when the first is slow.
+ *
+ * <p>A request is hedged when it has not been answered within a percentile
+ * of recent response times of the module. The number of hedges is bounded
+ * by a budget: each request earns a fraction of a hedge, and a hedge is only
+ * sent when a whole one has been earned. With a budget of 5%, at most about
+ * 5 hedges are sent per 100 requests.
+ *
+ * <p>Only modules given by name (product, without version) are hedged.
+ */
+public final class Hedger {
+
+  public static final int DEFAULT_PERCENTILE = 95;
+  public static final double DEFAULT_BUDGET = 5.0;
+  // response times kept per module
+  static final int SAMPLES = 512;
+  // no hedging before this many response times are seen
+  static final int MIN_SAMPLES = 20;
+  // percentile is recomputed after this many response times
+  static final int RECOMPUTE = 16;
+  // hedges that can be saved up
+  static final double MAX_TOKENS = 10.0;
+
+  private final Set<String> modules;
+  private final int percentile;
+  private final double budget;
+  private final Map<String, Module> stats = new ConcurrentHashMap<>();
+  // product by module ID, so that IDs are not parsed for each request
+  private final Map<String, String> products = new ConcurrentHashMap<>();
+
+  /**
+   * Hedging state of one module.
+   */
+  public static final class Module {
+    private final String name;
+    private final int percentile;
+    private final double budget;
+    private final Tally requests;
+    private final Tally hedged;
+    private final Tally wins;
+    private final long[] samples = new long[SAMPLES]; // guarded by this
+    private int count; // guarded by this
+    private double tokens; // guarded by this
+    private volatile long delay = -1;
+
+    Module(String name, int percentile, double budget) {
+      this.name = name;
+      this.percentile = percentile;
+      this.budget = budget;
+      this.requests = MetricsHelper.tally(MetricsHelper.METRICS_HEDGE_REQUESTS, name);
+      this.hedged = MetricsHelper.tally(MetricsHelper.METRICS_HEDGE_HEDGED, name);
+      this.wins = MetricsHelper.tally(MetricsHelper.METRICS_HEDGE_WINS, name);
+    }
+
+    /**
+     * Get name of module.
+     * @return product name of module
+     */
+    public String getName() {
+      return name;
+    }
+
+    public long getRequests() {
+      return requests.sum();
+    }
+
+    /**
+     * Get number of hedges sent.
+     * @return number of requests with a second attempt
+     */
+    public long getHedged() {
+      return hedged.sum();
+    }
+
+    /**
+     * Get number of hedges that answered first.
+     * @return number of requests answered by the second attempt
+     */
+    public long getWins() {
+      return wins.sum();
+    }
+
+    /**
+     * Get time to wait for the first attempt before hedging.
+     * @return milliseconds; -1 if not enough response times are known
+     */
+    public long getDelayMs() {
+      long d = delay;
+      return d < 0 ? -1 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(d));
+    }
+
+    /**
+     * Report start of request; earns a fraction of a hedge.
+     */
+    public synchronized void start() {
+      requests.increment();
+      tokens = Math.min(MAX_TOKENS, tokens + budget / 100.0);
+    }
+
+    /**
+     * Take a hedge from the budget.
+     * @return true if hedge may be sent; false if budget is used up
+     */
+    public synchronized boolean tryHedge() {
+      if (tokens < 1.0) {
+        return false;
+      }
+      tokens -= 1.0;
+      hedged.increment();
+      return true;
+    }
+
+    /**
+     * Report that the hedge answered first.
+     */
+    public void win() {
+      wins.increment();
+    }
+
+    /**
+     * Record response time of an attempt.
+     * @param rtt response time in nanoseconds
+     */
+    public synchronized void record(long rtt) {
+      samples[count % SAMPLES] = rtt;
+      count++;
+      if (count >= MIN_SAMPLES && count % RECOMPUTE == 0) {
+        long[] sorted = Arrays.copyOf(samples, Math.min(count, SAMPLES));
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        delay = sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+      }
+    }
+  }
+
+  private Hedger(Builder builder) {
+    modules = builder.modules;
+    percentile = builder.percentile;
+    budget = builder.budget;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Get hedging state of a module.
+   * @param moduleId module ID
+   * @return state shared by all versions of module; null if module is not hedged
+   */
+  public Module getModule(String moduleId) {
+    if (modules.isEmpty()) {
+      return null;
+    }
+    String product = products.get(moduleId);
+    if (product == null) {
+      product = products.computeIfAbsent(moduleId, id -> new ModuleId(id).getProduct());
+    }
+    if (!modules.contains(product)) {
+      return null;
+    }
+    Module m = stats.get(product);
+    if (m != null) {
+      return m;
+    }
+    return stats.computeIfAbsent(product, k -> new Module(k, percentile, budget));
+  }
+
+  public static final class Builder {
+
+    private Set<String> modules = new HashSet<>();
+    private int percentile = DEFAULT_PERCENTILE;
+    private double budget = DEFAULT_BUDGET;
+
+    public Hedger build() {
+      return new Hedger(this);
+    }
+
+    /**
+     * Set modules to hedge.
+     * @param modules comma separated module names; null or empty for none
+     * @return builder
+     */
+    public Builder withModules(String modules) {
+      this.modules = new HashSet<>();
+      if (modules != null) {
+        for (String m : modules.split(",")) {
+          if (!m.trim().isEmpty()) {
+            this.modules.add(m.trim());
+          }
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Set percentile of response time after which a request is hedged.
+     * @param percentile 1 to 99
+     * @return builder
+     */
+    public Builder withPercentile(int percentile) {
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * Set maximum extra load caused by hedging.
+     * @param budget percent of requests
+     * @return builder
+     */
+    public Builder withBudget(double budget) {
+      this.budget = budget;
+      return this;
+    }
+  }
+}
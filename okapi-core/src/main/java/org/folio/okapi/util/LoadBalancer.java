@@ -0,0 +1,597 @@
+package org.folio.okapi.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import org.folio.okapi.bean.DeploymentDescriptor;
+
+/**
+ * Picks the instance of a module that serves a request.
+ *
+ * <p>The balancer keeps track of requests in flight and response times for
+ * each instance, identified by instance ID. Callers report each request with
+ * {@link #start(String)} and {@link #end(String, long, int)}.
+ *
+ * <p>Instances are picked by "power of two choices": two distinct instances are
+ * chosen at random and the one with lower load, as defined by the strategy, is
+ * picked. This avoids herding all requests towards the instance that happens
+ * to be best at the moment, without looking at all instances.
+ *
+ * <p>Instances that keep failing are ejected, as decided by {@link OutlierPolicy},
+ * and not picked until the ejection time has passed. The state of an instance
+ * is reported as a circuit breaker state: {@link CircuitState#OPEN} while it is
+ * ejected, {@link CircuitState#HALF_OPEN} after that until a response is seen.
+ *
+ * <p>New instances can be warmed up: an instance registered with
+ * {@link #warmUp(String)} is not picked until {@link #ready(String)} is
+ * called, unless there is no other instance. After that its weight grows
+ * linearly from 0 to 1 over the warm-up time; an instance with weight w takes
+ * part in a choice with probability w, so it gets a growing share of traffic
+ * rather than all of it at once.
+ *
+ * <p>Two optional policies narrow the choice further, after ejected and
+ * not ready instances are left out, so that they never route to an instance
+ * that the health state excludes. With a locality predicate, only instances
+ * on the same node are considered if there are any, which saves a hop to
+ * another host. With tenant affinity, the two choices for a tenant are the
+ * two instances that rank highest for that tenant by rendezvous hashing, so
+ * each instance sees a stable subset of tenants. When an instance is
+ * ejected or removed, only its tenants move, each to its next ranked
+ * instance.
+ */
+// S2245: Using pseudorandom number generators (PRNGs) is security-sensitive
+@java.lang.SuppressWarnings({"squid:S2245"})
+public abstract class LoadBalancer {
+
+  public static final String RANDOM = "random";
+  public static final String LEAST_OUTSTANDING = "least-outstanding";
+  public static final String PEAK_EWMA = "peak-ewma";
+  public static final String DEFAULT_STRATEGY = PEAK_EWMA;
+
+  static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+  static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+  // instance ID to time it became ready; NOT_READY until then
+  private final Map<String, Long> warmUps = new ConcurrentHashMap<>();
+  private static final Long NOT_READY = Long.MIN_VALUE;
+  private volatile OutlierPolicy outlierPolicy = OutlierPolicy.builder().build();
+  private volatile long warmUpNanos;
+  private volatile Predicate<DeploymentDescriptor> local; // null: no locality
+  private volatile boolean tenantAffinity;
+
+  /**
+   * Circuit breaker state of an instance.
+   */
+  public enum CircuitState {
+    /** Instance is used. */
+    CLOSED,
+    /** Instance is ejected and not used. */
+    OPEN,
+    /** Ejection time has passed; next failure ejects the instance again. */
+    HALF_OPEN;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase().replace('_', '-');
+    }
+  }
+
+  /**
+   * Create load balancer.
+   * @param strategy one of {@link #RANDOM}, {@link #LEAST_OUTSTANDING}, {@link #PEAK_EWMA}
+   * @return load balancer
+   * @throws IllegalArgumentException for unknown strategy
+   */
+  public static LoadBalancer create(String strategy) {
+    switch (strategy) {
+      case RANDOM:
+        return new Random();
+      case LEAST_OUTSTANDING:
+        return new LeastOutstanding();
+      case PEAK_EWMA:
+        return new PeakEwma();
+      default:
+        throw new IllegalArgumentException("Unknown load balancer strategy: " + strategy);
+    }
+  }
+
+  /**
+   * Request statistics of one instance.
+   */
+  public static final class Stats {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private double ewma; // nanoseconds; guarded by this
+    private long stamp; // time of last update of ewma; guarded by this
+    private volatile long lastUsed;
+    private int consecutiveFailures; // guarded by this
+    private long windowStart; // guarded by this
+    private int windowRequests; // guarded by this
+    private int windowFailures; // guarded by this
+    private int ejections; // ejections since last success after ejection; guarded by this
+    private volatile boolean ejected; // true from ejection until success
+    private volatile long ejectedUntil;
+
+    Stats(long now) {
+      stamp = now;
+      lastUsed = now;
+      windowStart = now;
+    }
+
+    public int getInFlight() {
+      return inFlight.get();
+    }
+
+    /**
+     * Get peak EWMA of response time. The average decays towards zero when no
+     * responses are seen, so that a slow instance is eventually tried again.
+     * @param now current time in nanoseconds
+     * @return response time in nanoseconds; 0 if nothing is known
+     */
+    public synchronized double getEwma(long now) {
+      return ewma * Math.exp(-Math.max(now - stamp, 0) / (double) DECAY_NANOS);
+    }
+
+    synchronized void observe(long rtt, long now) {
+      double w = Math.exp(-Math.max(now - stamp, 0) / (double) DECAY_NANOS);
+      stamp = now;
+      if (rtt > ewma) {
+        ewma = rtt; // peak sensitive: slow responses count at once
+      } else {
+        ewma = ewma * w + rtt * (1.0 - w);
+      }
+    }
+
+    boolean isOpen(long now) {
+      return ejected && now - ejectedUntil < 0;
+    }
+
+    /**
+     * Get circuit breaker state.
+     * @param now current time in nanoseconds
+     * @return state
+     */
+    public CircuitState getCircuitState(long now) {
+      if (!ejected) {
+        return CircuitState.CLOSED;
+      }
+      return isOpen(now) ? CircuitState.OPEN : CircuitState.HALF_OPEN;
+    }
+
+    /**
+     * Record outcome of request.
+     * @return true if instance was ejected by this failure
+     */
+    synchronized boolean record(boolean failure, OutlierPolicy policy, long now) {
+      if (now - windowStart > TimeUnit.MILLISECONDS.toNanos(policy.getIntervalMs())) {
+        windowStart = now;
+        windowRequests = 0;
+        windowFailures = 0;
+      }
+      windowRequests++;
+      if (!failure) {
+        consecutiveFailures = 0;
+        if (ejected && !isOpen(now)) {
+          ejected = false;
+          ejections = 0;
+        }
+        return false;
+      }
+      windowFailures++;
+      consecutiveFailures++;
+      if (!policy.isEnabled() || isOpen(now)) {
+        return false;
+      }
+      boolean eject = ejected // failure while half-open
+          || (policy.getConsecutiveFailures() > 0
+          && consecutiveFailures >= policy.getConsecutiveFailures())
+          || (policy.getErrorRate() > 0 && windowRequests >= policy.getMinRequests()
+          && windowFailures * 100L >= policy.getErrorRate() * (long) windowRequests);
+      if (!eject) {
+        return false;
+      }
+      ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(policy.getEjectionMs(ejections));
+      ejected = true;
+      ejections++;
+      consecutiveFailures = 0;
+      windowStart = now;
+      windowRequests = 0;
+      windowFailures = 0;
+      return true;
+    }
+  }
+
+  public void setOutlierPolicy(OutlierPolicy outlierPolicy) {
+    this.outlierPolicy = outlierPolicy;
+  }
+
+  /**
+   * Set time over which the weight of a new instance grows to full weight.
+   * @param warmUpMs milliseconds; 0 for full weight when ready
+   */
+  public void setWarmUpMs(long warmUpMs) {
+    this.warmUpNanos = TimeUnit.MILLISECONDS.toNanos(warmUpMs);
+  }
+
+  /**
+   * Prefer instances on the same node. Instances on other nodes are only
+   * picked if there is no available instance on the same node.
+   * @param local whether an instance runs on this node; null for no preference
+   */
+  public void setLocal(Predicate<DeploymentDescriptor> local) {
+    this.local = local;
+  }
+
+  /**
+   * Make the choice of instances depend on tenant, so that each instance
+   * serves a stable subset of tenants.
+   * @param tenantAffinity true to choose by tenant; false to choose at random
+   */
+  public void setTenantAffinity(boolean tenantAffinity) {
+    this.tenantAffinity = tenantAffinity;
+  }
+
+  /**
+   * Report that a new instance is warming up. It is not picked until it is
+   * {@link #ready(String)}, unless there is no other instance to pick.
+   * @param instId instance ID
+   */
+  public void warmUp(String instId) {
+    long now = System.nanoTime();
+    for (String id : warmUps.keySet()) {
+      getWeight(id, now); // forget instances that are warm
+    }
+    warmUps.put(instId, NOT_READY);
+  }
+
+  /**
+   * Report that a warming up instance is ready; its weight then grows over
+   * the warm-up time.
+   * @param instId instance ID
+   */
+  public void ready(String instId) {
+    ready(instId, System.nanoTime());
+  }
+
+  void ready(String instId, long now) {
+    warmUps.replace(instId, NOT_READY, now);
+  }
+
+  /**
+   * Get weight of instance.
+   * @param instId instance ID
+   * @param now current time in nanoseconds
+   * @return 0 if not ready; between 0 and 1 while warming up; 1 otherwise
+   */
+  double getWeight(String instId, long now) {
+    if (warmUps.isEmpty() || instId == null) {
+      return 1.0;
+    }
+    Long readySince = warmUps.get(instId);
+    if (readySince == null) {
+      return 1.0;
+    }
+    if (readySince.equals(NOT_READY)) {
+      return 0.0;
+    }
+    long elapsed = now - readySince;
+    if (elapsed >= warmUpNanos) {
+      warmUps.remove(instId, readySince);
+      return 1.0;
+    }
+    return Math.max(elapsed, 0L) / (double) warmUpNanos;
+  }
+
+  /**
+   * Get number of instances warming up.
+   * @return number of instances that are not ready or not at full weight yet
+   */
+  public int getWarmingUpCount() {
+    long now = System.nanoTime();
+    int n = 0;
+    for (String instId : warmUps.keySet()) {
+      if (getWeight(instId, now) < 1.0) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Load of instance.
+   * @param stats statistics of instance
+   * @param now current time in nanoseconds
+   * @return load; lower is better
+   */
+  protected abstract double getLoad(Stats stats, long now);
+
+  /**
+   * Pick an instance. Ejected instances are not picked, and instances that
+   * are not ready are only picked if no other instance is available.
+   * @param instances instances to choose from
+   * @return instance; null if list is empty or all instances are ejected
+   */
+  public DeploymentDescriptor pick(List<DeploymentDescriptor> instances) {
+    return pick(instances, null, System.nanoTime());
+  }
+
+  /**
+   * Pick an instance for a tenant. As {@link #pick(List)}, but with tenant
+   * affinity enabled the instance depends on the tenant.
+   * @param instances instances to choose from
+   * @param tenant tenant ID; null if request is not made for a tenant
+   * @return instance; null if list is empty or all instances are ejected
+   */
+  public DeploymentDescriptor pick(List<DeploymentDescriptor> instances, String tenant) {
+    return pick(instances, tenant, System.nanoTime());
+  }
+
+  DeploymentDescriptor pick(List<DeploymentDescriptor> instances, long now) {
+    return pick(instances, null, now);
+  }
+
+  DeploymentDescriptor pick(List<DeploymentDescriptor> instances, String tenant, long now) {
+    instances = getAvailable(instances, now);
+    Predicate<DeploymentDescriptor> isLocal = local;
+    if (isLocal != null && instances.size() > 1) {
+      List<DeploymentDescriptor> same = new ArrayList<>();
+      for (DeploymentDescriptor dd : instances) {
+        if (isLocal.test(dd)) {
+          same.add(dd);
+        }
+      }
+      if (!same.isEmpty()) {
+        instances = same;
+      }
+    }
+    int sz = instances.size();
+    if (sz <= 1) {
+      return sz == 0 ? null : instances.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    DeploymentDescriptor a;
+    DeploymentDescriptor b;
+    if (tenantAffinity && tenant != null) {
+      // the two instances ranked highest for tenant
+      a = null;
+      b = null;
+      long scoreA = Long.MIN_VALUE;
+      long scoreB = Long.MIN_VALUE;
+      for (DeploymentDescriptor dd : instances) {
+        long score = score(tenant, dd);
+        if (a == null || score > scoreA) {
+          b = a;
+          scoreB = scoreA;
+          a = dd;
+          scoreA = score;
+        } else if (b == null || score > scoreB) {
+          b = dd;
+          scoreB = score;
+        }
+      }
+    } else {
+      int i = random.nextInt(sz);
+      int j = random.nextInt(sz - 1);
+      if (j >= i) {
+        j++;
+      }
+      a = instances.get(i);
+      b = instances.get(j);
+    }
+    if (!warmUps.isEmpty()) {
+      // an instance warming up takes part with probability of its weight
+      boolean useA = random.nextDouble() < getWeight(a.getInstId(), now);
+      boolean useB = random.nextDouble() < getWeight(b.getInstId(), now);
+      if (useA != useB) {
+        return useA ? a : b;
+      }
+    }
+    return getInstanceLoad(a, now) <= getInstanceLoad(b, now) ? a : b;
+  }
+
+  /**
+   * Leave out ejected instances, and instances that are not ready unless
+   * there is nothing else.
+   */
+  private List<DeploymentDescriptor> getAvailable(List<DeploymentDescriptor> instances,
+                                                  long now) {
+    int excluded = 0;
+    for (DeploymentDescriptor dd : instances) {
+      if (isOpen(dd, now) || getWeight(dd.getInstId(), now) == 0.0) {
+        excluded++;
+      }
+    }
+    if (excluded == 0) {
+      return instances;
+    }
+    List<DeploymentDescriptor> available = new ArrayList<>(instances.size() - excluded);
+    List<DeploymentDescriptor> notReady = new ArrayList<>();
+    for (DeploymentDescriptor dd : instances) {
+      if (isOpen(dd, now)) {
+        continue;
+      }
+      if (getWeight(dd.getInstId(), now) == 0.0) {
+        notReady.add(dd);
+      } else {
+        available.add(dd);
+      }
+    }
+    return available.isEmpty() ? notReady : available;
+  }
+
+  /**
+   * Rank of instance for tenant in rendezvous hashing.
+   * @param tenant tenant ID
+   * @param dd instance
+   * @return score; the instance with the highest score is preferred
+   */
+  static long score(String tenant, DeploymentDescriptor dd) {
+    String id = dd.getInstId() != null ? dd.getInstId() : dd.getUrl();
+    long h = tenant.hashCode() * 0x9E3779B97F4A7C15L + (id == null ? 0 : id.hashCode());
+    // finalizer of MurmurHash3 so that similar IDs give unrelated scores
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private boolean isOpen(DeploymentDescriptor dd, long now) {
+    Stats s = dd.getInstId() == null ? null : stats.get(dd.getInstId());
+    return s != null && s.isOpen(now);
+  }
+
+  private double getInstanceLoad(DeploymentDescriptor dd, long now) {
+    Stats s = dd.getInstId() == null ? null : stats.get(dd.getInstId());
+    return s == null ? 0.0 : getLoad(s, now);
+  }
+
+  /**
+   * Get statistics of instance.
+   * @param instId instance ID
+   * @return statistics; null if no requests were made to instance
+   */
+  public Stats getStats(String instId) {
+    return stats.get(instId);
+  }
+
+  /**
+   * Report start of request to instance.
+   * @param instId instance ID; null if request is not made to a deployed instance
+   * @return start time to be passed to {@link #end(String, long, int)}
+   */
+  public long start(String instId) {
+    return start(instId, System.nanoTime());
+  }
+
+  long start(String instId, long now) {
+    if (instId != null) {
+      Stats s = stats.get(instId);
+      if (s == null) {
+        s = stats.computeIfAbsent(instId, k -> new Stats(now));
+        removeIdle(now);
+      }
+      s.lastUsed = now;
+      s.inFlight.incrementAndGet();
+    }
+    return now;
+  }
+
+  /**
+   * Get circuit breaker state of instance.
+   * @param instId instance ID
+   * @return state; null if no requests were made to instance
+   */
+  public CircuitState getCircuitState(String instId) {
+    Stats s = stats.get(instId);
+    return s == null ? null : s.getCircuitState(System.nanoTime());
+  }
+
+  /**
+   * Get number of ejected instances.
+   * @return number of instances with circuit state {@link CircuitState#OPEN}
+   */
+  public int getOpenCount() {
+    long now = System.nanoTime();
+    int n = 0;
+    for (Stats s : stats.values()) {
+      if (s.isOpen(now)) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Report end of request to instance.
+   * @param instId instance ID as passed to {@link #start(String)}
+   * @param start start time returned by {@link #start(String)}
+   * @param status HTTP status of response; 0 if no response was received. Only
+   *     responses count as response time.
+   * @return true if instance was ejected because of this request
+   */
+  public boolean end(String instId, long start, int status) {
+    return end(instId, start, status, System.nanoTime());
+  }
+
+  boolean end(String instId, long start, int status, long now) {
+    if (instId == null) {
+      return false;
+    }
+    Stats s = stats.get(instId);
+    if (s == null) {
+      return false;
+    }
+    s.inFlight.updateAndGet(n -> n > 0 ? n - 1 : 0); // entry may have been replaced
+    if (status > 0) {
+      s.observe(now - start, now);
+    }
+    return s.record(OutlierPolicy.isFailure(status), outlierPolicy, now);
+  }
+
+  /**
+   * Report that a request to instance was cancelled by the caller. It is
+   * neither a response nor a failure of the instance.
+   * @param instId instance ID as passed to {@link #start(String)}
+   */
+  public void cancel(String instId) {
+    Stats s = instId == null ? null : stats.get(instId);
+    if (s != null) {
+      s.inFlight.updateAndGet(n -> n > 0 ? n - 1 : 0);
+    }
+  }
+
+  /**
+   * Forget instances that have not been used for a while; most likely they are
+   * gone. Only called when a new instance is seen, which is rare.
+   */
+  private void removeIdle(long now) {
+    Iterator<Stats> it = stats.values().iterator();
+    while (it.hasNext()) {
+      Stats s = it.next();
+      if (now - s.lastUsed > IDLE_NANOS && s.getInFlight() == 0 && !s.isOpen(now)) {
+        it.remove();
+      }
+    }
+  }
+
+  int size() {
+    return stats.size();
+  }
+
+  static final class Random extends LoadBalancer {
+    @Override
+    protected double getLoad(Stats stats, long now) {
+      return 0.0;
+    }
+  }
+
+  static final class LeastOutstanding extends LoadBalancer {
+    @Override
+    protected double getLoad(Stats stats, long now) {
+      return stats.getInFlight();
+    }
+  }
+
+  static final class PeakEwma extends LoadBalancer {
+    // load of an instance with requests in flight, but no response yet
+    static final double PENALTY = 1e15;
+
+    @Override
+    protected double getLoad(Stats stats, long now) {
+      int inFlight = stats.getInFlight();
+      double ewma = stats.getEwma(now);
+      if (ewma == 0.0 && inFlight > 0) {
+        return PENALTY + inFlight;
+      }
+      return ewma * (inFlight + 1);
+    }
+  }
+}
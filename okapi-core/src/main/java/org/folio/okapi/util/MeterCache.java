@@ -0,0 +1,205 @@
+package org.folio.okapi.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Tag;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import org.folio.okapi.common.MetricsUtil;
+
+/**
+ * Meters of one name, resolved once per combination of tag values.
+ *
+ * <p>Lookups go through a per-thread probe key, so finding the meter for tag
+ * values seen before does not allocate. Only a miss creates a key, the tags
+ * and the meter. Values are compared with equals; objects without equals would be
+ * compared by identity and add meters for each instance, so values are strings.
+ * The cache is emptied when metrics is initialized or stopped, see
+ * {@link MetricsUtil#getGeneration()}.
+ *
+ * <p>The number of meters is limited by {@link CardinalityPolicy}. Once the
+ * limit is reached, events for new combinations are not recorded but counted
+ * by a capped series counter tagged with the meter name.
+ *
+ * @param <M> meter type
+ */
+final class MeterCache<M> {
+
+  static final String METRICS_CAPPED_SERIES = MetricsHelper.METRICS_PREFIX
+      + ".metrics.cappedSeries";
+  private static final String TAG_METER = "meter";
+
+  private final String name;
+  private final Map<Key, M> meters = new ConcurrentHashMap<>();
+  private final Map<String, TopValues> topValues = new ConcurrentHashMap<>();
+  private final ThreadLocal<Key> probe = ThreadLocal.withInitial(Key::new);
+  private final BiFunction<String, Key, M> factory;
+  private volatile CardinalityPolicy policy = CardinalityPolicy.builder().build();
+  private volatile int generation = MetricsUtil.getGeneration();
+  private volatile Counter capped;
+
+  /**
+   * Create meter cache.
+   * @param name meter name
+   * @param factory creates meter for name and key on cache miss; may return null
+   */
+  MeterCache(String name, BiFunction<String, Key, M> factory) {
+    this.name = name;
+    this.factory = factory;
+  }
+
+  /**
+   * Tag values of a meter. Unused values are null.
+   */
+  static final class Key {
+    Object v1;
+    Object v2;
+    Object v3;
+    Object v4;
+    Object v5;
+    int code;
+    private int hash;
+
+    private Key set(Object v1, Object v2, Object v3, Object v4, Object v5, int code) {
+      this.v1 = v1;
+      this.v2 = v2;
+      this.v3 = v3;
+      this.v4 = v4;
+      this.v5 = v5;
+      this.code = code;
+      int h = code;
+      h = 31 * h + Objects.hashCode(v1);
+      h = 31 * h + Objects.hashCode(v2);
+      h = 31 * h + Objects.hashCode(v3);
+      h = 31 * h + Objects.hashCode(v4);
+      h = 31 * h + Objects.hashCode(v5);
+      this.hash = h;
+      return this;
+    }
+
+    private Key copy() {
+      return new Key().set(v1, v2, v3, v4, v5, code);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return code == k.code && hash == k.hash
+          && Objects.equals(v1, k.v1) && Objects.equals(v2, k.v2)
+          && Objects.equals(v3, k.v3) && Objects.equals(v4, k.v4)
+          && Objects.equals(v5, k.v5);
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Set cardinality policy. Meters already resolved are forgotten.
+   * @param policy cardinality policy
+   */
+  void setPolicy(CardinalityPolicy policy) {
+    this.policy = policy;
+    topValues.clear();
+    meters.clear();
+  }
+
+  /**
+   * Whether tag is reported according to cardinality policy.
+   * @param key tag key
+   * @return true if reported
+   */
+  boolean isAllowed(String key) {
+    return policy.isAllowed(key);
+  }
+
+  /**
+   * Map tag value according to cardinality policy.
+   * @param key tag key
+   * @param value tag value
+   * @return value to use for lookup; null if tag is not reported
+   */
+  String limit(String key, String value) {
+    CardinalityPolicy p = policy;
+    if (!p.isAllowed(key)) {
+      return null;
+    }
+    if (value == null || !p.isTopK(key)) {
+      return value;
+    }
+    TopValues top = topValues.get(key);
+    if (top == null) {
+      top = new TopValues(p.getTopK());
+      TopValues existing = topValues.putIfAbsent(key, top);
+      if (existing != null) {
+        top = existing;
+      }
+    }
+    return top.offer(value);
+  }
+
+  /**
+   * Get meter for tag values.
+   * @return meter; null if factory returns null or number of meters is capped
+   */
+  M get(Object v1, Object v2, Object v3, Object v4, Object v5, int code) {
+    int g = MetricsUtil.getGeneration();
+    if (g != generation) {
+      generation = g;
+      capped = null;
+      meters.clear();
+    }
+    Key key = probe.get().set(v1, v2, v3, v4, v5, code);
+    M meter = meters.get(key);
+    if (meter == null) {
+      if (meters.size() >= policy.getMaxSeries()) {
+        countCapped();
+        return null;
+      }
+      Key copy = key.copy();
+      meter = factory.apply(name, copy);
+      if (meter != null) {
+        M existing = meters.putIfAbsent(copy, meter);
+        if (existing != null) {
+          meter = existing;
+        }
+      }
+    }
+    return meter;
+  }
+
+  M get(Object v1, Object v2, Object v3) {
+    return get(v1, v2, v3, null, null, 0);
+  }
+
+  private void countCapped() {
+    Counter counter = capped;
+    if (counter == null) {
+      counter = MetricsUtil.getCounter(METRICS_CAPPED_SERIES,
+          Collections.singletonList(Tag.of(TAG_METER, name)));
+      if (counter == null) {
+        return;
+      }
+      capped = counter;
+    }
+    counter.increment();
+  }
+
+  int size() {
+    return meters.size();
+  }
+}
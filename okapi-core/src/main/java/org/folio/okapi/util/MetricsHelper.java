@@ -1,13 +1,22 @@
 package org.folio.okapi.util;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.Timer.Sample;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.ModuleInstance;
+import org.folio.okapi.bean.RoutingEntry;
 import org.folio.okapi.common.MetricsUtil;
 import org.folio.okapi.common.OkapiLogger;
 
@@ -29,12 +38,87 @@ public class MetricsHelper {
       + ".responseTime";
   private static final String METRICS_HTTP_CLIENT_ERRORS = METRICS_HTTP_CLIENT
       + ".errors";
+  private static final String METRICS_HTTP_CLIENT_TIMEOUTS = METRICS_HTTP_CLIENT
+      + ".timeouts";
 
   private static final String METRICS_TOKEN_CACHE = METRICS_PREFIX + ".tokenCache";
   private static final String METRICS_TOKEN_CACHE_HITS = METRICS_TOKEN_CACHE + ".hits";
   private static final String METRICS_TOKEN_CACHE_MISSES = METRICS_TOKEN_CACHE + ".misses";
   private static final String METRICS_TOKEN_CACHE_CACHED = METRICS_TOKEN_CACHE + ".cached";
   private static final String METRICS_TOKEN_CACHE_EXPIRED = METRICS_TOKEN_CACHE + ".expired";
+  private static final String METRICS_TOKEN_CACHE_NEGATIVE_HITS = METRICS_TOKEN_CACHE
+      + ".negativeHits";
+  private static final String METRICS_TOKEN_CACHE_NEGATIVE_SIZE = METRICS_TOKEN_CACHE
+      + ".negativeSize";
+  private static final String METRICS_TOKEN_CACHE_SIZE = METRICS_TOKEN_CACHE + ".size";
+  static final String METRICS_TOKEN_CACHE_HIT_COUNT = METRICS_TOKEN_CACHE + ".hitCount";
+  static final String METRICS_TOKEN_CACHE_MISS_COUNT = METRICS_TOKEN_CACHE + ".missCount";
+  static final String METRICS_TOKEN_CACHE_EVICTION_COUNT = METRICS_TOKEN_CACHE
+      + ".evictionCount";
+  private static final String METRICS_TOKEN_CACHE_HIT_RATIO = METRICS_TOKEN_CACHE + ".hitRatio";
+  static final String METRICS_TOKEN_CACHE_SHARED_HIT_COUNT = METRICS_TOKEN_CACHE
+      + ".sharedHitCount";
+  static final String METRICS_TOKEN_CACHE_SHARED_MISS_COUNT = METRICS_TOKEN_CACHE
+      + ".sharedMissCount";
+  private static final String METRICS_TOKEN_CACHE_SHARED_HIT_RATIO = METRICS_TOKEN_CACHE
+      + ".sharedHitRatio";
+
+  private static final String METRICS_BODY_BUFFER = METRICS_PREFIX + ".bodyBuffer";
+  private static final String METRICS_BODY_BUFFER_MEMORY = METRICS_BODY_BUFFER + ".memoryBytes";
+  private static final String METRICS_BODY_BUFFER_FILE = METRICS_BODY_BUFFER + ".fileBytes";
+  private static final String METRICS_BODY_BUFFER_SPILL_COUNT = METRICS_BODY_BUFFER
+      + ".spillCount";
+
+  private static final String METRICS_LOAD_BALANCER = METRICS_PREFIX + ".loadBalancer";
+  private static final String METRICS_LOAD_BALANCER_EJECTIONS = METRICS_LOAD_BALANCER
+      + ".ejections";
+  private static final String METRICS_LOAD_BALANCER_OPEN = METRICS_LOAD_BALANCER + ".open";
+  private static final String METRICS_LOAD_BALANCER_WARMING_UP = METRICS_LOAD_BALANCER
+      + ".warmingUp";
+
+  private static final String METRICS_PROXY_CLIENT = METRICS_PREFIX + ".proxyClient";
+  private static final String METRICS_PROXY_CLIENT_CONNECTIONS = METRICS_PROXY_CLIENT
+      + ".connections";
+  private static final String METRICS_PROXY_CLIENT_CONNECTIONS_CREATED = METRICS_PROXY_CLIENT
+      + ".connectionsCreated";
+
+  private static final String METRICS_CONCURRENCY = METRICS_PREFIX + ".concurrencyLimit";
+  private static final String METRICS_CONCURRENCY_IN_FLIGHT = METRICS_CONCURRENCY + ".inFlight";
+  private static final String METRICS_CONCURRENCY_LIMIT = METRICS_CONCURRENCY + ".limit";
+  static final String METRICS_CONCURRENCY_REJECTED = METRICS_CONCURRENCY + ".rejected";
+
+  private static final String METRICS_RESPONSE_CACHE = METRICS_PREFIX + ".responseCache";
+  private static final String METRICS_RESPONSE_CACHE_REQUESTS = METRICS_RESPONSE_CACHE
+      + ".requests";
+  private static final String METRICS_RESPONSE_CACHE_SIZE = METRICS_RESPONSE_CACHE + ".size";
+  private static final String METRICS_RESPONSE_CACHE_BYTES = METRICS_RESPONSE_CACHE + ".bytes";
+  static final String METRICS_RESPONSE_CACHE_HIT_COUNT = METRICS_RESPONSE_CACHE
+      + ".hitCount";
+  static final String METRICS_RESPONSE_CACHE_MISS_COUNT = METRICS_RESPONSE_CACHE
+      + ".missCount";
+  static final String METRICS_RESPONSE_CACHE_REVALIDATION_COUNT = METRICS_RESPONSE_CACHE
+      + ".revalidationCount";
+  static final String METRICS_RESPONSE_CACHE_EVICTION_COUNT = METRICS_RESPONSE_CACHE
+      + ".evictionCount";
+  private static final String METRICS_COALESCE = METRICS_PREFIX + ".coalesce";
+  static final String METRICS_COALESCE_REQUESTS = METRICS_COALESCE + ".requests";
+  static final String METRICS_COALESCE_UPSTREAM = METRICS_COALESCE + ".upstream";
+  static final String METRICS_COALESCE_IN_FLIGHT = METRICS_COALESCE + ".inFlight";
+  private static final String METRICS_REQUEST_LOG = METRICS_PREFIX + ".requestLog";
+  private static final String METRICS_REQUEST_LOG_DROPPED = METRICS_REQUEST_LOG + ".dropped";
+  private static final String METRICS_REQUEST_LOG_SPILLED = METRICS_REQUEST_LOG + ".spilled";
+  private static final String METRICS_HEDGE = METRICS_PREFIX + ".hedge";
+  static final String METRICS_HEDGE_REQUESTS = METRICS_HEDGE + ".requests";
+  static final String METRICS_HEDGE_HEDGED = METRICS_HEDGE + ".hedged";
+  static final String METRICS_HEDGE_WINS = METRICS_HEDGE + ".wins";
+
+  private static final String METRICS_TENANT_LIMIT = METRICS_PREFIX + ".tenantLimit";
+  private static final String METRICS_TENANT_LIMIT_REJECTIONS = METRICS_TENANT_LIMIT
+      + ".rejections";
+  private static final String METRICS_TENANT_LIMIT_QUEUE_TIME = METRICS_TENANT_LIMIT
+      + ".queueTime";
+  private static final String METRICS_TENANT_LIMIT_IN_FLIGHT = METRICS_TENANT_LIMIT + ".inFlight";
+  private static final String METRICS_TENANT_LIMIT_QUEUED = METRICS_TENANT_LIMIT + ".queued";
 
   private static final String METRICS_CODE = METRICS_PREFIX + ".code";
   private static final String METRICS_CODE_EXECUTION_TIME = METRICS_CODE + ".executionTime";
@@ -46,13 +130,110 @@ public class MetricsHelper {
   private static final String TAG_URL = "url";
   private static final String TAG_PHASE = "phase";
   private static final String TAG_USERID = "userId";
+  private static final String TAG_REASON = "reason";
+  private static final String TAG_RESULT = "result";
   private static final String TAG_EMPTY = "null";
 
   private static final String TAG_CODE_BLOCK_NAME = "codeBlockName";
 
+  // totals of tallies and gauges of latest instances, by meter name and tags
+  private static final Map<String, LongAdder> totals = new ConcurrentHashMap<>();
+  private static final Map<String, LatestGauge<?>> latestGauges = new ConcurrentHashMap<>();
+
+  private static volatile CardinalityPolicy cardinalityPolicy = CardinalityPolicy.builder()
+      .build();
+
+  // Meters are looked up by tag values so that recording does not build tag lists.
+  // Http keys: tenant, method, url, module id, phase and status code. The routing entry
+  // itself is not a key, as modules are decoded again whenever they are reloaded.
+  private static final MeterCache<Timer> serverTimers = new MeterCache<>(
+      METRICS_HTTP_SERVER_PROCESSING_TIME,
+      (name, key) -> MetricsUtil.getTimer(name, createHttpTags(key, false)));
+  private static final MeterCache<Timer> clientTimers = new MeterCache<>(
+      METRICS_HTTP_CLIENT_RESPONSE_TIME,
+      (name, key) -> MetricsUtil.getTimer(name, createHttpTags(key, true)));
+  // Keys: tenant, method, url path
+  private static final MeterCache<Counter> clientErrors = new MeterCache<>(
+      METRICS_HTTP_CLIENT_ERRORS,
+      (name, key) -> MetricsUtil.getCounter(name, createUrlTags(key)));
+  // Keys: module id, url path
+  private static final MeterCache<Counter> clientTimeouts = new MeterCache<>(
+      METRICS_HTTP_CLIENT_TIMEOUTS,
+      (name, key) -> MetricsUtil.getCounter(name,
+          createTags(TAG_MODULE, key.v1, TAG_URL, key.v2)));
+  // Key: code block name
+  private static final MeterCache<Timer> codeTimers = new MeterCache<>(
+      METRICS_CODE_EXECUTION_TIME,
+      (name, key) -> MetricsUtil.getTimer(name, createTags(TAG_CODE_BLOCK_NAME, key.v1)));
+  // Keys: tenant, method, url path, user id
+  private static final MeterCache<Counter> tokenCacheHits = new MeterCache<>(
+      METRICS_TOKEN_CACHE_HITS, MetricsHelper::createTokenCacheCounter);
+  private static final MeterCache<Counter> tokenCacheMisses = new MeterCache<>(
+      METRICS_TOKEN_CACHE_MISSES, MetricsHelper::createTokenCacheCounter);
+  private static final MeterCache<Counter> tokenCacheCached = new MeterCache<>(
+      METRICS_TOKEN_CACHE_CACHED, MetricsHelper::createTokenCacheCounter);
+  private static final MeterCache<Counter> tokenCacheExpired = new MeterCache<>(
+      METRICS_TOKEN_CACHE_EXPIRED, MetricsHelper::createTokenCacheCounter);
+  private static final MeterCache<Counter> tokenCacheNegativeHits = new MeterCache<>(
+      METRICS_TOKEN_CACHE_NEGATIVE_HITS, MetricsHelper::createTokenCacheCounter);
+  // Keys: tenant, result
+  private static final MeterCache<Counter> responseCacheRequests = new MeterCache<>(
+      METRICS_RESPONSE_CACHE_REQUESTS,
+      (name, key) -> MetricsUtil.getCounter(name,
+          createTags(TAG_TENANT, key.v1, TAG_RESULT, key.v2)));
+  // Key: module id
+  private static final MeterCache<Counter> loadBalancerEjections = new MeterCache<>(
+      METRICS_LOAD_BALANCER_EJECTIONS,
+      (name, key) -> MetricsUtil.getCounter(name, createTags(TAG_MODULE, key.v1)));
+  // Key: module id
+  private static final MeterCache<Counter> requestLogDropped = new MeterCache<>(
+      METRICS_REQUEST_LOG_DROPPED,
+      (name, key) -> MetricsUtil.getCounter(name, createTags(TAG_MODULE, key.v1)));
+  private static final MeterCache<Counter> requestLogSpilled = new MeterCache<>(
+      METRICS_REQUEST_LOG_SPILLED,
+      (name, key) -> MetricsUtil.getCounter(name, createTags(TAG_MODULE, key.v1)));
+  // Keys: tenant, reason
+  private static final MeterCache<Counter> tenantLimitRejections = new MeterCache<>(
+      METRICS_TENANT_LIMIT_REJECTIONS,
+      (name, key) -> MetricsUtil.getCounter(name,
+          createTags(TAG_TENANT, key.v1, TAG_REASON, key.v2)));
+  // Key: tenant
+  private static final MeterCache<Timer> tenantLimitQueueTimers = new MeterCache<>(
+      METRICS_TENANT_LIMIT_QUEUE_TIME,
+      (name, key) -> MetricsUtil.getTimer(name, createTags(TAG_TENANT, key.v1)));
+  private static final List<MeterCache<?>> meterCaches = Arrays.asList(serverTimers,
+      clientTimers, clientErrors, clientTimeouts, codeTimers, tokenCacheHits, tokenCacheMisses,
+      tokenCacheCached, tokenCacheExpired, tokenCacheNegativeHits, responseCacheRequests,
+      loadBalancerEjections, requestLogDropped, requestLogSpilled, tenantLimitRejections,
+      tenantLimitQueueTimers);
+
   private MetricsHelper() {
   }
 
+  /**
+   * Return number of meters resolved by all meter caches.
+   * @return number of cached meters
+   */
+  static int getCachedMeterCount() {
+    return meterCaches.stream().mapToInt(MeterCache::size).sum();
+  }
+
+  /**
+   * Set policy that limits the number of series of Okapi meters. Meters already
+   * resolved are forgotten, but stay registered.
+   *
+   * @param policy - {@link CardinalityPolicy}
+   */
+  public static void setCardinalityPolicy(CardinalityPolicy policy) {
+    logger.info("Metrics cardinality policy: {}", policy);
+    cardinalityPolicy = policy;
+    meterCaches.forEach(cache -> cache.setPolicy(policy));
+  }
+
+  public static CardinalityPolicy getCardinalityPolicy() {
+    return cardinalityPolicy;
+  }
+
   /**
    * Return a {@link Sample} to help start timing a {@link Timer}.
    *
@@ -71,7 +252,7 @@ public class MetricsHelper {
    * @param httpMethod     - HTTP method to record
    * @param moduleInstance - {@link ModuleInstance} provides some tag info
    *
-   * @return {@link Timer} or null if metrics is not enabled
+   * @return {@link Timer} or null if metrics is not enabled or series are capped
    */
   public static Timer recordHttpServerProcessingTime(Sample sample, String tenant,
       int httpStatusCode, String httpMethod, ModuleInstance moduleInstance) {
@@ -87,7 +268,7 @@ public class MetricsHelper {
    * @param httpMethod     - HTTP method to record
    * @param moduleInstance - {@link ModuleInstance} provides some tag info
    *
-   * @return {@link Timer} or null if metrics is not enabled
+   * @return {@link Timer} or null if metrics is not enabled or series are capped
    */
   public static Timer recordHttpClientResponse(Sample sample, String tenant, int httpStatusCode,
       String httpMethod, ModuleInstance moduleInstance) {
@@ -101,17 +282,31 @@ public class MetricsHelper {
    * @param httpMethod - HTTP method
    * @param urlPath    - HTTP URL path
    *
-   * @return {@link Counter} or null if metrics is not enabled
+   * @return {@link Counter} or null if metrics is not enabled or series are capped
    */
   public static Counter recordHttpClientError(String tenant, String httpMethod, String urlPath) {
     if (!MetricsUtil.isEnabled()) {
       return null;
     }
-    List<Tag> tags = new ArrayList<>();
-    tags.add(Tag.of(TAG_TENANT, "" + tenant));
-    tags.add(Tag.of(TAG_HTTP_METHOD, "" + httpMethod));
-    tags.add(Tag.of(TAG_URL, "" + urlPath));
-    return MetricsUtil.recordCounter(METRICS_HTTP_CLIENT_ERRORS, tags);
+    MeterCache<Counter> c = clientErrors;
+    return increment(c.get(c.limit(TAG_TENANT, tenant), c.limit(TAG_HTTP_METHOD, httpMethod),
+        c.limit(TAG_URL, urlPath)));
+  }
+
+  /**
+   * Record HTTP client timeout if metrics is enabled.
+   *
+   * @param moduleId - module that did not respond in time
+   * @param urlPath  - HTTP URL path
+   *
+   * @return {@link Counter} or null if metrics is not enabled or series are capped
+   */
+  public static Counter recordHttpClientTimeout(String moduleId, String urlPath) {
+    if (!MetricsUtil.isEnabled()) {
+      return null;
+    }
+    MeterCache<Counter> c = clientTimeouts;
+    return increment(c.get(c.limit(TAG_MODULE, moduleId), c.limit(TAG_URL, urlPath), null));
   }
 
   /**
@@ -120,15 +315,14 @@ public class MetricsHelper {
    * @param sample        - {@link Sample} that tells the starting time
    * @param codeBlockName - name of the code block for tagging purpose
    *
-   * @return {@link Timer} or null if metrics is not enabled
+   * @return {@link Timer} or null if metrics is not enabled or series are capped
    */
   public static Timer recordCodeExecutionTime(Sample sample, String codeBlockName) {
     if (!MetricsUtil.isEnabled()) {
       return null;
     }
-    List<Tag> tags = new ArrayList<>();
-    tags.add(Tag.of(TAG_CODE_BLOCK_NAME, "" + codeBlockName));
-    return MetricsUtil.recordTimer(sample, METRICS_CODE_EXECUTION_TIME, tags);
+    return stop(sample, codeTimers.get(codeTimers.limit(TAG_CODE_BLOCK_NAME, codeBlockName),
+        null, null));
   }
 
   private static Timer recordHttpTime(Sample sample, String tenant, int httpStatusCode,
@@ -136,69 +330,483 @@ public class MetricsHelper {
     if (!MetricsUtil.isEnabled()) {
       return null;
     }
-    String name = server ? METRICS_HTTP_SERVER_PROCESSING_TIME : METRICS_HTTP_CLIENT_RESPONSE_TIME;
-    return MetricsUtil.recordTimer(sample, name,
-        createHttpTags(tenant, httpStatusCode, httpMethod, moduleInstance, !server));
+    MeterCache<Timer> c = server ? serverTimers : clientTimers;
+    String t = c.limit(TAG_TENANT, tenant);
+    String m = c.limit(TAG_HTTP_METHOD, httpMethod);
+    int code = c.isAllowed(TAG_HTTP_CODE) ? httpStatusCode : 0;
+    if (moduleInstance == null) {
+      return stop(sample, c.get(t, m, null, null, null, code));
+    }
+    RoutingEntry routingEntry = moduleInstance.getRoutingEntry();
+    if (routingEntry == null) {
+      // legacy case where module instance has no routing entry; not cached
+      logger.warn("legacy module instance {}", moduleInstance.getPath());
+      return MetricsUtil.recordTimer(sample, c.getName(), createHttpTags(t, code, m,
+          moduleInstance.getModuleDescriptor().getId(), null,
+          moduleInstance.getPath(), moduleInstance.isHandler(), !server));
+    }
+    return stop(sample, c.get(t, m, routingEntry.getStaticPath(),
+        moduleInstance.getModuleDescriptor().getId(),
+        moduleInstance.isHandler() ? "handler" : routingEntry.getPhase(), code));
+  }
+
+  private static Timer stop(Sample sample, Timer timer) {
+    if (timer != null) {
+      sample.stop(timer);
+    }
+    return timer;
+  }
+
+  private static Counter increment(Counter counter) {
+    if (counter != null) {
+      counter.increment();
+    }
+    return counter;
   }
 
   public static Counter recordTokenCacheMiss(String tenant, String httpMethod, String urlPath,
       String userId) {
-    return recordTokenCacheEvent(METRICS_TOKEN_CACHE_MISSES, tenant, httpMethod, urlPath, userId);
+    return recordTokenCacheEvent(tokenCacheMisses, tenant, httpMethod, urlPath, userId);
   }
 
   public static Counter recordTokenCacheHit(String tenant, String httpMethod, String urlPath,
       String userId) {
-    return recordTokenCacheEvent(METRICS_TOKEN_CACHE_HITS, tenant, httpMethod, urlPath, userId);
+    return recordTokenCacheEvent(tokenCacheHits, tenant, httpMethod, urlPath, userId);
   }
 
   public static Counter recordTokenCacheCached(String tenant, String httpMethod, String urlPath,
       String userId) {
-    return recordTokenCacheEvent(METRICS_TOKEN_CACHE_CACHED, tenant, httpMethod, urlPath, userId);
+    return recordTokenCacheEvent(tokenCacheCached, tenant, httpMethod, urlPath, userId);
   }
 
   public static Counter recordTokenCacheExpired(String tenant, String httpMethod, String urlPath,
       String userId) {
-    return recordTokenCacheEvent(METRICS_TOKEN_CACHE_EXPIRED, tenant, httpMethod, urlPath, userId);
+    return recordTokenCacheEvent(tokenCacheExpired, tenant, httpMethod, urlPath, userId);
   }
 
-  private static Counter recordTokenCacheEvent(String event, String tenant, String httpMethod,
+  /**
+   * Count request that got an auth rejection from the negative token cache.
+   *
+   * @param tenant - FOLIO tenant id
+   * @param httpMethod - HTTP method
+   * @param urlPath - path pattern
+   * @param userId - user id from token; not validated
+   * @return {@link Counter} or null if metrics is not enabled or series are capped
+   */
+  public static Counter recordTokenCacheNegativeHit(String tenant, String httpMethod,
       String urlPath, String userId) {
+    return recordTokenCacheEvent(tokenCacheNegativeHits, tenant, httpMethod, urlPath, userId);
+  }
+
+  /**
+   * Register size gauge for the negative token cache if metrics is enabled.
+   *
+   * @param cache - {@link AuthRejectionCache}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerAuthRejectionCacheGauges(AuthRejectionCache cache) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    registerLatestGauge(METRICS_TOKEN_CACHE_NEGATIVE_SIZE, new ArrayList<>(), cache,
+        AuthRejectionCache::size);
+    return true;
+  }
+
+  /**
+   * Register size and hit ratio gauges for token cache, on this node and in the shared
+   * map, if metrics is enabled. Hits, misses and evictions are counted by
+   * {@link #tally(String, String)}.
+   *
+   * @param tokenCache - {@link TokenCache}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerTokenCacheGauges(TokenCache tokenCache) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    List<Tag> tags = new ArrayList<>();
+    registerLatestGauge(METRICS_TOKEN_CACHE_SIZE, tags, tokenCache, TokenCache::size);
+    registerRatioGauge(METRICS_TOKEN_CACHE_HIT_RATIO, METRICS_TOKEN_CACHE_HIT_COUNT,
+        METRICS_TOKEN_CACHE_MISS_COUNT);
+    registerRatioGauge(METRICS_TOKEN_CACHE_SHARED_HIT_RATIO,
+        METRICS_TOKEN_CACHE_SHARED_HIT_COUNT, METRICS_TOKEN_CACHE_SHARED_MISS_COUNT);
+    return true;
+  }
+
+  /**
+   * Count request to the response cache.
+   *
+   * @param tenant - FOLIO tenant id
+   * @param result - "hit", "miss" or "revalidated"
+   * @return {@link Counter} or null if metrics is not enabled or series are capped
+   */
+  public static Counter recordResponseCache(String tenant, String result) {
+    if (!MetricsUtil.isEnabled()) {
+      return null;
+    }
+    MeterCache<Counter> c = responseCacheRequests;
+    return increment(c.get(c.limit(TAG_TENANT, tenant), c.limit(TAG_RESULT, result), null));
+  }
+
+  /**
+   * Count bytes of a request copy for a request-log module that were dropped
+   * because the module was too slow.
+   *
+   * @param moduleId - request-log module
+   * @param bytes - number of bytes
+   * @return {@link Counter} or null if metrics is not enabled or series are capped
+   */
+  public static Counter recordRequestLogDropped(String moduleId, long bytes) {
+    return recordBytes(requestLogDropped, moduleId, bytes);
+  }
+
+  /**
+   * Count bytes of a request copy for a request-log module that were written
+   * to a temporary file because the module was slow.
+   *
+   * @param moduleId - request-log module
+   * @param bytes - number of bytes
+   * @return {@link Counter} or null if metrics is not enabled or series are capped
+   */
+  public static Counter recordRequestLogSpilled(String moduleId, long bytes) {
+    return recordBytes(requestLogSpilled, moduleId, bytes);
+  }
+
+  private static Counter recordBytes(MeterCache<Counter> c, String moduleId, long bytes) {
     if (!MetricsUtil.isEnabled()) {
       return null;
     }
+    Counter counter = c.get(c.limit(TAG_MODULE, moduleId), null, null);
+    if (counter != null) {
+      counter.increment(bytes);
+    }
+    return counter;
+  }
+
+  /**
+   * Register gauges for size of the response cache if metrics is enabled. Hits,
+   * misses, revalidations and evictions are counted by {@link #tally(String, String)}.
+   *
+   * @param responseCache - {@link ResponseCache}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerResponseCacheGauges(ResponseCache responseCache) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    List<Tag> tags = new ArrayList<>();
+    registerLatestGauge(METRICS_RESPONSE_CACHE_SIZE, tags, responseCache,
+        ResponseCache::size);
+    registerLatestGauge(METRICS_RESPONSE_CACHE_BYTES, tags, responseCache,
+        ResponseCache::getBytes);
+    return true;
+  }
+
+  /**
+   * Register gauge for calls in flight of request coalescing if metrics is enabled.
+   * Requests and requests made upstream are counted by {@link #tally(String, String)}.
+   *
+   * @param coalescer - {@link Coalescer}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerCoalescerGauges(Coalescer<?, ?> coalescer) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    registerLatestGauge(METRICS_COALESCE_IN_FLIGHT, new ArrayList<>(), coalescer,
+        Coalescer::getInFlight);
+    return true;
+  }
+
+  /**
+   * Register gauges for memory and temporary file use of request bodies if metrics is enabled.
+   *
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerBodyBufferGauges() {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
     List<Tag> tags = new ArrayList<>();
-    tags.add(Tag.of(TAG_TENANT, "" + tenant));
-    tags.add(Tag.of(TAG_HTTP_METHOD, "" + httpMethod));
-    tags.add(Tag.of(TAG_URL, "" + urlPath));
-    tags.add(Tag.of(TAG_USERID, userId == null ? TAG_EMPTY : userId));
-    return MetricsUtil.recordCounter(event, tags);
+    MetricsUtil.registerGauge(METRICS_BODY_BUFFER_MEMORY, tags, BodyBuffer.class,
+        c -> BodyBuffer.getMemoryBytes());
+    MetricsUtil.registerGauge(METRICS_BODY_BUFFER_FILE, tags, BodyBuffer.class,
+        c -> BodyBuffer.getFileBytes());
+    MetricsUtil.registerGauge(METRICS_BODY_BUFFER_SPILL_COUNT, tags, BodyBuffer.class,
+        c -> BodyBuffer.getSpillCount());
+    return true;
+  }
+
+  /**
+   * Count ejection of a module instance by the load balancer.
+   *
+   * @param moduleId - module of ejected instance
+   * @return {@link Counter} or null if metrics is not enabled
+   */
+  public static Counter recordLoadBalancerEjection(String moduleId) {
+    if (!MetricsUtil.isEnabled()) {
+      return null;
+    }
+    return increment(loadBalancerEjections.get(
+        loadBalancerEjections.limit(TAG_MODULE, moduleId), null, null));
+  }
+
+  /**
+   * Register gauges for number of ejected and warming up module instances if
+   * metrics is enabled.
+   *
+   * @param loadBalancer - {@link LoadBalancer}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerLoadBalancerGauges(LoadBalancer loadBalancer) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    MetricsUtil.registerGauge(METRICS_LOAD_BALANCER_OPEN, new ArrayList<>(), loadBalancer,
+        LoadBalancer::getOpenCount);
+    MetricsUtil.registerGauge(METRICS_LOAD_BALANCER_WARMING_UP, new ArrayList<>(), loadBalancer,
+        LoadBalancer::getWarmingUpCount);
+    return true;
+  }
+
+  /**
+   * Register gauges for open and created connections of a module if metrics is enabled.
+   *
+   * @param pool - {@link ProxyClients.Pool}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerProxyClientGauges(ProxyClients.Pool pool) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    // product names are few, so the module tag is always included
+    List<Tag> tags = new ArrayList<>();
+    tags.add(Tag.of(TAG_MODULE, pool.getName()));
+    MetricsUtil.registerGauge(METRICS_PROXY_CLIENT_CONNECTIONS, tags, pool,
+        ProxyClients.Pool::getConnections);
+    MetricsUtil.registerGauge(METRICS_PROXY_CLIENT_CONNECTIONS_CREATED, tags, pool,
+        ProxyClients.Pool::getConnectionsCreated);
+    return true;
+  }
+
+  /**
+   * Register gauges for requests in flight and limit of a module if metrics is enabled.
+   * Rejections are counted by {@link #tally(String, String)}.
+   *
+   * @param limit - {@link ConcurrencyLimiter.Limit}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerConcurrencyLimitGauges(ConcurrencyLimiter.Limit limit) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    List<Tag> tags = new ArrayList<>();
+    tags.add(Tag.of(TAG_MODULE, limit.getName()));
+    registerLatestGauge(METRICS_CONCURRENCY_IN_FLIGHT, tags, limit,
+        ConcurrencyLimiter.Limit::getInFlight);
+    registerLatestGauge(METRICS_CONCURRENCY_LIMIT, tags, limit,
+        ConcurrencyLimiter.Limit::getLimit);
+    return true;
+  }
+
+  /**
+   * Count request rejected by tenant limits.
+   *
+   * @param tenant - FOLIO tenant id
+   * @param reason - "rate" if rate limit is exceeded; "queue" if queue timeout is reached
+   * @return {@link Counter} or null if metrics is not enabled or series are capped
+   */
+  public static Counter recordTenantLimitRejection(String tenant, String reason) {
+    if (!MetricsUtil.isEnabled()) {
+      return null;
+    }
+    MeterCache<Counter> c = tenantLimitRejections;
+    return increment(c.get(c.limit(TAG_TENANT, tenant), c.limit(TAG_REASON, reason), null));
+  }
+
+  /**
+   * Record time a request waited in the tenant fair queue.
+   *
+   * @param tenant - FOLIO tenant id
+   * @param nanos - time waited in nanoseconds
+   * @return {@link Timer} or null if metrics is not enabled or series are capped
+   */
+  public static Timer recordTenantLimitQueueTime(String tenant, long nanos) {
+    if (!MetricsUtil.isEnabled()) {
+      return null;
+    }
+    MeterCache<Timer> c = tenantLimitQueueTimers;
+    Timer timer = c.get(c.limit(TAG_TENANT, tenant), null, null);
+    if (timer != null) {
+      timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+    return timer;
+  }
+
+  /**
+   * Register gauges for requests in flight and queued by tenant limits if metrics
+   * is enabled.
+   *
+   * @param tenantLimiter - {@link TenantLimiter}
+   * @return true if registered; false if metrics is not enabled
+   */
+  public static boolean registerTenantLimitGauges(TenantLimiter tenantLimiter) {
+    if (!MetricsUtil.isEnabled()) {
+      return false;
+    }
+    MetricsUtil.registerGauge(METRICS_TENANT_LIMIT_IN_FLIGHT, new ArrayList<>(), tenantLimiter,
+        TenantLimiter::getInFlight);
+    MetricsUtil.registerGauge(METRICS_TENANT_LIMIT_QUEUED, new ArrayList<>(), tenantLimiter,
+        TenantLimiter::getQueued);
+    return true;
+  }
+
+  /**
+   * Create count of an instance that adds to a total for the process. The total is
+   * registered as a function counter, once for each name and module, when metrics is
+   * enabled; so all instances are counted, whichever was created first, and the
+   * registry keeps no instance alive.
+   *
+   * @param meterName - name of the counter
+   * @param module - module tag; null for none
+   * @return count
+   */
+  static Tally tally(String meterName, String module) {
+    List<Tag> tags = new ArrayList<>();
+    if (module != null) {
+      tags.add(Tag.of(TAG_MODULE, module));
+    }
+    LongAdder total = getTotal(meterName, tags);
+    MetricsUtil.registerFunctionCounter(meterName, tags, total, LongAdder::doubleValue);
+    return new Tally(total);
+  }
+
+  private static LongAdder getTotal(String meterName, List<Tag> tags) {
+    return totals.computeIfAbsent(meterName + tags, k -> new LongAdder());
+  }
+
+  /**
+   * Register gauge that reports the instance given most recently for its name and tags.
+   * The instance is weakly referenced; the gauge is NaN once it is gone.
+   *
+   * @return {@link Gauge} or null if metrics is not enabled
+   */
+  static <T> Gauge registerLatestGauge(String meterName, List<Tag> tags, T obj,
+      ToDoubleFunction<T> f) {
+    @SuppressWarnings("unchecked")
+    LatestGauge<T> gauge = (LatestGauge<T>) latestGauges.computeIfAbsent(meterName + tags,
+        k -> new LatestGauge<T>(f));
+    gauge.ref = new WeakReference<>(obj);
+    return MetricsUtil.registerGauge(meterName, tags, gauge, LatestGauge::value);
+  }
+
+  private static void registerRatioGauge(String meterName, String hitsName,
+      String missesName) {
+    List<Tag> tags = new ArrayList<>();
+    LongAdder hits = getTotal(hitsName, tags);
+    LongAdder misses = getTotal(missesName, tags);
+    MetricsUtil.registerGauge(meterName, tags, hits, h -> {
+      long hit = h.sum();
+      long n = hit + misses.sum();
+      return n == 0 ? 0.0 : hit / (double) n;
+    });
+  }
+
+  private static final class LatestGauge<T> {
+    private final ToDoubleFunction<T> fn;
+    private volatile WeakReference<T> ref;
+
+    LatestGauge(ToDoubleFunction<T> fn) {
+      this.fn = fn;
+    }
+
+    double value() {
+      T obj = ref.get();
+      return obj == null ? Double.NaN : fn.applyAsDouble(obj);
+    }
+  }
+
+  private static Counter recordTokenCacheEvent(MeterCache<Counter> c, String tenant,
+      String httpMethod, String urlPath, String userId) {
+    if (!MetricsUtil.isEnabled()) {
+      return null;
+    }
+    return increment(c.get(c.limit(TAG_TENANT, tenant), c.limit(TAG_HTTP_METHOD, httpMethod),
+        c.limit(TAG_URL, urlPath), c.limit(TAG_USERID, userId), null, 0));
+  }
+
+  private static Counter createTokenCacheCounter(String name, MeterCache.Key key) {
+    List<Tag> tags = createUrlTags(key);
+    addTag(tags, TAG_USERID, key.v4);
+    return MetricsUtil.getCounter(name, tags);
+  }
+
+  private static List<Tag> createUrlTags(MeterCache.Key key) {
+    List<Tag> tags = new ArrayList<>();
+    addTag(tags, TAG_TENANT, key.v1);
+    addTag(tags, TAG_HTTP_METHOD, key.v2);
+    addTag(tags, TAG_URL, key.v3);
+    return tags;
+  }
+
+  private static List<Tag> createTags(String tagKey, Object value) {
+    List<Tag> tags = new ArrayList<>();
+    addTag(tags, tagKey, value);
+    return tags;
+  }
+
+  private static List<Tag> createTags(String tagKey1, Object value1,
+      String tagKey2, Object value2) {
+    List<Tag> tags = createTags(tagKey1, value1);
+    addTag(tags, tagKey2, value2);
+    return tags;
+  }
+
+  /**
+   * Add tag if allowed by cardinality policy. Null values are reported as "null".
+   */
+  private static void addTag(List<Tag> tags, String tagKey, Object value) {
+    if (cardinalityPolicy.isAllowed(tagKey)) {
+      tags.add(Tag.of(tagKey, value == null ? TAG_EMPTY : value.toString()));
+    }
+  }
+
+  private static List<Tag> createHttpTags(MeterCache.Key key, boolean createPhaseTag) {
+    List<Tag> tags = new ArrayList<>();
+    addTag(tags, TAG_TENANT, key.v1);
+    addTag(tags, TAG_HTTP_CODE, Integer.toString(key.code));
+    addTag(tags, TAG_HTTP_METHOD, key.v2);
+    addTag(tags, TAG_MODULE, key.v4);
+    addTag(tags, TAG_URL, key.v3);
+    if (createPhaseTag) {
+      addTag(tags, TAG_PHASE, key.v5);
+    }
+    return tags;
   }
 
   private static List<Tag> createHttpTags(String tenant, int httpStatusCode, String httpMethod,
-      ModuleInstance moduleInstance, boolean createPhaseTag) {
+      String moduleId, RoutingEntry routingEntry, String url, boolean handler,
+      boolean createPhaseTag) {
     List<Tag> tags = new ArrayList<>();
-    tags.add(Tag.of(TAG_TENANT, tenant == null ? TAG_EMPTY : tenant));
-    tags.add(Tag.of(TAG_HTTP_CODE, "" + httpStatusCode));
-    tags.add(Tag.of(TAG_HTTP_METHOD, httpMethod == null ? TAG_EMPTY : httpMethod));
-    if (moduleInstance != null) {
-      tags.add(Tag.of(TAG_MODULE, "" + moduleInstance.getModuleDescriptor().getId()));
-      // legacy case where module instance has no routing entry
-      if (moduleInstance.getRoutingEntry() != null) {
-        tags.add(Tag.of(TAG_URL, moduleInstance.getRoutingEntry().getStaticPath()));
+    addTag(tags, TAG_TENANT, tenant);
+    addTag(tags, TAG_HTTP_CODE, Integer.toString(httpStatusCode));
+    addTag(tags, TAG_HTTP_METHOD, httpMethod);
+    if (routingEntry != null || url != null) {
+      addTag(tags, TAG_MODULE, moduleId);
+      addTag(tags, TAG_URL, url);
+      if (routingEntry != null) {
         if (createPhaseTag) {
-          tags.add(Tag.of(TAG_PHASE, moduleInstance.isHandler() ? "handler"
-              : "" + moduleInstance.getRoutingEntry().getPhase()));
+          addTag(tags, TAG_PHASE, handler ? "handler" : routingEntry.getPhase());
         }
       } else {
-        logger.warn("legacy module instance {}", moduleInstance.getPath());
-        tags.add(Tag.of(TAG_URL, moduleInstance.getPath()));
-        tags.add(Tag.of(TAG_PHASE, moduleInstance.isHandler() ? "handler" : TAG_EMPTY));
+        addTag(tags, TAG_PHASE, handler ? "handler" : null);
       }
     } else {
-      tags.add(Tag.of(TAG_MODULE, TAG_EMPTY));
-      tags.add(Tag.of(TAG_URL, TAG_EMPTY));
+      addTag(tags, TAG_MODULE, null);
+      addTag(tags, TAG_URL, null);
       if (createPhaseTag) {
-        tags.add(Tag.of(TAG_PHASE, TAG_EMPTY));
+        addTag(tags, TAG_PHASE, null);
       }
     }
     return tags;
@@ -0,0 +1,383 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.streams.WriteStream;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.logging.log4j.Logger;
+import org.folio.okapi.common.OkapiLogger;
+
+/**
+ * Write stream for a copy of a request, such as the request sent to a
+ * request-log module, that must not slow down the request itself.
+ *
+ * <p>The stream never reports a full write queue, so a pump that feeds it along
+ * with the main stream only waits for the main stream. When the target is slow,
+ * content is held in memory up to a limit. Beyond that, content is written to a
+ * temporary file up to another limit, and sent from there when the target
+ * catches up. When both limits are exceeded, the copy is given up: the content
+ * not yet sent is dropped and the abort handler is called, which would
+ * typically reset the request to the target.
+ *
+ * <p>Not thread safe; must be used from the context of the target.
+ */
+public final class MirrorStream implements WriteStream<Buffer> {
+
+  public static final long DEFAULT_MEMORY_LIMIT = 256 * 1024L;
+  public static final long DEFAULT_SPILL_LIMIT = 0L;
+  // largest piece read back from temporary file
+  static final int READ_SIZE = 64 * 1024;
+
+  private static final Logger logger = OkapiLogger.get(MirrorStream.class);
+
+  private final WriteStream<Buffer> target;
+  private final String name;
+  private final long memoryLimit;
+  private final long spillLimit;
+  private final FileSystem fileSystem;
+  private final List<Buffer> pending = new LinkedList<>(); // in memory, before file
+  private final List<Buffer> opening = new LinkedList<>(); // while file is opened
+  private long pendingBytes;
+  private AsyncFile file;
+  private String path;
+  private boolean spilling; // content goes to file, until all of it is read back
+  private Future<Void> fileWrites = Future.succeededFuture();
+  private long fileEnd; // bytes queued for file
+  private long fileWritten; // bytes written to file
+  private long fileRead; // bytes read back from file
+  private boolean reading;
+  private boolean ended;
+  private boolean aborted;
+  private Handler<AsyncResult<Void>> endHandler;
+  private Handler<Void> abortHandler;
+  private long spilled;
+  private long dropped;
+
+  private MirrorStream(WriteStream<Buffer> target, Builder builder) {
+    this.target = target;
+    this.name = builder.name;
+    this.memoryLimit = builder.memoryLimit;
+    this.spillLimit = builder.fileSystem == null ? 0L : builder.spillLimit;
+    this.fileSystem = builder.fileSystem;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Set handler called when the copy is given up.
+   * @param handler handler
+   * @return this stream
+   */
+  public MirrorStream abortHandler(Handler<Void> handler) {
+    abortHandler = handler;
+    return this;
+  }
+
+  /**
+   * Get number of bytes written to temporary file.
+   * @return bytes
+   */
+  public long getSpilled() {
+    return spilled;
+  }
+
+  /**
+   * Get number of bytes that were not sent to the target.
+   * @return bytes
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  public boolean isAborted() {
+    return aborted;
+  }
+
+  @Override
+  public MirrorStream exceptionHandler(Handler<Throwable> handler) {
+    target.exceptionHandler(handler);
+    return this;
+  }
+
+  @Override
+  public Future<Void> write(Buffer data) {
+    if (aborted) {
+      drop(data.length());
+    } else if (!spilling && pending.isEmpty() && !target.writeQueueFull()) {
+      target.write(data);
+    } else if (!spilling && pendingBytes + data.length() <= memoryLimit) {
+      pending.add(data);
+      pendingBytes += data.length();
+      target.drainHandler(x -> flush());
+    } else if (spilled + data.length() <= spillLimit) {
+      spill(data);
+    } else {
+      abort(data.length());
+    }
+    return Future.succeededFuture();
+  }
+
+  @Override
+  public void write(Buffer data, Handler<AsyncResult<Void>> handler) {
+    Future<Void> f = write(data);
+    if (handler != null) {
+      f.onComplete(handler);
+    }
+  }
+
+  @Override
+  public void end(Handler<AsyncResult<Void>> handler) {
+    ended = true;
+    endHandler = handler;
+    if (aborted) {
+      complete(Future.succeededFuture());
+    } else {
+      flush();
+    }
+  }
+
+  @Override
+  public MirrorStream setWriteQueueMaxSize(int maxSize) {
+    target.setWriteQueueMaxSize(maxSize);
+    return this;
+  }
+
+  /**
+   * Never full; content that the target cannot take is buffered, spilled or dropped.
+   * @return false
+   */
+  @Override
+  public boolean writeQueueFull() {
+    return false;
+  }
+
+  /**
+   * Ignored, as the queue is never full.
+   * @param handler handler
+   * @return this stream
+   */
+  @Override
+  public MirrorStream drainHandler(Handler<Void> handler) {
+    return this;
+  }
+
+  private void spill(Buffer data) {
+    spilling = true;
+    spilled += data.length();
+    MetricsHelper.recordRequestLogSpilled(name, data.length());
+    if (file != null) {
+      writeFile(data);
+      return;
+    }
+    opening.add(data);
+    if (opening.size() > 1) {
+      return;
+    }
+    fileSystem.createTempFile("okapi-mirror-", ".tmp").compose(p -> {
+      path = p;
+      return fileSystem.open(p, new OpenOptions());
+    }).onComplete(res -> {
+      if (res.failed()) {
+        logger.warn("Could not open temporary file for {}: {}", name,
+            res.cause().getMessage());
+        abort(0);
+        return;
+      }
+      file = res.result();
+      if (aborted) {
+        closeFile();
+        return;
+      }
+      for (Buffer b : opening) {
+        writeFile(b);
+      }
+      opening.clear();
+    });
+  }
+
+  private void writeFile(Buffer data) {
+    long position = fileEnd;
+    fileEnd += data.length();
+    fileWrites = fileWrites.compose(x -> file.write(data, position));
+    fileWrites.onComplete(res -> {
+      if (aborted) {
+        return;
+      }
+      if (res.failed()) {
+        logger.warn("Could not write temporary file for {}: {}", name,
+            res.cause().getMessage());
+        abort(0);
+        return;
+      }
+      fileWritten = Math.max(fileWritten, position + data.length());
+      flush();
+    });
+  }
+
+  private void flush() {
+    if (aborted) {
+      return;
+    }
+    while (!pending.isEmpty() && !target.writeQueueFull()) {
+      Buffer b = pending.remove(0);
+      pendingBytes -= b.length();
+      target.write(b);
+    }
+    if (!pending.isEmpty() || target.writeQueueFull()) {
+      target.drainHandler(x -> flush());
+      return;
+    }
+    if (spilling) {
+      readFile();
+      return;
+    }
+    if (ended) {
+      target.end(this::complete);
+    }
+  }
+
+  private void readFile() {
+    if (reading || file == null) {
+      return;
+    }
+    if (fileRead == fileEnd && opening.isEmpty()) {
+      spilling = false; // all content is sent; new content may go directly again
+      flush();
+      return;
+    }
+    int length = (int) Math.min(READ_SIZE, fileWritten - fileRead);
+    if (length == 0) {
+      return; // continued when write completes
+    }
+    reading = true;
+    file.read(Buffer.buffer(length), 0, fileRead, length).onComplete(res -> {
+      reading = false;
+      if (aborted) {
+        return;
+      }
+      if (res.failed()) {
+        logger.warn("Could not read temporary file for {}: {}", name,
+            res.cause().getMessage());
+        abort(0);
+        return;
+      }
+      fileRead += res.result().length();
+      target.write(res.result());
+      flush();
+    });
+  }
+
+  private void abort(long length) {
+    aborted = true;
+    long lost = length + pendingBytes + fileEnd - fileRead;
+    for (Buffer b : opening) {
+      lost += b.length();
+    }
+    pending.clear();
+    pendingBytes = 0;
+    opening.clear();
+    drop(lost);
+    logger.warn("Request copy to {} is too slow; content dropped", name);
+    closeFile();
+    if (abortHandler != null) {
+      abortHandler.handle(null);
+    }
+    if (ended) {
+      complete(Future.succeededFuture());
+    }
+  }
+
+  private void drop(long length) {
+    if (length > 0) {
+      dropped += length;
+      MetricsHelper.recordRequestLogDropped(name, length);
+    }
+  }
+
+  private void complete(AsyncResult<Void> res) {
+    closeFile();
+    Handler<AsyncResult<Void>> h = endHandler;
+    endHandler = null;
+    if (h != null) {
+      h.handle(res);
+    }
+  }
+
+  private void closeFile() {
+    if (file == null) {
+      return;
+    }
+    AsyncFile f = file;
+    String p = path;
+    file = null;
+    fileWrites.onComplete(x -> f.close()
+        .compose(y -> fileSystem.delete(p))
+        .onFailure(cause -> logger.warn("Could not delete {}: {}", p, cause.getMessage())));
+  }
+
+  public static final class Builder {
+
+    private String name;
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private long spillLimit = DEFAULT_SPILL_LIMIT;
+    private FileSystem fileSystem;
+
+    /**
+     * Create stream.
+     * @param target stream that gets the copy
+     * @return stream
+     */
+    public MirrorStream build(WriteStream<Buffer> target) {
+      return new MirrorStream(target, this);
+    }
+
+    /**
+     * Set name used for metrics and logging.
+     * @param name module ID of target
+     * @return builder
+     */
+    public Builder withName(String name) {
+      this.name = name;
+      return this;
+    }
+
+    /**
+     * Set amount of content held in memory while the target is slow.
+     * @param memoryLimit bytes
+     * @return builder
+     */
+    public Builder withMemoryLimit(long memoryLimit) {
+      this.memoryLimit = memoryLimit;
+      return this;
+    }
+
+    /**
+     * Set amount of content written to temporary file when the memory limit
+     * is exceeded.
+     * @param spillLimit bytes; 0 to drop content instead
+     * @return builder
+     */
+    public Builder withSpillLimit(long spillLimit) {
+      this.spillLimit = spillLimit;
+      return this;
+    }
+
+    /**
+     * Set file system for temporary files; required for spilling.
+     * @param fileSystem file system
+     * @return builder
+     */
+    public Builder withFileSystem(FileSystem fileSystem) {
+      this.fileSystem = fileSystem;
+      return this;
+    }
+  }
+}
@@ -1,23 +1,29 @@
 package org.folio.okapi.util;
 
 import io.vertx.core.http.HttpMethod;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.ModuleDescriptor;
 import org.folio.okapi.bean.ModuleInstance;
 import org.folio.okapi.bean.RoutingEntry;
 import org.folio.okapi.common.Messages;
 import org.folio.okapi.common.OkapiLogger;
+import org.folio.okapi.util.PipelineTemplate.Step;
 
 public class ModuleCache {
   private static final Logger logger = OkapiLogger.get();
   private static final Messages messages = Messages.getInstance();
+  private static final RoutingEntry[] NO_REDIRECTS = new RoutingEntry[0];
+  static final int PIPELINE_CACHE_SIZE = 1000;
+  static final int PIPELINE_SAMPLE_SIZE = 8;
 
   static class ModuleCacheEntry {
     final ModuleDescriptor moduleDescriptor;
@@ -29,9 +35,69 @@ public class ModuleCache {
     }
   }
 
-  final Map<String, List<ModuleCacheEntry>> proxyMap = new HashMap<>();
-  final Map<String, List<ModuleCacheEntry>> multiMap = new HashMap<>();
-  final Map<String, List<ModuleCacheEntry>> filterMap = new HashMap<>();
+  static final class PipelineKey {
+    private final HttpMethod method;
+    private final RoutingEntry[] routingEntries;
+    private final int hash;
+
+    PipelineKey(HttpMethod method, List<ModuleCacheEntry> filters,
+                List<ModuleCacheEntry> handlers) {
+      this.method = method;
+      routingEntries = new RoutingEntry[filters.size() + handlers.size()];
+      int h = method.hashCode();
+      int i = 0;
+      for (ModuleCacheEntry entry : filters) {
+        routingEntries[i++] = entry.routingEntry;
+      }
+      for (ModuleCacheEntry entry : handlers) {
+        routingEntries[i++] = entry.routingEntry;
+      }
+      for (RoutingEntry re : routingEntries) {
+        h = 31 * h + System.identityHashCode(re);
+      }
+      this.hash = h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof PipelineKey)) {
+        return false;
+      }
+      PipelineKey other = (PipelineKey) o;
+      if (hash != other.hash || !method.equals(other.method)
+          || routingEntries.length != other.routingEntries.length) {
+        return false;
+      }
+      for (int i = 0; i < routingEntries.length; i++) {
+        if (routingEntries[i] != other.routingEntries[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  static final class CachedPipeline {
+    final PipelineTemplate pipeline;
+    volatile long lastAccess;
+
+    CachedPipeline(PipelineTemplate pipeline, long lastAccess) {
+      this.pipeline = pipeline;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  private final Map<PipelineKey, CachedPipeline> pipelines = new ConcurrentHashMap<>();
+  private final AtomicLong pipelineClock = new AtomicLong();
+  private final int pipelineCacheSize;
+  final RoutingTrie proxyTrie = new RoutingTrie();
+  final RoutingTrie multiTrie = new RoutingTrie();
+  final RoutingTrie filterTrie = new RoutingTrie();
   final List<ModuleDescriptor> moduleDescriptors;
 
   /**
@@ -39,10 +105,18 @@ public class ModuleCache {
    * @param moduleDescriptors to be cached
    */
   public ModuleCache(List<ModuleDescriptor> moduleDescriptors) {
+    this(moduleDescriptors, PIPELINE_CACHE_SIZE);
+  }
+
+  ModuleCache(List<ModuleDescriptor> moduleDescriptors, int pipelineCacheSize) {
     this.moduleDescriptors = moduleDescriptors;
+    this.pipelineCacheSize = pipelineCacheSize;
     for (ModuleDescriptor moduleDescriptor : moduleDescriptors) {
       add(moduleDescriptor);
     }
+    proxyTrie.compile();
+    multiTrie.compile();
+    filterTrie.compile();
   }
 
   /**
@@ -74,59 +148,43 @@ public class ModuleCache {
     return pathPattern;
   }
 
-  static void add(ModuleDescriptor moduleDescriptor, Map<String, List<ModuleCacheEntry>> map,
-                  List<RoutingEntry> entries) {
-    for (RoutingEntry routingEntry : entries) {
-      String prefix = getPatternPrefix(routingEntry);
-      List<ModuleCacheEntry> list = map.get(prefix);
-      if (list == null) {
-        list = new LinkedList<>();
-        map.put(prefix, list);
-      }
-      list.add(new ModuleCacheEntry(moduleDescriptor, routingEntry));
-    }
-  }
-
   private void add(ModuleDescriptor moduleDescriptor) {
-    add(moduleDescriptor, proxyMap, moduleDescriptor.getProxyRoutingEntries());
-    add(moduleDescriptor, multiMap, moduleDescriptor.getMultiRoutingEntries());
-    add(moduleDescriptor, filterMap, moduleDescriptor.getFilterRoutingEntries());
+    proxyTrie.add(moduleDescriptor, moduleDescriptor.getProxyRoutingEntries());
+    multiTrie.add(moduleDescriptor, moduleDescriptor.getMultiRoutingEntries());
+    filterTrie.add(moduleDescriptor, moduleDescriptor.getFilterRoutingEntries());
   }
 
-  private void resolveRedirect(List<ModuleInstance> instances, RoutingEntry re, String loop,
+  private void resolveRedirect(List<Step> steps, Step step, String loop,
                                Set<RoutingEntry> routingEntries,
                                HttpMethod method, String uri) {
+    RoutingEntry re = step.routingEntry;
     if (re.getProxyType() != RoutingEntry.ProxyType.REDIRECT) {
       return;
     }
     logger.debug("resolveRedirect begin redirectPath={}", re.getRedirectPath());
     boolean found = false;
     final String redirectPath = re.getRedirectPath();
+    RoutingEntry[] redirects = Arrays.copyOf(step.redirects, step.redirects.length + 1);
+    redirects[step.redirects.length] = re;
 
-    List<ModuleInstance> lookup = lookup(redirectPath, method, filterMap, false, null);
-    for (ModuleInstance instance : lookup) {
-      RoutingEntry tryre = instance.getRoutingEntry();
+    for (ModuleCacheEntry entry : filterTrie.lookup(redirectPath, method, false, null)) {
+      RoutingEntry tryre = entry.routingEntry;
       String redirectUri = re.getRedirectUri(uri);
       found = true;
       if (routingEntries.add(tryre)) {
-        ModuleInstance mi = new ModuleInstance(instance.getModuleDescriptor(), tryre, redirectUri,
-            method, false);
-        instances.add(mi);
-        resolveRedirect(instances, tryre, loop + " -> " + redirectPath, routingEntries,
+        Step s = new Step(entry.moduleDescriptor, tryre, false, redirects);
+        steps.add(s);
+        resolveRedirect(steps, s, loop + " -> " + redirectPath, routingEntries,
             method, redirectUri);
       } else {
         throw new IllegalArgumentException(messages.getMessage("10100", loop, redirectPath));
       }
     }
-    lookup = lookup(redirectPath, method, proxyMap, true, null);
-    for (ModuleInstance instance : lookup) {
-      RoutingEntry tryre = instance.getRoutingEntry();
-      String redirectUri = re.getRedirectUri(uri);
+    for (ModuleCacheEntry entry : proxyTrie.lookup(redirectPath, method, true, null)) {
+      RoutingEntry tryre = entry.routingEntry;
       found = true;
       if (routingEntries.add(tryre)) {
-        ModuleInstance mi = new ModuleInstance(instance.getModuleDescriptor(), tryre, redirectUri,
-            method, true);
-        instances.add(mi);
+        steps.add(new Step(entry.moduleDescriptor, tryre, true, redirects));
       }
     }
     logger.debug("resolveRedirect end redirectPath={} found={}", re.getRedirectPath(), found);
@@ -135,35 +193,39 @@ public class ModuleCache {
     }
   }
 
-  static List<ModuleInstance> lookup(String uri, HttpMethod method, Map<String,
-      List<ModuleCacheEntry>> map, boolean handler, String id) {
-    List<ModuleInstance> instances = new LinkedList<>();
-    String tryUri = uri;
-    for (int index = 0; index < uri.length(); index++) {
-      if (uri.charAt(index) == '#' || uri.charAt(index) == '?') {
-        tryUri = tryUri.substring(0, index);
-        break;
-      }
+  private List<Step> resolve(String uri, HttpMethod method, List<ModuleCacheEntry> filters,
+                             List<ModuleCacheEntry> handlers) {
+    List<Step> steps = new ArrayList<>();
+    for (ModuleCacheEntry entry : filters) {
+      steps.add(new Step(entry.moduleDescriptor, entry.routingEntry, false, NO_REDIRECTS));
     }
-    while (true) {
-      List<ModuleCacheEntry> candidateInstances = map.get(tryUri);
-      if (candidateInstances != null) {
-        for (ModuleCacheEntry candiate : candidateInstances) {
-          if (candiate.routingEntry.match(uri, method.name())
-              && (id == null || id.equals(candiate.moduleDescriptor.getId()))) {
-            instances.add(new ModuleInstance(candiate.moduleDescriptor,
-                candiate.routingEntry, uri, method, handler));
-            if (handler) {
-              return instances;
-            }
-          }
-        }
-      }
-      int index = tryUri.lastIndexOf('/', tryUri.length() - 2);
-      if (index < 0) {
-        break;
+    // handle redirects
+    Set<RoutingEntry> visitRoutingEntries = new HashSet<>();
+    for (int i = 0; i < steps.size(); i++) {
+      Step step = steps.get(i);
+      if (visitRoutingEntries.add(step.routingEntry)) {
+        resolveRedirect(steps, step, "", visitRoutingEntries, method, uri);
       }
-      tryUri = tryUri.substring(0, index + 1);
+    }
+    for (ModuleCacheEntry entry : handlers) {
+      steps.add(new Step(entry.moduleDescriptor, entry.routingEntry, true, NO_REDIRECTS));
+    }
+    return steps;
+  }
+
+  private List<ModuleCacheEntry> lookupHandler(String uri, HttpMethod method, String id) {
+    if (id == null) {
+      return proxyTrie.lookup(uri, method, true, null);
+    }
+    return multiTrie.lookup(uri, method, true, id);
+  }
+
+  static List<ModuleInstance> lookup(String uri, HttpMethod method, RoutingTrie trie,
+                                     boolean handler, String id) {
+    List<ModuleInstance> instances = new LinkedList<>();
+    for (ModuleCacheEntry entry : trie.lookup(uri, method, handler, id)) {
+      instances.add(new ModuleInstance(entry.moduleDescriptor, entry.routingEntry,
+          uri, method, handler));
     }
     return instances;
   }
@@ -179,25 +241,66 @@ public class ModuleCache {
   public List<ModuleInstance> lookup(String uri, HttpMethod method, String id) {
     logger.debug("lookup {} {} id={}", () -> method.name(), () -> uri, () -> id);
     logger.debug("Available modules {}", () -> ModuleUtil.moduleList(moduleDescriptors));
-    // perform lookup of filters
-    List<ModuleInstance> instances = lookup(uri, method, filterMap, false, null);
-    // handle redirects
-    Set<RoutingEntry> visitRoutingEntries = new HashSet<>();
-    Iterator<ModuleInstance> iterator = instances.iterator();
-    while (iterator.hasNext()) {
-      ModuleInstance next = iterator.next();
-      if (visitRoutingEntries.add(next.getRoutingEntry())) {
-        resolveRedirect(instances, next.getRoutingEntry(), "", visitRoutingEntries, method, uri);
-        iterator = instances.iterator();
-      }
-    }
-    // perform lookup of proxy or multi
-    if (id == null) {
-      instances.addAll(lookup(uri, method, proxyMap, true, null));
-    } else {
-      instances.addAll(lookup(uri, method, multiMap, true, id));
+    List<Step> steps = resolve(uri, method, filterTrie.lookup(uri, method, false, null),
+        lookupHandler(uri, method, id));
+    List<ModuleInstance> instances = new LinkedList<>();
+    for (Step step : steps) {
+      instances.add(step.newInstance(uri, method));
     }
     return instances;
   }
-}
 
+  /**
+   * Find pipeline for uri(path) and method.
+   *
+   * <p>Pipelines are kept in a bounded concurrent map for this cache, keyed on method
+   * and the matching routing entries, so the redirect resolution and sorting
+   * is only performed once for each kind of request. Lookups take no lock. When the
+   * map is full, the least recently used of a small sample of pipelines is evicted.
+   * @param uri request uri
+   * @param method HTTP method
+   * @param id Proxy-ID for multi lookup; otherwise null
+   * @return pipeline with module instances sorted by phase level
+   * @throws IllegalArgumentException for redirect errors
+   */
+  public PipelineTemplate getPipeline(String uri, HttpMethod method, String id) {
+    List<ModuleCacheEntry> filters = filterTrie.lookup(uri, method, false, null);
+    List<ModuleCacheEntry> handlers = lookupHandler(uri, method, id);
+    PipelineKey key = new PipelineKey(method, filters, handlers);
+    CachedPipeline cached = pipelines.get(key);
+    if (cached != null) {
+      cached.lastAccess = pipelineClock.incrementAndGet();
+      return cached.pipeline;
+    }
+    logger.debug("getPipeline {} {} id={} not cached", () -> method.name(), () -> uri,
+        () -> id);
+    PipelineTemplate pipeline = new PipelineTemplate(resolve(uri, method, filters, handlers));
+    pipelines.put(key, new CachedPipeline(pipeline, pipelineClock.incrementAndGet()));
+    while (pipelines.size() > pipelineCacheSize && evictPipeline()) {
+      logger.debug("getPipeline evicted pipeline");
+    }
+    return pipeline;
+  }
+
+  private boolean evictPipeline() {
+    Map.Entry<PipelineKey, CachedPipeline> victim = null;
+    int sampled = 0;
+    for (Map.Entry<PipelineKey, CachedPipeline> e : pipelines.entrySet()) {
+      if (victim == null || e.getValue().lastAccess < victim.getValue().lastAccess) {
+        victim = e;
+      }
+      if (++sampled >= PIPELINE_SAMPLE_SIZE) {
+        break;
+      }
+    }
+    return victim != null && pipelines.remove(victim.getKey(), victim.getValue());
+  }
+
+  /**
+   * Return number of cached pipelines.
+   * @return number of pipelines
+   */
+  int pipelineCount() {
+    return pipelines.size();
+  }
+}
@@ -0,0 +1,149 @@
+package org.folio.okapi.util;
+
+/**
+ * When an instance of a module is ejected from load balancing.
+ *
+ * <p>A failure is a request that got no response, or a response with status
+ * 502, 503 or 504. Other 5xx responses are mostly specific to the request, so
+ * they do not count. An instance is ejected after a number of consecutive
+ * failures, or when the failure rate within an interval is too high. It stays
+ * ejected for the ejection time, which doubles for each ejection up to a maximum.
+ * After that, the next response decides: a failure ejects it again, a success
+ * makes it regular again.
+ */
+public final class OutlierPolicy {
+
+  public static final int DEFAULT_CONSECUTIVE_FAILURES = 5;
+  public static final int DEFAULT_ERROR_RATE = 50;
+  public static final int DEFAULT_MIN_REQUESTS = 20;
+  public static final long DEFAULT_INTERVAL_MS = 10000L;
+  public static final long DEFAULT_EJECTION_MS = 30000L;
+  public static final int MAX_EJECTION_FACTOR = 10;
+
+  private final int consecutiveFailures;
+  private final int errorRate;
+  private final int minRequests;
+  private final long intervalMs;
+  private final long ejectionMs;
+  private final long maxEjectionMs;
+
+  private OutlierPolicy(Builder builder) {
+    this.consecutiveFailures = builder.consecutiveFailures;
+    this.errorRate = builder.errorRate;
+    this.minRequests = builder.minRequests;
+    this.intervalMs = builder.intervalMs;
+    this.ejectionMs = builder.ejectionMs;
+    this.maxEjectionMs = builder.ejectionMs * MAX_EJECTION_FACTOR;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Whether response status counts as failure.
+   * @param status HTTP status; 0 if no response was received
+   * @return true if failure
+   */
+  public static boolean isFailure(int status) {
+    return status == 0 || status == 502 || status == 503 || status == 504;
+  }
+
+  public boolean isEnabled() {
+    return ejectionMs > 0;
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  public int getErrorRate() {
+    return errorRate;
+  }
+
+  public int getMinRequests() {
+    return minRequests;
+  }
+
+  public long getIntervalMs() {
+    return intervalMs;
+  }
+
+  /**
+   * Get ejection time.
+   * @param ejections number of ejections before this one
+   * @return ejection time in milliseconds
+   */
+  public long getEjectionMs(int ejections) {
+    long ms = ejectionMs;
+    for (int i = 0; i < ejections && ms < maxEjectionMs; i++) {
+      ms *= 2;
+    }
+    return Math.min(ms, maxEjectionMs);
+  }
+
+  public static final class Builder {
+
+    private int consecutiveFailures = DEFAULT_CONSECUTIVE_FAILURES;
+    private int errorRate = DEFAULT_ERROR_RATE;
+    private int minRequests = DEFAULT_MIN_REQUESTS;
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private long ejectionMs = DEFAULT_EJECTION_MS;
+
+    public OutlierPolicy build() {
+      return new OutlierPolicy(this);
+    }
+
+    /**
+     * Set number of consecutive failures that ejects an instance.
+     * @param consecutiveFailures number of failures; 0 to disable
+     * @return builder
+     */
+    public Builder withConsecutiveFailures(int consecutiveFailures) {
+      this.consecutiveFailures = consecutiveFailures;
+      return this;
+    }
+
+    /**
+     * Set failure rate that ejects an instance.
+     * @param errorRate percentage of requests within interval; 0 to disable
+     * @return builder
+     */
+    public Builder withErrorRate(int errorRate) {
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /**
+     * Set number of requests within interval before failure rate is considered.
+     * @param minRequests number of requests
+     * @return builder
+     */
+    public Builder withMinRequests(int minRequests) {
+      this.minRequests = minRequests;
+      return this;
+    }
+
+    public Builder withIntervalMs(long intervalMs) {
+      this.intervalMs = intervalMs;
+      return this;
+    }
+
+    /**
+     * Set ejection time for first ejection.
+     * @param ejectionMs milliseconds; 0 to disable ejection
+     * @return builder
+     */
+    public Builder withEjectionMs(long ejectionMs) {
+      this.ejectionMs = ejectionMs;
+      return this;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "consecutiveFailures=" + consecutiveFailures + " errorRate=" + errorRate
+        + " minRequests=" + minRequests + " intervalMs=" + intervalMs
+        + " ejectionMs=" + ejectionMs;
+  }
+}
@@ -0,0 +1,114 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Write stream for a stream that is not available yet, such as a client
+ * request waiting for a connection.
+ *
+ * <p>The write queue is full until the stream is available, so writers that
+ * respect {@link #writeQueueFull()} wait for the drain handler before writing.
+ * If the stream can not be had, content is discarded.
+ *
+ * @param <T> type of content
+ */
+public final class PendingWriteStream<T> implements WriteStream<T> {
+
+  private WriteStream<T> stream; // null until available
+  private boolean failed;
+  private Handler<Void> drainHandler;
+  private Handler<Throwable> exceptionHandler;
+
+  /**
+   * Create stream.
+   * @param future completed with the stream when it is available
+   */
+  public PendingWriteStream(Future<? extends WriteStream<T>> future) {
+    future.onComplete(res -> {
+      if (res.succeeded()) {
+        stream = res.result();
+        if (exceptionHandler != null) {
+          stream.exceptionHandler(exceptionHandler);
+        }
+      } else {
+        failed = true;
+      }
+      Handler<Void> h = drainHandler;
+      drainHandler = null;
+      if (h != null) {
+        h.handle(null);
+      }
+    });
+  }
+
+  @Override
+  public PendingWriteStream<T> exceptionHandler(Handler<Throwable> handler) {
+    exceptionHandler = handler;
+    if (stream != null) {
+      stream.exceptionHandler(handler);
+    }
+    return this;
+  }
+
+  @Override
+  public Future<Void> write(T data) {
+    if (stream != null) {
+      return stream.write(data);
+    }
+    if (failed) {
+      return Future.succeededFuture();
+    }
+    return Future.failedFuture("stream is not available");
+  }
+
+  @Override
+  public void write(T data, Handler<AsyncResult<Void>> handler) {
+    Future<Void> f = write(data);
+    if (handler != null) {
+      f.onComplete(handler);
+    }
+  }
+
+  @Override
+  public void end(Handler<AsyncResult<Void>> handler) {
+    if (stream != null) {
+      stream.end(handler);
+    } else if (handler != null) {
+      handler.handle(failed ? Future.succeededFuture()
+          : Future.failedFuture("stream is not available"));
+    }
+  }
+
+  @Override
+  public PendingWriteStream<T> setWriteQueueMaxSize(int maxSize) {
+    if (stream != null) {
+      stream.setWriteQueueMaxSize(maxSize);
+    }
+    return this;
+  }
+
+  /**
+   * Whether the queue is full.
+   * @return true until stream is available; then as reported by stream
+   */
+  @Override
+  public boolean writeQueueFull() {
+    if (stream != null) {
+      return stream.writeQueueFull();
+    }
+    return !failed;
+  }
+
+  @Override
+  public PendingWriteStream<T> drainHandler(Handler<Void> handler) {
+    if (stream != null) {
+      stream.drainHandler(handler);
+    } else {
+      drainHandler = handler;
+    }
+    return this;
+  }
+}
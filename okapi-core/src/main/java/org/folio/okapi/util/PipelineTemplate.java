@@ -0,0 +1,108 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.http.HttpMethod;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.folio.okapi.bean.ModuleDescriptor;
+import org.folio.okapi.bean.ModuleInstance;
+import org.folio.okapi.bean.RoutingEntry;
+
+/**
+ * Resolved pipeline for a request shape: filters, redirects and handler,
+ * sorted by phase level. Immutable and shared between requests; per-request
+ * state lives in the {@link ModuleInstance} objects returned by
+ * {@link #getModuleInstances(String, HttpMethod)}.
+ */
+public final class PipelineTemplate {
+
+  static final class Step {
+    final ModuleDescriptor moduleDescriptor;
+    final RoutingEntry routingEntry;
+    final boolean handler;
+    final RoutingEntry[] redirects; // redirect entries applied in order to get path
+
+    Step(ModuleDescriptor moduleDescriptor, RoutingEntry routingEntry, boolean handler,
+         RoutingEntry[] redirects) {
+      this.moduleDescriptor = moduleDescriptor;
+      this.routingEntry = routingEntry;
+      this.handler = handler;
+      this.redirects = redirects;
+    }
+
+    String getPath(String uri) {
+      String path = uri;
+      for (RoutingEntry redirect : redirects) {
+        path = redirect.getRedirectUri(path);
+      }
+      return path;
+    }
+
+    ModuleInstance newInstance(String uri, HttpMethod method) {
+      return new ModuleInstance(moduleDescriptor, routingEntry, getPath(uri), method, handler);
+    }
+  }
+
+  private static final Comparator<Step> compareStepLevel =
+      Comparator.comparing((Step a) -> a.routingEntry.getPhaseLevel());
+
+  private final List<Step> steps;
+  private final boolean requestSpecificPermissions;
+  private volatile AuthPermissions authPermissions;
+  private volatile AuthPermissions expandedAuthPermissions;
+
+  PipelineTemplate(List<Step> steps) {
+    List<Step> sorted = new ArrayList<>(steps);
+    sorted.sort(compareStepLevel);
+    this.steps = Collections.unmodifiableList(sorted);
+    boolean specific = false;
+    for (Step step : sorted) {
+      specific = specific || AuthPermissions.isRequestSpecific(step.routingEntry);
+    }
+    this.requestSpecificPermissions = specific;
+  }
+
+  /**
+   * Create module instances for a request, sorted by phase level.
+   * @param uri request uri
+   * @param method HTTP method
+   * @return new mutable list of new module instances
+   */
+  public List<ModuleInstance> getModuleInstances(String uri, HttpMethod method) {
+    List<ModuleInstance> instances = new ArrayList<>(steps.size());
+    for (Step step : steps) {
+      instances.add(step.newInstance(uri, method));
+    }
+    return instances;
+  }
+
+  /**
+   * Get permission headers for the auth filter. Computed once per template
+   * and setting of expandModulePermissions, unless they depend on the request.
+   * The template belongs to the module cache of a tenant, so it is discarded
+   * when the modules of the tenant change.
+   * @param instances module instances of request, as returned by
+   *     {@link #getModuleInstances(String, HttpMethod)}
+   * @param tenant tenant of the request
+   * @param expandModulePermissions whether module permissions are expanded
+   * @return permission headers
+   */
+  public AuthPermissions getAuthPermissions(List<ModuleInstance> instances, String tenant,
+                                            boolean expandModulePermissions) {
+    if (requestSpecificPermissions || instances.size() != steps.size()) {
+      return AuthPermissions.of(instances, tenant, expandModulePermissions);
+    }
+    AuthPermissions permissions = expandModulePermissions
+        ? expandedAuthPermissions : authPermissions;
+    if (permissions == null) {
+      permissions = AuthPermissions.of(instances, tenant, expandModulePermissions);
+      if (expandModulePermissions) {
+        expandedAuthPermissions = permissions;
+      } else {
+        authPermissions = permissions;
+      }
+    }
+    return permissions;
+  }
+}
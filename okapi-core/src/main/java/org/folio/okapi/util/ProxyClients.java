@@ -0,0 +1,240 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.Logger;
+import org.folio.okapi.common.ModuleId;
+import org.folio.okapi.common.OkapiLogger;
+
+/**
+ * HTTP clients used for requests to modules.
+ *
+ * <p>Each module, identified by product name, gets its own client, and thus its
+ * own connection pools. A busy module can not use up the connections of
+ * others. Limits and timeouts are the same for all modules, unless overridden
+ * for a module. HTTP/2 over clear text (h2c) can be enabled for modules that
+ * support it; requests are then multiplexed over few connections.
+ *
+ * <p>Per-module settings are given as a JSON object with product name as key.
+ * Properties are: poolSize, keepAliveTimeout, idleTimeout (seconds),
+ * http2 (boolean) and http2MultiplexingLimit.
+ */
+public final class ProxyClients {
+
+  private static final Logger logger = OkapiLogger.get(ProxyClients.class);
+
+  public static final int DEFAULT_POOL_SIZE = 1000;
+  public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = HttpClientOptions.DEFAULT_KEEP_ALIVE_TIMEOUT;
+  public static final int DEFAULT_IDLE_TIMEOUT = 0;
+
+  static final String POOL_SIZE = "poolSize";
+  static final String KEEP_ALIVE_TIMEOUT = "keepAliveTimeout";
+  static final String IDLE_TIMEOUT = "idleTimeout";
+  static final String HTTP2 = "http2";
+  static final String HTTP2_MULTIPLEXING_LIMIT = "http2MultiplexingLimit";
+
+  private final Vertx vertx;
+  private final HttpClientOptions defaultOptions;
+  private final Map<String, HttpClientOptions> moduleOptions;
+  private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+  // product by module ID, so that IDs are not parsed for each request
+  private final Map<String, String> products = new ConcurrentHashMap<>();
+
+  /**
+   * Connection pool of one module.
+   */
+  public static final class Pool {
+    private final String name;
+    private final HttpClient client;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+
+    Pool(String name, HttpClient client) {
+      this.name = name;
+      this.client = client;
+      client.connectionHandler(conn -> {
+        connections.incrementAndGet();
+        connectionsCreated.incrementAndGet();
+        conn.closeHandler(x -> connections.decrementAndGet());
+      });
+    }
+
+    /**
+     * Get name of pool.
+     * @return product name of module
+     */
+    public String getName() {
+      return name;
+    }
+
+    public HttpClient getClient() {
+      return client;
+    }
+
+    /**
+     * Get number of open connections.
+     * @return number of connections
+     */
+    public int getConnections() {
+      return connections.get();
+    }
+
+    /**
+     * Get number of connections created. Connections are created when all are
+     * in use, or after they are closed by timeout.
+     * @return number of connections since start
+     */
+    public long getConnectionsCreated() {
+      return connectionsCreated.get();
+    }
+  }
+
+  private ProxyClients(Vertx vertx, Builder builder) {
+    this.vertx = vertx;
+    defaultOptions = new HttpClientOptions()
+        .setMaxPoolSize(builder.poolSize)
+        .setKeepAliveTimeout(builder.keepAliveTimeout)
+        .setIdleTimeout(builder.idleTimeout);
+    moduleOptions = new HashMap<>();
+    for (String product : builder.modules.fieldNames()) {
+      moduleOptions.put(product, createOptions(builder.modules.getJsonObject(product)));
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private HttpClientOptions createOptions(JsonObject conf) {
+    HttpClientOptions opt = new HttpClientOptions(defaultOptions);
+    int keepAliveTimeout = conf.getInteger(KEEP_ALIVE_TIMEOUT, opt.getKeepAliveTimeout());
+    opt.setKeepAliveTimeout(keepAliveTimeout);
+    opt.setIdleTimeout(conf.getInteger(IDLE_TIMEOUT, opt.getIdleTimeout()));
+    if (Boolean.TRUE.equals(conf.getBoolean(HTTP2))) {
+      // the module is known to speak HTTP/2, so no need for upgrade from HTTP/1.1
+      opt.setProtocolVersion(HttpVersion.HTTP_2);
+      opt.setHttp2ClearTextUpgrade(false);
+      opt.setHttp2KeepAliveTimeout(keepAliveTimeout);
+      opt.setHttp2MaxPoolSize(conf.getInteger(POOL_SIZE, opt.getHttp2MaxPoolSize()));
+      opt.setHttp2MultiplexingLimit(conf.getInteger(HTTP2_MULTIPLEXING_LIMIT,
+          opt.getHttp2MultiplexingLimit()));
+    } else {
+      opt.setMaxPoolSize(conf.getInteger(POOL_SIZE, opt.getMaxPoolSize()));
+    }
+    return opt;
+  }
+
+  /**
+   * Get client options of a module.
+   * @param moduleId module ID
+   * @return options
+   */
+  HttpClientOptions getOptions(String moduleId) {
+    return moduleOptions.getOrDefault(getProduct(moduleId), defaultOptions);
+  }
+
+  private String getProduct(String moduleId) {
+    String product = products.get(moduleId);
+    if (product != null) {
+      return product;
+    }
+    return products.computeIfAbsent(moduleId, id -> new ModuleId(id).getProduct());
+  }
+
+  /**
+   * Get pool of a module. The pool is created on first use.
+   * @param moduleId module ID
+   * @return pool shared by all versions of module
+   */
+  public Pool getPool(String moduleId) {
+    String product = getProduct(moduleId);
+    Pool pool = pools.get(product);
+    if (pool != null) {
+      return pool;
+    }
+    return pools.computeIfAbsent(product, k -> {
+      HttpClientOptions opt = moduleOptions.getOrDefault(k, defaultOptions);
+      logger.info("Create HTTP client for {} with {} {}", k, opt.getProtocolVersion(),
+          opt.getProtocolVersion() == HttpVersion.HTTP_2
+              ? opt.getHttp2MaxPoolSize() : opt.getMaxPoolSize());
+      Pool p = new Pool(k, vertx.createHttpClient(opt));
+      MetricsHelper.registerProxyClientGauges(p);
+      return p;
+    });
+  }
+
+  /**
+   * Get HTTP client of a module.
+   * @param moduleId module ID
+   * @return client shared by all versions of module
+   */
+  public HttpClient get(String moduleId) {
+    return getPool(moduleId).getClient();
+  }
+
+  public static final class Builder {
+
+    private int poolSize = DEFAULT_POOL_SIZE;
+    private int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private JsonObject modules = new JsonObject();
+
+    /**
+     * Create clients.
+     * @param vertx Vert.x handle
+     * @return clients
+     * @throws ClassCastException if per-module settings have wrong type
+     */
+    public ProxyClients build(Vertx vertx) {
+      return new ProxyClients(vertx, this);
+    }
+
+    /**
+     * Set maximum number of connections to each instance of a module.
+     * @param poolSize number of connections
+     * @return builder
+     */
+    public Builder withPoolSize(int poolSize) {
+      this.poolSize = poolSize;
+      return this;
+    }
+
+    /**
+     * Set time an unused connection is kept open for reuse.
+     * @param keepAliveTimeout seconds; 0 for no limit
+     * @return builder
+     */
+    public Builder withKeepAliveTimeout(int keepAliveTimeout) {
+      this.keepAliveTimeout = keepAliveTimeout;
+      return this;
+    }
+
+    /**
+     * Set time without data after which a connection is closed.
+     * @param idleTimeout seconds; 0 for no limit
+     * @return builder
+     */
+    public Builder withIdleTimeout(int idleTimeout) {
+      this.idleTimeout = idleTimeout;
+      return this;
+    }
+
+    /**
+     * Set per-module settings.
+     * @param modules settings with product name as key; null for none
+     * @return builder
+     */
+    public Builder withModules(JsonObject modules) {
+      this.modules = modules == null ? new JsonObject() : modules;
+      return this;
+    }
+  }
+}
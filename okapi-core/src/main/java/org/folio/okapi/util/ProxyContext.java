@@ -3,10 +3,15 @@ package org.folio.okapi.util;
 import io.micrometer.core.instrument.Timer;
 import io.vertx.core.MultiMap;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.streams.WriteStream;
 import io.vertx.ext.web.RoutingContext;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.ModuleInstance;
 import org.folio.okapi.common.ErrorType;
@@ -25,13 +30,16 @@ import org.folio.okapi.common.XOkapiHeaders;
 public class ProxyContext {
 
   private static final Logger logger = OkapiLogger.get();
+  private static final long MAX_TIMEOUT_MS = TimeUnit.DAYS.toMillis(1);
   private List<ModuleInstance> modList;
+  private PipelineTemplate pipeline;
   private final String reqId;
   private String tenant;
   private final RoutingContext ctx;
   private long nanoTimeStart; // = 0 for no start time
   private Long timerId;
   private final int waitMs;
+  private final long deadline; // System.nanoTime() when request must be done; 0 for none
 
   // store auth filter response status code, headers, and body
   private int authRes;
@@ -46,11 +54,52 @@ public class ProxyContext {
 
   private Timer.Sample sample;
   private ModuleInstance handlerModuleInstance;
+  // streams for request-log copies, by client request
+  private final Map<HttpClientRequest, WriteStream<Buffer>> mirrors = new IdentityHashMap<>();
+  // streams for shadow requests
+  private final List<WriteStream<Buffer>> shadows = new LinkedList<>();
 
   public ModuleInstance getHandlerModuleInstance() {
     return handlerModuleInstance;
   }
 
+  /**
+   * Set stream that writes the request copy to a request-log module.
+   * @param clientRequest request to request-log module
+   * @param mirror stream that writes to clientRequest
+   */
+  public void addMirror(HttpClientRequest clientRequest, WriteStream<Buffer> mirror) {
+    mirrors.put(clientRequest, mirror);
+  }
+
+  /**
+   * Get stream that writes the request copy to a request-log module.
+   * @param clientRequest request to request-log module
+   * @return stream given by {@link #addMirror}; clientRequest itself if none
+   */
+  public WriteStream<Buffer> getMirror(HttpClientRequest clientRequest) {
+    return mirrors.getOrDefault(clientRequest, clientRequest);
+  }
+
+  /**
+   * Add stream that writes the request to a shadow module. The request body
+   * is written to it along with the request to the handler.
+   * @param shadow stream
+   */
+  public void addShadow(WriteStream<Buffer> shadow) {
+    shadows.add(shadow);
+  }
+
+  /**
+   * Take streams for shadow requests.
+   * @return streams added by {@link #addShadow}; the list is cleared
+   */
+  public List<WriteStream<Buffer>> takeShadows() {
+    List<WriteStream<Buffer>> l = new LinkedList<>(shadows);
+    shadows.clear();
+    return l;
+  }
+
   /**
    * Constructor to be used from proxy. Does not log the request, as we do not
    * know the tenant yet.
@@ -69,9 +118,8 @@ public class ProxyContext {
     path = path.replaceFirst("^(/_)?(/[^/?]+).*$", "$2");
     // when rerouting, the query appears as part of the getPath, so we kill it
     // here with the '?'.
-    Random r = new Random();
     StringBuilder newid = new StringBuilder();
-    newid.append(String.format("%06d", r.nextInt(1000000)));
+    newid.append(String.format("%06d", ThreadLocalRandom.current().nextInt(1000000)));
     newid.append(path);
     String curid = ctx.request().getHeader(XOkapiHeaders.REQUEST_ID);
     if (curid == null || curid.isEmpty()) {
@@ -83,12 +131,39 @@ public class ProxyContext {
       ctx.request().headers().set(XOkapiHeaders.REQUEST_ID, reqId);
       logger.debug("Appended a reqId {}", newid);
     }
+    deadline = parseDeadline(ctx.request().getHeader(XOkapiHeaders.REQUEST_TIMEOUT));
     nanoTimeStart = 0;
     timerId = null;
     handlerRes = 0;
     this.sample = MetricsHelper.getTimerSample();
   }
 
+  private static long parseDeadline(String timeout) {
+    if (timeout == null) {
+      return 0;
+    }
+    try {
+      long ms = Math.min(Math.max(Long.parseLong(timeout.trim()), 0), MAX_TIMEOUT_MS);
+      long d = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+      return d == 0 ? 1 : d;
+    } catch (NumberFormatException e) {
+      logger.warn("Ignoring invalid {}: {}", XOkapiHeaders.REQUEST_TIMEOUT, timeout);
+      return 0;
+    }
+  }
+
+  /**
+   * Get time left for the request as given by the client in header
+   * X-Okapi-Request-Timeout.
+   * @return milliseconds left, 0 if the deadline has passed; Long.MAX_VALUE if no deadline
+   */
+  public long getRemainingMs() {
+    if (deadline == 0) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+  }
+
   /**
    * Start timer.
    */
@@ -148,6 +223,18 @@ public class ProxyContext {
     this.modList = modList;
   }
 
+  /**
+   * Get pipeline template the module list was created from.
+   * @return pipeline; null if not known
+   */
+  public PipelineTemplate getPipeline() {
+    return pipeline;
+  }
+
+  public void setPipeline(PipelineTemplate pipeline) {
+    this.pipeline = pipeline;
+  }
+
   public String getTenant() {
     return tenant;
   }
@@ -0,0 +1,468 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of handler responses, bounded by the total size of cached responses.
+ *
+ * <p>Responses are kept by tenant, URI, Accept header and permissions of the
+ * caller, so that a response is only served to callers that would get the same
+ * response from the module.
+ *
+ * <p>Responses are spread over a number of shards, each a concurrent map with its
+ * share of the size, so that lookups do not take a lock. When a shard is full, an
+ * approximately least recently used response is evicted: the least recently used of
+ * a small sample of the responses of the shard.
+ *
+ * <p>An expired response with an ETag is kept, so that it can be revalidated
+ * with the module by a conditional request rather than fetched again.
+ */
+public final class ResponseCache {
+
+  public static final long DEFAULT_MAX_BYTES = 0L;
+  public static final long DEFAULT_MAX_ENTRY_BYTES = 256 * 1024L;
+  // estimate of memory used by an entry besides body and headers
+  static final int ENTRY_OVERHEAD = 256;
+  static final int MAX_SHARDS = 16;
+  static final int MIN_SHARD_ENTRIES = 16; // of largest size
+  static final int SAMPLE_SIZE = 8;
+
+  private final long maxBytes;
+  private final long maxEntryBytes;
+  private final Shard[] shards;
+  private final Tally hits = MetricsHelper.tally(
+      MetricsHelper.METRICS_RESPONSE_CACHE_HIT_COUNT, null);
+  private final Tally misses = MetricsHelper.tally(
+      MetricsHelper.METRICS_RESPONSE_CACHE_MISS_COUNT, null);
+  private final Tally revalidations = MetricsHelper.tally(
+      MetricsHelper.METRICS_RESPONSE_CACHE_REVALIDATION_COUNT, null);
+  private final Tally evictions = MetricsHelper.tally(
+      MetricsHelper.METRICS_RESPONSE_CACHE_EVICTION_COUNT, null);
+
+  /**
+   * Key of cached response.
+   */
+  public static final class Key {
+    private final String tenant;
+    private final String uri;
+    private final String accept;
+    private final String permissions;
+    private final int hash;
+
+    /**
+     * Create key.
+     * @param tenant tenant ID
+     * @param uri request URI, including query
+     * @param accept Accept header of request; null if absent
+     * @param permissions X-Okapi-Permissions of request; null if absent
+     */
+    public Key(String tenant, String uri, String accept, String permissions) {
+      this.tenant = tenant;
+      this.uri = uri;
+      this.accept = accept;
+      this.permissions = permissions;
+      this.hash = Objects.hash(tenant, uri, accept, permissions);
+    }
+
+    int size() {
+      return length(tenant) + length(uri) + length(accept) + length(permissions);
+    }
+
+    private static int length(String s) {
+      return s == null ? 0 : s.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash && Objects.equals(tenant, other.tenant)
+          && Objects.equals(uri, other.uri) && Objects.equals(accept, other.accept)
+          && Objects.equals(permissions, other.permissions);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Cached response. Immutable.
+   */
+  public static final class Entry {
+    private final int status;
+    private final MultiMap headers;
+    private final Buffer body;
+    private final String etag;
+    private final long created;
+    private final long expires;
+
+    /**
+     * Create entry.
+     * @param status HTTP status
+     * @param headers response headers; copied
+     * @param body response body
+     * @param created time response was received in ms since epoch
+     * @param maxAge time in ms response is fresh
+     */
+    public Entry(int status, MultiMap headers, Buffer body, long created, long maxAge) {
+      this.status = status;
+      this.headers = MultiMap.caseInsensitiveMultiMap().addAll(headers);
+      this.body = body;
+      this.etag = headers.get("ETag");
+      this.created = created;
+      this.expires = created + maxAge;
+    }
+
+    private Entry(Entry entry, long created, long maxAge) {
+      this.status = entry.status;
+      this.headers = entry.headers;
+      this.body = entry.body;
+      this.etag = entry.etag;
+      this.created = created;
+      this.expires = created + maxAge;
+    }
+
+    /**
+     * Create entry for a response that was revalidated.
+     * @param created time of revalidation in ms since epoch
+     * @param maxAge time in ms response is fresh
+     * @return new entry with same response
+     */
+    public Entry revalidated(long created, long maxAge) {
+      return new Entry(this, created, maxAge);
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * Get response headers. Must not be modified.
+     * @return headers
+     */
+    public MultiMap getHeaders() {
+      return headers;
+    }
+
+    /**
+     * Get response body.
+     * @return body that can be written independently of other callers
+     */
+    public Buffer getBody() {
+      return body.slice();
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    /**
+     * Get age of response.
+     * @param now time in ms since epoch
+     * @return seconds since response was received or revalidated
+     */
+    public long getAge(long now) {
+      return Math.max(0L, now - created) / 1000;
+    }
+
+    public boolean isExpired(long now) {
+      return now >= expires;
+    }
+
+    int size() {
+      int size = body.length() + ENTRY_OVERHEAD;
+      for (Map.Entry<String, String> h : headers) {
+        size += h.getKey().length() + h.getValue().length();
+      }
+      return size;
+    }
+  }
+
+  static final class Node {
+    final Key key;
+    final Entry entry;
+    final int size;
+    volatile long lastAccess;
+
+    Node(Key key, Entry entry, int size, long lastAccess) {
+      this.key = key;
+      this.entry = entry;
+      this.size = size;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  /**
+   * Part of cache with its own map, size and access clock.
+   */
+  final class Shard {
+    final ConcurrentHashMap<Key, Node> map = new ConcurrentHashMap<>();
+    final AtomicLong clock = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    private final long maxBytes;
+
+    Shard(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    Entry get(Key key) {
+      Node node = map.get(key);
+      if (node == null) {
+        return null;
+      }
+      node.lastAccess = clock.incrementAndGet();
+      return node.entry;
+    }
+
+    void put(Key key, Entry entry, int size) {
+      Node node = new Node(key, entry, size, clock.incrementAndGet());
+      Node old = map.put(key, node);
+      bytes.addAndGet(old == null ? size : size - old.size);
+      while (bytes.get() > maxBytes) {
+        Node victim = sample(node);
+        if (victim == null) {
+          break;
+        }
+        if (map.remove(victim.key, victim)) {
+          bytes.addAndGet(-victim.size);
+          evictions.increment();
+        }
+      }
+    }
+
+    void remove(Key key) {
+      Node old = map.remove(key);
+      if (old != null) {
+        bytes.addAndGet(-old.size);
+      }
+    }
+
+    /**
+     * Find least recently used of a sample of nodes.
+     * @param keep node that is not returned
+     * @return node; null if there is no other node
+     */
+    private Node sample(Node keep) {
+      Node victim = null;
+      int sampled = 0;
+      for (Node node : map.values()) {
+        if (node == keep) {
+          continue;
+        }
+        if (victim == null || node.lastAccess < victim.lastAccess) {
+          victim = node;
+        }
+        if (++sampled >= SAMPLE_SIZE) {
+          break;
+        }
+      }
+      return victim;
+    }
+  }
+
+  private ResponseCache(Builder builder) {
+    maxBytes = builder.maxBytes;
+    maxEntryBytes = Math.min(builder.maxEntryBytes, builder.maxBytes);
+    int n = 1;
+    while (n < MAX_SHARDS && maxBytes / (2L * n) >= MIN_SHARD_ENTRIES * maxEntryBytes) {
+      n <<= 1;
+    }
+    shards = new Shard[n];
+    for (int i = 0; i < n; i++) {
+      shards[i] = new Shard(maxBytes / n);
+    }
+    if (isEnabled()) {
+      MetricsHelper.registerResponseCacheGauges(this);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * Whether a response body is small enough to be cached.
+   * @param length body length in bytes
+   * @return true if it may be cached
+   */
+  public boolean fits(long length) {
+    return length <= maxEntryBytes;
+  }
+
+  public long getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  /**
+   * Get response.
+   * @param key key of response
+   * @return response, possibly expired; null if not cached
+   */
+  public Entry get(Key key) {
+    return shard(key).get(key);
+  }
+
+  /**
+   * Cache response. Approximately least recently used responses are evicted until
+   * the shard of the response is within its size.
+   * @param key key of response
+   * @param entry response
+   * @return true if cached; false if response is too large
+   */
+  public boolean put(Key key, Entry entry) {
+    if (!fits(entry.body.length())) {
+      return false;
+    }
+    shard(key).put(key, entry, key.size() + entry.size());
+    return true;
+  }
+
+  /**
+   * Remove response.
+   * @param key key of response
+   */
+  public void remove(Key key) {
+    shard(key).remove(key);
+  }
+
+  private Shard shard(Key key) {
+    int h = key.hash;
+    return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+  }
+
+  /**
+   * Get time a response may be cached from its Cache-Control header.
+   * @param cacheControl Cache-Control header of response; null if absent
+   * @param defaultMaxAge time in ms if header has no max-age
+   * @return time in ms; 0 if it must be revalidated for each request;
+   *     -1 if it must not be cached
+   */
+  public static long getMaxAge(String cacheControl, long defaultMaxAge) {
+    if (cacheControl == null) {
+      return defaultMaxAge;
+    }
+    long maxAge = -2;
+    long sharedMaxAge = -2;
+    for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+      String d = directive.trim();
+      if (d.equals("no-store") || d.equals("private")) {
+        return -1;
+      } else if (d.equals("no-cache")) {
+        maxAge = 0;
+        sharedMaxAge = 0;
+      } else if (d.startsWith("max-age=") && maxAge != 0) {
+        maxAge = parseSeconds(d.substring(8));
+      } else if (d.startsWith("s-maxage=") && sharedMaxAge != 0) {
+        sharedMaxAge = parseSeconds(d.substring(9));
+      }
+    }
+    if (sharedMaxAge >= 0) {
+      return sharedMaxAge;
+    }
+    return maxAge >= 0 ? maxAge : defaultMaxAge;
+  }
+
+  private static long parseSeconds(String s) {
+    try {
+      return Math.max(0L, Long.parseLong(s.replace("\"", ""))) * 1000L;
+    } catch (NumberFormatException e) {
+      return 0L;
+    }
+  }
+
+  public void recordHit() {
+    hits.increment();
+  }
+
+  public void recordMiss() {
+    misses.increment();
+  }
+
+  public void recordRevalidation() {
+    revalidations.increment();
+  }
+
+  /**
+   * Return number of cached responses.
+   * @return number of responses
+   */
+  public int size() {
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.map.size();
+    }
+    return size;
+  }
+
+  /**
+   * Return estimated memory used by cached responses.
+   * @return bytes
+   */
+  public long getBytes() {
+    long bytes = 0;
+    for (Shard shard : shards) {
+      bytes += shard.bytes.get();
+    }
+    return bytes;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getRevalidationCount() {
+    return revalidations.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public static final class Builder {
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxEntryBytes = DEFAULT_MAX_ENTRY_BYTES;
+
+    public ResponseCache build() {
+      return new ResponseCache(this);
+    }
+
+    /**
+     * Set size of cache.
+     * @param maxBytes total size of cached responses in bytes; 0 to disable cache
+     * @return builder
+     */
+    public Builder withMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Set size of largest response body that is cached.
+     * @param maxEntryBytes size in bytes
+     * @return builder
+     */
+    public Builder withMaxEntryBytes(long maxEntryBytes) {
+      this.maxEntryBytes = maxEntryBytes;
+      return this;
+    }
+  }
+}
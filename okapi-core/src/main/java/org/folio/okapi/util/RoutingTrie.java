@@ -0,0 +1,313 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.http.HttpMethod;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.folio.okapi.bean.ModuleDescriptor;
+import org.folio.okapi.bean.RoutingEntry;
+import org.folio.okapi.util.ModuleCache.ModuleCacheEntry;
+
+/**
+ * Segment trie compiled from routing entries.
+ *
+ * <p>Path patterns are split on '/'. Literal segments become literal children,
+ * a segment that is exactly a {id} placeholder becomes a parameter child. The
+ * first segment that is neither (contains '*' or a partial placeholder) ends
+ * the walk; the remainder of the pattern is checked with
+ * {@link RoutingEntry#fastMatch(String, int, String, int, int)} from that
+ * segment only. Legacy path entries are kept aside and checked with
+ * {@link RoutingEntry#match(String, String)}.
+ *
+ * <p>The order of the result is the same as the prefix walk of
+ * {@link ModuleCache}: longest pattern prefix first and, for the same prefix,
+ * in the order entries were added.
+ */
+class RoutingTrie {
+
+  private static final Map<HttpMethod, Long> METHOD_BITS = new HashMap<>();
+
+  static {
+    List<HttpMethod> all = HttpMethod.values();
+    for (int i = 0; i < all.size() && i < Long.SIZE; i++) {
+      METHOD_BITS.put(all.get(i), 1L << i);
+    }
+  }
+
+  static final class Leaf {
+    final ModuleCacheEntry entry;
+    final int patternOffset; // offset in pattern for remaining match; -1 = none
+    final int prefixLength; // length of prefix as returned by getPatternPrefix
+    final int seq; // insertion order
+    final long methods;
+    final boolean anyMethod;
+
+    Leaf(ModuleCacheEntry entry, int patternOffset, int prefixLength, int seq) {
+      this.entry = entry;
+      this.patternOffset = patternOffset;
+      this.prefixLength = prefixLength;
+      this.seq = seq;
+      long bits = 0;
+      boolean any = false;
+      String[] m = entry.routingEntry.getMethods();
+      if (m != null) {
+        for (String s : m) {
+          if ("*".equals(s)) {
+            any = true;
+          } else {
+            bits |= METHOD_BITS.getOrDefault(HttpMethod.valueOf(s), 0L);
+          }
+        }
+      }
+      this.methods = bits;
+      this.anyMethod = any;
+    }
+
+    boolean matchMethod(long bit) {
+      return anyMethod || (methods & bit) != 0;
+    }
+
+    int compareTo(Leaf o) {
+      if (prefixLength != o.prefixLength) {
+        return prefixLength > o.prefixLength ? -1 : 1;
+      }
+      return Integer.compare(seq, o.seq);
+    }
+  }
+
+  static final class Node {
+    // used while building; replaced by open addressing table on compile
+    private Map<String, Node> building = new LinkedHashMap<>();
+    private String[] keys;
+    private Node[] children;
+    private Node param;
+    private List<Leaf> exact = Collections.emptyList();
+    private List<Leaf> partial = Collections.emptyList();
+
+    Node literal(String segment) {
+      return building.computeIfAbsent(segment, k -> new Node());
+    }
+
+    Node param() {
+      if (param == null) {
+        param = new Node();
+      }
+      return param;
+    }
+
+    Node child(String s, int from, int to) {
+      if (keys == null) {
+        return null;
+      }
+      int mask = keys.length - 1;
+      int len = to - from;
+      int i = spread(hash(s, from, to)) & mask;
+      while (true) {
+        String k = keys[i];
+        if (k == null) {
+          return null;
+        }
+        if (k.length() == len && k.regionMatches(0, s, from, len)) {
+          return children[i];
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    void compile() {
+      if (!building.isEmpty()) {
+        int size = Integer.highestOneBit(building.size() * 2 - 1) << 1;
+        keys = new String[size];
+        children = new Node[size];
+        for (Map.Entry<String, Node> e : building.entrySet()) {
+          String k = e.getKey();
+          int i = spread(k.hashCode()) & (size - 1);
+          while (keys[i] != null) {
+            i = (i + 1) & (size - 1);
+          }
+          keys[i] = k;
+          children[i] = e.getValue();
+          e.getValue().compile();
+        }
+      }
+      building = null;
+      if (param != null) {
+        param.compile();
+      }
+    }
+  }
+
+  private final Node root = new Node();
+  private final List<Leaf> legacy = new ArrayList<>();
+  private int seq;
+
+  static int hash(String s, int from, int to) {
+    int h = 0;
+    for (int i = from; i < to; i++) {
+      h = 31 * h + s.charAt(i);
+    }
+    return h;
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean isParam(String pattern, int from, int to) {
+    if (to - from < 2 || pattern.charAt(from) != '{' || pattern.indexOf('}', from) != to - 1) {
+      return false;
+    }
+    return pattern.indexOf('*', from) == -1 || pattern.indexOf('*', from) >= to;
+  }
+
+  private static boolean isLiteral(String pattern, int from, int to) {
+    for (int i = from; i < to; i++) {
+      char c = pattern.charAt(i);
+      if (c == '{' || c == '*') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<Leaf> append(List<Leaf> list, Leaf leaf) {
+    if (list.isEmpty()) {
+      list = new ArrayList<>(2);
+    }
+    list.add(leaf);
+    return list;
+  }
+
+  /**
+   * Add routing entries for a module. Must be called before {@link #compile()}.
+   * @param moduleDescriptor module that owns the entries
+   * @param entries routing entries
+   */
+  void add(ModuleDescriptor moduleDescriptor, List<RoutingEntry> entries) {
+    for (RoutingEntry re : entries) {
+      add(new ModuleCacheEntry(moduleDescriptor, re));
+    }
+  }
+
+  private void add(ModuleCacheEntry entry) {
+    String pattern = entry.routingEntry.getPathPattern();
+    int prefixLength = ModuleCache.getPatternPrefix(entry.routingEntry).length();
+    if (pattern == null) {
+      legacy.add(new Leaf(entry, -1, prefixLength, seq++));
+      return;
+    }
+    Node node = root;
+    int pos = 0;
+    while (true) {
+      int end = pattern.indexOf('/', pos);
+      int segEnd = end == -1 ? pattern.length() : end;
+      if (isLiteral(pattern, pos, segEnd)) {
+        node = node.literal(pattern.substring(pos, segEnd));
+      } else if (isParam(pattern, pos, segEnd)) {
+        node = node.param();
+      } else {
+        node.partial = append(node.partial, new Leaf(entry, pos, prefixLength, seq++));
+        return;
+      }
+      if (end == -1) {
+        node.exact = append(node.exact, new Leaf(entry, -1, prefixLength, seq++));
+        return;
+      }
+      pos = end + 1;
+    }
+  }
+
+  /**
+   * Freeze the trie. No more entries can be added after this.
+   */
+  void compile() {
+    root.compile();
+  }
+
+  /**
+   * Find routing entries matching uri and method.
+   * @param uri request URI; query and fragment are ignored for matching
+   * @param method HTTP method
+   * @param handler if true, return first match only
+   * @param id module ID that entries must belong to; null for any
+   * @return matching entries, best match first
+   */
+  List<ModuleCacheEntry> lookup(String uri, HttpMethod method, boolean handler, String id) {
+    int uriLength = RoutingEntry.cutUri(uri);
+    Long bit = METHOD_BITS.get(method);
+    List<Leaf> leaves = new ArrayList<>();
+    walk(root, uri, 0, uriLength, false, bit == null ? 0L : bit, id, leaves);
+    for (Leaf leaf : legacy) {
+      if (leaf.entry.routingEntry.match(uri, method.name()) && matchId(leaf, id)
+          && uri.startsWith("/")) {
+        leaves.add(leaf);
+      }
+    }
+    if (leaves.isEmpty()) {
+      return Collections.emptyList();
+    }
+    if (handler) {
+      Leaf best = leaves.get(0);
+      for (int i = 1; i < leaves.size(); i++) {
+        if (leaves.get(i).compareTo(best) < 0) {
+          best = leaves.get(i);
+        }
+      }
+      return Collections.singletonList(best.entry);
+    }
+    leaves.sort(Leaf::compareTo);
+    List<ModuleCacheEntry> result = new ArrayList<>(leaves.size());
+    for (Leaf leaf : leaves) {
+      result.add(leaf.entry);
+    }
+    return result;
+  }
+
+  private static boolean matchId(Leaf leaf, String id) {
+    return id == null || id.equals(leaf.entry.moduleDescriptor.getId());
+  }
+
+  /**
+   * Whether the prefix walk would have considered the prefix of this leaf.
+   * The walk only visits the full path and prefixes ending with '/'; so
+   * patterns with an empty prefix are only considered for an empty path.
+   */
+  private static boolean visited(Leaf leaf, int uriLength) {
+    return leaf.prefixLength > 0 || uriLength == 0;
+  }
+
+  private static void walk(Node node, String uri, int pos, int uriLength, boolean done,
+                           long bit, String id, List<Leaf> leaves) {
+    if (done) {
+      // path is exhausted; partial entries need at least the rest of a segment
+      for (Leaf leaf : node.exact) {
+        if (leaf.matchMethod(bit) && visited(leaf, uriLength) && matchId(leaf, id)) {
+          leaves.add(leaf);
+        }
+      }
+      return;
+    }
+    for (Leaf leaf : node.partial) {
+      if (leaf.matchMethod(bit) && visited(leaf, uriLength) && matchId(leaf, id)
+          && RoutingEntry.fastMatch(leaf.entry.routingEntry.getPathPattern(),
+          leaf.patternOffset, uri, pos, uriLength)) {
+        leaves.add(leaf);
+      }
+    }
+    int segEnd = uri.indexOf('/', pos);
+    boolean last = segEnd == -1 || segEnd >= uriLength;
+    if (last) {
+      segEnd = uriLength;
+    }
+    Node child = node.child(uri, pos, segEnd);
+    if (child != null) {
+      walk(child, uri, segEnd + 1, uriLength, last, bit, id, leaves);
+    }
+    if (node.param != null && segEnd > pos) {
+      walk(node.param, uri, segEnd + 1, uriLength, last, bit, id, leaves);
+    }
+  }
+}
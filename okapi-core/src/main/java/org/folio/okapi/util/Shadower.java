@@ -0,0 +1,313 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which requests are shadowed, that is, also sent to a candidate
+ * module, and keeps response time and status histograms of the primary
+ * module and the candidate for comparison.
+ *
+ * <p>Shadows are configured by module ID of the primary module. The candidate
+ * is another module ID, typically a new version, that is deployed but need not
+ * be enabled for any tenant. A percentage of requests is shadowed, optionally
+ * only for one routing entry of the primary module. Only GET and HEAD requests
+ * are shadowed unless other methods are configured, as the candidate would
+ * otherwise repeat changes made by the primary module. Responses from the
+ * candidate are discarded.
+ */
+public final class Shadower {
+
+  // upper bounds in ms of response time buckets; the last bucket has no bound
+  static final long[] BOUNDS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+  static final List<String> DEFAULT_METHODS = Arrays.asList("GET", "HEAD");
+
+  private final Map<String, Shadow> shadows;
+
+  /**
+   * Response times and status codes of responses from one module.
+   */
+  public static final class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    // status classes 1xx to 5xx; index 0 for requests without response
+    private final AtomicLongArray statuses = new AtomicLongArray(6);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMs = new LongAdder();
+
+    /**
+     * Record response.
+     * @param status HTTP status; 0 if request failed
+     * @param nanos response time in nanoseconds
+     */
+    public void record(int status, long nanos) {
+      long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+      int i = 0;
+      while (i < BOUNDS.length && ms > BOUNDS[i]) {
+        i++;
+      }
+      buckets.incrementAndGet(i);
+      int c = status / 100;
+      statuses.incrementAndGet(c >= 1 && c <= 5 ? c : 0);
+      count.increment();
+      totalMs.add(ms);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    /**
+     * Get histogram as JSON.
+     * @return object with count, mean time, counts by response time bucket and
+     *     counts by status class
+     */
+    public JsonObject toJson() {
+      JsonObject latency = new JsonObject();
+      for (int i = 0; i < BOUNDS.length; i++) {
+        latency.put("le" + BOUNDS[i], buckets.get(i));
+      }
+      latency.put("inf", buckets.get(BOUNDS.length));
+      JsonObject status = new JsonObject();
+      for (int i = 1; i <= 5; i++) {
+        status.put(i + "xx", statuses.get(i));
+      }
+      status.put("error", statuses.get(0));
+      long n = count.sum();
+      return new JsonObject()
+          .put("count", n)
+          .put("meanMs", n == 0 ? 0L : totalMs.sum() / n)
+          .put("latency", latency)
+          .put("status", status);
+    }
+  }
+
+  /**
+   * Shadowing of one module.
+   */
+  public static final class Shadow {
+    private final String moduleId;
+    private final String target;
+    private final double percent;
+    private final String path;
+    private final Set<String> methods;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder unavailable = new LongAdder();
+    // by static path of routing entry
+    private final Map<String, Histogram[]> histograms = new ConcurrentHashMap<>();
+
+    Shadow(String moduleId, String target, double percent, String path, Set<String> methods) {
+      this.moduleId = moduleId;
+      this.target = target;
+      this.percent = percent;
+      this.path = path;
+      this.methods = methods;
+    }
+
+    public String getModuleId() {
+      return moduleId;
+    }
+
+    /**
+     * Get candidate module.
+     * @return module ID that shadow requests are sent to
+     */
+    public String getTarget() {
+      return target;
+    }
+
+    /**
+     * Decide whether a request is shadowed.
+     * @return true for the configured percentage of calls
+     */
+    public boolean sample() {
+      return percent >= 100.0 || ThreadLocalRandom.current().nextDouble(100.0) < percent;
+    }
+
+    /**
+     * Report that a shadow request is sent.
+     */
+    public void sent() {
+      sent.increment();
+    }
+
+    /**
+     * Report that a request was not shadowed because the candidate has no
+     * instances.
+     */
+    public void unavailable() {
+      unavailable.increment();
+    }
+
+    public long getSent() {
+      return sent.sum();
+    }
+
+    /**
+     * Record response from primary module for a shadowed request.
+     * @param path static path of routing entry
+     * @param status HTTP status; 0 if request failed
+     * @param nanos response time in nanoseconds
+     */
+    public void recordPrimary(String path, int status, long nanos) {
+      getHistograms(path)[0].record(status, nanos);
+    }
+
+    /**
+     * Record response from candidate module.
+     * @param path static path of routing entry
+     * @param status HTTP status; 0 if request failed
+     * @param nanos response time in nanoseconds
+     */
+    public void recordShadow(String path, int status, long nanos) {
+      getHistograms(path)[1].record(status, nanos);
+    }
+
+    /**
+     * Get histogram of primary module.
+     * @param path static path of routing entry
+     * @return histogram; null if no request for path is recorded
+     */
+    public Histogram getPrimary(String path) {
+      Histogram[] h = histograms.get(path);
+      return h == null ? null : h[0];
+    }
+
+    /**
+     * Get histogram of candidate module.
+     * @param path static path of routing entry
+     * @return histogram; null if no request for path is recorded
+     */
+    public Histogram getShadow(String path) {
+      Histogram[] h = histograms.get(path);
+      return h == null ? null : h[1];
+    }
+
+    private Histogram[] getHistograms(String path) {
+      String p = path == null ? "" : path;
+      Histogram[] h = histograms.get(p);
+      if (h != null) {
+        return h;
+      }
+      return histograms.computeIfAbsent(p, k -> new Histogram[] {new Histogram(), new Histogram()});
+    }
+
+    /**
+     * Get configuration and histograms as JSON.
+     * @return object
+     */
+    public JsonObject toJson() {
+      JsonArray paths = new JsonArray();
+      for (Map.Entry<String, Histogram[]> e : new TreeMap<>(histograms).entrySet()) {
+        paths.add(new JsonObject()
+            .put("path", e.getKey())
+            .put("primary", e.getValue()[0].toJson())
+            .put("shadow", e.getValue()[1].toJson()));
+      }
+      JsonObject o = new JsonObject()
+          .put("id", moduleId)
+          .put("target", target)
+          .put("percent", percent);
+      if (path != null) {
+        o.put("path", path);
+      }
+      return o.put("methods", new JsonArray(new ArrayList<>(methods)))
+          .put("sent", sent.sum())
+          .put("unavailable", unavailable.sum())
+          .put("paths", paths);
+    }
+  }
+
+  private Shadower(Builder builder) {
+    shadows = builder.shadows;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public boolean isEnabled() {
+    return !shadows.isEmpty();
+  }
+
+  /**
+   * Get shadowing of a routing entry of a module.
+   * @param moduleId module ID
+   * @param path static path of routing entry
+   * @param method HTTP method of request
+   * @return shadowing; null if requests to routing entry are not shadowed
+   */
+  public Shadow getShadow(String moduleId, String path, String method) {
+    Shadow shadow = shadows.get(moduleId);
+    if (shadow == null || (shadow.path != null && !shadow.path.equals(path))
+        || !shadow.methods.contains(method)) {
+      return null;
+    }
+    return shadow;
+  }
+
+  /**
+   * Get all shadows as JSON.
+   * @return array of shadows, by module ID
+   */
+  public JsonArray toJson() {
+    JsonArray a = new JsonArray();
+    for (Shadow shadow : new TreeMap<>(shadows).values()) {
+      a.add(shadow.toJson());
+    }
+    return a;
+  }
+
+  public static final class Builder {
+
+    private Map<String, Shadow> shadows = Collections.emptyMap();
+
+    public Shadower build() {
+      return new Shadower(this);
+    }
+
+    /**
+     * Set modules to shadow.
+     * @param shadows object with module ID as key and object with
+     *     "target" (module ID of candidate), "percent" (of requests, default 100),
+     *     "path" (path or pathPattern of routing entry, default all) and
+     *     "methods" (default GET and HEAD) as value; null for none
+     * @return builder
+     */
+    public Builder withShadows(JsonObject shadows) {
+      this.shadows = new ConcurrentHashMap<>();
+      if (shadows == null) {
+        return this;
+      }
+      for (String moduleId : shadows.fieldNames()) {
+        JsonObject o = shadows.getJsonObject(moduleId);
+        String target = o.getString("target");
+        if (target == null) {
+          throw new IllegalArgumentException("Missing target for shadow of " + moduleId);
+        }
+        Number percent = o.getNumber("percent", 100);
+        Set<String> methods = new TreeSet<>(DEFAULT_METHODS);
+        JsonArray a = o.getJsonArray("methods");
+        if (a != null) {
+          methods.clear();
+          a.forEach(m -> methods.add(m.toString()));
+        }
+        this.shadows.put(moduleId, new Shadow(moduleId, target, percent.doubleValue(),
+            o.getString("path"), methods));
+      }
+      return this;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package org.folio.okapi.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count of one instance that also adds to a total shared by all instances.
+ *
+ * <p>The total is what is reported as a function counter, see
+ * {@link MetricsHelper#tally(String, String)}, so that the meter does not depend
+ * on which instance registered first and the registry keeps no instance alive.
+ */
+final class Tally {
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total;
+
+  Tally(LongAdder total) {
+    this.total = total;
+  }
+
+  void increment() {
+    count.increment();
+    total.increment();
+  }
+
+  void add(long n) {
+    count.add(n);
+    total.add(n);
+  }
+
+  /**
+   * Return count of this instance.
+   * @return count
+   */
+  long sum() {
+    return count.sum();
+  }
+
+  /**
+   * Return total of all instances.
+   * @return total
+   */
+  long total() {
+    return total.sum();
+  }
+}
@@ -0,0 +1,340 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.folio.okapi.common.ErrorType;
+import org.folio.okapi.common.Messages;
+
+/**
+ * Rate limits and fair queuing of proxy requests by tenant.
+ *
+ * <p>Each tenant has a token bucket: a request takes a token, and tokens are
+ * added at the rate of the tenant, up to the burst size. A request that finds
+ * no token is rejected. The rate is for the whole cluster; each node enforces
+ * its share, that is the rate divided by the number of nodes, so no
+ * coordination is needed per request.
+ *
+ * <p>Requests that pass the rate limit are dispatched while fewer than the
+ * maximum are in flight on the node. Others wait in a weighted fair queue:
+ * each tenant gets a share of dispatches in proportion to its weight, so a
+ * tenant with many requests can not starve others. A request that waits
+ * longer than the queue timeout is rejected.
+ *
+ * <p>Per-tenant settings are given as a JSON object with tenant ID as key.
+ * Properties are: rate (requests per second), burst and weight.
+ */
+public final class TenantLimiter {
+
+  public static final double DEFAULT_RATE = 0.0;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 0;
+  public static final long DEFAULT_QUEUE_TIMEOUT_MS = 10000L;
+  static final String RATE = "rate";
+  static final String BURST = "burst";
+  static final String WEIGHT = "weight";
+  static final long NODE_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private static final Messages messages = Messages.getInstance();
+
+  private final Vertx vertx;
+  private final Limits defaultLimits;
+  private final Map<String, Limits> tenantLimits;
+  private final int maxInFlight;
+  private final long queueTimeoutMs;
+  private final IntSupplier nodes;
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private volatile int nodeCount = 1;
+  private volatile long nodeStamp;
+
+  // fair queue; guarded by this
+  private final PriorityQueue<Waiter> queue = new PriorityQueue<>();
+  private final Map<String, Double> lastTag = new HashMap<>();
+  private double virtualTime;
+  private long seq;
+  private int inFlight;
+
+  private static final class Limits {
+    private final double rate; // requests per second in cluster; 0 for no limit
+    private final double burst;
+    private final double weight;
+
+    Limits(double rate, double burst, double weight) {
+      this.rate = rate;
+      this.burst = burst > 0 ? burst : Math.max(rate, 1.0);
+      this.weight = weight > 0 ? weight : 1.0;
+    }
+  }
+
+  private static final class Bucket {
+    private double tokens; // guarded by this
+    private long stamp; // guarded by this
+
+    Bucket(double tokens, long now) {
+      this.tokens = tokens;
+      this.stamp = now;
+    }
+  }
+
+  private static final class Waiter implements Comparable<Waiter> {
+    private final String tenant;
+    private final double tag;
+    private final long seq;
+    private final Context context;
+    private final Promise<Void> promise = Promise.promise();
+    private final long enqueued = System.nanoTime();
+    private volatile long timerId;
+
+    Waiter(String tenant, double tag, long seq, Context context) {
+      this.tenant = tenant;
+      this.tag = tag;
+      this.seq = seq;
+      this.context = context;
+    }
+
+    @Override
+    public int compareTo(Waiter o) {
+      int c = Double.compare(tag, o.tag);
+      return c != 0 ? c : Long.compare(seq, o.seq);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(seq);
+    }
+  }
+
+  private TenantLimiter(Vertx vertx, Builder builder) {
+    this.vertx = vertx;
+    defaultLimits = new Limits(builder.rate, builder.burst, 1.0);
+    tenantLimits = new HashMap<>();
+    for (String tenant : builder.tenants.fieldNames()) {
+      JsonObject conf = builder.tenants.getJsonObject(tenant);
+      tenantLimits.put(tenant, new Limits(
+          conf.getDouble(RATE, builder.rate),
+          conf.getDouble(BURST, conf.containsKey(RATE) ? 0.0 : builder.burst),
+          conf.getDouble(WEIGHT, 1.0)));
+    }
+    maxInFlight = builder.maxInFlight;
+    queueTimeoutMs = builder.queueTimeoutMs;
+    nodes = builder.nodes;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private Limits getLimits(String tenant) {
+    return tenantLimits.getOrDefault(tenant, defaultLimits);
+  }
+
+  private int getNodeCount(long now) {
+    if (now - nodeStamp > NODE_REFRESH_NANOS) {
+      nodeStamp = now;
+      nodeCount = Math.max(1, nodes.getAsInt());
+    }
+    return nodeCount;
+  }
+
+  /**
+   * Take a token for a request.
+   * @param tenant tenant of request
+   * @return 0 if request is allowed; otherwise milliseconds until a token is available
+   */
+  public long tryAcquire(String tenant) {
+    return tryAcquire(tenant, System.nanoTime());
+  }
+
+  long tryAcquire(String tenant, long now) {
+    Limits limits = getLimits(tenant);
+    if (limits.rate <= 0.0) {
+      return 0L;
+    }
+    int n = getNodeCount(now);
+    double rate = limits.rate / n;
+    double burst = Math.max(limits.burst / n, 1.0);
+    Bucket bucket = buckets.computeIfAbsent(tenant, k -> new Bucket(burst, now));
+    synchronized (bucket) {
+      bucket.tokens = Math.min(burst,
+          bucket.tokens + Math.max(now - bucket.stamp, 0) * rate / 1e9);
+      bucket.stamp = now;
+      if (bucket.tokens >= 1.0) {
+        bucket.tokens -= 1.0;
+        return 0L;
+      }
+      return Math.max(1L, (long) Math.ceil((1.0 - bucket.tokens) * 1000.0 / rate));
+    }
+  }
+
+  /**
+   * Whether requests are queued when too many are in flight.
+   * @return true if fair queue is enabled
+   */
+  public boolean isQueuing() {
+    return maxInFlight > 0;
+  }
+
+  /**
+   * Wait for turn to dispatch a request. Each successful call must be followed
+   * by a call to {@link #leave()} when the request is done.
+   * @param tenant tenant of request
+   * @return future with time waited in nanoseconds; failed with
+   *     {@link ErrorType#UNAVAILABLE} if the queue timeout is reached
+   */
+  public Future<Long> enter(String tenant) {
+    if (maxInFlight <= 0) {
+      return Future.succeededFuture(0L);
+    }
+    Waiter waiter;
+    synchronized (this) {
+      if (inFlight < maxInFlight && queue.isEmpty()) {
+        inFlight++;
+        return Future.succeededFuture(0L);
+      }
+      // start-time fair queuing: tag is virtual start time of the request
+      double start = Math.max(virtualTime, lastTag.getOrDefault(tenant, 0.0));
+      double tag = start + 1.0 / getLimits(tenant).weight;
+      lastTag.put(tenant, tag);
+      waiter = new Waiter(tenant, start, seq++, vertx.getOrCreateContext());
+      queue.add(waiter);
+    }
+    waiter.timerId = vertx.setTimer(queueTimeoutMs, id -> {
+      boolean removed;
+      synchronized (this) {
+        removed = queue.remove(waiter);
+      }
+      if (removed) {
+        waiter.promise.fail(new OkapiError(ErrorType.UNAVAILABLE,
+            messages.getMessage("10115", waiter.tenant)));
+      }
+    });
+    return waiter.promise.future().map(x -> System.nanoTime() - waiter.enqueued);
+  }
+
+  /**
+   * Report that a request dispatched by {@link #enter(String)} is done.
+   */
+  public void leave() {
+    if (maxInFlight <= 0) {
+      return;
+    }
+    Waiter waiter;
+    synchronized (this) {
+      waiter = queue.poll();
+      if (waiter == null) {
+        inFlight = Math.max(0, inFlight - 1);
+        return;
+      }
+      // the slot goes to the next request
+      virtualTime = waiter.tag;
+      if (queue.isEmpty()) {
+        lastTag.clear();
+      }
+    }
+    vertx.cancelTimer(waiter.timerId);
+    waiter.context.runOnContext(x -> waiter.promise.complete());
+  }
+
+  /**
+   * Get number of requests in flight.
+   * @return requests dispatched and not done
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Get number of queued requests.
+   * @return requests waiting for dispatch
+   */
+  public synchronized int getQueued() {
+    return queue.size();
+  }
+
+  public static final class Builder {
+
+    private double rate = DEFAULT_RATE;
+    private double burst;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private long queueTimeoutMs = DEFAULT_QUEUE_TIMEOUT_MS;
+    private JsonObject tenants = new JsonObject();
+    private IntSupplier nodes = () -> 1;
+
+    /**
+     * Create limiter.
+     * @param vertx Vert.x handle
+     * @return limiter
+     * @throws ClassCastException if per-tenant settings have wrong type
+     */
+    public TenantLimiter build(Vertx vertx) {
+      return new TenantLimiter(vertx, this);
+    }
+
+    /**
+     * Set default rate limit of a tenant.
+     * @param rate requests per second in cluster; 0 for no limit
+     * @return builder
+     */
+    public Builder withRate(double rate) {
+      this.rate = rate;
+      return this;
+    }
+
+    /**
+     * Set default number of requests a tenant can make at once after being idle.
+     * @param burst number of requests; 0 for same as rate
+     * @return builder
+     */
+    public Builder withBurst(double burst) {
+      this.burst = burst;
+      return this;
+    }
+
+    /**
+     * Set maximum number of requests in flight before requests are queued.
+     * @param maxInFlight number of requests on this node; 0 for no queuing
+     * @return builder
+     */
+    public Builder withMaxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+      return this;
+    }
+
+    public Builder withQueueTimeoutMs(long queueTimeoutMs) {
+      this.queueTimeoutMs = queueTimeoutMs;
+      return this;
+    }
+
+    /**
+     * Set per-tenant settings.
+     * @param tenants settings with tenant ID as key; null for none
+     * @return builder
+     */
+    public Builder withTenants(JsonObject tenants) {
+      this.tenants = tenants == null ? new JsonObject() : tenants;
+      return this;
+    }
+
+    /**
+     * Set source of number of nodes that share the rate limits.
+     * @param nodes number of nodes in cluster
+     * @return builder
+     */
+    public Builder withNodes(IntSupplier nodes) {
+      this.nodes = nodes;
+      return this;
+    }
+  }
+}
@@ -1,9 +1,22 @@
 package org.folio.okapi.util;
 
-import java.util.Collections;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.common.OkapiLogger;
 
@@ -12,36 +25,81 @@ public class TokenCache {
   public static final long DEFAULT_TTL = 3 * 60 * 1000L;
   public static final int DEFAULT_MAX_SIZE = 10000;
 
-  private final Map<String, CacheEntry> cache;
+  static final int MAX_SHARDS = 16;
+  static final int MIN_SHARD_SIZE = 256;
+  static final int SAMPLE_SIZE = 8;
+  static final int WHEEL_SLOTS = 64;
+  public static final String SHARED_MAP = "tokenCache";
+
+  private final Shard[] shards;
   private final long ttl;
+  private final Tally hits = MetricsHelper.tally(MetricsHelper.METRICS_TOKEN_CACHE_HIT_COUNT,
+      null);
+  private final Tally misses = MetricsHelper.tally(MetricsHelper.METRICS_TOKEN_CACHE_MISS_COUNT,
+      null);
+  private final Tally evictions = MetricsHelper.tally(
+      MetricsHelper.METRICS_TOKEN_CACHE_EVICTION_COUNT, null);
+  private final Tally sharedHits = MetricsHelper.tally(
+      MetricsHelper.METRICS_TOKEN_CACHE_SHARED_HIT_COUNT, null);
+  private final Tally sharedMisses = MetricsHelper.tally(
+      MetricsHelper.METRICS_TOKEN_CACHE_SHARED_MISS_COUNT, null);
+  private volatile AsyncMap<String, JsonObject> shared; // null until available or if not used
 
   private static final Logger logger = OkapiLogger.get(TokenCache.class);
 
   /**
    * Constructor using the provided TTL and maxSize.
-   * 
-   * <p>Once the cache reaches maximum capcity, the least-recently accessed entry will be evicted
-   * upon insertion of a new entry
+   *
+   * <p>Entries are spread over a number of shards, each a concurrent map, so that
+   * lookups do not take a lock. Once a shard reaches its share of the maximum capacity,
+   * an approximately least-recently accessed entry is evicted upon insertion of a new
+   * entry: the victim is the least recently accessed of a small sample of the entries
+   * that expire first.
    *
    * <p>Cache entries will be pruned if they're expired upon access via the <code>get(...)</code>
    * method.
    *
-   * <p>The <code>put(...)</code> method attempts to shrink the cache size by pruning the 2
-   * least-recently accessed entries if they're expired.
+   * <p>The <code>put(...)</code> method removes all expired entries of the shard in bulk,
+   * using a timer wheel that groups entries by expiry time.
+   *
+   * <p>With a Vert.x handle, entries are also kept in a second tier, a cluster-wide map
+   * shared by all nodes, so that a token checked on one node is known on the others. Writes
+   * to the shared map are not waited for. Entries of the shared map expire cluster-wide at
+   * the same time as the entry they were made from. They are keyed by a digest, so that
+   * tokens of callers are not written to the cluster. The shared map has no size bound of
+   * its own; in a cluster, it is bounded by the Hazelcast config, see
+   * {@link org.folio.okapi.MainDeploy}.
    *
    * @param ttl cache entry time to live in milliseconds
    * @param maxSize the maximum number of entries that may be cached at once
+   * @param vertx Vert.x handle for the shared map; null for no shared map
    */
-  private TokenCache(long ttl, int maxSize) {
-    logger.info("Initializing token cache w/ ttl: {}, maxSize: {}", ttl, maxSize);
+  private TokenCache(long ttl, int maxSize, Vertx vertx) {
+    logger.info("Initializing token cache w/ ttl: {}, maxSize: {}, shared: {}",
+        ttl, maxSize, vertx != null);
     this.ttl = ttl;
+    if (vertx != null) {
+      AsyncMapFactory.<String, JsonObject>create(vertx, SHARED_MAP)
+          .onSuccess(map -> shared = map)
+          .onFailure(cause -> logger.warn("Shared token cache not available: {}",
+              cause.getMessage(), cause));
+    }
 
-    this.cache = Collections.synchronizedMap(new LruCache(maxSize));
+    int n = 1;
+    while (n < MAX_SHARDS && n * MIN_SHARD_SIZE * 2 <= maxSize) {
+      n <<= 1;
+    }
+    shards = new Shard[n];
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < n; i++) {
+      shards[i] = new Shard((maxSize + n - 1) / n, ttl, now);
+    }
+    MetricsHelper.registerTokenCacheGauges(this);
   }
 
   /**
    * Cache an entry.
-   * 
+   *
    * @param method HTTP method
    * @param path path pattern
    * @param userId X-Okapi-User-Id header to cache
@@ -54,15 +112,25 @@ public class TokenCache {
       String keyToken, String token) {
     long now = System.currentTimeMillis();
     CacheEntry entry = new CacheEntry(token, userId, xokapiPerms, now + ttl);
-    String key = genKey(method, path, keyToken);
+    CacheKey key = new CacheKey(method, path, keyToken);
     MetricsHelper.recordTokenCacheCached(tenant, method, path, userId);
     logger.debug("Caching: {} -> {}", key, token);
-    cache.put(key, entry);
+    shard(key).put(key, entry, now);
+    AsyncMap<String, JsonObject> map = shared;
+    if (map != null) {
+      JsonObject o = new JsonObject()
+          .put("token", token)
+          .put("userId", userId)
+          .put("permissions", xokapiPerms)
+          .put("expires", entry.expires);
+      map.put(key.getSharedKey(), o, ttl).onFailure(cause ->
+          logger.warn("Caching in shared token cache failed: {}", cause.getMessage(), cause));
+    }
   }
 
   /**
    * Get a cached entry.
-   * 
+   *
    * @param tenant tenant id
    * @param method HTTP method
    * @param path path pattern
@@ -71,83 +139,303 @@ public class TokenCache {
    * @return cache entry or null
    */
   public CacheEntry get(String tenant, String method, String path, String userId, String token) {
-    String key = genKey(method, path, token);
-    CacheEntry ret = cache.get(key);
-    if (ret == null) {
+    CacheKey key = new CacheKey(method, path, token);
+    Shard shard = shard(key);
+    Node node = shard.map.get(key);
+    if (node == null) {
+      misses.increment();
       MetricsHelper.recordTokenCacheMiss(tenant, method, path, userId);
       logger.debug("Cache Miss: {}", key);
-      return ret;
-    } else if (ret.isExpired()) {
+      return null;
+    } else if (node.entry.isExpired()) {
+      misses.increment();
       MetricsHelper.recordTokenCacheExpired(tenant, method, path, userId);
       logger.debug("Cache Hit (Expired): {}", key);
-      cache.remove(key);
+      shard.map.remove(key, node);
       return null;
     } else {
+      hits.increment();
+      node.lastAccess = shard.clock.incrementAndGet();
       MetricsHelper.recordTokenCacheHit(tenant, method, path, userId);
-      logger.debug("Cache Hit: {} -> {}", key, ret.token);
-      return ret;
+      logger.debug("Cache Hit: {} -> {}", key, node.entry.token);
+      return node.entry;
+    }
+  }
+
+  /**
+   * Get an entry from the shared map, for use when {@link #get} misses. A found entry is
+   * also cached on this node, until it expires in the shared map.
+   *
+   * @param method HTTP method
+   * @param path path pattern
+   * @param token X-Okapi-Token header
+   * @return future with cache entry or null; null also if the shared map fails
+   */
+  public Future<CacheEntry> getShared(String method, String path, String token) {
+    AsyncMap<String, JsonObject> map = shared;
+    if (map == null) {
+      return Future.succeededFuture();
     }
+    CacheKey key = new CacheKey(method, path, token);
+    return map.get(key.getSharedKey()).map(o -> {
+      CacheEntry entry = o == null ? null : new CacheEntry(o.getString("token"),
+          o.getString("userId"), o.getString("permissions"), o.getLong("expires"));
+      if (entry == null || entry.isExpired()) {
+        sharedMisses.increment();
+        logger.debug("Shared Cache Miss: {}", key);
+        return null;
+      }
+      sharedHits.increment();
+      logger.debug("Shared Cache Hit: {} -> {}", key, entry.token);
+      shard(key).put(key, entry, System.currentTimeMillis());
+      return entry;
+    }).otherwise(cause -> {
+      sharedMisses.increment();
+      logger.warn("Shared token cache lookup failed: {}", cause.getMessage(), cause);
+      return null;
+    });
+  }
+
+  /**
+   * Whether a shared map is in use.
+   * @return true if entries are looked up in the shared map
+   */
+  public boolean isShared() {
+    return shared != null;
   }
 
-  private String genKey(String method, String path, String token) {
-    String tok = token == null ? "null" : token.replaceAll("[\n\t\r]", "");
-    return (method + "|" + path + "|" + tok);
+  private Shard shard(CacheKey key) {
+    int h = key.hash;
+    return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
   }
 
   public static Builder builder() {
     return new Builder();
   }
-  
+
+  /**
+   * Return number of entries in cache, including expired entries not yet pruned.
+   * @return number of entries
+   */
   public int size() {
-    return cache.size();
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.map.size();
+    }
+    return size;
   }
-  
-  public static final class LruCache extends LinkedHashMap<String, CacheEntry> {
 
-    private static final long serialVersionUID = -6197036022604882327L;
-    private final int maxEntries;
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public long getSharedHitCount() {
+    return sharedHits.sum();
+  }
+
+  public long getSharedMissCount() {
+    return sharedMisses.sum();
+  }
+
+  /**
+   * Return ratio of hits to lookups on this node.
+   * @return ratio between 0 and 1; 0 if no lookups
+   */
+  public double getHitRatio() {
+    return ratio(hits.sum(), misses.sum());
+  }
+
+  /**
+   * Return ratio of hits to lookups in the shared map; only misses on this node are
+   * looked up there.
+   * @return ratio between 0 and 1; 0 if no lookups
+   */
+  public double getSharedHitRatio() {
+    return ratio(sharedHits.sum(), sharedMisses.sum());
+  }
+
+  private static double ratio(long hits, long misses) {
+    long n = hits + misses;
+    return n == 0 ? 0.0 : hits / (double) n;
+  }
+
+  /**
+   * Key of cache: method, path pattern and token. The token is referenced,
+   * not copied; control characters are removed from it as before.
+   */
+  static final class CacheKey {
+    private final String method;
+    private final String path;
+    private final String token;
+    private final int hash;
 
-    public LruCache(final int maxEntries) {
-      super((int) (maxEntries / 0.75f), 0.75f, true);
-      this.maxEntries = maxEntries;
+    CacheKey(String method, String path, String token) {
+      this.method = method;
+      this.path = path;
+      this.token = stripControl(token);
+      this.hash = 31 * (31 * Objects.hashCode(method) + Objects.hashCode(path))
+          + Objects.hashCode(this.token);
     }
 
-    @Override
-    public CacheEntry put(String key, CacheEntry value) {
-      CacheEntry prev = super.put(key, value);
-
-      if (super.size() >= 3) {
-        Iterator<Map.Entry<String, CacheEntry>> iter = entrySet().iterator();
-        for (int i = 0; i < 2; i++) {
-          Map.Entry<String, CacheEntry> entry = iter.next();
-          if (entry.getValue().isExpired()) {
-            iter.remove();
-          } else {
-            break;
-          }
+    static String stripControl(String token) {
+      if (token == null) {
+        return null;
+      }
+      for (int i = 0; i < token.length(); i++) {
+        char c = token.charAt(i);
+        if (c == '\n' || c == '\t' || c == '\r') {
+          return token.replaceAll("[\n\t\r]", "");
         }
       }
-
-      return prev;
+      return token;
     }
 
     @Override
-    protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
-      return super.size() > maxEntries;
+    public boolean equals(Object o) {
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      return hash == other.hash && Objects.equals(method, other.method)
+          && Objects.equals(path, other.path) && Objects.equals(token, other.token);
     }
 
     @Override
-    public boolean equals(Object obj) {
-      if (!super.equals(obj)) {
-        return false;
+    public int hashCode() {
+      return hash;
+    }
+
+    /**
+     * Return key for the shared map: SHA-256 of method, path and token, so that
+     * tokens are not written to the cluster and keys have a fixed length.
+     * @return Base64 encoded digest
+     */
+    String getSharedKey() {
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e); // required of every Java platform
       }
-      LruCache other = (LruCache) obj;
-      return this.maxEntries == other.maxEntries;
+      // control characters are removed from token, and do not occur in method and path
+      String s = method + "\n" + path + "\n" + token;
+      return Base64.getEncoder().encodeToString(
+          digest.digest(s.getBytes(StandardCharsets.UTF_8)));
     }
 
     @Override
-    public int hashCode() {
-      return 89 * super.hashCode() + maxEntries;
+    public String toString() {
+      return method + "|" + path + "|" + token;
+    }
+  }
+
+  static final class Node {
+    final CacheKey key;
+    final CacheEntry entry;
+    volatile long lastAccess;
+
+    Node(CacheKey key, CacheEntry entry, long lastAccess) {
+      this.key = key;
+      this.entry = entry;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  /**
+   * Part of cache with its own map, timer wheel and access clock.
+   *
+   * <p>All entries of the cache have the same TTL, so one revolution of the wheel
+   * covers every entry and a single level wheel suffices. Slots are swept lazily when
+   * time has moved past them. Nodes that were replaced or evicted stay in their slot
+   * until it is swept.
+   */
+  final class Shard {
+    final ConcurrentHashMap<CacheKey, Node> map = new ConcurrentHashMap<>();
+    final AtomicLong clock = new AtomicLong();
+    private final int maxSize;
+    private final long tick;
+    private final List<Queue<Node>> slots = new ArrayList<>(WHEEL_SLOTS);
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long cursor; // first slot index not yet swept; written when sweeping
+
+    Shard(int maxSize, long ttl, long now) {
+      this.maxSize = maxSize;
+      this.tick = Math.max(1L, (ttl + WHEEL_SLOTS - 3) / (WHEEL_SLOTS - 2));
+      for (int i = 0; i < WHEEL_SLOTS; i++) {
+        slots.add(new ConcurrentLinkedQueue<>());
+      }
+      this.cursor = now / tick;
+    }
+
+    private Queue<Node> slot(long index) {
+      return slots.get((int) (index & (WHEEL_SLOTS - 1)));
+    }
+
+    void put(CacheKey key, CacheEntry entry, long now) {
+      Node node = new Node(key, entry, clock.incrementAndGet());
+      map.put(key, node);
+      slot(entry.expires / tick).add(node);
+      sweep(now);
+      while (map.size() > maxSize && evictOne()) {
+        evictions.increment();
+      }
+    }
+
+    private void sweep(long now) {
+      if (!sweeping.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        long target = now / tick;
+        if (target - cursor > WHEEL_SLOTS) {
+          cursor = target - WHEEL_SLOTS;
+        }
+        for (; cursor < target; cursor++) {
+          Iterator<Node> iterator = slot(cursor).iterator();
+          while (iterator.hasNext()) {
+            Node node = iterator.next();
+            if (map.get(node.key) != node) {
+              iterator.remove(); // replaced or evicted
+            } else if (node.entry.expires < now) {
+              iterator.remove();
+              map.remove(node.key, node);
+            }
+          }
+        }
+      } finally {
+        sweeping.set(false);
+      }
+    }
+
+    private boolean evictOne() {
+      Node victim = null;
+      int sampled = 0;
+      long start = cursor;
+      for (long i = start; i < start + WHEEL_SLOTS && sampled < SAMPLE_SIZE; i++) {
+        for (Node node : slot(i)) {
+          if (map.get(node.key) == node) {
+            if (victim == null || node.lastAccess < victim.lastAccess) {
+              victim = node;
+            }
+            if (++sampled >= SAMPLE_SIZE) {
+              break;
+            }
+          }
+        }
+      }
+      if (victim == null) {
+        return false;
+      }
+      logger.debug("Evicting: {}", victim.key);
+      return map.remove(victim.key, victim);
     }
   }
 
@@ -155,9 +443,10 @@ public class TokenCache {
 
     private long ttl = DEFAULT_TTL;
     private int maxSize = DEFAULT_MAX_SIZE;
+    private Vertx vertx;
 
     public TokenCache build() {
-      return new TokenCache(this.ttl, this.maxSize);
+      return new TokenCache(this.ttl, this.maxSize, this.vertx);
     }
 
     public Builder withTtl(long ttl) {
@@ -169,6 +458,16 @@ public class TokenCache {
       this.maxSize = maxSize;
       return this;
     }
+
+    /**
+     * Keep entries in a map shared by the cluster as well.
+     * @param vertx Vert.x handle; null for entries on this node only
+     * @return builder
+     */
+    public Builder withShared(Vertx vertx) {
+      this.vertx = vertx;
+      return this;
+    }
   }
 
   public static final class CacheEntry {
@@ -184,7 +483,7 @@ public class TokenCache {
 
     /**
      * Create a cache entry.
-     * 
+     *
      * @param token the access token to cache
      * @param userId the X-Okapi-User-Id header
      * @param permissions the X-Okapi-Permissions header
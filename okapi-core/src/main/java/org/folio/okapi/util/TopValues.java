@@ -0,0 +1,97 @@
+package org.folio.okapi.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate top-K of the values of a tag.
+ *
+ * <p>Up to K values are admitted and reported as such. Other values are counted
+ * as candidates; a candidate that becomes more frequent than the least frequent
+ * admitted value takes its place. Looking up an admitted value takes no lock and
+ * does not allocate. The number of candidates is bounded; when full, candidate
+ * counts start over.
+ */
+final class TopValues {
+
+  static final int CANDIDATES_PER_VALUE = 10;
+
+  private final int maxValues;
+  private final int maxCandidates;
+  private final Map<String, LongAdder> admitted = new ConcurrentHashMap<>();
+  private final Map<String, long[]> candidates = new HashMap<>(); // guarded by this
+  private long threshold; // admitted counts are at least this; guarded by this
+
+  TopValues(int k) {
+    this.maxValues = k;
+    this.maxCandidates = k * CANDIDATES_PER_VALUE;
+  }
+
+  /**
+   * Count occurrence of value.
+   * @param value tag value
+   * @return value if among top-K; {@link CardinalityPolicy#OTHER} otherwise
+   */
+  String offer(String value) {
+    LongAdder count = admitted.get(value);
+    if (count != null) {
+      count.increment();
+      return value;
+    }
+    return offerCandidate(value);
+  }
+
+  private synchronized String offerCandidate(String value) {
+    LongAdder count = admitted.get(value);
+    if (count != null) {
+      count.increment();
+      return value;
+    }
+    long[] candidate = candidates.get(value);
+    if (candidate == null) {
+      if (candidates.size() >= maxCandidates) {
+        candidates.clear();
+      }
+      candidate = new long[1];
+      candidates.put(value, candidate);
+    }
+    candidate[0]++;
+    if (admitted.size() < maxValues) {
+      admit(value, candidate[0]);
+      return value;
+    }
+    if (candidate[0] <= threshold) {
+      return CardinalityPolicy.OTHER;
+    }
+    String victim = null;
+    long min = Long.MAX_VALUE;
+    for (Map.Entry<String, LongAdder> e : admitted.entrySet()) {
+      long n = e.getValue().sum();
+      if (n < min) {
+        min = n;
+        victim = e.getKey();
+      }
+    }
+    if (candidate[0] <= min) {
+      threshold = min;
+      return CardinalityPolicy.OTHER;
+    }
+    admitted.remove(victim);
+    admit(value, candidate[0]);
+    threshold = min;
+    return value;
+  }
+
+  private void admit(String value, long n) {
+    LongAdder count = new LongAdder();
+    count.add(n);
+    admitted.put(value, count);
+    candidates.remove(value);
+  }
+
+  int size() {
+    return admitted.size();
+  }
+}
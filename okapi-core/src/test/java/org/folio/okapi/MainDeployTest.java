@@ -1,16 +1,23 @@
 package org.folio.okapi;
 
+import com.hazelcast.config.Config;
+import com.hazelcast.config.EvictionConfig;
+import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MaxSizePolicy;
 import guru.nidi.ramltester.RamlDefinition;
 import guru.nidi.ramltester.RamlLoaders;
 import guru.nidi.ramltester.restassured3.RestAssuredClient;
 import io.restassured.RestAssured;
 import io.restassured.response.Response;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.common.OkapiLogger;
+import org.folio.okapi.util.TokenCache;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -48,6 +55,22 @@ public class MainDeployTest {
     }
   }
 
+  @Test
+  public void testConfigureTokenCacheMap() {
+    Config config = new Config();
+    MainDeploy.configureTokenCacheMap(config, new JsonObject().put("token_cache_max_size", "5"));
+    EvictionConfig eviction = config.getMapConfig(TokenCache.SHARED_MAP).getEvictionConfig();
+    Assert.assertEquals(EvictionPolicy.LRU, eviction.getEvictionPolicy());
+    Assert.assertEquals(MaxSizePolicy.PER_NODE, eviction.getMaxSizePolicy());
+    Assert.assertEquals(5, eviction.getSize());
+
+    // map config of Hazelcast config is kept
+    config = new Config().addMapConfig(new MapConfig(TokenCache.SHARED_MAP));
+    MainDeploy.configureTokenCacheMap(config, new JsonObject());
+    Assert.assertEquals(EvictionPolicy.NONE,
+        config.getMapConfig(TokenCache.SHARED_MAP).getEvictionConfig().getEvictionPolicy());
+  }
+
   @Test
   public void testInitWithException(TestContext context) {
     new MainDeploy().init(null, context.asyncAssertFailure(throwable -> {
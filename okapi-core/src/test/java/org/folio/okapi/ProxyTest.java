@@ -17,6 +17,7 @@ import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.http.HttpHeaders;
@@ -33,11 +34,16 @@ import io.vertx.ext.unit.junit.VertxUnitRunner;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.bean.InterfaceDescriptor;
@@ -47,6 +53,7 @@ import org.folio.okapi.common.HttpResponse;
 import org.folio.okapi.common.MetricsUtil;
 import org.folio.okapi.common.OkapiLogger;
 import org.folio.okapi.common.XOkapiHeaders;
+import org.folio.okapi.util.BodyBuffer;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -63,6 +70,7 @@ public class ProxyTest {
   private final Logger logger = OkapiLogger.get();
   private Vertx vertx;
   private HttpClient httpClient;
+  private String okapiDeploymentId;
   private static final String LS = System.lineSeparator();
   private static final String CORS_TEST_HEADER = "CORS_TEST_HEADER";
   private final int portTimer = 9235;
@@ -331,15 +339,34 @@ public class ProxyTest {
   }
 
   Future<Void> startOkapi() {
+    return startOkapi(new JsonObject());
+  }
+
+  Future<Void> startOkapi(JsonObject config) {
     DeploymentOptions opt = new DeploymentOptions()
         .setConfig(new JsonObject()
             .put("loglevel", "info")
             .put("port", Integer.toString(port))
             .put("healthPort", Integer.toString(portHealth))
-            .put("httpCache", true));
-    Promise<Void> promise = Promise.promise();
-    vertx.deployVerticle(MainVerticle.class.getName(), opt, x -> promise.handle(x.mapEmpty()));
-    return promise.future();
+            .put("httpCache", true)
+            .mergeIn(config));
+    Promise<String> promise = Promise.promise();
+    vertx.deployVerticle(MainVerticle.class.getName(), opt, promise);
+    return promise.future().map(id -> {
+      okapiDeploymentId = id;
+      return null;
+    });
+  }
+
+  /**
+   * Replace Okapi of {@link #setUp} with one that has features enabled by config.
+   */
+  private void restartOkapi(TestContext context, JsonObject config) {
+    Async async = context.async();
+    vertx.undeploy(okapiDeploymentId)
+        .compose(x -> startOkapi(config))
+        .onComplete(context.asyncAssertSuccess(x -> async.complete()));
+    async.await();
   }
 
   @Before
@@ -2202,6 +2229,9 @@ public class ProxyTest {
 
   @Test
   public void testRequestOnly(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_body_memory_limit", "16")
+        .put("proxy_body_file_limit", "100000"));
     final String okapiTenant = "roskilde";
     RestAssuredClient c;
     Response r;
@@ -2382,6 +2412,36 @@ public class ProxyTest {
       .then().statusCode(500)
       .body(equalTo("Okapi"));
 
+    // larger than proxy_body_memory_limit: spilled to file and replayed
+    StringBuilder bigBody = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      bigBody.append("Okapi ");
+    }
+    long openFiles = BodyBuffer.getOpenFiles();
+    long spills = BodyBuffer.getSpillCount();
+    given().header("X-Okapi-Tenant", okapiTenant)
+      .header("Content-Type", "text/plain")
+      .body(bigBody.toString()).post("/testb")
+      .then().statusCode(200)
+      .body(equalTo("Hello " + bigBody));
+    Assert.assertEquals(spills + 1, BodyBuffer.getSpillCount());
+    {
+      // each module the body was replayed to has closed its file
+      Async async = context.async();
+      vertx.setTimer(200, res -> {
+        context.assertEquals(openFiles, BodyBuffer.getOpenFiles());
+        async.complete();
+      });
+      async.await();
+    }
+
+    // larger than proxy_body_file_limit
+    given().header("X-Okapi-Tenant", okapiTenant)
+      .header("Content-Type", "text/plain")
+      .body(bigBody.toString() + bigBody.toString()).post("/testb")
+      .then().statusCode(413)
+      .body(equalTo("Request body exceeds limit of 100000 bytes"));
+
     final String nodeDoc1 = "{" + LS
       + "  \"instId\" : \"localhost-" + Integer.toString(portPre) + "\"," + LS
       + "  \"srvcId\" : \"request-pre-1.0.0\"," + LS
@@ -2548,6 +2608,27 @@ public class ProxyTest {
         .header("Content-Type", "text/xml")
         .body(equalTo("<test>Hello Okapi</test>"));
 
+    // request-response-1.0 with known Content-Length is streamed
+    StringBuilder bigBody2 = new StringBuilder();
+    for (int i = 0; i < 30000; i++) {
+      bigBody2.append("Okapi ");
+    }
+    given().header("X-Okapi-Tenant", okapiTenant)
+        .header("X-Okapi-Token", okapiToken)
+        .header("Content-Type", "text/plain")
+        .body(bigBody2.toString()).post("/testb")
+        .then().statusCode(200).log().ifValidationFails()
+        .body(equalTo("Hello " + bigBody2));
+
+    given().header("X-Okapi-Tenant", okapiTenant)
+        .header("X-Okapi-Token", okapiToken)
+        .header("Content-Type", "text/plain")
+        .header("Accept", "text/xml")
+        .body("Okapi").post("/testb")
+        .then().statusCode(200).log().ifValidationFails()
+        .header("Content-Type", "text/xml")
+        .body(equalTo("<test>Hello Okapi</test>"));
+
     Async async2 = context.async();
     vertx.setTimer(300, res -> {
       context.assertEquals("Okapi", preBuffer.toString());
@@ -3781,6 +3862,725 @@ public class ProxyTest {
     given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
   }
 
+  @Test
+  public void testOutlierEjection() {
+    final String tenant = "outlier-tenant";
+    final String moduleId = "outlier-module-1.0.0";
+    final String exec = "java -Dport=%p -jar ../okapi-test-module/target/okapi-test-module-fat.jar";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201);
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+
+    // an instance that fails with 503
+    JsonObject dd = new JsonObject()
+        .put("srvcId", moduleId)
+        .put("nodeId", "localhost")
+        .put("descriptor", new JsonObject()
+            .put("exec", exec.replace("-jar", "-DfailStatus=503 -jar")));
+    String instFail = given().header("Content-Type", "application/json").body(dd.encode())
+        .post("/_/discovery/modules").then().statusCode(201)
+        .extract().path("instId");
+
+    RestAssuredClient c = api.createRestAssured3();
+    c.given().get("/_/discovery/health/" + moduleId + "/" + instFail)
+        .then().statusCode(200).body("circuitState", nullValue());
+    Assert.assertTrue("raml: " + c.getLastReport().toString(),
+        c.getLastReport().isEmpty());
+
+    // ejected after 5 consecutive failures
+    for (int i = 0; i < 5; i++) {
+      given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(503).body(equalTo("It does not work"));
+    }
+    given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+        .then().statusCode(503)
+        .body(equalTo("All instances of module " + moduleId + " are failing"));
+
+    c = api.createRestAssured3();
+    c.given().get("/_/discovery/health/" + moduleId + "/" + instFail)
+        .then().statusCode(200).body("circuitState", equalTo("open"));
+    Assert.assertTrue("raml: " + c.getLastReport().toString(),
+        c.getLastReport().isEmpty());
+
+    // a healthy instance takes all requests
+    dd.put("descriptor", new JsonObject().put("exec", exec));
+    String instOk = given().header("Content-Type", "application/json").body(dd.encode())
+        .post("/_/discovery/modules").then().statusCode(201)
+        .extract().path("instId");
+    for (int i = 0; i < 10; i++) {
+      given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(200).body(equalTo("It works"));
+    }
+    given().get("/_/discovery/health/" + moduleId + "/" + instOk)
+        .then().statusCode(200).body("circuitState", equalTo("closed"));
+    given().get("/_/discovery/health/" + moduleId + "/" + instFail)
+        .then().statusCode(200).body("circuitState", equalTo("open"));
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testConcurrencyLimit(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_concurrency_limit", "10"));
+    final String tenant = "concurrency-tenant";
+    final String moduleId = "concurrency-module-1.0.0";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201);
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+
+    // a slow instance
+    JsonObject dd = new JsonObject()
+        .put("srvcId", moduleId)
+        .put("nodeId", "localhost")
+        .put("descriptor", new JsonObject()
+            .put("exec", "java -Dport=%p -Dlatency=1000 -jar "
+                + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+    given().header("Content-Type", "application/json").body(dd.encode())
+        .post("/_/discovery/modules").then().statusCode(201);
+
+    // limit is 10; requests beyond that are rejected without waiting
+    int requests = 13;
+    AtomicInteger ok = new AtomicInteger();
+    AtomicInteger rejected = new AtomicInteger();
+    HttpClient client = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(requests));
+    Async async = context.async(requests);
+    for (int i = 0; i < requests; i++) {
+      client.request(HttpMethod.GET, port, "localhost", "/testb/1")
+          .compose(req -> req.putHeader(XOkapiHeaders.TENANT, tenant).send()
+              .compose(res -> res.body().map(body -> {
+                if (res.statusCode() == 200) {
+                  context.assertEquals("It works", body.toString());
+                  ok.incrementAndGet();
+                } else {
+                  context.assertEquals(503, res.statusCode());
+                  context.assertEquals("1", res.getHeader("Retry-After"));
+                  context.assertEquals("Too many requests in progress for module "
+                      + moduleId, body.toString());
+                  rejected.incrementAndGet();
+                }
+                return null;
+              })))
+          .onComplete(context.asyncAssertSuccess(x -> async.countDown()));
+    }
+    async.await(10000);
+    client.close();
+    context.assertEquals(10, ok.get());
+    context.assertEquals(3, rejected.get());
+
+    given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works"));
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testHedge(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_hedge_modules", "hedge-module")
+        .put("proxy_hedge_budget", "100"));
+    final String tenant = "hedge-tenant";
+    final String moduleId = "hedge-module-1.0.0";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET").add("POST"))
+                .put("pathPattern", "/testb/{id}")
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201);
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+
+    // a fast and a slow instance
+    for (String latency : new String[] {"0", "1000"}) {
+      JsonObject dd = new JsonObject()
+          .put("srvcId", moduleId)
+          .put("nodeId", "localhost")
+          .put("descriptor", new JsonObject()
+              .put("exec", "java -Dport=%p -Dlatency=" + latency + " -jar "
+                  + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+      given().header("Content-Type", "application/json").body(dd.encode())
+          .post("/_/discovery/modules").then().statusCode(201);
+    }
+
+    // learn response times of module
+    for (int i = 0; i < 40; i++) {
+      given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(200).body(equalTo("It works"));
+    }
+    // requests to the slow instance are answered by the fast one
+    for (int i = 0; i < 10; i++) {
+      long start = System.nanoTime();
+      given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(200).body(equalTo("It works"));
+      Assert.assertTrue(System.nanoTime() - start < 1000000000L);
+    }
+    // requests with body are not hedged
+    given().header("X-Okapi-Tenant", tenant).header("Content-Type", "text/plain")
+        .body("Okapi").post("/testb/1")
+        .then().statusCode(200).body(equalTo("Hello Okapi"));
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testShadow(TestContext context) throws InterruptedException {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_shadow", new JsonObject()
+            .put("shadow-module-1.0.0", new JsonObject()
+                .put("target", "shadow-module-1.1.0")
+                .put("path", "/testb/{id}"))));
+    final String tenant = "shadow-tenant";
+    final String moduleId = "shadow-module-1.0.0";
+    final String candidateId = "shadow-module-1.1.0";
+    setupBasicTenant(tenant);
+
+    for (String id : new String[] {moduleId, candidateId}) {
+      JsonObject md = new JsonObject()
+          .put("id", id)
+          .put("provides", new JsonArray().add(new JsonObject()
+              .put("id", "myint")
+              .put("version", "1.0")
+              .put("handlers", new JsonArray().add(new JsonObject()
+                  .put("methods", new JsonArray().add("GET").add("POST"))
+                  .put("pathPattern", "/testb/{id}")
+                  .put("permissionsRequired", new JsonArray())))));
+      given().header("Content-Type", "application/json").body(md.encode())
+          .post("/_/proxy/modules").then().statusCode(201);
+    }
+    // only the primary module is enabled
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+
+    // shadow statistics are part of the okapi interface since 1.10
+    given().get("/_/proxy/tenants/supertenant/interfaces").then().statusCode(200)
+        .body("find { it.id == 'okapi' }.version", is("1.10"));
+
+    RestAssuredClient c = api.createRestAssured3();
+    c.given().get("/_/proxy/shadow").then().statusCode(200)
+        .body("[0].id", is(moduleId))
+        .body("[0].target", is(candidateId))
+        .body("[0].sent", is(0));
+    Assert.assertTrue("raml: " + c.getLastReport().toString(),
+        c.getLastReport().isEmpty());
+
+    for (String id : new String[] {moduleId, candidateId}) {
+      JsonObject dd = new JsonObject()
+          .put("srvcId", id)
+          .put("nodeId", "localhost")
+          .put("descriptor", new JsonObject()
+              .put("exec", "java -Dport=%p -jar "
+                  + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+      given().header("Content-Type", "application/json").body(dd.encode())
+          .post("/_/discovery/modules").then().statusCode(201);
+      if (id.equals(moduleId)) {
+        // no candidate instance yet
+        given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+            .then().statusCode(200).body(equalTo("It works"));
+        given().get("/_/proxy/shadow").then().statusCode(200)
+            .body("[0].sent", is(0))
+            .body("[0].unavailable", is(1));
+      }
+    }
+
+    for (int i = 0; i < 5; i++) {
+      given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(200).body(equalTo("It works"));
+    }
+    // requests with other methods are not shadowed
+    given().header("X-Okapi-Tenant", tenant).header("Content-Type", "text/plain")
+        .body("Okapi").post("/testb/1")
+        .then().statusCode(200).body(equalTo("Hello Okapi"));
+
+    // shadow responses may arrive after the primary ones
+    long shadowed = 0;
+    for (int i = 0; i < 50 && shadowed < 5; i++) {
+      Thread.sleep(100);
+      shadowed = given().get("/_/proxy/shadow").then().statusCode(200)
+          .extract().jsonPath().getLong("[0].paths[0].shadow.count");
+    }
+    c = api.createRestAssured3();
+    c.given().get("/_/proxy/shadow").then().statusCode(200)
+        .body("[0].sent", is(5))
+        .body("[0].paths[0].path", is("/testb/{id}"))
+        .body("[0].paths[0].primary.count", is(5))
+        .body("[0].paths[0].primary.status.'2xx'", is(5))
+        .body("[0].paths[0].shadow.count", is(5))
+        .body("[0].paths[0].shadow.status.'2xx'", is(5));
+    Assert.assertTrue("raml: " + c.getLastReport().toString(),
+        c.getLastReport().isEmpty());
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/modules/" + candidateId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testWarmUp(TestContext context) throws InterruptedException {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_warmup_ms", "1000"));
+    final String tenant = "warmup-tenant";
+    final String moduleId = "warmup-module-1.0.0";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201);
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+
+    List<String> urls = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      JsonObject dd = new JsonObject()
+          .put("srvcId", moduleId)
+          .put("nodeId", "localhost")
+          .put("descriptor", new JsonObject()
+              .put("exec", "java -Dport=%p -jar "
+                  + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+      urls.add(given().header("Content-Type", "application/json").body(dd.encode())
+          .post("/_/discovery/modules").then().statusCode(201)
+          .extract().path("url"));
+      // a new instance warming up does not fail requests
+      for (int j = 0; j < 10; j++) {
+        given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+            .then().statusCode(200).body(equalTo("It works"));
+      }
+    }
+    // the second instance gets traffic once warmed up
+    Thread.sleep(1500);
+    boolean second = false;
+    for (int i = 0; i < 50 && !second; i++) {
+      String trace = given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(200).extract().header("X-Okapi-Trace");
+      second = trace.contains(urls.get(1));
+    }
+    Assert.assertTrue(second);
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testResponseCache(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_cache_size", "1000000")
+        .put("proxy_cache_max_entry", "100"));
+    final String tenant = "cache-tenant";
+    final String otherTenant = "cache-other-tenant";
+    final String moduleId = "cache-module-1.0.0";
+    setupBasicTenant(tenant);
+    setupBasicTenant(otherTenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET").add("POST"))
+                .put("pathPattern", "/testb/{id}")
+                .put("cacheMaxAge", 60)
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201)
+        .body("provides[0].handlers[0].cacheMaxAge", is(60));
+    for (String t : new String[] {tenant, otherTenant}) {
+      given().header("Content-Type", "application/json")
+          .body(new JsonObject().put("id", moduleId).encode())
+          .post("/_/proxy/tenants/" + t + "/modules").then().statusCode(201);
+    }
+    JsonObject dd = new JsonObject()
+        .put("srvcId", moduleId)
+        .put("nodeId", "localhost")
+        .put("descriptor", new JsonObject()
+            .put("exec", "java -Dport=%p -jar "
+                + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+    given().header("Content-Type", "application/json").body(dd.encode())
+        .post("/_/discovery/modules").then().statusCode(201);
+
+    // test module includes X-my-header in response, so it tells if response is cached
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "1")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works1"))
+        .header("Age", nullValue());
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "2")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works1"))
+        .header("Age", notNullValue());
+
+    // other URI, Accept header and tenant have their own responses
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "3")
+        .get("/testb/1?q=1")
+        .then().statusCode(200).body(equalTo("It works3"));
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "4")
+        .header("Accept", "text/xml")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works4"));
+    given().header("X-Okapi-Tenant", otherTenant).header("X-my-header", "5")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works5"));
+
+    // client asks for a fresh response, which is then cached
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "6")
+        .header("Cache-Control", "no-cache")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works6"));
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "7")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works6"));
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "8")
+        .header("Cache-Control", "no-store")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works8"));
+
+    // also without Content-Length
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "9")
+        .header("X-chunked", "true")
+        .get("/testb/2")
+        .then().statusCode(200).body(equalTo("It works9"))
+        .header("Age", nullValue());
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "10")
+        .header("X-chunked", "true")
+        .get("/testb/2")
+        .then().statusCode(200).body(equalTo("It works9"))
+        .header("Age", notNullValue());
+    // larger than largest entry: not cached, found out once collected
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      large.append('x');
+    }
+    for (int i = 0; i < 2; i++) {
+      given().header("X-Okapi-Tenant", tenant).header("X-my-header", i + large.toString())
+          .header("X-chunked", "true")
+          .get("/testb/3")
+          .then().statusCode(200).body(equalTo("It works" + i + large))
+          .header("Age", nullValue());
+    }
+
+    // only GET is cached
+    given().header("X-Okapi-Tenant", tenant).header("Content-Type", "text/plain")
+        .body("Okapi").post("/testb/1")
+        .then().statusCode(200).body(equalTo("Hello Okapi"));
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    for (String t : new String[] {tenant, otherTenant}) {
+      given().delete("/_/proxy/tenants/" + t + "/modules").then().statusCode(204);
+      given().delete("/_/proxy/tenants/" + t).then().statusCode(204);
+    }
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+  }
+
+  @Test
+  public void testCoalesce(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_body_memory_limit", "1000"));
+    final String tenant = "coalesce-tenant";
+    final String moduleId = "coalesce-module-1.0.0";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("coalesce", "permissions")
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201)
+        .body("provides[0].handlers[0].coalesce", is("permissions"));
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+    JsonObject dd = new JsonObject()
+        .put("srvcId", moduleId)
+        .put("nodeId", "localhost")
+        .put("descriptor", new JsonObject()
+            .put("exec", "java -Dport=%p -jar "
+                + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+    given().header("Content-Type", "application/json").body(dd.encode())
+        .post("/_/discovery/modules").then().statusCode(201);
+
+    // test module includes X-my-header in response, so it tells which request answered
+    int requests = 5;
+    List<String> bodies = getConcurrently(context, tenant, requests, "", false);
+    context.assertEquals(1L, bodies.stream().distinct().count(), bodies.toString());
+    // also without Content-Length
+    bodies = getConcurrently(context, tenant, requests, "", true);
+    context.assertEquals(1L, bodies.stream().distinct().count(), bodies.toString());
+    // larger than body memory limit: each caller makes its own request
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      large.append('x');
+    }
+    bodies = getConcurrently(context, tenant, requests, large.toString(), true);
+    context.assertEquals((long) requests, bodies.stream().distinct().count());
+    for (String body : bodies) {
+      context.assertTrue(body.endsWith(large.toString()));
+    }
+
+    // not coalesced once done
+    given().header("X-Okapi-Tenant", tenant).header("X-my-header", "x")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It worksx"));
+
+    // a response that sets a cookie is for the caller that made the request only
+    List<String> results = Collections.synchronizedList(new ArrayList<>());
+    HttpClient client2 = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(2));
+    Async async2 = context.async(2);
+    for (int i = 0; i < 2; i++) {
+      String header = Integer.toString(i);
+      vertx.setTimer(1 + i * 300L, x -> client2.request(HttpMethod.GET, port, "localhost",
+          "/testb/1")
+          .compose(req -> {
+            req.putHeader(XOkapiHeaders.TENANT, tenant)
+                .putHeader("X-my-header", header)
+                .putHeader("X-delay", "1000");
+            if ("0".equals(header)) {
+              req.putHeader("X-set-cookie", "session=0");
+            }
+            return req.send();
+          })
+          .compose(res -> res.body().map(body -> {
+            context.assertEquals(200, res.statusCode());
+            results.add(body + " " + res.getHeader("Set-Cookie"));
+            return null;
+          }))
+          .onComplete(context.asyncAssertSuccess(y -> async2.countDown())));
+    }
+    async2.await(10000);
+    client2.close();
+    Collections.sort(results);
+    context.assertEquals("[It works0 session=0, It works1 null]", results.toString());
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  /**
+   * Send identical GET requests to /testb/1 at the same time.
+   * @param suffix added to X-my-header of each request
+   * @param chunked whether test module responds without Content-Length
+   * @return bodies of responses
+   */
+  private List<String> getConcurrently(TestContext context, String tenant, int requests,
+                                       String suffix, boolean chunked) {
+    List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    HttpClient client = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(requests));
+    Async async = context.async(requests);
+    for (int i = 0; i < requests; i++) {
+      String header = i + suffix;
+      client.request(HttpMethod.GET, port, "localhost", "/testb/1")
+          .compose(req -> {
+            req.putHeader(XOkapiHeaders.TENANT, tenant)
+                .putHeader("X-my-header", header)
+                .putHeader("X-delay", "1000");
+            if (chunked) {
+              req.putHeader("X-chunked", "true");
+            }
+            return req.send();
+          })
+          .compose(res -> res.body().map(body -> {
+            context.assertEquals(200, res.statusCode());
+            bodies.add(body.toString());
+            return null;
+          }))
+          .onComplete(context.asyncAssertSuccess(x -> async.countDown()));
+    }
+    async.await(10000);
+    client.close();
+    context.assertEquals(requests, bodies.size());
+    return bodies;
+  }
+
+  @Test
+  public void testTimeout() {
+    final String tenant = "timeout-tenant";
+    final String moduleId = "timeout-module-1.0.0";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("timeout", 500)
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201)
+        .body("provides[0].handlers[0].timeout", is(500));
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+    JsonObject dd = new JsonObject()
+        .put("srvcId", moduleId)
+        .put("nodeId", "localhost")
+        .put("descriptor", new JsonObject()
+            .put("exec", "java -Dport=%p -jar "
+                + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+    given().header("Content-Type", "application/json").body(dd.encode())
+        .post("/_/discovery/modules").then().statusCode(201);
+
+    // time left is passed to module
+    given().header("X-Okapi-Tenant", tenant).header("X-all-headers", "H")
+        .get("/testb/1")
+        .then().statusCode(200).body(equalTo("It works"))
+        .header(XOkapiHeaders.REQUEST_TIMEOUT, "500");
+
+    // timeout of routing entry
+    given().header("X-Okapi-Tenant", tenant).header("X-delay", "2000")
+        .get("/testb/1")
+        .then().statusCode(504)
+        .body(startsWith("Timeout calling module " + moduleId))
+        .body(endsWith("after 500 ms"));
+
+    // time left given by client is less than timeout of routing entry
+    given().header("X-Okapi-Tenant", tenant).header("X-all-headers", "H")
+        .header(XOkapiHeaders.REQUEST_TIMEOUT, "300")
+        .get("/testb/1")
+        .then().statusCode(200)
+        .header(XOkapiHeaders.REQUEST_TIMEOUT, not("500"));
+    given().header("X-Okapi-Tenant", tenant).header("X-delay", "400")
+        .header(XOkapiHeaders.REQUEST_TIMEOUT, "200")
+        .get("/testb/1")
+        .then().statusCode(504)
+        .body(startsWith("Timeout calling module " + moduleId));
+
+    // no time left
+    given().header("X-Okapi-Tenant", tenant)
+        .header(XOkapiHeaders.REQUEST_TIMEOUT, "0")
+        .get("/testb/1")
+        .then().statusCode(504)
+        .body(equalTo("Request timeout reached before calling module " + moduleId));
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testTenantRateLimit(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_tenant_limits", new JsonObject()
+            .put("rate-tenant", new JsonObject().put("rate", 0.1).put("burst", 3))));
+    final String tenant = "rate-tenant";
+    final String otherTenant = "rate-other-tenant";
+    final String moduleId = "rate-module-1.0.0";
+    setupBasicTenant(tenant);
+    setupBasicTenant(otherTenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201);
+    for (String t : new String[] {tenant, otherTenant}) {
+      given().header("Content-Type", "application/json")
+          .body(new JsonObject().put("id", moduleId).encode())
+          .post("/_/proxy/tenants/" + t + "/modules").then().statusCode(201);
+    }
+    JsonObject dd = new JsonObject()
+        .put("srvcId", moduleId)
+        .put("nodeId", "localhost")
+        .put("descriptor", new JsonObject()
+            .put("exec", "java -Dport=%p -jar "
+                + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+    given().header("Content-Type", "application/json").body(dd.encode())
+        .post("/_/discovery/modules").then().statusCode(201);
+
+    // burst of 3 and then one request per 10 seconds
+    for (int i = 0; i < 3; i++) {
+      given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(200).body(equalTo("It works"));
+    }
+    given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+        .then().statusCode(429).header("Retry-After", notNullValue())
+        .body(equalTo("Rate limit exceeded for tenant " + tenant));
+
+    // other tenants are not limited
+    for (int i = 0; i < 5; i++) {
+      given().header("X-Okapi-Tenant", otherTenant).get("/testb/1")
+          .then().statusCode(200).body(equalTo("It works"));
+    }
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    for (String t : new String[] {tenant, otherTenant}) {
+      given().delete("/_/proxy/tenants/" + t + "/modules").then().statusCode(204);
+      given().delete("/_/proxy/tenants/" + t).then().statusCode(204);
+    }
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+  }
+
   @Test
   public void testTenantPermissionsUpgrade() {
     String tenant = "test-tenant-permissions-tenant";
@@ -3928,6 +4728,159 @@ public class ProxyTest {
     given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
   }
 
+  @Test
+  public void testAuthRejectionCache(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("token_cache_negative_ttl_ms", "60000"));
+    String tenant = "test-tenant-auth-rejection";
+    String moduleId = "test-tenant-auth-rejection-module-1.0.0";
+    String authModuleId = "test-tenant-auth-rejection-auth-module-1.0.0";
+
+    setupBasicTenant(tenant);
+    setupBasicModule(tenant, moduleId, "1.1", false, false);
+    setupBasicAuth(tenant, authModuleId);
+
+    // token of test auth module without permissions
+    String payload = new JsonObject().put("sub", "peter").put("tenant", tenant)
+        .put("permissions", new JsonArray()).encode();
+    String token = "dummyJwt." + Base64.getEncoder().encodeToString(payload.getBytes())
+        + ".sig";
+
+    // rejected by auth module
+    given()
+        .header("X-Okapi-Token", token)
+        .delete("/timercall/1")
+        .then().statusCode(403).log().ifValidationFails()
+        .header("X-Okapi-Trace", containsString(authModuleId))
+        .header("X-Auth-Permissions-Required", "timercall.delete.id")
+        .body(equalTo("Call requires permission timercall.delete.id"));
+
+    // rejected from cache without calling auth module: headers of the first
+    // rejection are replayed, trace included
+    for (int i = 0; i < 2; i++) {
+      given()
+          .header("X-Okapi-Token", token)
+          .delete("/timercall/2")
+          .then().statusCode(403).log().ifValidationFails()
+          .header("X-Okapi-Trace", containsString(authModuleId + " http://localhost:"))
+          .header("X-Okapi-Trace", containsString("/timercall/1 : 403"))
+          .header("X-Auth-Permissions-Required", "timercall.delete.id")
+          .body(equalTo("Call requires permission timercall.delete.id"));
+    }
+
+    // other token is checked by auth module
+    given()
+        .header("X-Okapi-Token", token + "2")
+        .delete("/timercall/1")
+        .then().statusCode(403).log().ifValidationFails()
+        .header("X-Okapi-Trace", containsString(authModuleId));
+
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testProxyInstances(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("proxy_instances", "4")
+        .put("proxy_prefer_local", "true")
+        .put("proxy_tenant_affinity", "true"));
+    final String tenant = "instances-tenant";
+    final String moduleId = "instances-module-1.0.0";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("permissionsRequired", new JsonArray())))));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201);
+    given().header("Content-Type", "application/json")
+        .body(new JsonObject().put("id", moduleId).encode())
+        .post("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(201);
+    for (int i = 0; i < 3; i++) {
+      JsonObject dd = new JsonObject()
+          .put("srvcId", moduleId)
+          .put("nodeId", "localhost")
+          .put("descriptor", new JsonObject()
+              .put("exec", "java -Dport=%p -jar "
+                  + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+      given().header("Content-Type", "application/json").body(dd.encode())
+          .post("/_/discovery/modules").then().statusCode(201);
+    }
+    // served by several proxy verticles; the tenant only uses its two choices
+    Set<String> urls = new HashSet<>();
+    for (int i = 0; i < 30; i++) {
+      String trace = given().header("X-Okapi-Tenant", tenant).get("/testb/1")
+          .then().statusCode(200).body(equalTo("It works"))
+          .extract().header("X-Okapi-Trace");
+      urls.add(trace.substring(trace.indexOf("http://"), trace.indexOf("/testb/1")));
+    }
+    Assert.assertTrue(urls.toString(), urls.size() <= 2);
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
+  @Test
+  public void testTokenCacheShared(TestContext context) {
+    restartOkapi(context, new JsonObject()
+        .put("token_cache_shared", "true"));
+    final String tenant = "shared-token-tenant";
+    final String moduleId = "shared-token-module-1.0.0";
+    final String authModuleId = "shared-token-auth-module-1.0.0";
+    setupBasicTenant(tenant);
+
+    JsonObject md = new JsonObject()
+        .put("id", moduleId)
+        .put("provides", new JsonArray().add(new JsonObject()
+            .put("id", "myint")
+            .put("version", "1.0")
+            .put("handlers", new JsonArray().add(new JsonObject()
+                .put("methods", new JsonArray().add("GET"))
+                .put("pathPattern", "/testb/{id}")
+                .put("permissionsRequired", new JsonArray())
+                .put("modulePermissions", new JsonArray().add("myint.get"))))))
+        .put("launchDescriptor", new JsonObject()
+            .put("exec", "java -Dport=%p -jar "
+                + "../okapi-test-module/target/okapi-test-module-fat.jar"));
+    given().header("Content-Type", "application/json").body(md.encode())
+        .post("/_/proxy/modules").then().statusCode(201);
+    given().header("Content-Type", "application/json")
+        .body(new JsonArray().add(new JsonObject().put("id", moduleId)
+            .put("action", "enable")).encode())
+        .post("/_/proxy/tenants/" + tenant + "/install?deploy=true")
+        .then().statusCode(200);
+    setupBasicAuth(tenant, authModuleId);
+    String token = getOkapiToken(tenant);
+
+    List<String> traces = given().header("X-Okapi-Token", token).get("/testb/1")
+        .then().statusCode(200).log().ifValidationFails()
+        .body(equalTo("It works"))
+        .extract().headers().getValues("X-Okapi-Trace");
+    Assert.assertTrue(traces.toString(), traces.stream().anyMatch(t -> t.contains(authModuleId)));
+    // token is cached with the module token; auth filter is skipped
+    traces = given().header("X-Okapi-Token", token).get("/testb/1")
+        .then().statusCode(200).log().ifValidationFails()
+        .body(equalTo("It works"))
+        .extract().headers().getValues("X-Okapi-Trace");
+    Assert.assertTrue(traces.toString(), traces.stream().noneMatch(t -> t.contains(authModuleId)));
+
+    given().delete("/_/discovery/modules").then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant + "/modules").then().statusCode(204);
+    given().delete("/_/proxy/modules/" + moduleId).then().statusCode(204);
+    given().delete("/_/proxy/tenants/" + tenant).then().statusCode(204);
+  }
+
   // add basic tenant
   private void setupBasicTenant(String tenant) {
     String tenantJson = new JsonObject().put("id", tenant).encode();
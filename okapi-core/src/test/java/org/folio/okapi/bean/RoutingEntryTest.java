@@ -2,6 +2,7 @@ package org.folio.okapi.bean;
 
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.common.OkapiLogger;
 import org.junit.jupiter.api.Test;
@@ -287,4 +288,54 @@ class RoutingEntryTest {
     t.setPathPattern("/{tenantId}/b/{moduleId}");
     assertTrue(t.matchUriTenant("/diku/b/other", "diku"));
   }
+
+  @Test
+  void testTimeout() {
+    RoutingEntry t = Json.decodeValue(
+        "{\"methods\": [\"GET\"], \"pathPattern\": \"/a\", \"timeout\": 500}",
+        RoutingEntry.class);
+    assertEquals(500, t.getTimeout());
+    assertEquals("", t.validateHandlers(logger, "m"));
+    assertTrue(Json.encode(t).contains("\"timeout\":500"));
+
+    t.setTimeout(0);
+    assertFalse(Json.encode(t).contains("timeout"));
+
+    t.setTimeout(-1);
+    assertEquals("Bad routing entry, timeout must not be negative",
+        t.validateHandlers(logger, "m"));
+  }
+
+  @Test
+  void testCacheMaxAge() {
+    RoutingEntry t = Json.decodeValue(
+        "{\"methods\": [\"GET\"], \"pathPattern\": \"/a\", \"cacheMaxAge\": 60}",
+        RoutingEntry.class);
+    assertEquals(60, t.getCacheMaxAge());
+    assertEquals("", t.validateHandlers(logger, "m"));
+    assertTrue(Json.encode(t).contains("\"cacheMaxAge\":60"));
+
+    t.setCacheMaxAge(0);
+    assertFalse(Json.encode(t).contains("cacheMaxAge"));
+
+    t.setCacheMaxAge(-1);
+    assertEquals("Bad routing entry, cacheMaxAge must not be negative",
+        t.validateHandlers(logger, "m"));
+  }
+
+  @Test
+  void testCoalesce() {
+    RoutingEntry t = Json.decodeValue(
+        "{\"methods\": [\"GET\"], \"pathPattern\": \"/a\", \"coalesce\": \"user\"}",
+        RoutingEntry.class);
+    assertEquals("user", t.getCoalesce());
+    assertEquals("", t.validateHandlers(logger, "m"));
+
+    t.setCoalesce(null);
+    assertFalse(Json.encode(t).contains("coalesce"));
+
+    t.setCoalesce("all");
+    assertEquals("Bad routing entry, coalesce must be one of tenant, permissions, user",
+        t.validateHandlers(logger, "m"));
+  }
 }
@@ -6,9 +6,11 @@ import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import org.folio.okapi.bean.DeploymentDescriptor;
 import org.folio.okapi.bean.ModuleDescriptor;
+import org.folio.okapi.bean.NodeDescriptor;
 import org.folio.okapi.service.DeploymentStore;
 import org.folio.okapi.service.ModuleStore;
 import org.folio.okapi.service.impl.DeploymentStoreNull;
@@ -120,4 +122,76 @@ public class DiscoveryManagerTest extends TestBase {
     });
     future.onComplete(context.asyncAssertSuccess());
   }
+
+  @Test
+  public void liveSnapshot(TestContext context) {
+    DiscoveryManager discoveryManager = new DiscoveryManager(new DeploymentStoreNull());
+    DeploymentDescriptor dd = new DeploymentDescriptor();
+    dd.setUrl("http://localhost:9231");
+    dd.setSrvcId("module-1.2.3");
+    dd.setInstId("123");
+
+    discoveryManager.init(Vertx.vertx())
+        .compose(x -> {
+          context.assertNull(discoveryManager.getLive("module-1.2.3"));
+          return discoveryManager.add(dd);
+        })
+        .compose(x -> {
+          List<DeploymentDescriptor> live = discoveryManager.getLive("module-1.2.3");
+          context.assertEquals(1, live.size());
+          context.assertEquals("http://localhost:9231", live.get(0).getUrl());
+          return discoveryManager.remove("module-1.2.3", "123");
+        })
+        .onComplete(context.asyncAssertSuccess(x ->
+            context.assertNull(discoveryManager.getLive("module-1.2.3"))));
+  }
+
+  @Test
+  public void newInstanceHandler(TestContext context) {
+    DiscoveryManager discoveryManager = new DiscoveryManager(new DeploymentStoreNull());
+    List<String> added = new LinkedList<>();
+    discoveryManager.setNewInstanceHandler(dd -> added.add(dd.getInstId()));
+    DeploymentDescriptor dd1 = new DeploymentDescriptor();
+    dd1.setUrl("http://localhost:9231");
+    dd1.setSrvcId("module-1.2.3");
+    dd1.setInstId("123");
+    DeploymentDescriptor dd2 = new DeploymentDescriptor();
+    dd2.setUrl("http://localhost:9232");
+    dd2.setSrvcId("module-1.2.3");
+    dd2.setInstId("124");
+
+    discoveryManager.init(Vertx.vertx())
+        .compose(x -> discoveryManager.add(dd1))
+        .compose(x -> discoveryManager.add(dd2))
+        .compose(x -> discoveryManager.remove("module-1.2.3", "123"))
+        .onComplete(context.asyncAssertSuccess(x ->
+            context.assertEquals(Arrays.asList("123", "124"), added)));
+  }
+
+  @Test
+  public void isLocal(TestContext context) {
+    DiscoveryManager discoveryManager = new DiscoveryManager(new DeploymentStoreNull());
+    NodeDescriptor nd = new NodeDescriptor();
+    nd.setUrl("http://localhost:9130");
+    nd.setNodeId("localhost");
+    nd.setNodeName("node1");
+    DeploymentDescriptor dd = new DeploymentDescriptor();
+    dd.setNodeId("node1");
+
+    discoveryManager.init(Vertx.vertx())
+        .compose(x -> {
+          // no node deploys here
+          context.assertFalse(discoveryManager.isLocal(dd));
+          return discoveryManager.addNode(nd);
+        })
+        .onComplete(context.asyncAssertSuccess(x -> {
+          context.assertTrue(discoveryManager.isLocal(dd));
+          dd.setNodeId("http://localhost:9130");
+          context.assertTrue(discoveryManager.isLocal(dd));
+          dd.setNodeId("otherhost");
+          context.assertFalse(discoveryManager.isLocal(dd));
+          dd.setNodeId(null);
+          context.assertFalse(discoveryManager.isLocal(dd));
+        }));
+  }
 }
@@ -12,6 +12,7 @@ import org.folio.okapi.bean.TenantDescriptor;
 import org.folio.okapi.common.ErrorType;
 import org.folio.okapi.common.OkapiLogger;
 import org.folio.okapi.service.impl.TenantStoreNull;
+import org.folio.okapi.util.LockedTypedMap1;
 import org.folio.okapi.util.LockedTypedMap1Faulty;
 import org.folio.okapi.util.OkapiError;
 import org.folio.okapi.util.TestBase;
@@ -106,6 +107,92 @@ public class TenantManagerTest extends TestBase {
     }
   }
 
+  @Test
+  public void testTenantCache(TestContext context) {
+    TenantManager tm = new TenantManager(null, new TenantStoreNull());
+    LockedTypedMap1<Tenant> tenantsMap = new LockedTypedMap1<>(Tenant.class);
+    tm.setTenantsMap(tenantsMap);
+    {
+      Async async = context.async();
+      tm.init(vertx).onComplete(context.asyncAssertSuccess(x -> async.complete()));
+      async.await();
+    }
+    TenantDescriptor td = new TenantDescriptor();
+    td.setId("tenant");
+    td.setName("first name");
+    {
+      Async async = context.async();
+      tm.insert(new Tenant(td)).onComplete(context.asyncAssertSuccess(x -> async.complete()));
+      async.await();
+    }
+    Tenant cached;
+    {
+      Async async = context.async();
+      tm.get("tenant").onComplete(context.asyncAssertSuccess(t -> {
+        context.assertEquals("first name", t.getDescriptor().getName());
+        async.complete();
+      }));
+      async.await();
+      cached = tm.get("tenant").result();
+      context.assertNotNull(cached);
+    }
+    TenantDescriptor td2 = new TenantDescriptor();
+    td2.setId("tenant");
+    td2.setName("other node");
+    {
+      // update behind the back of this node: cache is still used
+      Async async = context.async();
+      tenantsMap.put("tenant", new Tenant(td2))
+          .compose(x -> tm.get("tenant"))
+          .onComplete(context.asyncAssertSuccess(t -> {
+            context.assertTrue(t == cached);
+            async.complete();
+          }));
+      async.await();
+    }
+    {
+      // other node publishes about the change
+      Async async = context.async();
+      vertx.eventBus().publish("tenantUpdate", "tenant");
+      vertx.setTimer(100, x -> tm.get("tenant").onComplete(context.asyncAssertSuccess(t -> {
+        context.assertEquals("other node", t.getDescriptor().getName());
+        async.complete();
+      })));
+      async.await();
+    }
+    td.setName("second name");
+    {
+      Async async = context.async();
+      tm.updateDescriptor(td)
+          .compose(x -> tm.get("tenant"))
+          .onComplete(context.asyncAssertSuccess(t -> {
+            context.assertEquals("second name", t.getDescriptor().getName());
+            async.complete();
+          }));
+      async.await();
+    }
+    {
+      Async async = context.async();
+      tm.updateModuleCommit("tenant", null, "mod-1.0.0")
+          .compose(x -> tm.get("tenant"))
+          .onComplete(context.asyncAssertSuccess(t -> {
+            context.assertTrue(t.isEnabled("mod-1.0.0"));
+            async.complete();
+          }));
+      async.await();
+    }
+    {
+      Async async = context.async();
+      tm.delete("tenant")
+          .compose(x -> tm.get("tenant"))
+          .onComplete(context.asyncAssertFailure(cause -> {
+            context.assertEquals(ErrorType.NOT_FOUND, OkapiError.getType(cause));
+            async.complete();
+          }));
+      async.await();
+    }
+  }
+
   @Test
   public void testTenantStoreFaulty(TestContext context) {
     final String fakeMsg = "fmsg";
@@ -0,0 +1,107 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuthRejectionCacheTest {
+
+  private static MultiMap headers(String contentType) {
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+    if (contentType != null) {
+      headers.set("Content-Type", contentType);
+    }
+    return headers;
+  }
+
+  @Test
+  void testDisabled() {
+    AuthRejectionCache cache = AuthRejectionCache.builder().build();
+    assertThat(cache.isEnabled()).isFalse();
+    cache.put("t", "GET", "/a", "tok", 401, headers("text/plain"), Buffer.buffer("no"), 0);
+    assertThat(cache.get("t", "GET", "/a", "tok", 0)).isNull();
+    assertThat(AuthRejectionCache.builder().withTtl(1000).withMaxSize(0).build().isEnabled())
+        .isFalse();
+  }
+
+  @Test
+  void testRejection() {
+    assertThat(AuthRejectionCache.isRejection(401)).isTrue();
+    assertThat(AuthRejectionCache.isRejection(403)).isTrue();
+    assertThat(AuthRejectionCache.isRejection(400)).isFalse();
+    assertThat(AuthRejectionCache.isRejection(500)).isFalse();
+
+    AuthRejectionCache cache = AuthRejectionCache.builder().withTtl(1000).build();
+    cache.put("t", "GET", "/a", "tok", 500, headers("text/plain"), Buffer.buffer("error"), 0);
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  void testGet() {
+    AuthRejectionCache cache = AuthRejectionCache.builder().withTtl(1000).build();
+    Buffer body = Buffer.buffer("Token expired");
+    cache.put("t", "GET", "/a/{id}", "tok", 401, headers("text/plain"), body, 0);
+    body.appendString("!"); // body is copied
+
+    AuthRejectionCache.Entry e = cache.get("t", "GET", "/a/{id}", "tok", 500);
+    assertThat(e.getStatus()).isEqualTo(401);
+    assertThat(e.getContentType()).isEqualTo("text/plain");
+    assertThat(e.getBody().toString()).isEqualTo("Token expired");
+    assertThat(e.getHits()).isEqualTo(1);
+    assertThat(cache.get("t", "GET", "/a/{id}", "t\nok", 500)).isSameAs(e);
+    assertThat(e.getHits()).isEqualTo(2);
+
+    assertThat(cache.get("t", "POST", "/a/{id}", "tok", 500)).isNull();
+    assertThat(cache.get("t", "GET", "/b", "tok", 500)).isNull();
+    assertThat(cache.get("t", "GET", "/a/{id}", "other", 500)).isNull();
+    assertThat(cache.getHitCount()).isEqualTo(2);
+
+    // expired
+    assertThat(cache.get("t", "GET", "/a/{id}", "tok", 1001)).isNull();
+    assertThat(cache.size()).isZero();
+    assertThat(cache.getHitCount()).isEqualTo(2);
+  }
+
+  @Test
+  void testHeaders() {
+    AuthRejectionCache cache = AuthRejectionCache.builder().withTtl(1000).build();
+    MultiMap headers = headers("text/plain").add("WWW-Authenticate", "Bearer")
+        .add("X-Okapi-Trace", "GET auth-1.0.0 http://localhost:9131/a : 401 1000us");
+    cache.put("t", "GET", "/a", "tok", 401, headers, Buffer.buffer("no"), 0);
+    headers.clear(); // headers are copied
+
+    AuthRejectionCache.Entry e = cache.get("t", "GET", "/a", "tok", 0);
+    assertThat(e.getContentType()).isEqualTo("text/plain");
+    assertThat(e.getHeaders().get("WWW-Authenticate")).isEqualTo("Bearer");
+    assertThat(e.getHeaders().getAll("X-Okapi-Trace")).hasSize(1);
+  }
+
+  @Test
+  void testTenant() {
+    AuthRejectionCache cache = AuthRejectionCache.builder().withTtl(1000).build();
+    cache.put("t", "GET", "/a", "tok", 401, headers(null), Buffer.buffer(), 0);
+    // same token for another tenant is checked by the auth filter of that tenant
+    assertThat(cache.get("other", "GET", "/a", "tok", 0)).isNull();
+    assertThat(cache.get(null, "GET", "/a", "tok", 0)).isNull();
+    assertThat(cache.get("t", "GET", "/a", "tok", 0).getStatus()).isEqualTo(401);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testMaxSize() {
+    AuthRejectionCache cache = AuthRejectionCache.builder().withTtl(1000).withMaxSize(2).build();
+    cache.put("t", "GET", "/a", "t1", 401, headers(null), Buffer.buffer(), 0);
+    cache.put("t", "GET", "/a", "t2", 403, headers(null), Buffer.buffer(), 100);
+    // full: not kept
+    cache.put("t", "GET", "/a", "t3", 401, headers(null), Buffer.buffer(), 500);
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.get("t", "GET", "/a", "t3", 500)).isNull();
+    // expired entries make room
+    cache.put("t", "GET", "/a", "t3", 401, headers(null), Buffer.buffer(), 1050);
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.get("t", "GET", "/a", "t1", 1050)).isNull();
+    assertThat(cache.get("t", "GET", "/a", "t2", 1050).getStatus()).isEqualTo(403);
+    assertThat(cache.get("t", "GET", "/a", "t3", 1050).getContentType()).isNull();
+  }
+}
@@ -0,0 +1,166 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class BodyBufferTest {
+
+  private Vertx vertx;
+
+  @Before
+  public void setUp(TestContext context) {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  private static Buffer content(int length) {
+    Buffer buffer = Buffer.buffer(length);
+    for (int i = 0; i < length; i++) {
+      buffer.appendByte((byte) ('a' + i % 26));
+    }
+    return buffer;
+  }
+
+  /**
+   * Stream content from a temporary file in small chunks.
+   */
+  private Future<AsyncFile> stream(Buffer content) {
+    return vertx.fileSystem().createTempFile("bodybuffertest", ".tmp")
+        .compose(path -> vertx.fileSystem().writeFile(path, content)
+            .compose(x -> vertx.fileSystem().open(path, new OpenOptions())))
+        .map(file -> {
+          file.setReadBufferSize(100);
+          file.pause();
+          return file;
+        });
+  }
+
+  private Future<Buffer> read(ReadStream<Buffer> stream) {
+    Promise<Buffer> promise = Promise.promise();
+    Buffer buffer = Buffer.buffer();
+    stream.handler(buffer::appendBuffer);
+    stream.exceptionHandler(promise::tryFail);
+    stream.endHandler(x -> promise.complete(buffer));
+    stream.resume();
+    return promise.future();
+  }
+
+  @Test
+  public void testOf(TestContext context) {
+    BodyBuffer body = BodyBuffer.of(Buffer.buffer("abc"));
+    context.assertFalse(body.isSpilled());
+    context.assertEquals(3L, body.length());
+    context.assertEquals("abc", body.getBuffer().toString());
+    body.getContent().onComplete(context.asyncAssertSuccess(b ->
+        context.assertEquals("abc", b.toString())));
+    body.open().onComplete(context.asyncAssertFailure());
+    body.release();
+    body.release();
+  }
+
+  @Test
+  public void testMemory(TestContext context) {
+    Buffer content = content(1000);
+    long memory = BodyBuffer.getMemoryBytes();
+    stream(content)
+        .compose(stream -> BodyBuffer.collect(vertx, stream, 1000, 2000))
+        .onComplete(context.asyncAssertSuccess(body -> {
+          context.assertFalse(body.isSpilled());
+          context.assertEquals(1000L, body.length());
+          context.assertEquals(content, body.getBuffer());
+          context.assertEquals(memory + 1000, BodyBuffer.getMemoryBytes());
+          body.release();
+          context.assertEquals(memory, BodyBuffer.getMemoryBytes());
+        }));
+  }
+
+  @Test
+  public void testSpill(TestContext context) {
+    Buffer content = content(100000);
+    long memory = BodyBuffer.getMemoryBytes();
+    long file = BodyBuffer.getFileBytes();
+    long spills = BodyBuffer.getSpillCount();
+    long openFiles = BodyBuffer.getOpenFiles();
+    Async async = context.async();
+    stream(content)
+        .compose(stream -> BodyBuffer.collect(vertx, stream, 1000, 100000))
+        .compose(body -> {
+          context.assertTrue(body.isSpilled());
+          context.assertNull(body.getBuffer());
+          context.assertEquals(100000L, body.length());
+          context.assertEquals(memory, BodyBuffer.getMemoryBytes());
+          context.assertEquals(file + 100000, BodyBuffer.getFileBytes());
+          context.assertEquals(spills + 1, BodyBuffer.getSpillCount());
+          return body.getContent()
+              .compose(b -> {
+                context.assertEquals(content, b);
+                return body.open();
+              })
+              .compose(this::read)
+              .compose(b -> {
+                context.assertEquals(content, b);
+                return body.open(); // may be read more than once
+              })
+              .compose(this::read)
+              .map(b -> {
+                context.assertEquals(content, b);
+                body.release();
+                context.assertEquals(file, BodyBuffer.getFileBytes());
+                return body;
+              });
+        })
+        .onComplete(context.asyncAssertSuccess(body ->
+            // files opened for reading are closed asynchronously at end of stream
+            vertx.setTimer(200, x -> {
+              context.assertEquals(openFiles, BodyBuffer.getOpenFiles());
+              async.complete();
+            })));
+  }
+
+  @Test
+  public void testTooLarge(TestContext context) {
+    long memory = BodyBuffer.getMemoryBytes();
+    long file = BodyBuffer.getFileBytes();
+    Async async = context.async();
+    stream(content(100001))
+        .compose(stream -> BodyBuffer.collect(vertx, stream, 1000, 100000))
+        .onComplete(context.asyncAssertFailure(cause -> {
+          context.assertTrue(cause instanceof BodyBuffer.TooLargeException);
+          context.assertEquals(100000L, ((BodyBuffer.TooLargeException) cause).getLimit());
+          context.assertEquals(memory, BodyBuffer.getMemoryBytes());
+          // temporary file is closed and removed asynchronously
+          vertx.setTimer(200, x -> {
+            context.assertEquals(file, BodyBuffer.getFileBytes());
+            async.complete();
+          });
+        }));
+  }
+
+  @Test
+  public void testTooLargeInMemory(TestContext context) {
+    long memory = BodyBuffer.getMemoryBytes();
+    stream(content(1001))
+        .compose(stream -> BodyBuffer.collect(vertx, stream, 1000, 0))
+        .onComplete(context.asyncAssertFailure(cause -> {
+          context.assertEquals(1000L, ((BodyBuffer.TooLargeException) cause).getLimit());
+          context.assertEquals(memory, BodyBuffer.getMemoryBytes());
+        }));
+  }
+}
@@ -0,0 +1,109 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class CoalescerTest {
+
+  private Vertx vertx;
+
+  @Before
+  public void setUp(TestContext context) {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testCoalesce(TestContext context) {
+    Coalescer<String, String> coalescer = new Coalescer<>();
+    AtomicInteger calls = new AtomicInteger();
+    Promise<String> promise = Promise.promise();
+    List<Future<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(coalescer.execute("a", () -> {
+        calls.incrementAndGet();
+        return promise.future();
+      }));
+    }
+    Future<String> other = coalescer.execute("b", () -> Future.succeededFuture("b"));
+    context.assertEquals("b", other.result());
+    context.assertEquals(1, calls.get());
+    context.assertEquals(1, coalescer.getInFlight());
+
+    promise.complete("a");
+    Async async = context.async(futures.size());
+    for (Future<String> f : futures) {
+      f.onComplete(context.asyncAssertSuccess(res -> {
+        context.assertEquals("a", res);
+        async.countDown();
+      }));
+    }
+    async.await();
+    context.assertEquals(6L, coalescer.getRequests());
+    context.assertEquals(2L, coalescer.getUpstream());
+    context.assertEquals(0, coalescer.getInFlight());
+
+    // a completed call is not reused
+    coalescer.execute("a", () -> {
+      calls.incrementAndGet();
+      return Future.succeededFuture("c");
+    }).onComplete(context.asyncAssertSuccess(res -> context.assertEquals("c", res)));
+    context.assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testFailure(TestContext context) {
+    Coalescer<String, String> coalescer = new Coalescer<>();
+    Promise<String> promise = Promise.promise();
+    Future<String> f1 = coalescer.execute("a", promise::future);
+    Future<String> f2 = coalescer.execute("a", promise::future);
+    promise.fail("failed");
+    f1.onComplete(context.asyncAssertFailure(cause ->
+        context.assertEquals("failed", cause.getMessage())));
+    f2.onComplete(context.asyncAssertFailure(cause ->
+        context.assertEquals("failed", cause.getMessage())));
+
+    coalescer.execute("b", () -> {
+      throw new IllegalStateException("thrown");
+    }).onComplete(context.asyncAssertFailure(cause ->
+        context.assertEquals("thrown", cause.getMessage())));
+    context.assertEquals(0, coalescer.getInFlight());
+  }
+
+  @Test
+  public void testContext(TestContext context) {
+    Coalescer<String, String> coalescer = new Coalescer<>();
+    Promise<String> promise = Promise.promise();
+    Context leaderContext = vertx.getOrCreateContext();
+    Context waiterContext = vertx.getOrCreateContext();
+    Async async = context.async();
+    leaderContext.runOnContext(x -> {
+      coalescer.execute("a", promise::future);
+      waiterContext.runOnContext(y -> {
+        // the waiter gets the result on its own context
+        coalescer.execute("a", promise::future).onComplete(context.asyncAssertSuccess(res -> {
+          context.assertEquals(waiterContext, Vertx.currentContext());
+          async.complete();
+        }));
+        leaderContext.runOnContext(z -> promise.complete("a"));
+      });
+    });
+  }
+}
@@ -0,0 +1,90 @@
+package org.folio.okapi.util;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimiterTest {
+
+  private static final long MS = 1000000L;
+
+  @Test
+  void testLimitPerProduct() {
+    ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().build();
+    ConcurrencyLimiter.Limit limit = limiter.getLimit("mod-a-1.0.0");
+    assertThat(limit.getName()).isEqualTo("mod-a");
+    assertThat(limiter.getLimit("mod-a-2.0.0")).isSameAs(limit);
+    assertThat(limiter.getLimit("mod-a-1.0.0")).isSameAs(limit);
+    assertThat(limiter.getLimit("mod-b-1.0.0")).isNotSameAs(limit);
+    assertThat(limit.getLimit()).isEqualTo(ConcurrencyLimiter.DEFAULT_INITIAL_LIMIT);
+  }
+
+  @Test
+  void testReject() {
+    ConcurrencyLimiter.Limit limit = ConcurrencyLimiter.builder()
+        .withMaxLimit(3).build().getLimit("mod-a-1.0.0");
+    assertThat(limit.getLimit()).isEqualTo(3);
+    for (int i = 0; i < 3; i++) {
+      assertThat(limit.tryAcquire()).isTrue();
+    }
+    assertThat(limit.tryAcquire()).isFalse();
+    assertThat(limit.tryAcquire()).isFalse();
+    assertThat(limit.getInFlight()).isEqualTo(3);
+    assertThat(limit.getRejected()).isEqualTo(2);
+
+    limit.release(10 * MS, 200);
+    assertThat(limit.getInFlight()).isEqualTo(2);
+    assertThat(limit.tryAcquire()).isTrue();
+    assertThat(limit.getLimit()).isEqualTo(3); // bounded by max
+  }
+
+  @Test
+  void testGrowWhenUsed() {
+    ConcurrencyLimiter.Limit limit = ConcurrencyLimiter.builder()
+        .withInitialLimit(10).withMaxLimit(100).build().getLimit("mod-a-1.0.0");
+    // few requests in flight: no reason to grow
+    for (int i = 0; i < 50; i++) {
+      assertThat(limit.tryAcquire()).isTrue();
+      limit.release(10 * MS, 200);
+    }
+    assertThat(limit.getLimit()).isEqualTo(10);
+
+    // limit in use and response time stable: grows
+    for (int i = 0; i < 50; i++) {
+      limit.update(10 * MS, 200, limit.getLimit());
+    }
+    assertThat(limit.getLimit()).isGreaterThan(50);
+  }
+
+  @Test
+  void testShrinkWhenSlow() {
+    ConcurrencyLimiter.Limit limit = ConcurrencyLimiter.builder()
+        .withInitialLimit(50).build().getLimit("mod-a-1.0.0");
+    for (int i = 0; i < 10; i++) {
+      limit.update(10 * MS, 200, 1);
+    }
+    assertThat(limit.getLimit()).isEqualTo(50);
+    // queuing in module: response time four times the baseline
+    for (int i = 0; i < 10; i++) {
+      limit.update(40 * MS, 200, 50);
+    }
+    assertThat(limit.getLimit()).isLessThan(20);
+    // never below minimum
+    for (int i = 0; i < 100; i++) {
+      limit.update(400 * MS, 200, 50);
+    }
+    assertThat(limit.getLimit()).isEqualTo(ConcurrencyLimiter.MIN_LIMIT);
+  }
+
+  @Test
+  void testShrinkOnFailure() {
+    ConcurrencyLimiter.Limit limit = ConcurrencyLimiter.builder()
+        .withInitialLimit(20).build().getLimit("mod-a-1.0.0");
+    limit.update(10 * MS, 503, 20);
+    assertThat(limit.getLimit()).isEqualTo(18);
+    limit.update(0, 0, 20);
+    assertThat(limit.getLimit()).isEqualTo(16);
+    // 500 is not a failure of the module
+    limit.update(10 * MS, 500, 0);
+    assertThat(limit.getLimit()).isEqualTo(16);
+  }
+}
@@ -0,0 +1,76 @@
+package org.folio.okapi.util;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HedgerTest {
+
+  private static final long MS = 1000000L;
+
+  @Test
+  void testModules() {
+    assertThat(Hedger.builder().build().getModule("a-1.0.0")).isNull();
+    assertThat(Hedger.builder().withModules(null).build().getModule("a-1.0.0")).isNull();
+
+    Hedger hedger = Hedger.builder().withModules("a, b,,").build();
+    Hedger.Module a = hedger.getModule("a-1.0.0");
+    assertThat(a).isNotNull();
+    assertThat(a.getName()).isEqualTo("a");
+    // all versions share state
+    assertThat(hedger.getModule("a-2.0.0")).isSameAs(a);
+    assertThat(hedger.getModule("b-1.0.0")).isNotNull();
+    assertThat(hedger.getModule("c-1.0.0")).isNull();
+  }
+
+  @Test
+  void testDelay() {
+    Hedger.Module m = Hedger.builder().withModules("a").withPercentile(90).build()
+        .getModule("a-1.0.0");
+    assertThat(m.getDelayMs()).isEqualTo(-1);
+    for (int i = 1; i < Hedger.MIN_SAMPLES; i++) {
+      m.record(i * MS);
+    }
+    assertThat(m.getDelayMs()).isEqualTo(-1);
+    // 1..32 ms; 90th percentile is 29 ms
+    for (int i = Hedger.MIN_SAMPLES; i <= 2 * Hedger.RECOMPUTE; i++) {
+      m.record(i * MS);
+    }
+    assertThat(m.getDelayMs()).isEqualTo(29);
+
+    // only recent response times count
+    for (int i = 0; i < Hedger.SAMPLES; i++) {
+      m.record(100);
+    }
+    assertThat(m.getDelayMs()).isEqualTo(1);
+  }
+
+  @Test
+  void testBudget() {
+    Hedger.Module m = Hedger.builder().withModules("a").withBudget(10).build()
+        .getModule("a-1.0.0");
+    assertThat(m.tryHedge()).isFalse();
+    int hedged = 0;
+    for (int i = 0; i < 1000; i++) {
+      m.start();
+      if (m.tryHedge()) {
+        hedged++;
+      }
+    }
+    assertThat(hedged).isBetween(99, 100);
+    assertThat(m.getRequests()).isEqualTo(1000);
+    assertThat(m.getHedged()).isEqualTo(hedged);
+
+    // budget can be saved up, but only to a limit
+    for (int i = 0; i < 1000; i++) {
+      m.start();
+    }
+    hedged = 0;
+    while (m.tryHedge()) {
+      hedged++;
+    }
+    assertThat(hedged).isEqualTo((int) Hedger.MAX_TOKENS);
+
+    m.win();
+    assertThat(m.getWins()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,338 @@
+package org.folio.okapi.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.folio.okapi.bean.DeploymentDescriptor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class LoadBalancerTest {
+
+  private static final long MS = 1000000L;
+
+  private static DeploymentDescriptor dd(String instId) {
+    DeploymentDescriptor dd = new DeploymentDescriptor();
+    dd.setInstId(instId);
+    dd.setUrl("http://" + instId);
+    return dd;
+  }
+
+  private static final List<DeploymentDescriptor> instances = Arrays.asList(dd("a"), dd("b"));
+
+  private static Map<String, Integer> pick(LoadBalancer balancer, int n, long now) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      counts.merge(balancer.pick(instances, now).getInstId(), 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  @Test
+  void testCreate() {
+    assertThat(LoadBalancer.create("random")).isInstanceOf(LoadBalancer.Random.class);
+    assertThat(LoadBalancer.create("least-outstanding"))
+        .isInstanceOf(LoadBalancer.LeastOutstanding.class);
+    assertThat(LoadBalancer.create(LoadBalancer.DEFAULT_STRATEGY))
+        .isInstanceOf(LoadBalancer.PeakEwma.class);
+    Assertions.assertThrows(IllegalArgumentException.class, () -> LoadBalancer.create("other"));
+  }
+
+  @Test
+  void testPickFew() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.PEAK_EWMA);
+    assertThat(balancer.pick(Collections.emptyList())).isNull();
+    DeploymentDescriptor a = dd("a");
+    assertThat(balancer.pick(Collections.singletonList(a))).isSameAs(a);
+  }
+
+  @Test
+  void testRandom() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.RANDOM);
+    balancer.start("a");
+    assertThat(pick(balancer, 1000, 0)).containsOnlyKeys("a", "b");
+  }
+
+  @Test
+  void testLeastOutstanding() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.LEAST_OUTSTANDING);
+    long start = balancer.start("a", 0);
+    assertThat(balancer.getStats("a").getInFlight()).isEqualTo(1);
+    assertThat(pick(balancer, 100, 0)).containsOnlyKeys("b");
+
+    balancer.end("a", start, 0, 0);
+    assertThat(balancer.getStats("a").getInFlight()).isZero();
+    assertThat(pick(balancer, 1000, 0)).containsOnlyKeys("a", "b");
+
+    // unknown and missing instances are ignored
+    balancer.end("c", start, 200, 0);
+    balancer.end(null, balancer.start(null, 0), 200, 0);
+    assertThat(balancer.size()).isEqualTo(1);
+  }
+
+  @Test
+  void testPeakEwma() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.PEAK_EWMA);
+    // a is slow, b is fast
+    balancer.end("a", balancer.start("a", 0), 200, 500 * MS);
+    balancer.end("b", balancer.start("b", 0), 200, 10 * MS);
+    assertThat(balancer.getStats("a").getEwma(500 * MS)).isEqualTo(500.0 * MS);
+    assertThat(pick(balancer, 100, 500 * MS)).containsOnlyKeys("b");
+
+    // peak sensitive: one slow response is enough
+    long now = 1000 * MS;
+    balancer.end("b", balancer.start("b", now - 800 * MS), 200, now);
+    assertThat(balancer.getStats("b").getEwma(now)).isEqualTo(800.0 * MS);
+    assertThat(pick(balancer, 100, now)).containsOnlyKeys("a");
+
+    // fast responses bring the average down gradually
+    for (int i = 0; i < 10; i++) {
+      now += 1000 * MS;
+      balancer.end("b", balancer.start("b", now - 10 * MS), 200, now);
+    }
+    assertThat(balancer.getStats("b").getEwma(now)).isLessThan(400.0 * MS);
+
+    // requests in flight add to the load
+    long start = balancer.start("b", now);
+    balancer.start("b", now);
+    balancer.start("b", now);
+    assertThat(balancer.getStats("b").getInFlight()).isEqualTo(3);
+    balancer.end("b", start, 0, now);
+    assertThat(balancer.getStats("b").getInFlight()).isEqualTo(2);
+  }
+
+  @Test
+  void testPeakEwmaDecay() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.PEAK_EWMA);
+    balancer.end("a", balancer.start("a", 0), 200, 500 * MS);
+    LoadBalancer.Stats stats = balancer.getStats("a");
+    assertThat(stats.getEwma(500 * MS + LoadBalancer.DECAY_NANOS))
+        .isCloseTo(500.0 * MS / Math.E, offset(1.0));
+    // an instance with no response yet is avoided while a request is in flight
+    balancer.start("b", 0);
+    assertThat(pick(balancer, 100, 500 * MS)).containsOnlyKeys("a");
+  }
+
+  @Test
+  void testRemoveIdle() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.LEAST_OUTSTANDING);
+    balancer.end("a", balancer.start("a", 0), 200, 0);
+    balancer.start("b", 0);
+    assertThat(balancer.size()).isEqualTo(2);
+    balancer.start("c", LoadBalancer.IDLE_NANOS + 1);
+    assertThat(balancer.getStats("a")).isNull();
+    assertThat(balancer.getStats("b")).isNotNull(); // in flight
+    assertThat(balancer.size()).isEqualTo(2);
+  }
+
+  @Test
+  void testConsecutiveFailures() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.PEAK_EWMA);
+    long now = 0;
+    for (int i = 0; i < OutlierPolicy.DEFAULT_CONSECUTIVE_FAILURES - 1; i++) {
+      assertThat(balancer.end("a", balancer.start("a", now), 0, now)).isFalse();
+    }
+    // 500 is not a failure, so the count starts over
+    assertThat(balancer.end("a", balancer.start("a", now), 500, now)).isFalse();
+    for (int i = 0; i < OutlierPolicy.DEFAULT_CONSECUTIVE_FAILURES - 1; i++) {
+      assertThat(balancer.end("a", balancer.start("a", now), 503, now)).isFalse();
+    }
+    assertThat(balancer.getStats("a").getCircuitState(now))
+        .isEqualTo(LoadBalancer.CircuitState.CLOSED);
+    assertThat(balancer.end("a", balancer.start("a", now), 502, now)).isTrue();
+    assertThat(balancer.getStats("a").getCircuitState(now))
+        .isEqualTo(LoadBalancer.CircuitState.OPEN);
+    assertThat(pick(balancer, 100, now)).containsOnlyKeys("b");
+    assertThat(balancer.pick(instances.subList(0, 1), now)).isNull();
+
+    // half-open when ejection time has passed; a failure ejects again for longer
+    now += OutlierPolicy.DEFAULT_EJECTION_MS * MS;
+    assertThat(balancer.getStats("a").getCircuitState(now))
+        .isEqualTo(LoadBalancer.CircuitState.HALF_OPEN);
+    assertThat(pick(balancer, 1000, now)).containsKey("a");
+    assertThat(balancer.end("a", balancer.start("a", now), 504, now)).isTrue();
+    now += OutlierPolicy.DEFAULT_EJECTION_MS * MS;
+    assertThat(balancer.getStats("a").getCircuitState(now))
+        .isEqualTo(LoadBalancer.CircuitState.OPEN);
+    now += OutlierPolicy.DEFAULT_EJECTION_MS * MS;
+    assertThat(balancer.getStats("a").getCircuitState(now))
+        .isEqualTo(LoadBalancer.CircuitState.HALF_OPEN);
+
+    // a success closes the circuit
+    assertThat(balancer.end("a", balancer.start("a", now), 200, now)).isFalse();
+    assertThat(balancer.getStats("a").getCircuitState(now))
+        .isEqualTo(LoadBalancer.CircuitState.CLOSED);
+  }
+
+  @Test
+  void testErrorRate() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.LEAST_OUTSTANDING);
+    balancer.setOutlierPolicy(OutlierPolicy.builder()
+        .withConsecutiveFailures(0).withErrorRate(50).withMinRequests(10).build());
+    long now = 0;
+    for (int i = 0; i < 8; i++) {
+      assertThat(balancer.end("a", balancer.start("a", now), i % 2 == 0 ? 0 : 200, now))
+          .isFalse();
+    }
+    // new interval
+    now += OutlierPolicy.DEFAULT_INTERVAL_MS * MS + 1;
+    for (int i = 0; i < 9; i++) {
+      assertThat(balancer.end("a", balancer.start("a", now), i % 2 == 0 ? 0 : 200, now))
+          .isFalse();
+    }
+    assertThat(balancer.end("a", balancer.start("a", now), 0, now)).isTrue();
+    assertThat(balancer.getStats("a").getCircuitState(now))
+        .isEqualTo(LoadBalancer.CircuitState.OPEN);
+  }
+
+  @Test
+  void testOutlierDisabled() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.PEAK_EWMA);
+    balancer.setOutlierPolicy(OutlierPolicy.builder().withEjectionMs(0).build());
+    for (int i = 0; i < 100; i++) {
+      assertThat(balancer.end("a", balancer.start("a"), 0)).isFalse();
+    }
+    assertThat(balancer.getCircuitState("a")).isEqualTo(LoadBalancer.CircuitState.CLOSED);
+    assertThat(balancer.getCircuitState("b")).isNull();
+  }
+
+  @Test
+  void testOpenCount() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.PEAK_EWMA);
+    balancer.setOutlierPolicy(OutlierPolicy.builder().withConsecutiveFailures(1).build());
+    assertThat(balancer.end("a", balancer.start("a"), 0)).isTrue();
+    assertThat(balancer.getOpenCount()).isEqualTo(1);
+    assertThat(balancer.getCircuitState("a")).isEqualTo(LoadBalancer.CircuitState.OPEN);
+    assertThat(balancer.getCircuitState("a")).hasToString("open");
+    assertThat(LoadBalancer.CircuitState.HALF_OPEN).hasToString("half-open");
+  }
+
+  @Test
+  void testCancel() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.PEAK_EWMA);
+    balancer.setOutlierPolicy(OutlierPolicy.builder().withConsecutiveFailures(1).build());
+    balancer.start("a");
+    balancer.cancel("a");
+    balancer.cancel("a");
+    balancer.cancel("b");
+    balancer.cancel(null);
+    assertThat(balancer.getStats("a").getInFlight()).isZero();
+    assertThat(balancer.getCircuitState("a")).isEqualTo(LoadBalancer.CircuitState.CLOSED);
+  }
+
+  @Test
+  void testWarmUp() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.RANDOM);
+    balancer.setWarmUpMs(1000);
+    assertThat(balancer.getWeight("b", 0)).isEqualTo(1.0);
+    balancer.warmUp("b");
+    assertThat(balancer.getWarmingUpCount()).isEqualTo(1);
+    // not ready: only picked if there is no other instance
+    assertThat(balancer.getWeight("b", 0)).isZero();
+    assertThat(pick(balancer, 100, 0)).containsOnlyKeys("a");
+    assertThat(balancer.pick(Collections.singletonList(dd("b")), 0).getInstId()).isEqualTo("b");
+
+    // weight grows linearly once ready
+    balancer.ready("b", 0);
+    assertThat(balancer.getWeight("b", 250 * MS)).isCloseTo(0.25, offset(0.001));
+    Map<String, Integer> counts = pick(balancer, 10000, 250 * MS);
+    // b is in the choice with probability 1/2 and wins half of those
+    assertThat(counts.get("b")).isBetween(500, 2000);
+    assertThat(balancer.getWeight("b", 750 * MS)).isCloseTo(0.75, offset(0.001));
+
+    // full weight after warm-up time, and then forgotten
+    assertThat(balancer.getWeight("b", 1000 * MS)).isEqualTo(1.0);
+    assertThat(balancer.getWarmingUpCount()).isZero();
+    counts = pick(balancer, 10000, 1000 * MS);
+    assertThat(counts.get("b")).isBetween(4000, 6000);
+  }
+
+  @Test
+  void testWarmUpEjected() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.RANDOM);
+    balancer.setOutlierPolicy(OutlierPolicy.builder().withConsecutiveFailures(1).build());
+    balancer.warmUp("b");
+    // an instance warming up is better than an ejected one
+    assertThat(balancer.end("a", balancer.start("a", 0), 0, 0)).isTrue();
+    assertThat(pick(balancer, 100, 0)).containsOnlyKeys("b");
+    // ready without warm-up time is full weight at once
+    balancer.ready("b", 0);
+    assertThat(balancer.getWeight("b", 0)).isEqualTo(1.0);
+    // ready of unknown instance is ignored
+    balancer.ready("c", 0);
+    assertThat(balancer.getWeight("c", 0)).isEqualTo(1.0);
+  }
+
+  @Test
+  void testPreferLocal() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.RANDOM);
+    balancer.setOutlierPolicy(OutlierPolicy.builder().withConsecutiveFailures(1).build());
+    balancer.setLocal(dd -> "b".equals(dd.getInstId()));
+    assertThat(pick(balancer, 100, 0)).containsOnlyKeys("b");
+    // remote instance is used when local instance is ejected
+    assertThat(balancer.end("b", balancer.start("b", 0), 0, 0)).isTrue();
+    assertThat(pick(balancer, 100, 0)).containsOnlyKeys("a");
+    balancer.setLocal(null);
+    assertThat(pick(balancer, 100, 0)).containsOnlyKeys("a");
+  }
+
+  @Test
+  void testTenantAffinity() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.LEAST_OUTSTANDING);
+    List<DeploymentDescriptor> list = Arrays.asList(dd("a"), dd("b"), dd("c"), dd("d"));
+    balancer.setTenantAffinity(true);
+    Map<String, Integer> counts = new HashMap<>();
+    for (int t = 0; t < 100; t++) {
+      String tenant = "tenant" + t;
+      DeploymentDescriptor first = balancer.pick(list, tenant, 0);
+      balancer.start(first.getInstId(), 0);
+      // the other instance of the tenant's pair when the first is busy
+      DeploymentDescriptor second = balancer.pick(list, tenant, 0);
+      assertThat(second).isNotSameAs(first);
+      balancer.start(second.getInstId(), 0);
+      for (int i = 0; i < 10; i++) {
+        assertThat(balancer.pick(list, tenant, 0)).isIn(first, second);
+      }
+      balancer.cancel(first.getInstId());
+      balancer.cancel(second.getInstId());
+      counts.merge(first.getInstId(), 1, Integer::sum);
+      // same pair regardless of order of instances
+      List<DeploymentDescriptor> reversed = Arrays.asList(list.get(3), list.get(2),
+          list.get(1), list.get(0));
+      assertThat(balancer.pick(reversed, tenant, 0)).isSameAs(first);
+    }
+    // tenants are spread over instances
+    assertThat(counts).containsOnlyKeys("a", "b", "c", "d");
+    // no tenant: any instance
+    LoadBalancer random = LoadBalancer.create(LoadBalancer.RANDOM);
+    random.setTenantAffinity(true);
+    Map<String, Integer> any = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      any.merge(random.pick(list, null, 0).getInstId(), 1, Integer::sum);
+    }
+    assertThat(any).containsOnlyKeys("a", "b", "c", "d");
+  }
+
+  @Test
+  void testTenantAffinityEjected() {
+    LoadBalancer balancer = LoadBalancer.create(LoadBalancer.LEAST_OUTSTANDING);
+    balancer.setOutlierPolicy(OutlierPolicy.builder().withConsecutiveFailures(1).build());
+    balancer.setTenantAffinity(true);
+    List<DeploymentDescriptor> list = Arrays.asList(dd("a"), dd("b"), dd("c"), dd("d"));
+    DeploymentDescriptor first = balancer.pick(list, "diku", 0);
+    assertThat(balancer.end(first.getInstId(), balancer.start(first.getInstId(), 0), 0, 0))
+        .isTrue();
+    // the pair moves on to the next instance in the ranking of the tenant
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 10; i++) {
+      DeploymentDescriptor dd = balancer.pick(list, "diku", 0);
+      counts.merge(dd.getInstId(), 1, Integer::sum);
+      balancer.start(dd.getInstId(), 0);
+    }
+    assertThat(counts).hasSize(2).doesNotContainKey(first.getInstId());
+  }
+}
@@ -0,0 +1,75 @@
+package org.folio.okapi.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.folio.okapi.bean.RoutingEntry;
+import org.junit.jupiter.api.Test;
+
+class MeterCacheTest {
+
+  @Test
+  void testGet() {
+    AtomicInteger created = new AtomicInteger();
+    MeterCache<String> cache = new MeterCache<>("m", (name, key) -> {
+      created.incrementAndGet();
+      return name + "/" + key.v1 + "/" + key.v2 + "/" + key.code;
+    });
+    assertEquals("m", cache.getName());
+    assertEquals("m/a/b/0", cache.get("a", "b", null));
+    assertEquals("m/a/b/0", cache.get(new String("a"), "b", null));
+    assertEquals(1, created.get());
+    assertEquals("m/a/null/0", cache.get("a", null, null));
+    assertEquals("m/a/b/1", cache.get("a", "b", null, null, null, 1));
+    assertEquals(3, created.get());
+    assertEquals(3, cache.size());
+    cache.setPolicy(CardinalityPolicy.builder().build());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void testIdentity() {
+    MeterCache<Object> cache = new MeterCache<>("m", (name, key) -> new Object());
+    RoutingEntry re1 = new RoutingEntry();
+    RoutingEntry re2 = new RoutingEntry();
+    Object o1 = cache.get(re1, null, null);
+    assertSame(o1, cache.get(re1, null, null));
+    assertNotSame(o1, cache.get(re2, null, null));
+  }
+
+  @Test
+  void testMaxSeries() {
+    MeterCache<Object> cache = new MeterCache<>("m", (name, key) -> new Object());
+    cache.setPolicy(CardinalityPolicy.builder().withMaxSeries(1).build());
+    Object o1 = cache.get("a", null, null);
+    assertSame(o1, cache.get("a", null, null));
+    assertNull(cache.get("b", null, null));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void testNull() {
+    MeterCache<Object> cache = new MeterCache<>("m", (name, key) -> null);
+    assertNull(cache.get("a", null, null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void testLimit() {
+    MeterCache<Object> cache = new MeterCache<>("m", (name, key) -> new Object());
+    cache.setPolicy(CardinalityPolicy.builder()
+        .withTagKeys("tenant, userId")
+        .withTopKTags("userId")
+        .withTopK(1)
+        .build());
+    assertTrue(cache.isAllowed("tenant"));
+    assertFalse(cache.isAllowed("url"));
+    assertNull(cache.limit("url", "/a"));
+    assertEquals("t1", cache.limit("tenant", "t1"));
+    assertEquals("t2", cache.limit("tenant", "t2"));
+    assertNull(cache.limit("userId", null));
+    assertEquals("u1", cache.limit("userId", "u1"));
+    assertEquals(CardinalityPolicy.OTHER, cache.limit("userId", "u2"));
+    assertEquals("u1", cache.limit("userId", "u1"));
+  }
+}
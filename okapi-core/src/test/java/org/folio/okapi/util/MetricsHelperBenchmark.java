@@ -0,0 +1,95 @@
+package org.folio.okapi.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpMethod;
+import java.util.concurrent.TimeUnit;
+import org.folio.okapi.bean.ModuleDescriptor;
+import org.folio.okapi.bean.ModuleInstance;
+import org.folio.okapi.bean.RoutingEntry;
+import org.folio.okapi.common.MetricsUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Cost of recording proxy metrics with metrics enabled and a single backend.
+ * With meters cached by {@link MeterCache}, {@code gc.alloc.rate.norm} should
+ * be close to 0 B/op for each benchmark.
+ *
+ * <p>Not run as part of the unit tests. Run with main after
+ * {@code mvn test-compile} using the test classpath of okapi-core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsHelperBenchmark {
+
+  private ModuleInstance moduleInstance;
+  private Timer.Sample sample;
+
+  @Setup
+  public void setup() {
+    System.setProperty(MetricsUtil.ENABLE_METRICS, "true");
+    System.setProperty(MetricsUtil.SIMPLE_OPTS, "{}");
+    MetricsUtil.init(new VertxOptions());
+
+    ModuleDescriptor md = new ModuleDescriptor();
+    md.setId("mod-users-1.0.0");
+    RoutingEntry re = new RoutingEntry();
+    re.setPathPattern("/users/{id}");
+    re.setMethods(new String[] {"GET"});
+    moduleInstance = new ModuleInstance(md, re, "/users/1", HttpMethod.GET, true);
+    // sample is started once; only the recording path is measured
+    sample = MetricsHelper.getTimerSample();
+  }
+
+  @TearDown
+  public void tearDown() {
+    MetricsUtil.stop();
+  }
+
+  @Benchmark
+  public Timer recordHttpServerProcessingTime() {
+    return MetricsHelper.recordHttpServerProcessingTime(sample, "diku", 200, "GET",
+        moduleInstance);
+  }
+
+  @Benchmark
+  public Timer recordHttpClientResponse() {
+    return MetricsHelper.recordHttpClientResponse(sample, "diku", 200, "GET", moduleInstance);
+  }
+
+  @Benchmark
+  public Timer recordCodeExecutionTime() {
+    return MetricsHelper.recordCodeExecutionTime(sample, "ProxyService.authResponse");
+  }
+
+  @Benchmark
+  public Counter recordTokenCacheHit() {
+    return MetricsHelper.recordTokenCacheHit("diku", "GET", "/users/1", "user");
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(MetricsHelperBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
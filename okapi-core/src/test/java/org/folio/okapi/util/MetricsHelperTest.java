@@ -2,6 +2,10 @@ package org.folio.okapi.util;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.folio.okapi.bean.ModuleDescriptor;
 import org.folio.okapi.bean.ModuleInstance;
@@ -13,9 +17,16 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.Json;
 
 class MetricsHelperTest {
 
@@ -39,6 +50,7 @@ class MetricsHelperTest {
   @AfterEach
   void teardown() {
     MetricsUtil.stop();
+    MetricsHelper.setCardinalityPolicy(CardinalityPolicy.builder().build());
   }
 
   @Test
@@ -48,11 +60,32 @@ class MetricsHelperTest {
     assertNull(MetricsHelper.recordHttpClientResponse(null, "a", 0, "b", null));
     assertNull(MetricsHelper.recordHttpServerProcessingTime(null, "a", 0, "b", null));
     assertNull(MetricsHelper.recordHttpClientError("a", "b", "c"));
+    assertNull(MetricsHelper.recordHttpClientTimeout("a", "b"));
     assertNull(MetricsHelper.recordCodeExecutionTime(null, "a"));
     assertNull(MetricsHelper.recordTokenCacheCached("a", "b", "c", "d"));
     assertNull(MetricsHelper.recordTokenCacheExpired("a", "b", "c", "d"));
     assertNull(MetricsHelper.recordTokenCacheHit("a", "b", "c", "d"));
     assertNull(MetricsHelper.recordTokenCacheMiss("a", "b", "c", "d"));
+    assertNull(MetricsHelper.recordTokenCacheNegativeHit("a", "b", "c", "d"));
+    assertFalse(MetricsHelper.registerTokenCacheGauges(TokenCache.builder().build()));
+    assertFalse(MetricsHelper.registerAuthRejectionCacheGauges(
+        AuthRejectionCache.builder().build()));
+    assertFalse(MetricsHelper.registerBodyBufferGauges());
+    assertNull(MetricsHelper.recordLoadBalancerEjection("m"));
+    assertNull(MetricsHelper.recordRequestLogDropped("m", 10));
+    assertNull(MetricsHelper.recordRequestLogSpilled("m", 10));
+    assertFalse(MetricsHelper.registerLoadBalancerGauges(LoadBalancer.create("random")));
+    assertFalse(MetricsHelper.registerProxyClientGauges(
+        new ProxyClients.Pool("m", mock(HttpClient.class))));
+    assertFalse(MetricsHelper.registerConcurrencyLimitGauges(
+        ConcurrencyLimiter.builder().build().getLimit("m-1.0.0")));
+    assertNull(MetricsHelper.recordTenantLimitRejection("a", "rate"));
+    assertNull(MetricsHelper.recordTenantLimitQueueTime("a", 1));
+    assertFalse(MetricsHelper.registerTenantLimitGauges(
+        TenantLimiter.builder().build(mock(Vertx.class))));
+    assertNull(MetricsHelper.recordResponseCache("a", "hit"));
+    assertFalse(MetricsHelper.registerResponseCacheGauges(ResponseCache.builder().build()));
+    assertFalse(MetricsHelper.registerCoalescerGauges(new Coalescer<>()));
   }
 
   @Test
@@ -95,6 +128,65 @@ class MetricsHelperTest {
     assertEquals(1, timer.count());
   }
 
+  @Test
+  void testHttpTimersAreCached() {
+    Timer.Sample sample = MetricsHelper.getTimerSample();
+    ModuleInstance mi = createModuleInstance(false);
+    Timer timer = MetricsHelper.recordHttpClientResponse(sample, "a", 200, "GET", mi);
+    // new module instance for same routing entry
+    ModuleInstance mi2 = new ModuleInstance(mi.getModuleDescriptor(), mi.getRoutingEntry(),
+        "/other", HttpMethod.GET, false);
+    assertSame(timer, MetricsHelper.recordHttpClientResponse(sample, "a", 200, "GET", mi2));
+    assertEquals(2, timer.count());
+    assertNotSame(timer, MetricsHelper.recordHttpClientResponse(sample, "a", 201, "GET", mi));
+    assertNotSame(timer, MetricsHelper.recordHttpClientResponse(sample, "b", 200, "GET", mi));
+    assertNotSame(timer, MetricsHelper.recordHttpServerProcessingTime(sample, "a", 200, "GET", mi));
+
+    // meters are resolved again after metrics has been restarted
+    MetricsUtil.stop();
+    MetricsUtil.init(new VertxOptions());
+    Timer timer2 = MetricsHelper.recordHttpClientResponse(sample, "a", 200, "GET", mi);
+    assertNotSame(timer, timer2);
+    assertEquals(1, timer2.count());
+  }
+
+  @Test
+  void testCardinalityPolicy() {
+    MetricsHelper.setCardinalityPolicy(CardinalityPolicy.builder()
+        .withTagKeys("tenant,method,url,userId")
+        .withTopK(2)
+        .withMaxSeries(3)
+        .build());
+    assertEquals(2, MetricsHelper.getCardinalityPolicy().getTopK());
+
+    Counter u1 = MetricsHelper.recordTokenCacheHit("t", "GET", "/a", "u1");
+    assertEquals("u1", u1.getId().getTag("userId"));
+    Counter u2 = MetricsHelper.recordTokenCacheHit("t", "GET", "/a", "u2");
+    assertEquals("u2", u2.getId().getTag("userId"));
+    Counter other = MetricsHelper.recordTokenCacheHit("t", "GET", "/a", "u3");
+    assertEquals(CardinalityPolicy.OTHER, other.getId().getTag("userId"));
+    assertSame(other, MetricsHelper.recordTokenCacheHit("t", "GET", "/a", "u4"));
+    assertEquals(2, other.count());
+
+    // fourth series is capped
+    assertNull(MetricsHelper.recordTokenCacheHit("t", "POST", "/a", "u1"));
+    assertNull(MetricsHelper.recordTokenCacheHit("t", "POST", "/a", "u1"));
+    Counter capped = MetricsUtil.getCounter(MeterCache.METRICS_CAPPED_SERIES,
+        Collections.singletonList(Tag.of("meter", MetricsHelper.METRICS_PREFIX
+            + ".tokenCache.hits")));
+    assertEquals(2, capped.count());
+
+    // tags that are not allowed are left out
+    Timer.Sample sample = MetricsHelper.getTimerSample();
+    Timer timer = MetricsHelper.recordHttpServerProcessingTime(sample, "t", 200, "GET",
+        createModuleInstance(true));
+    assertEquals("t", timer.getId().getTag("tenant"));
+    assertNull(timer.getId().getTag("code"));
+    assertNull(timer.getId().getTag("module"));
+    assertSame(timer, MetricsHelper.recordHttpServerProcessingTime(sample, "t", 404, "GET",
+        createModuleInstance(true)));
+  }
+
   @Test
   void testRecordTokenCacheEvent() {
     String userId = "03975dd7-8004-48cf-bd21-4d7ff2e74ca2";
@@ -137,6 +229,188 @@ class MetricsHelperTest {
     assertEquals(2, expiresCounter.count());
   }
 
+  @Test
+  void testRegisterTokenCacheGauges() {
+    assertTrue(MetricsHelper.registerTokenCacheGauges(TokenCache.builder().build()));
+  }
+
+  @Test
+  void testTally() {
+    Tally a = MetricsHelper.tally(MetricsHelper.METRICS_PREFIX + ".testTally", "m");
+    Tally b = MetricsHelper.tally(MetricsHelper.METRICS_PREFIX + ".testTally", "m");
+    Tally c = MetricsHelper.tally(MetricsHelper.METRICS_PREFIX + ".testTally", null);
+    a.increment();
+    b.add(2);
+    c.increment();
+    assertEquals(1, a.sum());
+    assertEquals(2, b.sum());
+    assertEquals(3, a.total());
+    assertEquals(3, b.total());
+    assertEquals(1, c.total());
+  }
+
+  @Test
+  void testRegisterLatestGauge() {
+    String name = MetricsHelper.METRICS_PREFIX + ".testLatest";
+    List<Tag> tags = new ArrayList<>();
+    Gauge gauge = MetricsHelper.registerLatestGauge(name, tags, "ab", String::length);
+    assertEquals(2, gauge.value());
+    // later instances are reported; earlier ones are not kept
+    assertSame(gauge, MetricsHelper.registerLatestGauge(name, tags, "abc", String::length));
+    assertEquals(3, gauge.value());
+    MetricsUtil.stop();
+    assertNull(MetricsHelper.registerLatestGauge(name, tags, "abcd", String::length));
+  }
+
+  @Test
+  void testRegisterBodyBufferGauges() {
+    assertTrue(MetricsHelper.registerBodyBufferGauges());
+  }
+
+  @Test
+  void testRegisterLoadBalancerGauges() {
+    assertTrue(MetricsHelper.registerLoadBalancerGauges(LoadBalancer.create("random")));
+  }
+
+  @Test
+  void testRegisterProxyClientGauges() {
+    assertTrue(MetricsHelper.registerProxyClientGauges(
+        new ProxyClients.Pool("m", mock(HttpClient.class))));
+  }
+
+  @Test
+  void testRegisterConcurrencyLimitGauges() {
+    assertTrue(MetricsHelper.registerConcurrencyLimitGauges(
+        ConcurrencyLimiter.builder().build().getLimit("m-1.0.0")));
+    String name = MetricsHelper.METRICS_CONCURRENCY_REJECTED;
+    long total = MetricsHelper.tally(name, "m").total();
+    for (int i = 0; i < 2; i++) {
+      ConcurrencyLimiter.Limit limit = ConcurrencyLimiter.builder().withMaxLimit(1).build()
+          .getLimit("m-1.0.0");
+      assertTrue(limit.tryAcquire());
+      assertFalse(limit.tryAcquire());
+      assertEquals(1, limit.getRejected());
+    }
+    // rejections of all limiters are counted
+    assertEquals(total + 2, MetricsHelper.tally(name, "m").total());
+  }
+
+  @Test
+  void testRegisterTenantLimitGauges() {
+    assertTrue(MetricsHelper.registerTenantLimitGauges(
+        TenantLimiter.builder().build(mock(Vertx.class))));
+  }
+
+  @Test
+  void testHttpTimersAfterReload() {
+    String descriptor = Json.encode(createModuleInstance(false).getModuleDescriptor());
+    String entry = Json.encode(createModuleInstance(false).getRoutingEntry());
+    Timer.Sample sample = MetricsHelper.getTimerSample();
+    MetricsHelper.recordHttpClientResponse(sample, "a", 200, "GET",
+        createModuleInstance(false));
+    int count = MetricsHelper.getCachedMeterCount();
+    // modules are decoded again each time they are reloaded
+    for (int i = 0; i < 100; i++) {
+      ModuleInstance mi = new ModuleInstance(
+          Json.decodeValue(descriptor, ModuleDescriptor.class),
+          Json.decodeValue(entry, RoutingEntry.class), "/", HttpMethod.GET, false);
+      assertEquals(i + 2,
+          MetricsHelper.recordHttpClientResponse(sample, "a", 200, "GET", mi).count());
+    }
+    assertEquals(count, MetricsHelper.getCachedMeterCount());
+  }
+
+  @Test
+  void testResponseCache() {
+    Counter counter = MetricsHelper.recordResponseCache("a", "hit");
+    assertEquals(1, counter.count());
+    MetricsHelper.recordResponseCache("a", "hit");
+    assertEquals(2, counter.count());
+    assertEquals(1, MetricsHelper.recordResponseCache("a", "miss").count());
+    assertTrue(MetricsHelper.registerResponseCacheGauges(ResponseCache.builder().build()));
+
+    String name = MetricsHelper.METRICS_RESPONSE_CACHE_HIT_COUNT;
+    long hits = MetricsHelper.tally(name, null).total();
+    ResponseCache a = ResponseCache.builder().build();
+    ResponseCache b = ResponseCache.builder().build();
+    a.recordHit();
+    b.recordHit();
+    assertEquals(1, a.getHitCount());
+    // hits of all caches are counted
+    assertEquals(hits + 2, MetricsHelper.tally(name, null).total());
+  }
+
+  @Test
+  void testRegisterCoalescerGauges() {
+    assertTrue(MetricsHelper.registerCoalescerGauges(new Coalescer<>()));
+    String name = MetricsHelper.METRICS_COALESCE_UPSTREAM;
+    long upstream = MetricsHelper.tally(name, null).total();
+    new Coalescer<String, String>().execute("a", () -> Future.succeededFuture("x"));
+    new Coalescer<String, String>().execute("a", () -> Future.succeededFuture("x"));
+    // calls of all coalescers are counted
+    assertEquals(upstream + 2, MetricsHelper.tally(name, null).total());
+  }
+
+  @Test
+  void testCoalescerGauge() {
+    Coalescer<String, String> coalescer = new Coalescer<>();
+    coalescer.execute("a", () -> Promise.<String>promise().future());
+    // registering again returns the gauge that the coalescer registered
+    Gauge gauge = MetricsUtil.registerGauge(MetricsHelper.METRICS_COALESCE_IN_FLIGHT,
+        new ArrayList<>(), "", x -> 0);
+    assertEquals(1.0, gauge.value());
+  }
+
+  @Test
+  void testHedgeCounts() {
+    long requests = MetricsHelper.tally(MetricsHelper.METRICS_HEDGE_REQUESTS, "m").total();
+    long wins = MetricsHelper.tally(MetricsHelper.METRICS_HEDGE_WINS, "m").total();
+    Hedger.Module a = new Hedger.Module("m", 95, 5.0);
+    Hedger.Module b = new Hedger.Module("m", 95, 5.0);
+    a.start();
+    b.start();
+    b.win();
+    assertEquals(1, a.getRequests());
+    assertEquals(0, a.getWins());
+    // counts of all modules with the same name are reported
+    assertEquals(requests + 2,
+        MetricsHelper.tally(MetricsHelper.METRICS_HEDGE_REQUESTS, "m").total());
+    assertEquals(wins + 1, MetricsHelper.tally(MetricsHelper.METRICS_HEDGE_WINS, "m").total());
+  }
+
+  @Test
+  void testRecordTenantLimit() {
+    Counter counter = MetricsHelper.recordTenantLimitRejection("a", "rate");
+    assertEquals(1, counter.count());
+    MetricsHelper.recordTenantLimitRejection("a", "rate");
+    assertEquals(2, counter.count());
+    assertEquals(1, MetricsHelper.recordTenantLimitRejection("a", "queue").count());
+
+    Timer timer = MetricsHelper.recordTenantLimitQueueTime("a", 2000000);
+    MetricsHelper.recordTenantLimitQueueTime("a", 4000000);
+    assertEquals(2, timer.count());
+    assertEquals(6, timer.totalTime(TimeUnit.MILLISECONDS), 0.01);
+  }
+
+  @Test
+  void testRecordLoadBalancerEjection() {
+    Counter counter = MetricsHelper.recordLoadBalancerEjection("m-1.0.0");
+    assertEquals(1, counter.count());
+    MetricsHelper.recordLoadBalancerEjection("m-1.0.0");
+    assertEquals(2, counter.count());
+    assertEquals(1, MetricsHelper.recordLoadBalancerEjection("n-1.0.0").count());
+  }
+
+  @Test
+  void testRecordRequestLog() {
+    Counter counter = MetricsHelper.recordRequestLogDropped("m-1.0.0", 100);
+    assertEquals(100, counter.count());
+    MetricsHelper.recordRequestLogDropped("m-1.0.0", 50);
+    assertEquals(150, counter.count());
+    assertEquals(10, MetricsHelper.recordRequestLogDropped("n-1.0.0", 10).count());
+    assertEquals(20, MetricsHelper.recordRequestLogSpilled("m-1.0.0", 20).count());
+  }
+
   @Test
   void testRecordHttpClientError() {
     Counter counter = MetricsHelper.recordHttpClientError("a", "GET", "/a");
@@ -146,11 +420,22 @@ class MetricsHelperTest {
     assertEquals(2, counter.count());
   }
 
+  @Test
+  void testRecordHttpClientTimeout() {
+    Counter counter = MetricsHelper.recordHttpClientTimeout("m-1.0.0", "/a");
+    assertEquals(1, counter.count());
+    MetricsHelper.recordHttpClientTimeout("m-1.0.0", "/a");
+    assertEquals(2, counter.count());
+    assertEquals(1, MetricsHelper.recordHttpClientTimeout("m-1.0.0", "/b").count());
+  }
+
   @Test
   void testRecordCodeExecutionTime() {
     Timer.Sample sample = MetricsHelper.getTimerSample();
     Timer timer = MetricsHelper.recordCodeExecutionTime(sample, "a");
     assertEquals(1, timer.count());
+    assertSame(timer, MetricsHelper.recordCodeExecutionTime(sample, "a"));
+    assertEquals(2, timer.count());
   }
 
   private ModuleInstance createModuleInstance(boolean handler) {
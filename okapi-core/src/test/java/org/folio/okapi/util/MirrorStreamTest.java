@@ -0,0 +1,195 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class MirrorStreamTest {
+
+  private Vertx vertx;
+
+  /**
+   * Target whose write queue is full until drained.
+   */
+  static class Target implements WriteStream<Buffer> {
+    Buffer received = Buffer.buffer();
+    boolean full;
+    boolean ended;
+    Handler<Void> drainHandler;
+
+    void drain() {
+      full = false;
+      Handler<Void> h = drainHandler;
+      drainHandler = null;
+      if (h != null) {
+        h.handle(null);
+      }
+    }
+
+    @Override
+    public Target exceptionHandler(Handler<Throwable> handler) {
+      return this;
+    }
+
+    @Override
+    public Future<Void> write(Buffer data) {
+      received.appendBuffer(data);
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public void write(Buffer data, Handler<AsyncResult<Void>> handler) {
+      write(data).onComplete(handler);
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+      ended = true;
+      handler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public Target setWriteQueueMaxSize(int maxSize) {
+      return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+      return full;
+    }
+
+    @Override
+    public Target drainHandler(Handler<Void> handler) {
+      drainHandler = handler;
+      return this;
+    }
+  }
+
+  @Before
+  public void setUp(TestContext context) {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testDirect(TestContext context) {
+    Target target = new Target();
+    MirrorStream mirror = MirrorStream.builder().withName("m").build(target);
+    mirror.write(Buffer.buffer("ab"));
+    mirror.end(Buffer.buffer("cd"));
+    context.assertEquals("abcd", target.received.toString());
+    context.assertTrue(target.ended);
+    context.assertEquals(0L, mirror.getDropped());
+  }
+
+  @Test
+  public void testBuffer(TestContext context) {
+    Target target = new Target();
+    target.full = true;
+    MirrorStream mirror = MirrorStream.builder().withName("m").withMemoryLimit(6).build(target);
+    mirror.write(Buffer.buffer("ab"));
+    mirror.write(Buffer.buffer("cd"));
+    context.assertFalse(mirror.writeQueueFull());
+    mirror.write(Buffer.buffer("ef"));
+    mirror.end();
+    context.assertEquals("", target.received.toString());
+    context.assertFalse(target.ended);
+
+    target.drain();
+    context.assertEquals("abcdef", target.received.toString());
+    context.assertTrue(target.ended);
+    context.assertFalse(mirror.isAborted());
+  }
+
+  @Test
+  public void testDrop(TestContext context) {
+    Target target = new Target();
+    target.full = true;
+    AtomicInteger aborts = new AtomicInteger();
+    MirrorStream mirror = MirrorStream.builder().withName("m").withMemoryLimit(10).build(target)
+        .abortHandler(x -> aborts.incrementAndGet());
+    mirror.write(Buffer.buffer("abcdef"));
+    context.assertEquals(0, aborts.get());
+    mirror.write(Buffer.buffer("ghijkl"));
+    context.assertEquals(1, aborts.get());
+    context.assertTrue(mirror.isAborted());
+    context.assertEquals(12L, mirror.getDropped());
+
+    mirror.write(Buffer.buffer("mn"));
+    context.assertEquals(14L, mirror.getDropped());
+    mirror.end().onComplete(context.asyncAssertSuccess());
+    target.drain();
+    context.assertEquals("", target.received.toString());
+    context.assertFalse(target.ended);
+    context.assertEquals(1, aborts.get());
+  }
+
+  @Test
+  public void testSpill(TestContext context) {
+    Async async = context.async();
+    // file operations complete on the context of the stream
+    vertx.runOnContext(y -> {
+      Target target = new Target();
+      target.full = true;
+      MirrorStream mirror = MirrorStream.builder()
+          .withName("m")
+          .withMemoryLimit(4)
+          .withSpillLimit(8)
+          .withFileSystem(vertx.fileSystem())
+          .build(target);
+      mirror.write(Buffer.buffer("abcd"));
+      mirror.write(Buffer.buffer("efgh"));
+      mirror.write(Buffer.buffer("ijkl"));
+      context.assertEquals(8L, mirror.getSpilled());
+      mirror.end().onComplete(context.asyncAssertSuccess(x -> {
+        context.assertEquals("abcdefghijkl", target.received.toString());
+        context.assertTrue(target.ended);
+        context.assertEquals(0L, mirror.getDropped());
+        async.complete();
+      }));
+      target.drain();
+      context.assertEquals("abcd", target.received.toString());
+    });
+  }
+
+  @Test
+  public void testSpillLimit(TestContext context) {
+    Async async = context.async();
+    vertx.runOnContext(y -> {
+      Target target = new Target();
+      target.full = true;
+      AtomicInteger aborts = new AtomicInteger();
+      MirrorStream mirror = MirrorStream.builder()
+          .withName("m")
+          .withMemoryLimit(4)
+          .withSpillLimit(4)
+          .withFileSystem(vertx.fileSystem())
+          .build(target)
+          .abortHandler(x -> aborts.incrementAndGet());
+      mirror.write(Buffer.buffer("abcd"));
+      mirror.write(Buffer.buffer("efgh"));
+      context.assertEquals(0, aborts.get());
+      mirror.write(Buffer.buffer("ijkl"));
+      context.assertEquals(1, aborts.get());
+      context.assertEquals(4L, mirror.getSpilled());
+      context.assertEquals(12L, mirror.getDropped());
+      async.complete();
+    });
+  }
+}
@@ -0,0 +1,124 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.http.HttpMethod;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.folio.okapi.bean.ModuleDescriptor;
+import org.folio.okapi.bean.ModuleInstance;
+import org.folio.okapi.bean.RoutingEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare prefix walk lookup with {@link RoutingTrie} lookup.
+ *
+ * <p>Not run as part of the unit tests. Run with main after
+ * {@code mvn test-compile} using the test classpath of okapi-core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModuleCacheBenchmark {
+
+  @Param({"10", "100"})
+  int modules;
+
+  private final Map<String, List<ModuleCache.ModuleCacheEntry>> filterMap = new HashMap<>();
+  private final Map<String, List<ModuleCache.ModuleCacheEntry>> proxyMap = new HashMap<>();
+  private RoutingTrie filterTrie;
+  private RoutingTrie proxyTrie;
+  private String[] uris;
+  private int next;
+
+  static RoutingEntry routingEntry(String pattern, String method, String phase) {
+    RoutingEntry routingEntry = new RoutingEntry();
+    routingEntry.setPathPattern(pattern);
+    routingEntry.setMethods(new String[] {method});
+    routingEntry.setPhase(phase);
+    return routingEntry;
+  }
+
+  @Setup
+  public void setup() {
+    filterTrie = new RoutingTrie();
+    proxyTrie = new RoutingTrie();
+
+    ModuleDescriptor auth = new ModuleDescriptor();
+    auth.setId("mod-auth-1.0.0");
+    List<RoutingEntry> filters = new LinkedList<>();
+    filters.add(routingEntry("/*", "*", "auth"));
+    filters.add(routingEntry("/users*", "*", "pre"));
+    PrefixWalk.add(auth, filterMap, filters);
+    filterTrie.add(auth, filters);
+
+    uris = new String[modules * 4];
+    for (int i = 0; i < modules; i++) {
+      ModuleDescriptor md = new ModuleDescriptor();
+      md.setId("mod-" + i + "-1.0.0");
+      String base = "/module" + i + "/items";
+      List<RoutingEntry> handlers = new LinkedList<>();
+      handlers.add(routingEntry(base, "GET", null));
+      handlers.add(routingEntry(base, "POST", null));
+      handlers.add(routingEntry(base + "/{id}", "GET", null));
+      handlers.add(routingEntry(base + "/{id}", "PUT", null));
+      handlers.add(routingEntry(base + "/{id}", "DELETE", null));
+      handlers.add(routingEntry(base + "/{id}/notes/{noteId}", "GET", null));
+      handlers.add(routingEntry("/module" + i + "/batch*", "POST", null));
+      PrefixWalk.add(md, proxyMap, handlers);
+      proxyTrie.add(md, handlers);
+
+      uris[4 * i] = base + "?limit=10&query=cql.allRecords%3D1";
+      uris[4 * i + 1] = base + "/4cbc5f7e-4d4c-4a3b-a5c6-2a1a9c0e2f11";
+      uris[4 * i + 2] = base + "/4cbc5f7e-4d4c-4a3b-a5c6-2a1a9c0e2f11/notes/42";
+      uris[4 * i + 3] = "/module" + i + "/unknown/path";
+    }
+    filterTrie.compile();
+    proxyTrie.compile();
+  }
+
+  private String nextUri() {
+    String uri = uris[next];
+    next = (next + 1) % uris.length;
+    return uri;
+  }
+
+  @Benchmark
+  public int prefixWalk() {
+    String uri = nextUri();
+    List<ModuleInstance> filters = PrefixWalk.lookup(uri, HttpMethod.GET, filterMap, false, null);
+    List<ModuleInstance> handler = PrefixWalk.lookup(uri, HttpMethod.GET, proxyMap, true, null);
+    return filters.size() + handler.size();
+  }
+
+  @Benchmark
+  public int trie() {
+    String uri = nextUri();
+    List<ModuleInstance> filters = ModuleCache.lookup(uri, HttpMethod.GET, filterTrie, false, null);
+    List<ModuleInstance> handler = ModuleCache.lookup(uri, HttpMethod.GET, proxyTrie, true, null);
+    return filters.size() + handler.size();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ModuleCacheBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
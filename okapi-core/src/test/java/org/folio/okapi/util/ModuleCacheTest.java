@@ -1,5 +1,6 @@
 package org.folio.okapi.util;
 
+import io.vertx.core.MultiMap;
 import io.vertx.core.http.HttpMethod;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -10,6 +11,7 @@ import org.folio.okapi.bean.InterfaceDescriptor;
 import org.folio.okapi.bean.ModuleDescriptor;
 import org.folio.okapi.bean.ModuleInstance;
 import org.folio.okapi.bean.RoutingEntry;
+import org.folio.okapi.common.XOkapiHeaders;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -50,10 +52,10 @@ class ModuleCacheTest {
   void testLookupEmpty() {
     Map<String, List<ModuleCache.ModuleCacheEntry>> map = new HashMap<>();
 
-    assertThat(ModuleCache.lookup("", HttpMethod.GET, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/", HttpMethod.GET, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/a", HttpMethod.GET, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/a/b", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/a", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/a/b", HttpMethod.GET, map, true, null)).isEmpty();
   }
 
   @Test
@@ -87,49 +89,49 @@ class ModuleCacheTest {
     routingEntries.add(routingEntry6);
 
     Map<String, List<ModuleCache.ModuleCacheEntry>> map = new HashMap<>();
-    ModuleCache.add(md, map, routingEntries);
+    PrefixWalk.add(md, map, routingEntries);
 
-    assertThat(ModuleCache.lookup("", HttpMethod.GET, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/", HttpMethod.GET, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/a", HttpMethod.GET, map, true, null)).isEmpty();
-    List<ModuleInstance> instances = ModuleCache.lookup("/a/b", HttpMethod.GET, map, true, null);
+    assertThat(PrefixWalk.lookup("", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/a", HttpMethod.GET, map, true, null)).isEmpty();
+    List<ModuleInstance> instances = PrefixWalk.lookup("/a/b", HttpMethod.GET, map, true, null);
 
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry1);
 
-    instances = ModuleCache.lookup("/a/b", HttpMethod.GET, map, true, "module-1.0.0");
+    instances = PrefixWalk.lookup("/a/b", HttpMethod.GET, map, true, "module-1.0.0");
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry1);
 
-    assertThat(ModuleCache.lookup("/a", HttpMethod.GET, map, true, "other-1.0.0")).isEmpty();
+    assertThat(PrefixWalk.lookup("/a", HttpMethod.GET, map, true, "other-1.0.0")).isEmpty();
 
-    instances = ModuleCache.lookup("/a/b", HttpMethod.POST, map, true, null);
+    instances = PrefixWalk.lookup("/a/b", HttpMethod.POST, map, true, null);
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry2);
 
-    assertThat(ModuleCache.lookup("/a", HttpMethod.PUT, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/a/b/", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/a", HttpMethod.PUT, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/a/b/", HttpMethod.GET, map, true, null)).isEmpty();
 
-    instances = ModuleCache.lookup("/a/b/id/c", HttpMethod.GET, map, true, null);
+    instances = PrefixWalk.lookup("/a/b/id/c", HttpMethod.GET, map, true, null);
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry3);
 
-    instances = ModuleCache.lookup("/p/id/y", HttpMethod.GET, map, true, null);
+    instances = PrefixWalk.lookup("/p/id/y", HttpMethod.GET, map, true, null);
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry4);
 
-    assertThat(ModuleCache.lookup("/p/id/z", HttpMethod.GET, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/p/id", HttpMethod.GET, map, true, null)).isEmpty();
-    assertThat(ModuleCache.lookup("/p/id/y/z", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/p/id/z", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/p/id", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/p/id/y/z", HttpMethod.GET, map, true, null)).isEmpty();
 
-    instances = ModuleCache.lookup("/perms/users", HttpMethod.GET, map, true, null);
+    instances = PrefixWalk.lookup("/perms/users", HttpMethod.GET, map, true, null);
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry5);
 
-    instances = ModuleCache.lookup("/perms/users/y", HttpMethod.GET, map, true, null);
+    instances = PrefixWalk.lookup("/perms/users/y", HttpMethod.GET, map, true, null);
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry5);
 
-    instances = ModuleCache.lookup("/perms/users1", HttpMethod.GET, map, true, null);
+    instances = PrefixWalk.lookup("/perms/users1", HttpMethod.GET, map, true, null);
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry5);
 
-    assertThat(ModuleCache.lookup("/perms/user", HttpMethod.GET, map, true, null)).isEmpty();
+    assertThat(PrefixWalk.lookup("/perms/user", HttpMethod.GET, map, true, null)).isEmpty();
 
-    assertThat(ModuleCache.lookup("/old/foo", HttpMethod.GET, map, true, null)).isEmpty();
-    instances = ModuleCache.lookup("/old/type", HttpMethod.GET, map, true, null);
+    assertThat(PrefixWalk.lookup("/old/foo", HttpMethod.GET, map, true, null)).isEmpty();
+    instances = PrefixWalk.lookup("/old/type", HttpMethod.GET, map, true, null);
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry6);
   }
 
@@ -323,5 +325,199 @@ class ModuleCacheTest {
     assertThat(instances).extracting(routingEntry).containsExactly(routingEntry3, routingEntry2, routingEntry1);
   }
 
+  @Test
+  void testGetPipeline() {
+    RoutingEntry[] handlers = new RoutingEntry[1];
+    RoutingEntry handler = handlers[0] = new RoutingEntry();
+    handler.setPathPattern("/a/{id}");
+    handler.setMethods(new String[] {"GET"});
+
+    InterfaceDescriptor[] interfaceDescriptors = new InterfaceDescriptor[1];
+    InterfaceDescriptor interfaceDescriptor = interfaceDescriptors[0] = new InterfaceDescriptor();
+    interfaceDescriptor.setId("int");
+    interfaceDescriptor.setHandlers(handlers);
+
+    RoutingEntry[] filters = new RoutingEntry[2];
+    RoutingEntry postFilter = filters[0] = new RoutingEntry();
+    postFilter.setPathPattern("/*");
+    postFilter.setMethods(new String[] {"*"});
+    postFilter.setPhase("post");
+    RoutingEntry authFilter = filters[1] = new RoutingEntry();
+    authFilter.setPathPattern("/*");
+    authFilter.setMethods(new String[] {"*"});
+    authFilter.setPhase("auth");
 
+    ModuleDescriptor md = new ModuleDescriptor();
+    md.setId("module-1.0.0");
+    md.setProvides(interfaceDescriptors);
+    md.setFilters(filters);
+
+    List<ModuleDescriptor> modules = new LinkedList<>();
+    modules.add(md);
+    ModuleCache moduleCache = new ModuleCache(modules);
+
+    PipelineTemplate pipeline = moduleCache.getPipeline("/a/1", HttpMethod.GET, null);
+    List<ModuleInstance> instances = pipeline.getModuleInstances("/a/1", HttpMethod.GET);
+    assertThat(instances).extracting(routingEntry)
+        .containsExactly(authFilter, handler, postFilter);
+    assertThat(instances).extracting(ModuleInstance::getPath).containsOnly("/a/1");
+    assertThat(instances).extracting(ModuleInstance::isHandler)
+        .containsExactly(false, true, false);
+
+    // same shape, same pipeline; new instances each time
+    assertThat(moduleCache.getPipeline("/a/2?q=1", HttpMethod.GET, null)).isSameAs(pipeline);
+    List<ModuleInstance> instances2 = pipeline.getModuleInstances("/a/2?q=1", HttpMethod.GET);
+    assertThat(instances2).extracting(ModuleInstance::getPath).containsOnly("/a/2?q=1");
+    assertThat(instances2.get(0)).isNotSameAs(instances.get(0));
+
+    PipelineTemplate post = moduleCache.getPipeline("/a/1", HttpMethod.POST, null);
+    assertThat(post).isNotSameAs(pipeline);
+    assertThat(post.getModuleInstances("/a/1", HttpMethod.POST)).extracting(routingEntry)
+        .containsExactly(authFilter, postFilter);
+
+    // rebuilt cache has its own pipelines
+    assertThat(new ModuleCache(modules).getPipeline("/a/1", HttpMethod.GET, null))
+        .isNotSameAs(pipeline);
+  }
+
+  @Test
+  void testGetPipelineEviction() {
+    RoutingEntry[] handlers = new RoutingEntry[1];
+    RoutingEntry handler = handlers[0] = new RoutingEntry();
+    handler.setPathPattern("/a/{id}");
+    handler.setMethods(new String[] {"*"});
+    InterfaceDescriptor[] interfaceDescriptors = new InterfaceDescriptor[1];
+    InterfaceDescriptor interfaceDescriptor = interfaceDescriptors[0] = new InterfaceDescriptor();
+    interfaceDescriptor.setId("a");
+    interfaceDescriptor.setVersion("1.0");
+    interfaceDescriptor.setHandlers(handlers);
+    ModuleDescriptor md = new ModuleDescriptor();
+    md.setId("module-1.0.0");
+    md.setProvides(interfaceDescriptors);
+
+    List<ModuleDescriptor> modules = new LinkedList<>();
+    modules.add(md);
+    ModuleCache moduleCache = new ModuleCache(modules, 2);
+
+    PipelineTemplate get = moduleCache.getPipeline("/a/1", HttpMethod.GET, null);
+    PipelineTemplate post = moduleCache.getPipeline("/a/1", HttpMethod.POST, null);
+    assertThat(moduleCache.getPipeline("/a/2", HttpMethod.GET, null)).isSameAs(get);
+    assertThat(moduleCache.pipelineCount()).isEqualTo(2);
+
+    // POST is least recently used, so it is evicted
+    PipelineTemplate put = moduleCache.getPipeline("/a/1", HttpMethod.PUT, null);
+    assertThat(moduleCache.pipelineCount()).isEqualTo(2);
+    assertThat(moduleCache.getPipeline("/a/1", HttpMethod.PUT, null)).isSameAs(put);
+    assertThat(moduleCache.getPipeline("/a/1", HttpMethod.GET, null)).isSameAs(get);
+    assertThat(moduleCache.getPipeline("/a/1", HttpMethod.POST, null)).isNotSameAs(post);
+    assertThat(moduleCache.pipelineCount()).isEqualTo(2);
+  }
+
+  @Test
+  void testGetPipelineAuthPermissions() {
+    RoutingEntry[] handlers = new RoutingEntry[1];
+    RoutingEntry handler = handlers[0] = new RoutingEntry();
+    handler.setPathPattern("/a/{id}");
+    handler.setMethods(new String[] {"GET"});
+    handler.setPermissionsRequired(new String[] {"a.get"});
+    handler.setPermissionsDesired(new String[] {"a.all"});
+    handler.setModulePermissions(new String[] {"b.get"});
+
+    InterfaceDescriptor[] interfaceDescriptors = new InterfaceDescriptor[1];
+    InterfaceDescriptor interfaceDescriptor = interfaceDescriptors[0] = new InterfaceDescriptor();
+    interfaceDescriptor.setId("int");
+    interfaceDescriptor.setHandlers(handlers);
+
+    ModuleDescriptor md = new ModuleDescriptor();
+    md.setId("module-1.0.0");
+    md.setProvides(interfaceDescriptors);
+
+    List<ModuleDescriptor> modules = new LinkedList<>();
+    modules.add(md);
+    ModuleCache moduleCache = new ModuleCache(modules);
+
+    PipelineTemplate pipeline = moduleCache.getPipeline("/a/1", HttpMethod.GET, null);
+    List<ModuleInstance> instances = pipeline.getModuleInstances("/a/1", HttpMethod.GET);
+    AuthPermissions permissions = pipeline.getAuthPermissions(instances, "t", false);
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+    permissions.addTo(headers);
+    assertThat(headers.get(XOkapiHeaders.PERMISSIONS_REQUIRED)).isEqualTo("a.get");
+    assertThat(headers.get(XOkapiHeaders.PERMISSIONS_DESIRED)).isEqualTo("a.all");
+    assertThat(headers.get(XOkapiHeaders.MODULE_PERMISSIONS))
+        .isEqualTo("{\"module-1.0.0\":[\"b.get\"]}");
+    assertThat(headers.get(XOkapiHeaders.EXTRA_PERMISSIONS)).isNull();
+
+    // same for other requests of the pipeline
+    assertThat(pipeline.getAuthPermissions(pipeline.getModuleInstances("/a/2", HttpMethod.GET),
+        "t", false)).isSameAs(permissions);
+
+    // expanded module permissions are kept separately
+    AuthPermissions expanded = pipeline.getAuthPermissions(instances, "t", true);
+    assertThat(expanded).isNotSameAs(permissions);
+    assertThat(pipeline.getAuthPermissions(instances, "t", true)).isSameAs(expanded);
+    headers = MultiMap.caseInsensitiveMultiMap();
+    expanded.addTo(headers);
+    assertThat(headers.get(XOkapiHeaders.MODULE_PERMISSIONS))
+        .isEqualTo("{\"module-1.0.0\":[\"" + handler.generateSystemId("module-1.0.0")
+            + "\"]}");
+
+    // tenant specific permissions depend on the request
+    handler.setPermissionsRequiredTenant(new String[] {"a.tenant"});
+    pipeline = new ModuleCache(modules).getPipeline("/a/1", HttpMethod.GET, null);
+    instances = pipeline.getModuleInstances("/a/1", HttpMethod.GET);
+    assertThat(pipeline.getAuthPermissions(instances, "t", false))
+        .isNotSameAs(pipeline.getAuthPermissions(instances, "t", false));
+  }
+
+  @Test
+  void testGetPipelineRedirect() {
+    RoutingEntry[] filters = new RoutingEntry[2];
+    RoutingEntry routingEntry2 = filters[0] = new RoutingEntry();
+    routingEntry2.setPathPattern("/second");
+    routingEntry2.setRedirectPath("/real");
+    routingEntry2.setType("redirect");
+    routingEntry2.setMethods(new String[] {"GET"});
+    RoutingEntry routingEntry3 = filters[1] = new RoutingEntry();
+    routingEntry3.setPathPattern("/third");
+    routingEntry3.setRedirectPath("/second");
+    routingEntry3.setType("redirect");
+    routingEntry3.setMethods(new String[] {"GET"});
+
+    ModuleDescriptor filterModule = new ModuleDescriptor();
+    filterModule.setId("filter-1.0.0");
+    filterModule.setFilters(filters);
+
+    List<ModuleDescriptor> modules = new LinkedList<>();
+    modules.add(filterModule);
+    ModuleCache moduleCache = new ModuleCache(modules);
+    IllegalArgumentException ex = Assertions.assertThrows(IllegalArgumentException.class,
+        () -> moduleCache.getPipeline("/third?a=1", HttpMethod.GET, null));
+    assertThat(ex.getMessage()).contains("Redirecting /second?a=1 to /real FAILED");
+
+    RoutingEntry[] handlers = new RoutingEntry[1];
+    RoutingEntry routingEntry1 = handlers[0] = new RoutingEntry();
+    routingEntry1.setPathPattern("/real");
+    routingEntry1.setMethods(new String[] {"GET"});
+    InterfaceDescriptor[] interfaceDescriptors = new InterfaceDescriptor[1];
+    InterfaceDescriptor interfaceDescriptor = interfaceDescriptors[0] = new InterfaceDescriptor();
+    interfaceDescriptor.setId("int");
+    interfaceDescriptor.setHandlers(handlers);
+    ModuleDescriptor regularModule = new ModuleDescriptor();
+    regularModule.setProvides(interfaceDescriptors);
+    regularModule.setId("regular-1.0.0");
+    modules.add(regularModule);
+    ModuleCache moduleCache2 = new ModuleCache(modules);
+
+    PipelineTemplate pipeline = moduleCache2.getPipeline("/third?a=1", HttpMethod.GET, null);
+    List<ModuleInstance> instances = pipeline.getModuleInstances("/third?a=1", HttpMethod.GET);
+    assertThat(instances).extracting(routingEntry)
+        .containsExactly(routingEntry3, routingEntry2, routingEntry1);
+    assertThat(instances).extracting(ModuleInstance::getPath)
+        .containsExactly("/third?a=1", "/second?a=1", "/real?a=1");
+
+    assertThat(moduleCache2.getPipeline("/third?a=2", HttpMethod.GET, null)).isSameAs(pipeline);
+    assertThat(pipeline.getModuleInstances("/third?a=2", HttpMethod.GET))
+        .extracting(ModuleInstance::getPath)
+        .containsExactly("/third?a=2", "/second?a=2", "/real?a=2");
+  }
 }
@@ -0,0 +1,41 @@
+package org.folio.okapi.util;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OutlierPolicyTest {
+
+  @Test
+  void testDefaults() {
+    OutlierPolicy policy = OutlierPolicy.builder().build();
+    assertThat(policy.isEnabled()).isTrue();
+    assertThat(policy.getConsecutiveFailures())
+        .isEqualTo(OutlierPolicy.DEFAULT_CONSECUTIVE_FAILURES);
+    assertThat(policy.getErrorRate()).isEqualTo(OutlierPolicy.DEFAULT_ERROR_RATE);
+    assertThat(policy.getMinRequests()).isEqualTo(OutlierPolicy.DEFAULT_MIN_REQUESTS);
+    assertThat(policy.getIntervalMs()).isEqualTo(OutlierPolicy.DEFAULT_INTERVAL_MS);
+    assertThat(policy.toString()).contains("ejectionMs=30000");
+    assertThat(OutlierPolicy.builder().withEjectionMs(0).build().isEnabled()).isFalse();
+  }
+
+  @Test
+  void testEjectionMs() {
+    OutlierPolicy policy = OutlierPolicy.builder().withEjectionMs(1000).build();
+    assertThat(policy.getEjectionMs(0)).isEqualTo(1000);
+    assertThat(policy.getEjectionMs(1)).isEqualTo(2000);
+    assertThat(policy.getEjectionMs(3)).isEqualTo(8000);
+    assertThat(policy.getEjectionMs(4)).isEqualTo(10000);
+    assertThat(policy.getEjectionMs(Integer.MAX_VALUE)).isEqualTo(10000);
+  }
+
+  @Test
+  void testIsFailure() {
+    assertThat(OutlierPolicy.isFailure(0)).isTrue();
+    assertThat(OutlierPolicy.isFailure(502)).isTrue();
+    assertThat(OutlierPolicy.isFailure(503)).isTrue();
+    assertThat(OutlierPolicy.isFailure(504)).isTrue();
+    assertThat(OutlierPolicy.isFailure(200)).isFalse();
+    assertThat(OutlierPolicy.isFailure(404)).isFalse();
+    assertThat(OutlierPolicy.isFailure(500)).isFalse();
+  }
+}
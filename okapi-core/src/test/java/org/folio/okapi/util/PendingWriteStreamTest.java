@@ -0,0 +1,53 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class PendingWriteStreamTest {
+
+  @Test
+  public void testAvailable(TestContext context) {
+    Promise<MirrorStreamTest.Target> promise = Promise.promise();
+    PendingWriteStream<Buffer> stream = new PendingWriteStream<>(promise.future());
+    AtomicInteger drains = new AtomicInteger();
+    context.assertTrue(stream.writeQueueFull());
+    stream.drainHandler(x -> drains.incrementAndGet());
+    stream.write(Buffer.buffer("a")).onComplete(context.asyncAssertFailure());
+
+    MirrorStreamTest.Target target = new MirrorStreamTest.Target();
+    promise.complete(target);
+    context.assertEquals(1, drains.get());
+    context.assertFalse(stream.writeQueueFull());
+    stream.write(Buffer.buffer("bc")).onComplete(context.asyncAssertSuccess());
+    stream.end().onComplete(context.asyncAssertSuccess());
+    context.assertEquals("bc", target.received.toString());
+    context.assertTrue(target.ended);
+
+    // full as reported by the stream once available
+    target.full = true;
+    context.assertTrue(stream.writeQueueFull());
+    stream.drainHandler(x -> drains.incrementAndGet());
+    target.drain();
+    context.assertEquals(2, drains.get());
+  }
+
+  @Test
+  public void testFailed(TestContext context) {
+    Promise<MirrorStreamTest.Target> promise = Promise.promise();
+    PendingWriteStream<Buffer> stream = new PendingWriteStream<>(promise.future());
+    AtomicInteger drains = new AtomicInteger();
+    stream.drainHandler(x -> drains.incrementAndGet());
+    promise.fail("no connection");
+    context.assertEquals(1, drains.get());
+    context.assertFalse(stream.writeQueueFull());
+    // content is discarded
+    stream.write(Buffer.buffer("a")).onComplete(context.asyncAssertSuccess());
+    stream.end().onComplete(context.asyncAssertSuccess());
+  }
+}
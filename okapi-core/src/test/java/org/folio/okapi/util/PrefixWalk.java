@@ -0,0 +1,64 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.http.HttpMethod;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.folio.okapi.bean.ModuleDescriptor;
+import org.folio.okapi.bean.ModuleInstance;
+import org.folio.okapi.bean.RoutingEntry;
+import org.folio.okapi.util.ModuleCache.ModuleCacheEntry;
+
+/**
+ * Prefix walk lookup over a map of pattern prefixes. This is how ModuleCache
+ * looked up routing entries before {@link RoutingTrie}; kept as the reference
+ * implementation that the trie must agree with.
+ */
+final class PrefixWalk {
+
+  private PrefixWalk() {
+    throw new UnsupportedOperationException("PrefixWalk");
+  }
+
+  static void add(ModuleDescriptor moduleDescriptor, Map<String, List<ModuleCacheEntry>> map,
+                  List<RoutingEntry> entries) {
+    for (RoutingEntry routingEntry : entries) {
+      String prefix = ModuleCache.getPatternPrefix(routingEntry);
+      map.computeIfAbsent(prefix, k -> new LinkedList<>())
+          .add(new ModuleCacheEntry(moduleDescriptor, routingEntry));
+    }
+  }
+
+  static List<ModuleInstance> lookup(String uri, HttpMethod method, Map<String,
+      List<ModuleCacheEntry>> map, boolean handler, String id) {
+    List<ModuleInstance> instances = new LinkedList<>();
+    String tryUri = uri;
+    for (int index = 0; index < uri.length(); index++) {
+      if (uri.charAt(index) == '#' || uri.charAt(index) == '?') {
+        tryUri = tryUri.substring(0, index);
+        break;
+      }
+    }
+    while (true) {
+      List<ModuleCacheEntry> candidateInstances = map.get(tryUri);
+      if (candidateInstances != null) {
+        for (ModuleCacheEntry candiate : candidateInstances) {
+          if (candiate.routingEntry.match(uri, method.name())
+              && (id == null || id.equals(candiate.moduleDescriptor.getId()))) {
+            instances.add(new ModuleInstance(candiate.moduleDescriptor,
+                candiate.routingEntry, uri, method, handler));
+            if (handler) {
+              return instances;
+            }
+          }
+        }
+      }
+      int index = tryUri.lastIndexOf('/', tryUri.length() - 2);
+      if (index < 0) {
+        break;
+      }
+      tryUri = tryUri.substring(0, index + 1);
+    }
+    return instances;
+  }
+}
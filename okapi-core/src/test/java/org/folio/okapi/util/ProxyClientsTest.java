@@ -0,0 +1,134 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class ProxyClientsTest {
+
+  private Vertx vertx;
+  private HttpServer server;
+
+  @Before
+  public void setUp(TestContext context) {
+    vertx = Vertx.vertx();
+    server = vertx.createHttpServer()
+        .requestHandler(req -> req.response().end(req.version().name()));
+    server.listen(0, context.asyncAssertSuccess());
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  private ProxyClients create() {
+    return ProxyClients.builder()
+        .withPoolSize(10)
+        .withKeepAliveTimeout(5)
+        .withModules(new JsonObject()
+            .put("mod-a", new JsonObject()
+                .put(ProxyClients.HTTP2, true)
+                .put(ProxyClients.POOL_SIZE, 2)
+                .put(ProxyClients.HTTP2_MULTIPLEXING_LIMIT, 50))
+            .put("mod-b", new JsonObject()
+                .put(ProxyClients.POOL_SIZE, 20)
+                .put(ProxyClients.IDLE_TIMEOUT, 7)))
+        .build(vertx);
+  }
+
+  @Test
+  public void testOptions(TestContext context) {
+    ProxyClients clients = create();
+
+    HttpClientOptions opt = clients.getOptions("mod-a-1.0.0");
+    context.assertEquals(HttpVersion.HTTP_2, opt.getProtocolVersion());
+    context.assertFalse(opt.isHttp2ClearTextUpgrade());
+    context.assertEquals(2, opt.getHttp2MaxPoolSize());
+    context.assertEquals(50, opt.getHttp2MultiplexingLimit());
+    context.assertEquals(5, opt.getHttp2KeepAliveTimeout());
+
+    opt = clients.getOptions("mod-b-1.0.0");
+    context.assertEquals(HttpVersion.HTTP_1_1, opt.getProtocolVersion());
+    context.assertEquals(20, opt.getMaxPoolSize());
+    context.assertEquals(5, opt.getKeepAliveTimeout());
+    context.assertEquals(7, opt.getIdleTimeout());
+
+    opt = clients.getOptions("mod-c-1.0.0");
+    context.assertEquals(10, opt.getMaxPoolSize());
+    context.assertEquals(5, opt.getKeepAliveTimeout());
+    context.assertEquals(ProxyClients.DEFAULT_IDLE_TIMEOUT, opt.getIdleTimeout());
+
+    opt = ProxyClients.builder().withModules(null).build(vertx).getOptions("mod-a");
+    context.assertEquals(ProxyClients.DEFAULT_POOL_SIZE, opt.getMaxPoolSize());
+    context.assertEquals(ProxyClients.DEFAULT_KEEP_ALIVE_TIMEOUT, opt.getKeepAliveTimeout());
+  }
+
+  @Test
+  public void testBadModules(TestContext context) {
+    ProxyClients.Builder builder = ProxyClients.builder()
+        .withModules(new JsonObject().put("mod-a", "http2"));
+    try {
+      builder.build(vertx);
+      context.fail("expected ClassCastException");
+    } catch (ClassCastException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPoolPerProduct(TestContext context) {
+    ProxyClients clients = create();
+    ProxyClients.Pool pool = clients.getPool("mod-a-1.0.0");
+    context.assertEquals("mod-a", pool.getName());
+    context.assertEquals(pool, clients.getPool("mod-a-2.0.0"));
+    context.assertEquals(pool.getClient(), clients.get("mod-a-1.0.1"));
+    context.assertNotEquals(pool, clients.getPool("mod-b-1.0.0"));
+  }
+
+  private void get(TestContext context, ProxyClients clients, String moduleId,
+                   String expectVersion) {
+    Async async = context.async();
+    clients.get(moduleId).request(HttpMethod.GET, server.actualPort(), "localhost", "/")
+        .compose(req -> req.send().compose(HttpClientResponse::body))
+        .onComplete(context.asyncAssertSuccess(body -> {
+          context.assertEquals(expectVersion, body.toString());
+          async.complete();
+        }));
+    async.await();
+  }
+
+  @Test
+  public void testConnections(TestContext context) {
+    ProxyClients clients = create();
+
+    get(context, clients, "mod-a-1.0.0", "HTTP_2");
+    get(context, clients, "mod-a-1.0.0", "HTTP_2");
+    ProxyClients.Pool pool = clients.getPool("mod-a-1.0.0");
+    context.assertEquals(1, pool.getConnections());
+    context.assertEquals(1L, pool.getConnectionsCreated());
+
+    get(context, clients, "mod-b-1.0.0", "HTTP_1_1");
+    pool = clients.getPool("mod-b-1.0.0");
+    context.assertEquals(1, pool.getConnections());
+    context.assertEquals(1L, pool.getConnectionsCreated());
+
+    Async async = context.async();
+    pool.getClient().close(context.asyncAssertSuccess(x -> async.complete()));
+    async.await();
+    context.assertEquals(0, pool.getConnections());
+    context.assertEquals(1L, pool.getConnectionsCreated());
+  }
+}
@@ -0,0 +1,136 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheTest {
+
+  private static ResponseCache.Key key(String uri) {
+    return new ResponseCache.Key("t", uri, null, "[\"perm\"]");
+  }
+
+  private static ResponseCache.Entry entry(int length, long created, long maxAge) {
+    return new ResponseCache.Entry(200, MultiMap.caseInsensitiveMultiMap(),
+        Buffer.buffer(new byte[length]), created, maxAge);
+  }
+
+  @Test
+  void testDisabled() {
+    ResponseCache cache = ResponseCache.builder().build();
+    assertThat(cache.isEnabled()).isFalse();
+    assertThat(cache.put(key("/a"), entry(1, 0, 1000))).isFalse();
+    assertThat(cache.get(key("/a"))).isNull();
+  }
+
+  @Test
+  void testKey() {
+    ResponseCache cache = ResponseCache.builder().withMaxBytes(100000).build();
+    ResponseCache.Entry e = new ResponseCache.Entry(200,
+        MultiMap.caseInsensitiveMultiMap().add("ETag", "\"1\"").add("Content-Type", "text/plain"),
+        Buffer.buffer("body"), 1000, 1000);
+    assertThat(cache.put(new ResponseCache.Key("t", "/a", "text/plain", "p"), e)).isTrue();
+
+    assertThat(cache.get(new ResponseCache.Key("t", "/a", "text/plain", "p"))).isSameAs(e);
+    assertThat(cache.get(new ResponseCache.Key("u", "/a", "text/plain", "p"))).isNull();
+    assertThat(cache.get(new ResponseCache.Key("t", "/a?q=1", "text/plain", "p"))).isNull();
+    assertThat(cache.get(new ResponseCache.Key("t", "/a", null, "p"))).isNull();
+    assertThat(cache.get(new ResponseCache.Key("t", "/a", "text/plain", null))).isNull();
+
+    assertThat(e.getStatus()).isEqualTo(200);
+    assertThat(e.getEtag()).isEqualTo("\"1\"");
+    assertThat(e.getHeaders().get("Content-Type")).isEqualTo("text/plain");
+    assertThat(e.getBody().toString()).isEqualTo("body");
+    assertThat(e.isExpired(1999)).isFalse();
+    assertThat(e.isExpired(2000)).isTrue();
+    assertThat(e.getAge(3500)).isEqualTo(2);
+
+    ResponseCache.Entry r = e.revalidated(5000, 1000);
+    assertThat(r.isExpired(5999)).isFalse();
+    assertThat(r.getEtag()).isEqualTo("\"1\"");
+    assertThat(r.getBody().toString()).isEqualTo("body");
+
+    cache.remove(new ResponseCache.Key("t", "/a", "text/plain", "p"));
+    assertThat(cache.size()).isZero();
+    assertThat(cache.getBytes()).isZero();
+  }
+
+  @Test
+  void testEviction() {
+    ResponseCache cache = ResponseCache.builder()
+        .withMaxBytes(10000)
+        .withMaxEntryBytes(2000)
+        .build();
+    assertThat(cache.fits(2000)).isTrue();
+    assertThat(cache.put(key("/big"), entry(2001, 0, 1000))).isFalse();
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(cache.put(key("/" + i), entry(2000, 0, 1000))).isTrue();
+    }
+    assertThat(cache.size()).isEqualTo(4);
+    // 0 is used recently, so 1 is evicted first
+    assertThat(cache.get(key("/0"))).isNotNull();
+    cache.put(key("/4"), entry(2000, 0, 1000));
+    assertThat(cache.size()).isEqualTo(4);
+    assertThat(cache.get(key("/1"))).isNull();
+    assertThat(cache.get(key("/0"))).isNotNull();
+    assertThat(cache.getEvictionCount()).isEqualTo(1);
+    assertThat(cache.getBytes()).isLessThanOrEqualTo(10000);
+
+    // replacing an entry does not grow the cache
+    long bytes = cache.getBytes();
+    cache.put(key("/0"), entry(2000, 1, 1000));
+    assertThat(cache.getBytes()).isEqualTo(bytes);
+  }
+
+  @Test
+  void testShards() throws InterruptedException {
+    ResponseCache cache = ResponseCache.builder()
+        .withMaxBytes(1000000)
+        .withMaxEntryBytes(1000)
+        .build();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      String prefix = "/" + t + "/";
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          cache.put(key(prefix + i), entry(1000, 0, 1000));
+          cache.get(key(prefix + (i / 2)));
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    // each shard is within its share of the size
+    assertThat(cache.getBytes()).isLessThanOrEqualTo(1000000).isPositive();
+    assertThat(cache.getEvictionCount()).isPositive();
+    assertThat(cache.size()).isLessThan(4000).isPositive();
+  }
+
+  @Test
+  void testCounts() {
+    ResponseCache cache = ResponseCache.builder().withMaxBytes(1000).build();
+    cache.recordHit();
+    cache.recordHit();
+    cache.recordMiss();
+    cache.recordRevalidation();
+    assertThat(cache.getHitCount()).isEqualTo(2);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+    assertThat(cache.getRevalidationCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testGetMaxAge() {
+    assertThat(ResponseCache.getMaxAge(null, 5000)).isEqualTo(5000);
+    assertThat(ResponseCache.getMaxAge("public", 5000)).isEqualTo(5000);
+    assertThat(ResponseCache.getMaxAge("max-age=60", 5000)).isEqualTo(60000);
+    assertThat(ResponseCache.getMaxAge("public, Max-Age=60, s-maxage=10", 0)).isEqualTo(10000);
+    assertThat(ResponseCache.getMaxAge("max-age=x", 5000)).isZero();
+    assertThat(ResponseCache.getMaxAge("no-cache, max-age=60", 5000)).isZero();
+    assertThat(ResponseCache.getMaxAge("max-age=60, no-store", 5000)).isEqualTo(-1);
+    assertThat(ResponseCache.getMaxAge("private, max-age=60", 5000)).isEqualTo(-1);
+  }
+}
@@ -0,0 +1,113 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.http.HttpMethod;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.folio.okapi.bean.ModuleDescriptor;
+import org.folio.okapi.bean.ModuleInstance;
+import org.folio.okapi.bean.RoutingEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoutingTrieTest {
+
+  static final String[] PATTERNS = {
+      "/", "/{id}", "{id}", "/a/b{id}", "/a/*c", "/a/b*", "/a/b/", "/a/b", "/a/{id}",
+      "/a/b/{id}/c", "/p/*/y", "/perms/users*", "/a/{id}/{id2}", "/*", "/a/b/c",
+      "/_/proxy/tenants/{id}/modules", "/_/*", "x/{id}", "/a/{id}*", "/a/{id}/c*d",
+  };
+
+  static final String[] PATHS = {
+      "/old/type", "/a",
+  };
+
+  static final String[] METHODS = {
+      "GET", "POST", "*", "GET",
+  };
+
+  static RoutingEntry entry(int i, String pattern, String path) {
+    RoutingEntry routingEntry = new RoutingEntry();
+    if (pattern != null) {
+      routingEntry.setPathPattern(pattern);
+    } else {
+      routingEntry.setPath(path);
+    }
+    routingEntry.setMethods(new String[] {METHODS[i % METHODS.length]});
+    return routingEntry;
+  }
+
+  static List<RoutingEntry> routingEntries() {
+    List<RoutingEntry> routingEntries = new LinkedList<>();
+    int i = 0;
+    for (String pattern : PATTERNS) {
+      routingEntries.add(entry(i++, pattern, null));
+    }
+    for (String path : PATHS) {
+      routingEntries.add(entry(i++, null, path));
+    }
+    return routingEntries;
+  }
+
+  static List<RoutingEntry> extract(List<ModuleInstance> instances) {
+    return instances.stream().map(ModuleInstance::getRoutingEntry).collect(Collectors.toList());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+      "", "/", "a", "/a", "/a/", "/a/b", "/a/b/", "/a/bc", "/a/xc", "/a/b/c", "/a/b/id/c",
+      "/a/b/id/c?x=/y", "/p/id/y", "/p/id/z", "/p/x/y/y", "/perms/users", "/perms/users/y",
+      "/perms/user", "/old/type", "/old/type/x", "/_/proxy/tenants/t1/modules",
+      "/_/proxy/tenants//modules", "/a/b#/c", "/a//", "x/y", "x/", "/a/x/cyd", "/a/x/cd",
+      "/a/x?/c", "http://localhost/a/b",
+  })
+  void testSameAsPrefixWalk(String uri) {
+    ModuleDescriptor md1 = new ModuleDescriptor();
+    md1.setId("module-1.0.0");
+    ModuleDescriptor md2 = new ModuleDescriptor();
+    md2.setId("module-2.0.0");
+
+    Map<String, List<ModuleCache.ModuleCacheEntry>> map = new HashMap<>();
+    RoutingTrie trie = new RoutingTrie();
+    List<RoutingEntry> entries1 = routingEntries();
+    List<RoutingEntry> entries2 = routingEntries();
+    PrefixWalk.add(md1, map, entries1);
+    trie.add(md1, entries1);
+    PrefixWalk.add(md2, map, entries2);
+    trie.add(md2, entries2);
+    trie.compile();
+
+    for (HttpMethod method : new HttpMethod[] {HttpMethod.GET, HttpMethod.POST,
+        HttpMethod.DELETE}) {
+      for (boolean handler : new boolean[] {false, true}) {
+        for (String id : new String[] {null, "module-2.0.0", "other-1.0.0"}) {
+          assertThat(extract(ModuleCache.lookup(uri, method, trie, handler, id)))
+              .as("%s %s handler=%s id=%s", method, uri, handler, id)
+              .containsExactlyElementsOf(
+                  extract(PrefixWalk.lookup(uri, method, map, handler, id)));
+        }
+      }
+    }
+  }
+
+  @Test
+  void testEmpty() {
+    RoutingTrie trie = new RoutingTrie();
+    trie.compile();
+    assertThat(trie.lookup("", HttpMethod.GET, true, null)).isEmpty();
+    assertThat(trie.lookup("/", HttpMethod.GET, false, null)).isEmpty();
+    assertThat(trie.lookup("/a/b", HttpMethod.GET, false, null)).isEmpty();
+  }
+
+  @Test
+  void testHash() {
+    String s = "/_/proxy/tenants";
+    assertThat(RoutingTrie.hash(s, 3, 8)).isEqualTo("proxy".hashCode());
+    assertThat(RoutingTrie.hash(s, 0, 0)).isEqualTo("".hashCode());
+  }
+}
@@ -0,0 +1,124 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShadowerTest {
+
+  private static final long MS = 1000000L;
+
+  @Test
+  void testNone() {
+    assertThat(Shadower.builder().build().isEnabled()).isFalse();
+    Shadower shadower = Shadower.builder().withShadows(null).build();
+    assertThat(shadower.isEnabled()).isFalse();
+    assertThat(shadower.getShadow("a-1.0.0", "/a", "GET")).isNull();
+    assertThat(shadower.toJson()).isEmpty();
+  }
+
+  @Test
+  void testMissingTarget() {
+    JsonObject conf = new JsonObject().put("a-1.0.0", new JsonObject().put("percent", 10));
+    assertThatThrownBy(() -> Shadower.builder().withShadows(conf))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Missing target for shadow of a-1.0.0");
+  }
+
+  @Test
+  void testMatch() {
+    Shadower shadower = Shadower.builder().withShadows(new JsonObject()
+        .put("a-1.0.0", new JsonObject().put("target", "a-1.1.0"))
+        .put("b-1.0.0", new JsonObject().put("target", "b-2.0.0")
+            .put("path", "/b/{id}")
+            .put("methods", new JsonArray().add("GET").add("POST"))))
+        .build();
+    assertThat(shadower.isEnabled()).isTrue();
+
+    Shadower.Shadow a = shadower.getShadow("a-1.0.0", "/a", "GET");
+    assertThat(a).isNotNull();
+    assertThat(a.getModuleId()).isEqualTo("a-1.0.0");
+    assertThat(a.getTarget()).isEqualTo("a-1.1.0");
+    assertThat(shadower.getShadow("a-1.0.0", "/other", "HEAD")).isSameAs(a);
+    assertThat(shadower.getShadow("a-1.0.0", "/a", "POST")).isNull();
+    assertThat(shadower.getShadow("a-1.1.0", "/a", "GET")).isNull();
+
+    assertThat(shadower.getShadow("b-1.0.0", "/b/{id}", "POST")).isNotNull();
+    assertThat(shadower.getShadow("b-1.0.0", "/b/{id}", "HEAD")).isNull();
+    assertThat(shadower.getShadow("b-1.0.0", "/b", "GET")).isNull();
+  }
+
+  @Test
+  void testSample() {
+    Shadower shadower = Shadower.builder().withShadows(new JsonObject()
+        .put("a-1.0.0", new JsonObject().put("target", "a-1.1.0").put("percent", 0))
+        .put("b-1.0.0", new JsonObject().put("target", "b-1.1.0")))
+        .build();
+    Shadower.Shadow a = shadower.getShadow("a-1.0.0", "/a", "GET");
+    Shadower.Shadow b = shadower.getShadow("b-1.0.0", "/b", "GET");
+    for (int i = 0; i < 100; i++) {
+      assertThat(a.sample()).isFalse();
+      assertThat(b.sample()).isTrue();
+    }
+  }
+
+  @Test
+  void testHistogram() {
+    Shadower.Histogram h = new Shadower.Histogram();
+    assertThat(h.toJson().getLong("meanMs")).isZero();
+    h.record(200, 3 * MS);
+    h.record(200, 5 * MS);
+    h.record(404, 7 * MS);
+    h.record(0, 20000 * MS);
+    assertThat(h.getCount()).isEqualTo(4);
+
+    JsonObject o = h.toJson();
+    assertThat(o.getLong("count")).isEqualTo(4);
+    assertThat(o.getLong("meanMs")).isEqualTo(5003);
+    JsonObject latency = o.getJsonObject("latency");
+    assertThat(latency.getLong("le5")).isEqualTo(2);
+    assertThat(latency.getLong("le10")).isEqualTo(1);
+    assertThat(latency.getLong("le10000")).isZero();
+    assertThat(latency.getLong("inf")).isEqualTo(1);
+    JsonObject status = o.getJsonObject("status");
+    assertThat(status.getLong("2xx")).isEqualTo(2);
+    assertThat(status.getLong("4xx")).isEqualTo(1);
+    assertThat(status.getLong("5xx")).isZero();
+    assertThat(status.getLong("error")).isEqualTo(1);
+  }
+
+  @Test
+  void testRecord() {
+    Shadower shadower = Shadower.builder().withShadows(new JsonObject()
+        .put("a-1.0.0", new JsonObject().put("target", "a-1.1.0").put("percent", 50)
+            .put("path", "/a")))
+        .build();
+    Shadower.Shadow a = shadower.getShadow("a-1.0.0", "/a", "GET");
+    assertThat(a.getPrimary("/a")).isNull();
+    a.sent();
+    a.sent();
+    a.unavailable();
+    a.recordPrimary("/a", 200, MS);
+    a.recordShadow("/a", 500, 2 * MS);
+    assertThat(a.getSent()).isEqualTo(2);
+    assertThat(a.getPrimary("/a").getCount()).isEqualTo(1);
+    assertThat(a.getShadow("/a").getCount()).isEqualTo(1);
+
+    JsonArray list = shadower.toJson();
+    assertThat(list).hasSize(1);
+    JsonObject o = list.getJsonObject(0);
+    assertThat(o.getString("id")).isEqualTo("a-1.0.0");
+    assertThat(o.getString("target")).isEqualTo("a-1.1.0");
+    assertThat(o.getDouble("percent")).isEqualTo(50.0);
+    assertThat(o.getString("path")).isEqualTo("/a");
+    assertThat(o.getJsonArray("methods")).containsExactly("GET", "HEAD");
+    assertThat(o.getLong("sent")).isEqualTo(2);
+    assertThat(o.getLong("unavailable")).isEqualTo(1);
+    JsonObject p = o.getJsonArray("paths").getJsonObject(0);
+    assertThat(p.getString("path")).isEqualTo("/a");
+    assertThat(p.getJsonObject("primary").getJsonObject("status").getLong("2xx")).isEqualTo(1);
+    assertThat(p.getJsonObject("shadow").getJsonObject("status").getLong("5xx")).isEqualTo(1);
+  }
+}
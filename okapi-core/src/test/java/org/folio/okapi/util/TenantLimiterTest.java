@@ -0,0 +1,134 @@
+package org.folio.okapi.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.folio.okapi.common.ErrorType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class TenantLimiterTest {
+
+  private static final long SEC = 1000000000L;
+  private Vertx vertx;
+
+  @Before
+  public void setUp(TestContext context) {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testNoLimits(TestContext context) {
+    TenantLimiter limiter = TenantLimiter.builder().build(vertx);
+    for (int i = 0; i < 100; i++) {
+      context.assertEquals(0L, limiter.tryAcquire("a"));
+      context.assertTrue(limiter.enter("a").succeeded());
+    }
+    limiter.leave();
+    context.assertEquals(0, limiter.getInFlight());
+    context.assertEquals(0, limiter.getQueued());
+  }
+
+  @Test
+  public void testRate(TestContext context) {
+    TenantLimiter limiter = TenantLimiter.builder()
+        .withRate(10)
+        .withTenants(new JsonObject()
+            .put("b", new JsonObject().put("rate", 2).put("burst", 4))
+            .put("c", new JsonObject().put("rate", 0)))
+        .build(vertx);
+    long now = 0;
+    // default: burst same as rate
+    for (int i = 0; i < 10; i++) {
+      context.assertEquals(0L, limiter.tryAcquire("a", now));
+    }
+    context.assertEquals(100L, limiter.tryAcquire("a", now));
+    context.assertEquals(0L, limiter.tryAcquire("a", now + SEC / 10));
+
+    for (int i = 0; i < 4; i++) {
+      context.assertEquals(0L, limiter.tryAcquire("b", now));
+    }
+    context.assertEquals(500L, limiter.tryAcquire("b", now));
+    context.assertEquals(250L, limiter.tryAcquire("b", now + SEC / 4));
+    context.assertEquals(0L, limiter.tryAcquire("b", now + SEC / 2));
+
+    // tenant without limit
+    for (int i = 0; i < 100; i++) {
+      context.assertEquals(0L, limiter.tryAcquire("c", now));
+    }
+  }
+
+  @Test
+  public void testRateShared(TestContext context) {
+    AtomicInteger nodes = new AtomicInteger(2);
+    TenantLimiter limiter = TenantLimiter.builder()
+        .withRate(10)
+        .withNodes(nodes::get)
+        .build(vertx);
+    long now = TenantLimiter.NODE_REFRESH_NANOS + 1;
+    // this node gets half of rate and burst
+    for (int i = 0; i < 5; i++) {
+      context.assertEquals(0L, limiter.tryAcquire("a", now));
+    }
+    context.assertEquals(200L, limiter.tryAcquire("a", now));
+  }
+
+  @Test
+  public void testFairQueue(TestContext context) {
+    TenantLimiter limiter = TenantLimiter.builder()
+        .withMaxInFlight(1)
+        .withTenants(new JsonObject().put("b", new JsonObject().put("weight", 2)))
+        .build(vertx);
+    List<String> order = new ArrayList<>();
+    Async async = context.async();
+    vertx.runOnContext(x -> {
+      context.assertTrue(limiter.enter("x").succeeded());
+      // a queues many requests before b and c
+      List<Future<Long>> futures = new ArrayList<>();
+      for (String tenant : new String[] {"a", "a", "a", "a", "b", "b", "b", "b", "c", "c"}) {
+        futures.add(limiter.enter(tenant).onSuccess(y -> order.add(tenant)));
+      }
+      context.assertEquals(1, limiter.getInFlight());
+      context.assertEquals(10, limiter.getQueued());
+      for (int i = 0; i < futures.size(); i++) {
+        limiter.leave();
+      }
+      vertx.setTimer(100, y -> async.complete());
+    });
+    async.await();
+    // b has twice the weight of a and c
+    context.assertEquals("[a, b, c, b, a, b, c, b, a, a]", order.toString());
+    context.assertEquals(1, limiter.getInFlight());
+    context.assertEquals(0, limiter.getQueued());
+    limiter.leave();
+    context.assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testQueueTimeout(TestContext context) {
+    TenantLimiter limiter = TenantLimiter.builder()
+        .withMaxInFlight(1)
+        .withQueueTimeoutMs(10)
+        .build(vertx);
+    context.assertTrue(limiter.enter("a").succeeded());
+    limiter.enter("a").onComplete(context.asyncAssertFailure(cause -> {
+      context.assertEquals(ErrorType.UNAVAILABLE, OkapiError.getType(cause));
+      context.assertEquals(0, limiter.getQueued());
+      context.assertEquals(1, limiter.getInFlight());
+    }));
+  }
+}
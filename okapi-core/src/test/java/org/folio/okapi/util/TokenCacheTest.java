@@ -1,10 +1,12 @@
 package org.folio.okapi.util;
 
-import org.folio.okapi.util.TokenCache.CacheEntry;
-import org.folio.okapi.util.TokenCache.LruCache;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
 import org.junit.Test;
 import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class TokenCacheTest {
@@ -49,24 +51,6 @@ public class TokenCacheTest {
         .until(() -> cache.get("tenant", "method", "path", "userId", "foo") == null);
   }
 
-  @Test
-  public void testLruCacheEqualsHashCode() {
-    LruCache cacheA = new LruCache(10);
-    LruCache cacheB = new LruCache(10);
-    assertEquals(cacheA, cacheB);
-    assertEquals(cacheA.hashCode(), cacheB.hashCode());
-
-    // different entries
-    cacheA.put("key", new CacheEntry("token", "userId", "permissions", (System.currentTimeMillis() + 1000)));
-    assertNotEquals(cacheA, cacheB);
-    assertNotEquals(cacheA.hashCode(), cacheB.hashCode());
-
-    // different maxEntries
-    LruCache cacheC = new LruCache(11);
-    assertNotEquals(cacheB, cacheC);
-    assertNotEquals(cacheB.hashCode(), cacheC.hashCode());
-  }
-
   @Test
   public void testPruneOnPut() {
     long ttl = 50L;
@@ -90,8 +74,150 @@ public class TokenCacheTest {
       .pollInterval(10, TimeUnit.MILLISECONDS)
       .until(() -> System.currentTimeMillis() > (start + ttl));
 
-    // cache one more entry, which should result in pruning two expired entries
+    // cache one more entry, which should result in pruning all expired entries
     cache.put("tenant", "method", "path", "userId", "xokapiPerms", "bar", "barTok");
-    assertEquals(cap - 2, cache.size());
+    assertEquals(1, cache.size());
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testHitMissEviction() {
+    TokenCache cache = TokenCache.builder()
+        .withMaxSize(3)
+        .build();
+
+    assertNull(cache.get("tenant", "GET", "/a", "userId", "foo"));
+    cache.put("tenant", "GET", "/a", "userId", "xokapiPerms", "foo", "fooTok");
+    assertEquals("fooTok", cache.get("tenant", "GET", "/a", "userId", "foo").token);
+    assertEquals("xokapiPerms", cache.get("tenant", "GET", "/a", "userId", "foo").permissions);
+    assertNull(cache.get("tenant", "POST", "/a", "userId", "foo"));
+    assertNull(cache.get("tenant", "GET", "/b", "userId", "foo"));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+
+    for (int i = 0; i < 10; i++) {
+      cache.put("tenant", "GET", "/a", "userId", "xokapiPerms", "bar" + i, "barTok" + i);
+    }
+    assertEquals(3, cache.size());
+    assertEquals(8, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testKeyToken() {
+    TokenCache cache = TokenCache.builder().build();
+
+    cache.put("tenant", "GET", "/a", "userId", "xokapiPerms", "a\nb\tc\r", "tok");
+    assertEquals("tok", cache.get("tenant", "GET", "/a", "userId", "abc").token);
+    assertEquals("tok", cache.get("tenant", "GET", "/a", "userId", "a\rbc").token);
+    assertNull(cache.get("tenant", "GET", "/a", "userId", "ab"));
+    assertNull(cache.get("tenant", "GET", "/a", "userId", null));
+
+    cache.put("tenant", "GET", "/a", "userId", "xokapiPerms", null, "nullTok");
+    assertEquals("nullTok", cache.get("tenant", "GET", "/a", "userId", null).token);
+  }
+
+  @Test
+  public void testConcurrent() throws InterruptedException {
+    int cap = 1000;
+    TokenCache cache = TokenCache.builder()
+        .withMaxSize(cap)
+        .build();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final String prefix = "t" + t;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 2000; i++) {
+          String keyToken = prefix + (i % 600);
+          if (cache.get("tenant", "GET", "/a", "userId", keyToken) == null) {
+            cache.put("tenant", "GET", "/a", "userId", "xokapiPerms", keyToken, keyToken);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(cache.size() <= cap + TokenCache.MAX_SHARDS);
+    assertTrue(cache.getEvictionCount() > 0);
+    assertEquals(8000, cache.getHitCount() + cache.getMissCount());
+  }
+
+  private static <T> T result(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testShared() throws Exception {
+    Vertx vertx = Vertx.vertx();
+    try {
+      // two nodes sharing a map
+      TokenCache a = TokenCache.builder().withShared(vertx).build();
+      TokenCache b = TokenCache.builder().withShared(vertx).build();
+      await().atMost(10, TimeUnit.SECONDS).until(() -> a.isShared() && b.isShared());
+      assertNull(result(b.getShared("GET", "/a", "foo")));
+
+      a.put("tenant", "GET", "/a", "userId", "xokapiPerms", "foo", "fooTok");
+      assertNull(b.get("tenant", "GET", "/a", "userId", "foo"));
+      // writes are not waited for
+      await().atMost(10, TimeUnit.SECONDS)
+          .until(() -> result(b.getShared("GET", "/a", "foo")) != null);
+      TokenCache.CacheEntry entry = result(b.getShared("GET", "/a", "foo"));
+      assertEquals("fooTok", entry.token);
+      assertEquals("userId", entry.userId);
+      assertEquals("xokapiPerms", entry.permissions);
+      assertEquals(a.get("tenant", "GET", "/a", "userId", "foo").expires, entry.expires);
+      // found entry is cached on the node
+      assertEquals("fooTok", b.get("tenant", "GET", "/a", "userId", "foo").token);
+      assertNull(result(b.getShared("GET", "/b", "foo")));
+
+      assertTrue(b.getSharedHitCount() >= 2);
+      assertTrue(b.getSharedMissCount() >= 2);
+      assertEquals(0.5, b.getHitRatio(), 0.0);
+      double ratio = b.getSharedHitRatio();
+      assertTrue(ratio > 0.0 && ratio < 1.0);
+      assertEquals(0.0, TokenCache.builder().build().getSharedHitRatio(), 0.0);
+    } finally {
+      vertx.close();
+    }
+  }
+
+  @Test
+  public void testSharedKey() {
+    String key = new TokenCache.CacheKey("GET", "/a", "foo").getSharedKey();
+    assertFalse(key.contains("foo"));
+    assertEquals(key, new TokenCache.CacheKey("GET", "/a", "fo\no").getSharedKey());
+    assertNotEquals(key, new TokenCache.CacheKey("GET", "/b", "foo").getSharedKey());
+    assertNotEquals(key, new TokenCache.CacheKey("GET", "/a", "bar").getSharedKey());
+    StringBuilder token = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      token.append("x");
+    }
+    assertEquals(key.length(),
+        new TokenCache.CacheKey("GET", "/a", token.toString()).getSharedKey().length());
+  }
+
+  @Test
+  public void testSharedTtl() throws Exception {
+    Vertx vertx = Vertx.vertx();
+    try {
+      long ttl = 100L;
+      TokenCache a = TokenCache.builder().withTtl(ttl).withShared(vertx).build();
+      TokenCache b = TokenCache.builder().withTtl(ttl).withShared(vertx).build();
+      await().atMost(10, TimeUnit.SECONDS).until(() -> a.isShared() && b.isShared());
+      assertFalse(TokenCache.builder().build().isShared());
+
+      a.put("tenant", "GET", "/a", "userId", "xokapiPerms", "foo", "fooTok");
+      // expires in shared map, and on nodes that got it from there
+      await().with()
+          .pollInterval(10, TimeUnit.MILLISECONDS)
+          .atMost(ttl + 1000, TimeUnit.MILLISECONDS)
+          .until(() -> result(b.getShared("GET", "/a", "foo")) == null
+              && b.get("tenant", "GET", "/a", "userId", "foo") == null);
+    } finally {
+      vertx.close();
+    }
   }
 }
@@ -0,0 +1,46 @@
+package org.folio.okapi.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TopValuesTest {
+
+  @Test
+  void testAdmitFirstK() {
+    TopValues top = new TopValues(2);
+    assertEquals("a", top.offer("a"));
+    assertEquals("b", top.offer("b"));
+    assertEquals(CardinalityPolicy.OTHER, top.offer("c"));
+    assertEquals("a", top.offer("a"));
+    assertEquals(2, top.size());
+  }
+
+  @Test
+  void testHeavyValueReplacesLightest() {
+    TopValues top = new TopValues(2);
+    top.offer("a");
+    top.offer("a");
+    top.offer("a");
+    top.offer("b");
+    assertEquals(CardinalityPolicy.OTHER, top.offer("c"));
+    // c becomes more frequent than b
+    assertEquals("c", top.offer("c"));
+    assertEquals("c", top.offer("c"));
+    assertEquals(CardinalityPolicy.OTHER, top.offer("b"));
+    assertEquals("a", top.offer("a"));
+    assertEquals(2, top.size());
+  }
+
+  @Test
+  void testManyCandidates() {
+    TopValues top = new TopValues(1);
+    assertEquals("a", top.offer("a"));
+    top.offer("a");
+    for (int i = 0; i < 100; i++) {
+      assertEquals(CardinalityPolicy.OTHER, top.offer("v" + i));
+    }
+    assertEquals("a", top.offer("a"));
+    assertEquals(1, top.size());
+  }
+}
@@ -31,6 +31,8 @@ public class MainVerticle extends AbstractVerticle {
 
   private final Logger logger = OkapiLogger.get();
   private String helloGreeting;
+  private int failStatus; // status of all /testb responses if non-zero
+  private long latency; // milliseconds added to all /testb responses
   private String tenantRequests = "";
   private JsonArray tenantParameters;
 
@@ -84,6 +86,11 @@ public class MainVerticle extends AbstractVerticle {
       ctx.response().setStatusCode(500).end("It does not work");
       return;
     }
+    // simulate a failing instance
+    if (failStatus != 0) {
+      ctx.response().setStatusCode(failStatus).end("It does not work");
+      return;
+    }
     ctx.response().setStatusCode(200);
     ctx.response().putHeader("X-Handler-header", "OK");
 
@@ -105,15 +112,19 @@ public class MainVerticle extends AbstractVerticle {
       ctx.response().putHeader("Content-Type", ctype);
     }
 
+    String cookie = ctx.request().getHeader("X-set-cookie");
+    if (cookie != null) {
+      ctx.response().putHeader("Set-Cookie", cookie);
+    }
     String stopper = ctx.request().getHeader("X-stop-here");
     if (stopper != null) {
       ctx.response().putHeader("X-Okapi-Stop", stopper);
     }
     headers(ctx, msg);
     String delayStr = ctx.request().getHeader("X-delay");
-    if (delayStr != null) {
+    long delay = latency + (delayStr != null ? Long.parseLong(delayStr) : 0L);
+    if (delay > 0) {
       ctx.request().pause();
-      long delay = Long.parseLong(delayStr);
       ctx.vertx().setTimer(delay, res -> response(msg.toString(), xmlConversion, ctx));
     } else {
       response(msg.toString(), xmlConversion, ctx);
@@ -122,6 +133,9 @@ public class MainVerticle extends AbstractVerticle {
 
   private void response(String msg, boolean xmlConversion, RoutingContext ctx) {
     if (ctx.request().method().equals(HttpMethod.GET)) {
+      if (ctx.request().getHeader("X-chunked") != null) {
+        ctx.response().setChunked(true);
+      }
       ctx.request().endHandler(x -> ctx.response().end("It works" + msg));
     } else {
       ctx.response().setChunked(true);
@@ -224,6 +238,8 @@ public class MainVerticle extends AbstractVerticle {
       helloGreeting = "Hello";
     }
     final int port = Integer.parseInt(System.getProperty("port", "8080"));
+    failStatus = Integer.parseInt(System.getProperty("failStatus", "0"));
+    latency = Long.parseLong(System.getProperty("latency", "0"));
     String name = ManagementFactory.getRuntimeMXBean().getName();
 
     ModuleVersionReporter m = new ModuleVersionReporter("org.folio.okapi/okapi-test-module");